@@ -0,0 +1,124 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark fetching of rows from shapefile and text file datasets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatasetBenchmark extends ScriptBenchmark
+{
+	/*
+	 * Number of lines in generated text file.
+	 */
+	private static final int TEXTFILE_LINES = 10000;
+
+	private File m_textfile;
+	private String m_shapefileCommands;
+	private String m_hotelCommands;
+	private String m_textfileCommands;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		createInterpreter();
+
+		/*
+		 * Generate text file of points with a name for each point.
+		 */
+		m_textfile = File.createTempFile(Constants.PROGRAM_NAME, ".txt");
+		Random random = new Random(1);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(m_textfile));
+		for (int i = 0; i < TEXTFILE_LINES; i++)
+		{
+			writer.write(random.nextInt(1000000) + "," + random.nextInt(1000000) +
+				",Place" + i + ",CN" + random.nextInt(10));
+			writer.newLine();
+		}
+		writer.close();
+
+		m_shapefileCommands = "dataset \"shapefile\", " + fixture("coastline.shp") + ", \"\"\n" +
+			"clearpath\n" +
+			"while Mapyrus.fetch.more\n" +
+			"do\n" +
+			"  fetch\n" +
+			"  addpath GEOMETRY\n" +
+			"done\n";
+
+		m_hotelCommands = "dataset \"shapefile\", " + fixture("hotel.shp") + ", \"\"\n" +
+			"let n = 0\n" +
+			"while Mapyrus.fetch.more\n" +
+			"do\n" +
+			"  fetch\n" +
+			"  let n = n + STARRATING + length(HOTELNAME)\n" +
+			"done\n";
+
+		String path = m_textfile.getPath().replace("\\", "\\\\");
+		m_textfileCommands = "dataset \"textfile\", \"" + path + "\", \"delimiter=,\"\n" +
+			"let n = 0\n" +
+			"while Mapyrus.fetch.more\n" +
+			"do\n" +
+			"  fetch\n" +
+			"  let n = n + $1 + $2\n" +
+			"done\n";
+	}
+
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		closeInterpreter();
+		m_textfile.delete();
+	}
+
+	@Benchmark
+	public void shapefileFetch() throws Exception
+	{
+		run(m_shapefileCommands);
+	}
+
+	@Benchmark
+	public void shapefileAttributeFetch() throws Exception
+	{
+		run(m_hotelCommands);
+	}
+
+	@Benchmark
+	public void textfileFetch() throws Exception
+	{
+		run(m_textfileCommands);
+	}
+}
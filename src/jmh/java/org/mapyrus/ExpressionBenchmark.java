@@ -0,0 +1,77 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.mapyrus.function.UserFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark evaluation of parsed expressions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExpressionBenchmark
+{
+	@Param({"x * 2 + y / 3 - 1",
+		"sqrt(x * x + y * y)",
+		"x < y and y < 100 or name eq 'Sydney'",
+		"name . ', ' . x",
+		"a[name] + a['Perth']"})
+	public String m_expression;
+
+	private Expression m_parsed;
+	private ContextStack m_context;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		m_context = new ContextStack();
+		m_context.defineVariable("x", new Argument(17.5));
+		m_context.defineVariable("y", new Argument(42));
+		m_context.defineVariable("name", new Argument(Argument.STRING, "Sydney"));
+		Argument a = new Argument();
+		a.addHashMapEntry("Sydney", new Argument(3));
+		a.addHashMapEntry("Perth", new Argument(8));
+		m_context.defineVariable("a", a);
+
+		FileOrURL f = new FileOrURL(new StringReader(m_expression), "benchmark");
+		Preprocessor p = new Preprocessor(f, false);
+		m_parsed = new Expression(p, new HashMap<String, UserFunction>());
+		p.close();
+	}
+
+	@Benchmark
+	public Argument evaluate() throws Exception
+	{
+		return(m_parsed.evaluate(m_context, "benchmark"));
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark loops and procedure calls in the interpreter.
+ * Each benchmark runs 1000 iterations of a loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InterpreterBenchmark extends ScriptBenchmark
+{
+	private static final String PROCEDURES =
+		"begin add a, b\n" +
+		"  local c\n" +
+		"  let c = a + b\n" +
+		"end\n" +
+		"begin nested a\n" +
+		"  add a, 1\n" +
+		"end\n";
+
+	private static final String LOOP =
+		"let i = 0\n" +
+		"while i < 1000\n" +
+		"do\n" +
+		"  let c = i + 1\n" +
+		"  let i = i + 1\n" +
+		"done\n";
+
+	private static final String CALL_LOOP =
+		"let i = 0\n" +
+		"while i < 1000\n" +
+		"do\n" +
+		"  add i, 1\n" +
+		"  let i = i + 1\n" +
+		"done\n";
+
+	private static final String NESTED_CALL_LOOP =
+		"let i = 0\n" +
+		"while i < 1000\n" +
+		"do\n" +
+		"  nested i\n" +
+		"  let i = i + 1\n" +
+		"done\n";
+
+	@Setup
+	public void setup() throws Exception
+	{
+		createInterpreter();
+		run(PROCEDURES);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		closeInterpreter();
+	}
+
+	/**
+	 * Loop without procedure calls, for comparison with procedure call benchmarks.
+	 * @throws Exception if commands fail.
+	 */
+	@Benchmark
+	public void loop() throws Exception
+	{
+		run(LOOP);
+	}
+
+	@Benchmark
+	public void procedureCall() throws Exception
+	{
+		run(CALL_LOOP);
+	}
+
+	@Benchmark
+	public void nestedProcedureCall() throws Exception
+	{
+		run(NESTED_CALL_LOOP);
+	}
+}
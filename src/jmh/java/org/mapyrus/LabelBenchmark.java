@@ -0,0 +1,92 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark label placement, avoiding overlaps with protected areas.
+ * Each hotel name is tried at a grid of candidate positions on the page
+ * and at each position where the label does not overlap an earlier
+ * label, the label is drawn and its area protected.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LabelBenchmark extends ScriptBenchmark
+{
+	private File m_outputFile;
+	private String m_commands;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		createInterpreter();
+		m_outputFile = File.createTempFile(Constants.PROGRAM_NAME, ".png");
+
+		String path = m_outputFile.getPath().replace("\\", "\\\\");
+		m_commands = "newpage \"png\", \"" + path + "\", 210, 297\n" +
+			"dataset \"shapefile\", " + fixture("hotel.shp") + ", \"\"\n" +
+			"font \"Helvetica\", 2.5\n" +
+			"while Mapyrus.fetch.more\n" +
+			"do\n" +
+			"  fetch\n" +
+			"  let w = stringwidth(HOTELNAME)\n" +
+			"  let i = 0\n" +
+			"  while i < 500\n" +
+			"  do\n" +
+			"    let px = (i % 25) * 8\n" +
+			"    let py = floor(i / 25) * 14 + STARRATING\n" +
+			"    if not protected(px, py, px + w, py + 3)\n" +
+			"    then\n" +
+			"      clearpath\n" +
+			"      move px, py\n" +
+			"      label HOTELNAME\n" +
+			"      protect px, py, px + w, py + 3\n" +
+			"    endif\n" +
+			"    let i = i + 1\n" +
+			"  done\n" +
+			"done\n" +
+			"endpage\n";
+	}
+
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		closeInterpreter();
+		m_outputFile.delete();
+	}
+
+	@Benchmark
+	public void labelWithProtect() throws Exception
+	{
+		run(m_commands);
+	}
+}
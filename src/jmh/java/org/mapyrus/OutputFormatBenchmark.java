@@ -0,0 +1,109 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark drawing of large paths to each output format.
+ * Each benchmark creates a page, draws the coastline
+ * and writes the page to a file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OutputFormatBenchmark extends ScriptBenchmark
+{
+	@Param({"eps", "pdf", "svg", "png"})
+	public String m_format;
+
+	private File m_outputFile;
+	private String m_strokeCommands;
+	private String m_fillCommands;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		createInterpreter();
+		m_outputFile = File.createTempFile(Constants.PROGRAM_NAME, "." + m_format);
+
+		/*
+		 * Read coastline once so that benchmarks measure only drawing.
+		 */
+		run("dataset \"shapefile\", " + fixture("coastline.shp") + ", \"\"\n" +
+			"let n = 0\n" +
+			"while Mapyrus.fetch.more\n" +
+			"do\n" +
+			"  fetch\n" +
+			"  let n = n + 1\n" +
+			"  let coast[n] = GEOMETRY\n" +
+			"done\n");
+
+		String path = m_outputFile.getPath().replace("\\", "\\\\");
+		String page = "newpage \"" + m_format + "\", \"" + path + "\", 210, 297\n" +
+			"worlds Mapyrus.dataset.min.x, Mapyrus.dataset.min.y, " +
+			"Mapyrus.dataset.max.x, Mapyrus.dataset.max.y\n" +
+			"clearpath\n" +
+			"for i in coast\n" +
+			"do\n" +
+			"  addpath coast[i]\n" +
+			"done\n";
+
+		m_strokeCommands = page +
+			"color \"red\"\n" +
+			"linestyle 0.2, \"round\", \"round\"\n" +
+			"stroke\n" +
+			"endpage\n";
+		m_fillCommands = page +
+			"color \"green\"\n" +
+			"fill\n" +
+			"endpage\n";
+	}
+
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		closeInterpreter();
+		m_outputFile.delete();
+	}
+
+	@Benchmark
+	public void stroke() throws Exception
+	{
+		run(m_strokeCommands);
+	}
+
+	@Benchmark
+	public void fill() throws Exception
+	{
+		run(m_fillCommands);
+	}
+}
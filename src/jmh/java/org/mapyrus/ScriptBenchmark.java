@@ -0,0 +1,97 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Common setup for benchmarks that run Mapyrus commands.
+ * Fixture files are read from the directory given by system property
+ * mapyrus.benchmark.fixtures, or from the docs directory by default.
+ */
+public abstract class ScriptBenchmark
+{
+	protected Interpreter m_interpreter;
+	protected ContextStack m_context;
+	private PrintStream m_stdout;
+
+	/**
+	 * Create new interpreter and context for benchmark.
+	 */
+	protected void createInterpreter()
+	{
+		m_interpreter = new Interpreter();
+		m_context = new ContextStack();
+
+		/*
+		 * Discard anything that benchmark commands print.
+		 */
+		m_stdout = new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+
+			@Override
+			public void write(byte []b, int off, int len)
+			{
+			}
+		});
+	}
+
+	/**
+	 * Close context and any output it was writing.
+	 * @throws IOException if closing output fails.
+	 * @throws MapyrusException if closing output fails.
+	 */
+	protected void closeInterpreter() throws IOException, MapyrusException
+	{
+		m_context.closeContextStack();
+	}
+
+	/**
+	 * Run commands.  Commands are parsed only once and reused from
+	 * the statement cache when run again.
+	 * @param commands commands to run.
+	 * @throws Exception if commands fail.
+	 */
+	protected void run(String commands) throws Exception
+	{
+		m_interpreter.interpret(m_context, commands, "benchmark",
+			new ByteArrayInputStream(new byte[0]), m_stdout);
+	}
+
+	/**
+	 * Get path of fixture file.
+	 * @param filename name of file in fixtures directory.
+	 * @return path of fixture file, as a quoted string for use in commands.
+	 */
+	protected static String fixture(String filename)
+	{
+		String dir = System.getProperty("mapyrus.benchmark.fixtures", "docs");
+		String path = new File(dir, filename).getPath();
+		return("\"" + path.replace("\\", "\\\\") + "\"");
+	}
+}
@@ -23,7 +23,6 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.text.DecimalFormat;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.StringTokenizer;
@@ -97,6 +96,12 @@ public class Argument implements Comparable<Argument>, Cloneable
 	private Rectangle2D.Double m_geometryBoundingBox;
 	private HashMap<String, Argument> m_hashMap;
 
+	/*
+	 * Sorted keys of hash map, built when first needed and discarded
+	 * when a new key is added.
+	 */
+	private String []m_sortedHashMapKeys;
+
 	/**
 	 * Create a new numeric argument.
 	 * @param d is value for this argument.
@@ -892,86 +897,190 @@ public class Argument implements Comparable<Argument>, Cloneable
 	 */
 	public void addHashMapEntry(String key, Argument value)
 	{
-		m_hashMap.put(key, value);
+		if (m_hashMap.put(key, value) == null)
+			m_sortedHashMapKeys = null;
 	}
 
 	/**
-	 * Comparator for string lists.
-	 * Orders list elements that contain numbers numerically, other
-	 * elements alphabetically.
+	 * Hash map key or value prepared for sorting, with any number
+	 * parsed once before sorting instead of in every comparison.
+	 * Elements are compared in the same way as in compareTo(Argument):
+	 * two numbers are compared numerically, and are equal if they are
+	 * very close, and all other elements are compared as strings.
 	 */
-	private class NumericAndStringComparator implements Comparator<String>
+	private static class SortElement implements Comparable<SortElement>
 	{
+		private String m_key;
+		private boolean m_isNumeric;
+		private double m_number;
+		private String m_string;
+
+		/**
+		 * Create element for sorting.
+		 * @param key hash map key of element.
+		 * @param isNumeric true if element is a number.
+		 * @param number numeric value of element.
+		 * @param s string value of element.
+		 */
+		public SortElement(String key, boolean isNumeric, double number, String s)
+		{
+			m_key = key;
+			m_isNumeric = isNumeric;
+			m_number = number;
+			m_string = s;
+		}
+
 		@Override
-		public int compare(String s1, String s2)
+		public int compareTo(SortElement e)
 		{
 			int retval;
 
-			try
+			if (m_isNumeric && e.m_isNumeric)
 			{
-				/*
-				 * If both strings contain numbers then compare them
-				 * numerically.
-				 */
-				int i1 = Integer.parseInt(s1);
-				int i2 = Integer.parseInt(s2);
-				retval = i1 - i2;
-			}  
-			catch (NumberFormatException e)
+				if (NumericalAnalysis.equals(m_number, e.m_number))
+					retval = 0;
+				else if (m_number > e.m_number)
+					retval = 1;
+				else
+					retval = -1;
+			}
+			else
 			{
-				retval = s1.compareTo(s2);
+				retval = m_string.compareTo(e.m_string);
 			}
 			return(retval);
 		}
 	}
 
+	/**
+	 * Sort elements of a hash map.  Comparing numbers with strings, or
+	 * numbers that are very close, is not always transitive so fall back
+	 * to a simple exchange sort if the elements cannot be sorted quickly.
+	 * @param elements elements to sort.
+	 */
+	private static void sortElements(SortElement []elements)
+	{
+		SortElement []copy = elements.clone();
+		try
+		{
+			Arrays.sort(elements);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.arraycopy(copy, 0, elements, 0, copy.length);
+			for (int i = 0; i < elements.length; i++)
+			{
+				for (int j = i + 1; j < elements.length; j++)
+				{
+					if (elements[i].compareTo(elements[j]) > 0)
+					{
+						SortElement swap = elements[i];
+						elements[i] = elements[j];
+						elements[j] = swap;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check whether a hash map key is an integer, such as
+	 * the keys of an array.
+	 * @param key hash map key.
+	 * @return true if key contains only an optional sign and digits.
+	 */
+	private static boolean isIntegerKey(String key)
+	{
+		int len = key.length();
+		int i = 0;
+		if (len > 0 && (key.charAt(0) == '-' || key.charAt(0) == '+'))
+			i++;
+		if (i == len)
+			return(false);
+		while (i < len)
+		{
+			if (!Character.isDigit(key.charAt(i)))
+				return(false);
+			i++;
+		}
+		return(true);
+	}
+
 	/**
 	 * Get array of keys in hash map.
 	 * @return keys in this hash map, each object being a string.
 	 */
 	public Object[] getHashMapKeys()
 	{
-		String []keys = new String[m_hashMap.size()];
-		Iterator<String> it = m_hashMap.keySet().iterator();
-		int i = 0;
-		while (it.hasNext())
-			keys[i++] = it.next();
+		if (m_sortedHashMapKeys == null)
+		{
+			SortElement []elements = new SortElement[m_hashMap.size()];
+			Iterator<String> it = m_hashMap.keySet().iterator();
+			int i = 0;
+			while (it.hasNext())
+			{
+				String key = it.next();
+				boolean isNumeric = false;
+				double number = 0;
+				if (isIntegerKey(key))
+				{
+					try
+					{
+						number = Integer.parseInt(key);
+						isNumeric = true;
+					}
+					catch (NumberFormatException e)
+					{
+						/*
+						 * Number too large, sort it as a string.
+						 */
+					}
+				}
+				elements[i++] = new SortElement(key, isNumeric, number, key);
+			}
+
+			/*
+			 * Sort keys either numerically or alphabetically.
+			 */
+			sortElements(elements);
+			String []keys = new String[elements.length];
+			for (i = 0; i < elements.length; i++)
+				keys[i] = elements[i].m_key;
+			m_sortedHashMapKeys = keys;
+		}
 
 		/*
-		 * Return keys in sorted order, either numerically or alphabetically.
+		 * Return a copy so that the caller cannot change our sorted keys.
 		 */
-		Arrays.sort(keys, new NumericAndStringComparator());
-		return(keys);
+		Object []retval = new Object[m_sortedHashMapKeys.length];
+		System.arraycopy(m_sortedHashMapKeys, 0, retval, 0, retval.length);
+		return(retval);
 	}
 
 	/**
 	 * Get array of keys in hash map sorted by hash map values.
+	 * Keys with equal values are returned in key order.
 	 * @return keys in this hash map, each object being a string.
 	 */
 	public Object[] getHashMapKeysSortedByValue()
 	{
-		Object []keys = m_hashMap.keySet().toArray();
-
-		/*
-		 * Bubble sort keys into order based on value stored for each key.
-		 */
+		Object []keys = getHashMapKeys();
+		SortElement []elements = new SortElement[keys.length];
 		for (int i = 0; i < keys.length; i++)
 		{
-			for (int j = i + 1; j < keys.length; j++)
-			{
-				Argument arg1 = m_hashMap.get(keys[i]);
-				Argument arg2 = m_hashMap.get(keys[j]);
-				if (arg1.compareTo(arg2) > 0)
-				{
-					/*
-					 * Swap values.
-					 */
-					Object swap = keys[i];
-					keys[i] = keys[j];
-					keys[j] = swap;
-				}
-			}
+			String key = (String)keys[i];
+			Argument value = m_hashMap.get(key);
+			boolean isNumeric = (value.getType() == NUMERIC);
+			double number = isNumeric ? value.m_numericValue : 0;
+			elements[i] = new SortElement(key, isNumeric, number, value.getStringValue());
 		}
+
+		/*
+		 * Stable sort keeps keys with equal values in key order.
+		 */
+		sortElements(elements);
+		for (int i = 0; i < elements.length; i++)
+			keys[i] = elements[i].m_key;
 		return(keys);
 	}
 
@@ -1366,13 +1475,8 @@ public class Argument implements Comparable<Argument>, Cloneable
 			 * we do not want changes in the hashmap copy appearing
 			 * in the original hashmap.
 			 */
-			retval.m_hashMap = new HashMap<String, Argument>(m_hashMap.size());
-			Iterator<String> it = m_hashMap.keySet().iterator();
-			while (it.hasNext())
-			{
-				String key = it.next();
-				retval.m_hashMap.put(key, m_hashMap.get(key));
-			}
+			retval.m_hashMap = new HashMap<String, Argument>(m_hashMap);
+			retval.m_sortedHashMapKeys = m_sortedHashMapKeys;
 		}
 		else
 		{
@@ -0,0 +1,491 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Renders the same commands many times, once for each page in a list of
+ * page extents or in a grid of tiles, running pages concurrently.
+ *
+ * Before the commands are run for a page, variables BATCH_FILENAME,
+ * BATCH_INDEX, BATCH_XMIN, BATCH_YMIN, BATCH_XMAX and BATCH_YMAX are
+ * set for the page, and also BATCH_ROW and BATCH_COLUMN for a tile grid.
+ * Commands write the page to the temporary file given in BATCH_FILENAME.
+ * When the page is complete this file is renamed to the filename of the page,
+ * so that a partly written page is never visible.
+ *
+ * Each page is run with a separate interpreter and context so that
+ * nothing set for one page is visible to other pages.
+ */
+public class BatchRenderer
+{
+	/*
+	 * Prefix marking tile grid instead of a file containing a list of pages.
+	 */
+	private static final String GRID_PREFIX = "grid:";
+
+	/*
+	 * Placeholders for row and column in tile grid filename.
+	 */
+	private static final String ROW_PLACEHOLDER = "{row}";
+	private static final String COLUMN_PLACEHOLDER = "{column}";
+
+	/*
+	 * Names of variables set for each page.
+	 */
+	private static final String FILENAME_VARIABLE = "BATCH_FILENAME";
+	private static final String INDEX_VARIABLE = "BATCH_INDEX";
+	private static final String ROW_VARIABLE = "BATCH_ROW";
+	private static final String COLUMN_VARIABLE = "BATCH_COLUMN";
+	private static final String XMIN_VARIABLE = "BATCH_XMIN";
+	private static final String YMIN_VARIABLE = "BATCH_YMIN";
+	private static final String XMAX_VARIABLE = "BATCH_XMAX";
+	private static final String YMAX_VARIABLE = "BATCH_YMAX";
+
+	/*
+	 * Name used for standard input in list of files to run.
+	 */
+	private static final String STDIN_FILENAME = "-";
+
+	/**
+	 * Single page to render.
+	 */
+	private static class BatchPage
+	{
+		private String m_filename;
+		private int m_index;
+		private int m_row;
+		private int m_column;
+		private double m_xMin, m_yMin, m_xMax, m_yMax;
+
+		private BatchPage(String filename, int index, int row, int column,
+			double xMin, double yMin, double xMax, double yMax)
+		{
+			m_filename = filename;
+			m_index = index;
+			m_row = row;
+			m_column = column;
+			m_xMin = xMin;
+			m_yMin = yMin;
+			m_xMax = xMax;
+			m_yMax = yMax;
+		}
+	}
+
+	private ArrayList<BatchPage> m_pages;
+	private Pool<Interpreter> m_interpreterPool;
+	private String m_commands;
+	private String []m_filenames;
+	private String m_stdinCommands;
+
+	/**
+	 * Create list of pages to render.
+	 * @param pages name of file containing one page per line, each line
+	 * containing a filename and xmin, ymin, xmax, ymax values for the page.
+	 * Or a tile grid in the form grid:columns,rows,xmin,ymin,xmax,ymax,filename
+	 * where filename contains {row} and {column} placeholders.
+	 * @throws IOException if file containing list of pages cannot be read.
+	 * @throws MapyrusException if list of pages or tile grid is invalid.
+	 */
+	public BatchRenderer(String pages) throws IOException, MapyrusException
+	{
+		m_pages = new ArrayList<BatchPage>();
+		if (pages.startsWith(GRID_PREFIX))
+			addGrid(pages);
+		else
+			addPageList(pages);
+	}
+
+	/**
+	 * Add each tile in a grid of tiles to list of pages.
+	 * @param grid tile grid definition.
+	 * @throws MapyrusException if tile grid is invalid.
+	 */
+	private void addGrid(String grid) throws MapyrusException
+	{
+		String []values = grid.substring(GRID_PREFIX.length()).split(",", 7);
+		int nColumns = 0, nRows = 0;
+		double xMin = 0, yMin = 0, xMax = 0, yMax = 0;
+		boolean isValid = (values.length == 7);
+
+		if (isValid)
+		{
+			try
+			{
+				nColumns = Integer.parseInt(values[0].trim());
+				nRows = Integer.parseInt(values[1].trim());
+				xMin = Double.parseDouble(values[2].trim());
+				yMin = Double.parseDouble(values[3].trim());
+				xMax = Double.parseDouble(values[4].trim());
+				yMax = Double.parseDouble(values[5].trim());
+			}
+			catch (NumberFormatException e)
+			{
+				isValid = false;
+			}
+		}
+		if ((!isValid) || nColumns < 1 || nRows < 1 || xMin >= xMax || yMin >= yMax)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_BATCH) +
+				": " + grid);
+		}
+
+		/*
+		 * Number rows from the top of the grid, as for map tiles.
+		 */
+		double tileWidth = (xMax - xMin) / nColumns;
+		double tileHeight = (yMax - yMin) / nRows;
+		for (int row = 0; row < nRows; row++)
+		{
+			for (int column = 0; column < nColumns; column++)
+			{
+				String filename = values[6].replace(ROW_PLACEHOLDER, Integer.toString(row));
+				filename = filename.replace(COLUMN_PLACEHOLDER, Integer.toString(column));
+				double tileYMax = yMax - row * tileHeight;
+				m_pages.add(new BatchPage(filename, m_pages.size() + 1, row, column,
+					xMin + column * tileWidth, tileYMax - tileHeight,
+					xMin + (column + 1) * tileWidth, tileYMax));
+			}
+		}
+	}
+
+	/**
+	 * Add each page in a file to list of pages.
+	 * @param filename name of file containing list of pages.
+	 * @throws IOException if file cannot be read.
+	 * @throws MapyrusException if a line in file is invalid.
+	 */
+	private void addPageList(String filename) throws IOException, MapyrusException
+	{
+		LineNumberReader reader = null;
+		String line;
+
+		try
+		{
+			reader = new LineNumberReader(Files.newBufferedReader(new File(filename).toPath()));
+			while ((line = reader.readLine()) != null)
+			{
+				/*
+				 * Skip blank lines and comment lines.
+				 */
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+
+				StringTokenizer st = new StringTokenizer(line);
+				BatchPage page = null;
+				if (st.countTokens() == 5)
+				{
+					String pageFilename = st.nextToken();
+					try
+					{
+						double xMin = Double.parseDouble(st.nextToken());
+						double yMin = Double.parseDouble(st.nextToken());
+						double xMax = Double.parseDouble(st.nextToken());
+						double yMax = Double.parseDouble(st.nextToken());
+						page = new BatchPage(pageFilename, m_pages.size() + 1, 0, 0,
+							xMin, yMin, xMax, yMax);
+					}
+					catch (NumberFormatException e)
+					{
+					}
+				}
+
+				if (page == null)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_BATCH) +
+						": " + filename + ":" + reader.getLineNumber());
+				}
+				m_pages.add(page);
+			}
+		}
+		finally
+		{
+			if (reader != null)
+				reader.close();
+		}
+	}
+
+	/**
+	 * Get number of pages to render.
+	 * @return number of pages.
+	 */
+	public int getPageCount()
+	{
+		return(m_pages.size());
+	}
+
+	/**
+	 * Read all commands from standard input.
+	 * @return commands read.
+	 * @throws IOException if standard input cannot be read.
+	 */
+	private String readStdin() throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+		char []buf = new char[4096];
+		int nChars;
+
+		while ((nChars = reader.read(buf)) > 0)
+			sb.append(buf, 0, nChars);
+		return(sb.toString());
+	}
+
+	/**
+	 * Render all pages, running several pages at the same time.
+	 * Errors for each page are reported to standard error.
+	 * @param interpreter interpreter to run commands, cloned for each thread.
+	 * @param commands commands to run for each page, or null to run filenames instead.
+	 * @param filenames files or URLs containing commands to run for each page.
+	 * @param parallelism maximum number of pages to render at the same time.
+	 * @return true if all pages were rendered successfully.
+	 * @throws IOException if commands cannot be read from standard input.
+	 * @throws InterruptedException if rendering is interrupted.
+	 */
+	public boolean render(Interpreter interpreter, String commands,
+		String []filenames, int parallelism)
+		throws IOException, InterruptedException
+	{
+		boolean retval = true;
+
+		m_commands = commands;
+		m_filenames = filenames;
+		for (int i = 0; commands == null && i < filenames.length; i++)
+		{
+			/*
+			 * Standard input can only be read once, so save commands
+			 * read from it to run for each page.
+			 */
+			if (filenames[i].equals(STDIN_FILENAME) && m_stdinCommands == null)
+				m_stdinCommands = readStdin();
+		}
+
+		/*
+		 * Make a separate interpreter available for each thread.
+		 */
+		m_interpreterPool = new Pool<Interpreter>();
+		m_interpreterPool.put(interpreter);
+		for (int i = 1; i < parallelism; i++)
+			m_interpreterPool.put((Interpreter)interpreter.clone());
+
+		ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(m_pages.size());
+		for (int i = 0; i < m_pages.size(); i++)
+			tasks.add(new PageTask(m_pages.get(i)));
+
+		ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+		try
+		{
+			List<Future<Boolean>> results = forkJoinPool.invokeAll(tasks);
+			for (int i = 0; i < results.size(); i++)
+			{
+				try
+				{
+					if (!results.get(i).get().booleanValue())
+						retval = false;
+				}
+				catch (ExecutionException e)
+				{
+					System.err.println(e.getMessage());
+					retval = false;
+				}
+			}
+		}
+		finally
+		{
+			forkJoinPool.shutdown();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Task rendering a single page.
+	 */
+	private class PageTask implements Callable<Boolean>
+	{
+		private BatchPage m_page;
+
+		private PageTask(BatchPage page)
+		{
+			m_page = page;
+		}
+
+		/**
+		 * Render page, reporting any error to standard error.
+		 * @return true if page was rendered successfully.
+		 */
+		public Boolean call()
+		{
+			boolean retval = false;
+			Interpreter interpreter = m_interpreterPool.get(Long.MAX_VALUE);
+
+			/*
+			 * Write page to a temporary file in the same directory so
+			 * that it can be renamed when it is complete.
+			 */
+			File pageFile = new File(m_page.m_filename).getAbsoluteFile();
+			File tempFile = new File(pageFile.getParentFile(),
+				"." + pageFile.getName() + "." + m_page.m_index + ".tmp");
+
+			try
+			{
+				renderPage(interpreter, tempFile);
+
+				/*
+				 * Commands that did not write the page have failed,
+				 * even if they reported no error.
+				 */
+				if (!tempFile.exists())
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.BATCH_NO_OUTPUT));
+				}
+
+				try
+				{
+					Files.move(tempFile.toPath(), pageFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (AtomicMoveNotSupportedException e)
+				{
+					Files.move(tempFile.toPath(), pageFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				}
+				retval = true;
+			}
+			catch (MapyrusException e)
+			{
+				System.err.println(m_page.m_filename + ": " + e.getMessage());
+			}
+			catch (Exception e)
+			{
+				/*
+				 * Some exceptions have no message, so give exception name instead.
+				 */
+				String message = e.getMessage();
+				if (message == null)
+					message = e.getClass().getName();
+				System.err.println(m_page.m_filename + ": " + message);
+			}
+			finally
+			{
+				if (!retval)
+					tempFile.delete();
+
+				/*
+				 * Return interpreter to the pool for the next page.
+				 */
+				m_interpreterPool.put(interpreter);
+			}
+			return(Boolean.valueOf(retval));
+		}
+
+		/**
+		 * Run commands for page in a new context.
+		 * @param interpreter interpreter to run commands.
+		 * @param tempFile temporary file for commands to write page to.
+		 */
+		private void renderPage(Interpreter interpreter, File tempFile)
+			throws IOException, InterruptedException, MapyrusException
+		{
+			ContextStack context = new ContextStack();
+			InputStream emptyStdin = new ByteArrayInputStream(new byte[0]);
+
+			try
+			{
+				context.defineVariable(FILENAME_VARIABLE,
+					new Argument(Argument.STRING, tempFile.getPath()));
+				context.defineVariable(INDEX_VARIABLE, new Argument(m_page.m_index));
+				context.defineVariable(ROW_VARIABLE, new Argument(m_page.m_row));
+				context.defineVariable(COLUMN_VARIABLE, new Argument(m_page.m_column));
+				context.defineVariable(XMIN_VARIABLE, new Argument(m_page.m_xMin));
+				context.defineVariable(YMIN_VARIABLE, new Argument(m_page.m_yMin));
+				context.defineVariable(XMAX_VARIABLE, new Argument(m_page.m_xMax));
+				context.defineVariable(YMAX_VARIABLE, new Argument(m_page.m_yMax));
+
+				interpreter.getThrottle().restart();
+				if (m_commands != null)
+				{
+					interpreter.interpret(context, m_commands, "-e", emptyStdin, System.out);
+				}
+				else
+				{
+					for (int i = 0; i < m_filenames.length; i++)
+					{
+						if (m_filenames[i].equals(STDIN_FILENAME))
+						{
+							interpreter.interpret(context, m_stdinCommands,
+								"standard input", emptyStdin, System.out);
+						}
+						else
+						{
+							FileOrURL f = new FileOrURL(m_filenames[i]);
+							try
+							{
+								interpreter.interpret(context, f, emptyStdin, System.out);
+							}
+							finally
+							{
+								f.getReader().close();
+							}
+						}
+					}
+				}
+
+				context.closeContextStack();
+				context = null;
+			}
+			finally
+			{
+				/*
+				 * Ensure that context is always closed.
+				 */
+				try
+				{
+					if (context != null)
+						context.closeContextStack();
+				}
+				catch (IOException e)
+				{
+				}
+				catch (MapyrusException e)
+				{
+				}
+			}
+		}
+	}
+}
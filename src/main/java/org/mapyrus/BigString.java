@@ -22,16 +22,31 @@ package org.mapyrus;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Iterator;
 
 /*
  * Stores long string, being a combination of strings and data read
- * from big text files.
+ * from big text files, with any binary data and binary files.
  */
 public class BigString
 {
+	/*
+	 * Binary file to be appended to string.
+	 */
+	private static class BinaryFile
+	{
+		File m_file;
+
+		BinaryFile(File file)
+		{
+			m_file = file;
+		}
+	}
+
 	private ArrayList<Object> m_items;
 	
 	public BigString()
@@ -57,23 +72,55 @@ public class BigString
 		m_items.add(file);
 	}
 
+	/**
+	 * Append binary data.
+	 * @param b bytes to append.
+	 */
+	public void append(byte []b)
+	{
+		m_items.add(b);
+	}
+
+	/**
+	 * Append contents of binary file.
+	 * @param file file to be appended.
+	 */
+	public void appendBinary(File file)
+	{
+		m_items.add(new BinaryFile(file));
+	}
+
 	/**
 	 * Write all strings to a writer.
 	 * @param filename name of file being written to.
 	 * @param writer writer to append strings to.
-	 * @return number of characters written.
+	 * @param stream stream that writer writes to, for appending binary data.
+	 * @return number of characters and bytes written.
 	 * @throws IOException if file cannot be written.
 	 * @throws MapyrusException if an error occurs wring file.
 	 */
-	public int writeTo(String filename, PrintWriter writer)
+	public long writeTo(String filename, PrintWriter writer, OutputStream stream)
 		throws IOException, MapyrusException
 	{
-		int totalChars = 0;
+		long totalChars = 0;
 		Iterator<Object> it = m_items.iterator();
 		while (it.hasNext())
 		{
 			Object obj = it.next();
-			if (obj instanceof StringBuffer)
+			if (obj instanceof byte[])
+			{
+				byte []b = (byte [])obj;
+				writer.flush();
+				stream.write(b);
+				totalChars += b.length;
+			}
+			else if (obj instanceof BinaryFile)
+			{
+				File file = ((BinaryFile)obj).m_file;
+				writer.flush();
+				totalChars += Files.copy(file.toPath(), stream);
+			}
+			else if (obj instanceof StringBuffer)
 			{
 				StringBuffer sb = (StringBuffer)obj;
 				int len = sb.length();
@@ -120,6 +167,11 @@ public class BigString
 				File file = (File)obj;
 				file.delete();
 			}
+			else if (obj instanceof BinaryFile)
+			{
+				File file = ((BinaryFile)obj).m_file;
+				file.delete();
+			}
 		}
 	}
 }
@@ -104,6 +104,28 @@ public class Constants
 	 */
 	public static final int MAX_HTTP_THREADS = 8;
 
+	/*
+	 * Maximum number of HTTP client connections to handle simultaneously.
+	 * Connections kept open between requests and requests for plain files
+	 * do not use an interpreter, so more connections than interpreters are allowed.
+	 */
+	public static final int MAX_HTTP_CONNECTIONS = MAX_HTTP_THREADS * 4;
+
+	/*
+	 * Maximum number of HTTP client connections waiting to be handled.
+	 * Further connections are rejected with an HTTP 503 error until
+	 * the HTTP server is less busy.
+	 */
+	public static final int HTTP_ACCEPT_BACKLOG = MAX_HTTP_CONNECTIONS * 2;
+
+	/*
+	 * Time in milliseconds to keep connection to HTTP client open
+	 * waiting for another request, and the maximum number of requests
+	 * to handle on one connection.
+	 */
+	public static final int HTTP_KEEP_ALIVE_TIMEOUT = 5 * 1000;
+	public static final int HTTP_KEEP_ALIVE_MAX_REQUESTS = 100;
+
 	/*
 	 * Time in milliseconds to wait to begin handling an HTTP request.  If
 	 * HTTP server is too busy to begin handling request within this time
@@ -143,11 +165,21 @@ public class Constants
  	 */
  	public static final int DB_IDLE_TIMEOUT = 600;
 
+	/*
+	 * Default maximum number of connections to each database.
+	 */
+	public static final int DB_POOL_SIZE = 32;
+
 	/*
 	 * Maximum number of icons to cache in memory.
 	 */
 	public static final int ICON_CACHE_SIZE = 64;
 
+	/*
+	 * Maximum number of string dimensions to cache for each page.
+	 */
+	public static final int STRING_DIMENSION_CACHE_SIZE = 4096;
+
 	/*
 	 * Number of points and millimetres per inch.
 	 */
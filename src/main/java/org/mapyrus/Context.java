@@ -21,6 +21,9 @@ package org.mapyrus;
 
 import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.NoninvertibleTransformException;
@@ -28,6 +31,7 @@ import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -48,10 +52,13 @@ import javax.script.Bindings;
 
 import org.mapyrus.dataset.GeographicDataset;
 import org.mapyrus.font.StringDimension;
+import org.mapyrus.geom.DouglasPeucker;
+import org.mapyrus.geom.PoleOfInaccessibility;
 import org.mapyrus.geom.Sinkhole;
 import org.mapyrus.geom.SutherlandHodgman;
 import org.mapyrus.image.ColorIcon;
 import org.mapyrus.image.GradientFillFactory;
+import org.mapyrus.image.ImageCache;
 import org.mapyrus.image.ImageFilter;
 import org.mapyrus.image.ImageIOWrapper;
 import org.mapyrus.image.MapyrusExternalImage;
@@ -168,6 +175,14 @@ public class Context
 	private HashMap<String, Argument> m_vars;
 	private HashSet<String> m_localVars;
 
+	/*
+	 * Parameters and local variables of procedure block held in slots,
+	 * and flags for slots of variables that have been made local.
+	 */
+	private VariableSlots m_variableSlots;
+	private Argument []m_slotValues;
+	private boolean []m_isLocalSlot;
+
 	/*
 	 * Output device we are drawing to.
 	 */
@@ -263,8 +278,9 @@ public class Context
 	 * Create a new context, making a copy from an existing context.
 	 * @param existing is context to copy from.
 	 * @param blockName is name of procedure block which context will execute.
+	 * @param slots slots for parameters and local variables of procedure block, or null.
 	 */
-	public Context(Context existing, String blockName)
+	public Context(Context existing, String blockName, VariableSlots slots)
 	{
 		m_color = existing.m_color;
 		m_blend = existing.m_blend;
@@ -288,6 +304,12 @@ public class Context
 		 */
 		m_vars = null;
 		m_localVars = null;
+		m_variableSlots = slots;
+		if (slots != null && slots.size() > 0)
+		{
+			m_slotValues = new Argument[slots.size()];
+			m_isLocalSlot = new boolean[slots.size()];
+		}
 
 		/*
 		 * Don't copy path -- it can be large.
@@ -585,6 +607,8 @@ public class Context
 		m_clippingPaths = null;
 		m_vars = null;
 		m_localVars = null;
+		m_slotValues = null;
+		m_isLocalSlot = null;
 		return(m_attributesChanged);
 	}
 
@@ -878,6 +902,23 @@ public class Context
 		return(retval);
 	}
 
+	/**
+	 * Close any dataset defined in this context.  Called before opening
+	 * another dataset so that a database connection held by the dataset
+	 * is returned to the pool before another connection is taken.
+	 * @throws MapyrusException if dataset cannot be closed.
+	 */
+	public void closeDataset() throws MapyrusException
+	{
+		if (m_dataset != null && m_datasetDefined)
+		{
+			Dataset dataset = m_dataset;
+			m_dataset = null;
+			m_datasetDefined = false;
+			dataset.close();
+		}
+	}
+
 	/**
 	 * Set current dataset that can be queried and fetched from.
 	 * @param dataset opened dataset for subsequent queries.
@@ -1394,14 +1435,30 @@ public class Context
 
 	/**
 	 * Replace path defining polygon with a sinkhole point.
+	 * @param isPolylabel true to find pole of inaccessibility using polylabel
+	 * algorithm, false to find point using raster algorithm.
+	 * @param bitmapSize size of bitmap for raster algorithm, or -1 to
+	 * use bitmap with same resolution as page.
+	 * @throws MapyrusException if no output device.
 	 */
-	public void createSinkhole()
+	public void createSinkhole(boolean isPolylabel, int bitmapSize) throws MapyrusException
 	{
 		GeometricPath path = getDefinedPath();
 
 		if (path != null)
 		{
-			Point2D pt = Sinkhole.calculate(path.getShape());
+			Point2D pt;
+			Shape shape = path.getShape();
+			if (isPolylabel)
+			{
+				pt = PoleOfInaccessibility.calculate(shape, getResolution());
+			}
+			else
+			{
+				if (bitmapSize < 0)
+					bitmapSize = Sinkhole.getAdaptiveBitmapSize(shape, getResolution());
+				pt = Sinkhole.calculate(shape, bitmapSize);
+			}
 			m_path = new GeometricPath();
 			m_path.moveTo((float)pt.getX(), (float)pt.getY(), 0);
 		}
@@ -1621,11 +1678,106 @@ public class Context
 		return(retval);
 	}
 
+	/**
+	 * Add geometry to path.
+	 * @param coords geometry array to add to path.
+	 * @throws MapyrusException if geometry begins with a line segment and path is empty.
+	 */
+	public void addGeometry(double []coords) throws MapyrusException
+	{
+		if (m_path == null)
+			m_path = new GeometricPath();
+		addGeometryToPath(coords, 0, m_path);
+	}
+
+	/**
+	 * Walk through a geometry, adding it to a path.
+	 * @param coords geometry array to add to path.
+	 * @param index index in geometry array at which to start walking.
+	 * @param path path to add geometry to.
+	 * @return index one greater than the last element in the geometry array.
+	 * @throws MapyrusException if geometry begins with a line segment and path is empty.
+	 */
 	private int addGeometryToPath(double []coords, int index, GeometricPath path)
 		throws MapyrusException
 	{
-		double srcPts[] = new double[2];
-		float dstPts[] = new float[2];
+		return(addGeometryToPath(coords, index, path, getWorldToPageTransform()));
+	}
+
+	/**
+	 * Combine transformations from world coordinates to
+	 * millimetre position on page so that each point can
+	 * be transformed only once.
+	 * @return combined transformation.
+	 */
+	private AffineTransform getWorldToPageTransform()
+	{
+		AffineTransform affine = m_ctm;
+		if (m_worldCtm != null)
+		{
+			affine = new AffineTransform(m_ctm);
+			affine.concatenate(m_worldCtm);
+		}
+		return(affine);
+	}
+
+	/**
+	 * Simplify geometry for drawing on current page, removing points
+	 * that would not be visible and lines and polygons that are outside the page.
+	 * @param coords geometry array in world coordinates.
+	 * @param tolerance distance in millimetres on page within which
+	 * points are removed.
+	 * @return simplified geometry array.
+	 */
+	public double []simplifyGeometry(double []coords, double tolerance)
+	{
+		AffineTransform affine = getWorldToPageTransform();
+
+		/*
+		 * Convert tolerance on page to world coordinate distance.
+		 */
+		double scale = Math.sqrt(Math.abs(affine.getDeterminant()));
+		double worldTolerance = tolerance;
+		if (scale > 0)
+			worldTolerance = tolerance / scale;
+
+		/*
+		 * Find world coordinate area covered by page, with a margin
+		 * for lines drawn just outside the page.
+		 */
+		Rectangle2D bounds = null;
+		if (m_outputFormat != null)
+		{
+			double margin = tolerance + m_linestyle.getLineWidth();
+			Rectangle2D.Double pageBounds = new Rectangle2D.Double(-margin, -margin,
+				m_outputFormat.getPageWidth() + margin * 2,
+				m_outputFormat.getPageHeight() + margin * 2);
+			try
+			{
+				bounds = affine.createInverse().createTransformedShape(pageBounds).getBounds2D();
+			}
+			catch (NoninvertibleTransformException e)
+			{
+				/*
+				 * Keep all lines and polygons.
+				 */
+			}
+		}
+		return(DouglasPeucker.simplify(coords, worldTolerance, bounds));
+	}
+
+	/**
+	 * Walk through a geometry, transforming coordinates and adding them to a path.
+	 * @param coords geometry array to add to path.
+	 * @param index index in geometry array at which to start walking.
+	 * @param path path to add geometry to.
+	 * @param affine transformation from world coordinates to position on page.
+	 * @return index one greater than the last element in the geometry array.
+	 * @throws MapyrusException if geometry begins with a line segment and path is empty.
+	 */
+	private int addGeometryToPath(double []coords, int index, GeometricPath path,
+		AffineTransform affine) throws MapyrusException
+	{
 		int i;
 		int geometryType = (int)(coords[index]);
 		int nCoords = (int)(coords[index + 1]);
@@ -1640,24 +1792,25 @@ public class Context
 			case Argument.GEOMETRY_POINT:
 			case Argument.GEOMETRY_LINESTRING:
 			case Argument.GEOMETRY_POLYGON:
-				for (i = 0; i < nCoords; i++)
+				if (nCoords > 0)
 				{
-					srcPts[0] = coords[index + 1];
-					srcPts[1] = coords[index + 2];
+					if (coords[index] != Argument.MOVETO && path.getMoveToCount() == 0)
+						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NO_MOVETO));
 
 					/*
-					 * Transform rectangle from world coordinates
+					 * Transform all points together from world coordinates
 					 * to millimetre position on page.
 					 */
-					if (m_worldCtm != null)
-						m_worldCtm.transform(srcPts, 0, srcPts, 0, 1);
-					m_ctm.transform(srcPts, 0, dstPts, 0, 1);
-
-					if (coords[index] == Argument.MOVETO)
-						path.moveTo(dstPts[0], dstPts[1], 0);
-					else
-						path.lineTo(dstPts[0], dstPts[1]);
-					index += 3;
+					double srcPts[] = new double[nCoords * 2];
+					float dstPts[] = new float[nCoords * 2];
+					for (i = 0; i < nCoords; i++)
+					{
+						srcPts[i * 2] = coords[index + i * 3 + 1];
+						srcPts[i * 2 + 1] = coords[index + i * 3 + 2];
+					}
+					affine.transform(srcPts, 0, dstPts, 0, nCoords);
+					path.appendGeometry(coords, index, dstPts, nCoords);
+					index += nCoords * 3;
 				}
 				break;
 			case Argument.GEOMETRY_MULTIPOINT:
@@ -1666,7 +1819,7 @@ public class Context
 			case Argument.GEOMETRY_COLLECTION:
 				for (i = 0; i < nCoords; i++)
 				{
-					index = addGeometryToPath(coords, index, path);
+					index = addGeometryToPath(coords, index, path, affine);
 				}
 				break;
 		}
@@ -1925,8 +2078,14 @@ public class Context
 		}
 
 		/*
-		 * Load image.
+		 * Load image.  Images in files that can be read in parts are
+		 * not loaded here, they are read later, decoding only the part of
+		 * the image that is visible on the page.
 		 */
+		image = null;
+		boolean isCachedImage = false;
+		File imageFile = null;
+		int imageWidth = 0, imageHeight = 0;
 		if (url != null)
 		{
 			try
@@ -1945,15 +2104,44 @@ public class Context
 		}
 		else
 		{
-			image = ImageIOWrapper.read(new File(filename), getColor()).getImage();
+			File f = new File(filename);
+			Dimension []imageSizes = ImageIOWrapper.getImageSizes(f, false);
+			if (imageSizes != null)
+			{
+				imageFile = f;
+				imageWidth = imageSizes[0].width;
+				imageHeight = imageSizes[0].height;
+			}
+			else
+			{
+				String cacheKey = ImageCache.getKey(f, getColor(), null);
+				ColorIcon icon = ImageCache.get(cacheKey);
+				if (icon == null)
+				{
+					icon = ImageIOWrapper.read(f, getColor());
+					if (icon != null)
+						ImageCache.put(cacheKey, icon);
+				}
+				if (icon != null)
+				{
+					image = icon.getImage();
+					isCachedImage = true;
+				}
+			}
 		}
 
-		if (image == null)
+		if (image == null && imageFile == null)
 		{
 			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_FORMAT) +
 				": " + filename);
 		}
 
+		if (image != null)
+		{
+			imageWidth = image.getWidth();
+			imageHeight = image.getHeight();
+		}
+
 		if (imageBounds == null)
 		{
 			if (isWMSRequest)
@@ -1961,7 +2149,7 @@ public class Context
 			else if (readerClass != null)
 				imageBounds = readerClass;
 			else
-				imageBounds = new TFWFile(filename, image);
+				imageBounds = new TFWFile(filename, imageWidth, imageHeight);
 
 			/*
 			 * Do not put WMS requests in cache because it is unlikely
@@ -2014,8 +2202,19 @@ public class Context
 			if (m_worldCtm != null)
 				m_worldCtm.transform(cornerPts, 0, cornerPts, 0, 2);
 
+			if (imageFile != null)
+			{
+				image = readGeoImage(imageFile, imageWidth, imageHeight, 0, 0, 1, 1,
+					cornerPts[2] - cornerPts[0], cornerPts[3] - cornerPts[1]);
+			}
+
 			if (hue != 1 || saturation != 1 || brightness != 1)
 			{
+				/*
+				 * Change a copy of image so that image in cache is not changed.
+				 */
+				if (isCachedImage || imageFile != null)
+					image = copyImage(image);
 				ImageFilter.filter(image, hue, saturation, brightness, throttle);
 			}
 
@@ -2062,13 +2261,9 @@ public class Context
 				y2factor = 0;
 
 			double wx1 = bounds.getMinX() + bounds.getWidth() * x1factor;
-			double ix1 = image.getWidth() * x1factor;
 			double wy1 = bounds.getMinY() + bounds.getHeight() * y1factor;
-			double iy1 = image.getHeight() * y1factor;
 			double wx2 = bounds.getMinX() + bounds.getWidth() * x2factor;
-			double ix2 = image.getWidth() * x2factor;
 			double wy2 = bounds.getMinY() + bounds.getHeight() * y2factor;
-			double iy2 = image.getHeight() * y2factor;
 
 			cornerPts[0] = wx1;
 			cornerPts[1] = wy1;
@@ -2078,29 +2273,26 @@ public class Context
 			if (m_worldCtm != null)
 				m_worldCtm.transform(cornerPts, 0, cornerPts, 0, 2);
 
-			int iWidth = (int)Math.round(ix2 - ix1);
-			int iHeight = (int)Math.round(iy2 - iy1);
-			double iy = image.getHeight() - iy2;
-
-			/*
-			 * Protect against round-off errors calculating pixel positions outside image.
-			 */
-			int x1 = (int)Math.round(ix1);
-			int y1 = (int)Math.round(iy);
-			int w = Math.max(iWidth, 1);
-			int h = Math.max(1, iHeight);
-			if (x1 + w > image.getWidth())
-				x1--;
-			if (x1 < 0)
-				x1 = 0;
-			if (y1 + h > image.getHeight())
-				y1--;
-			if (y1 < 0)
-				y1 = 0;
-			image = image.getSubimage(x1, y1, w, h);
+			if (imageFile != null)
+			{
+				image = readGeoImage(imageFile, imageWidth, imageHeight,
+					x1factor, y1factor, x2factor, y2factor,
+					cornerPts[2] - cornerPts[0], cornerPts[3] - cornerPts[1]);
+			}
+			else
+			{
+				Rectangle region = getImageRegion(imageWidth, imageHeight,
+					x1factor, y1factor, x2factor, y2factor);
+				image = image.getSubimage(region.x, region.y, region.width, region.height);
+			}
 
 			if (hue != 1 || saturation != 1 || brightness != 1)
 			{
+				/*
+				 * Change a copy of image so that image in cache is not changed.
+				 */
+				if (isCachedImage || imageFile != null)
+					image = copyImage(image);
 				ImageFilter.filter(image, hue, saturation, brightness, throttle);
 			}
 
@@ -2123,6 +2315,177 @@ public class Context
 		}
 	}
 
+	/**
+	 * Calculate pixel area of image for part of image.
+	 * @param imageWidth width of image in pixels.
+	 * @param imageHeight height of image in pixels.
+	 * @param x1factor left edge of area, as fraction of image width.
+	 * @param y1factor bottom edge of area, as fraction of image height.
+	 * @param x2factor right edge of area, as fraction of image width.
+	 * @param y2factor top edge of area, as fraction of image height.
+	 * @return pixel area in image.
+	 */
+	private Rectangle getImageRegion(int imageWidth, int imageHeight,
+		double x1factor, double y1factor, double x2factor, double y2factor)
+	{
+		double ix1 = imageWidth * x1factor;
+		double iy1 = imageHeight * y1factor;
+		double ix2 = imageWidth * x2factor;
+		double iy2 = imageHeight * y2factor;
+
+		int iWidth = (int)Math.round(ix2 - ix1);
+		int iHeight = (int)Math.round(iy2 - iy1);
+		double iy = imageHeight - iy2;
+
+		/*
+		 * Protect against round-off errors calculating pixel positions outside image.
+		 */
+		int x1 = (int)Math.round(ix1);
+		int y1 = (int)Math.round(iy);
+		int w = Math.max(iWidth, 1);
+		int h = Math.max(1, iHeight);
+		if (x1 + w > imageWidth)
+			x1--;
+		if (x1 < 0)
+			x1 = 0;
+		if (y1 + h > imageHeight)
+			y1--;
+		if (y1 < 0)
+			y1 = 0;
+		return(new Rectangle(x1, y1, w, h));
+	}
+
+	/**
+	 * Find the overview image with the lowest resolution that still
+	 * has at least the resolution needed.
+	 * @param overviewSizes width and height of each image in overview file.
+	 * @param imageWidth width of full resolution image in pixels.
+	 * @param reduction number of full resolution pixels covering each pixel on page.
+	 * @return index of overview image to read, or -1 if full resolution
+	 * image should be read.
+	 */
+	static int getOverviewIndex(Dimension []overviewSizes, int imageWidth, double reduction)
+	{
+		int retval = -1;
+		double bestReduction = 1;
+		for (int i = 0; overviewSizes != null && i < overviewSizes.length; i++)
+		{
+			double overviewReduction = (double)imageWidth / overviewSizes[i].width;
+			if (overviewReduction <= reduction && overviewReduction > bestReduction)
+			{
+				retval = i;
+				bestReduction = overviewReduction;
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read part of geo-referenced image that is visible on page,
+	 * at the resolution of the page.
+	 * Image is read from the overview file for the image if it contains an
+	 * image with lower resolution that is still at least the resolution of the page.
+	 * @param f image file.
+	 * @param imageWidth width of image in pixels.
+	 * @param imageHeight height of image in pixels.
+	 * @param x1factor left edge of visible part, as fraction of image width.
+	 * @param y1factor bottom edge of visible part, as fraction of image height.
+	 * @param x2factor right edge of visible part, as fraction of image width.
+	 * @param y2factor top edge of visible part, as fraction of image height.
+	 * @param pageWidth width of visible part on page, in millimetres.
+	 * @param pageHeight height of visible part on page, in millimetres.
+	 * @return image read from file.
+	 * @throws IOException if reading image fails.
+	 * @throws MapyrusException if image file is not valid.
+	 */
+	private BufferedImage readGeoImage(File f, int imageWidth, int imageHeight,
+		double x1factor, double y1factor, double x2factor, double y2factor,
+		double pageWidth, double pageHeight)
+		throws IOException, MapyrusException
+	{
+		/*
+		 * Find how many image pixels cover each pixel on page.
+		 */
+		double resolution = getResolution();
+		double xReduction = imageWidth * (x2factor - x1factor) /
+			(Math.abs(pageWidth) / resolution);
+		double yReduction = imageHeight * (y2factor - y1factor) /
+			(Math.abs(pageHeight) / resolution);
+		double reduction = Math.min(xReduction, yReduction);
+
+		/*
+		 * Use reduced resolution image from overview file if there
+		 * is one with enough resolution for the page.
+		 */
+		File readFile = f;
+		int imageIndex = 0;
+		double readReduction = 1;
+		int readWidth = imageWidth, readHeight = imageHeight;
+		if (reduction >= 2)
+		{
+			File overviewFile = new File(f.getPath() + ".ovr");
+			if (!overviewFile.exists())
+				overviewFile = new File(f.getPath() + ".OVR");
+			if (overviewFile.exists())
+			{
+				Dimension []overviewSizes = ImageIOWrapper.getImageSizes(overviewFile, true);
+				int overviewIndex = getOverviewIndex(overviewSizes, imageWidth, reduction);
+				if (overviewIndex >= 0)
+				{
+					readFile = overviewFile;
+					imageIndex = overviewIndex;
+					readWidth = overviewSizes[overviewIndex].width;
+					readHeight = overviewSizes[overviewIndex].height;
+					readReduction = (double)imageWidth / readWidth;
+				}
+			}
+		}
+
+		/*
+		 * Skip rows and columns of pixels that will not be visible on page.
+		 */
+		int subsampling = Math.max((int)Math.floor(reduction / readReduction), 1);
+
+		Rectangle region = getImageRegion(readWidth, readHeight,
+			x1factor, y1factor, x2factor, y2factor);
+
+		/*
+		 * Use the same part of the image if it was read for an earlier page.
+		 */
+		String cacheKey = ImageCache.getKey(readFile, null, imageIndex + "," +
+			region.x + "," + region.y + "," + region.width + "," + region.height +
+			"," + subsampling);
+		BufferedImage retval;
+		ColorIcon icon = ImageCache.get(cacheKey);
+		if (icon != null)
+		{
+			retval = icon.getImage();
+		}
+		else
+		{
+			retval = ImageIOWrapper.read(readFile, imageIndex, region, subsampling);
+			if (retval == null)
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_FORMAT) +
+					": " + readFile);
+			}
+			ImageCache.put(cacheKey, new ColorIcon(retval, null));
+		}
+		return(retval);
+	}
+
+	/**
+	 * Make a copy of an image.
+	 * @param image image to copy.
+	 * @return new image containing same pixels.
+	 */
+	private BufferedImage copyImage(BufferedImage image)
+	{
+		ColorModel colorModel = image.getColorModel();
+		return(new BufferedImage(colorModel, image.copyData(null),
+			colorModel.isAlphaPremultiplied(), null));
+	}
+
 	/**
 	 * Includes Encsapsulated PostScript file in page.
 	 * @param filename EPS filename.
@@ -2438,6 +2801,10 @@ public class Context
 			 * length including spaces between characters.
 			 */
 			String []letters = new String[nLetters];
+			for (int i = 0; i < nLetters; i++)
+				letters[i] = label.substring(i, i + 1);
+			StringDimension []letterDimensions = getStringDimensions(letters, false);
+
 			double []stringWidths = new double[nLetters];
 			double totalStringWidth = 0.0;
 			for (int i = 0; i < nLetters; i++)
@@ -2445,8 +2812,7 @@ public class Context
 				if (i > 0)
 					totalStringWidth += spacing;
 
-				letters[i] = label.substring(i, i + 1);
-				stringWidths[i] = getStringDimension(letters[i], false).getWidth();
+				stringWidths[i] = letterDimensions[i].getWidth();
 				totalStringWidth += stringWidths[i];
 			}
 
@@ -2704,11 +3070,14 @@ public class Context
 		{
 			columnWidths[i] = 0;
 			Argument arg = columns.get(i);
+			String []cells = new String[primaryKeys.length];
+			for (int j = 0; j < primaryKeys.length; j++)
+				cells[j] = arg.getHashMapEntry(primaryKeys[j].toString()).toString();
+			StringDimension []cellDimensions = getStringDimensions(cells, false);
 
 			for (int j = 0; j < primaryKeys.length; j++)
 			{
-				String s = arg.getHashMapEntry(primaryKeys[j].toString()).toString();
-				StringDimension dim = getStringDimension(s, false);
+				StringDimension dim = cellDimensions[j];
 				if (dim.getWidth() > columnWidths[i])
 					columnWidths[i] = dim.getWidth();
 				if (dim.getHeight() > rowHeights[j])
@@ -3193,11 +3562,14 @@ public class Context
 	public Argument getVariableValue(String varName)
 	{
 		Argument retval;
-		
+		int slot = getSlot(varName);
+
 		/*
 		 * Variable is not set if no lookup table is defined.
 		 */
-		if (m_vars == null)
+		if (slot >= 0)
+			retval = m_slotValues[slot];
+		else if (m_vars == null)
 			retval = null;
 		else		
 			retval = m_vars.get(varName);
@@ -3205,6 +3577,38 @@ public class Context
 		return(retval);
 	}
 
+	/**
+	 * Returns value of a variable held in a slot.
+	 * @param slot slot of variable.
+	 * @return value of variable, or null if it is not defined.
+	 */
+	public Argument getVariableValue(int slot)
+	{
+		return(m_slotValues[slot]);
+	}
+
+	/**
+	 * Get slots for parameters and local variables of procedure block.
+	 * @return variable slots, or null if context has no slots.
+	 */
+	public VariableSlots getVariableSlots()
+	{
+		return(m_variableSlots);
+	}
+
+	/**
+	 * Get slot of a variable in this context.
+	 * @param varName variable name.
+	 * @return slot of variable, or -1 if variable is not held in a slot.
+	 */
+	private int getSlot(String varName)
+	{
+		int slot = -1;
+		if (m_slotValues != null)
+			slot = m_variableSlots.getSlot(varName);
+		return(slot);
+	}
+
 	/**
 	 * Indicates that a variable is to be stored locally in this context
 	 * and not be made available to other contexts.
@@ -3212,12 +3616,31 @@ public class Context
 	 */
 	public void setLocalScope(String varName)
 	{
+		int slot = getSlot(varName);
+
 		/*
 		 * Record that variable is local.
 		 */
-		if (m_localVars == null)
-			m_localVars = new HashSet<String>();
-		m_localVars.add(varName);
+		if (slot >= 0)
+		{
+			m_isLocalSlot[slot] = true;
+		}
+		else
+		{
+			if (m_localVars == null)
+				m_localVars = new HashSet<String>();
+			m_localVars.add(varName);
+		}
+	}
+
+	/**
+	 * Indicates that a variable held in a slot is to be stored locally
+	 * in this context.
+	 * @param slot slot of variable to be treated as local.
+	 */
+	public void setLocalScope(int slot)
+	{
+		m_isLocalSlot[slot] = true;
 	}
 
 	/**
@@ -3228,7 +3651,24 @@ public class Context
 	 */
 	public boolean hasLocalScope(String varName)
 	{
-		return(m_localVars != null && m_localVars.contains(varName));
+		boolean retval;
+		int slot = getSlot(varName);
+		if (slot >= 0)
+			retval = m_isLocalSlot[slot];
+		else
+			retval = (m_localVars != null && m_localVars.contains(varName));
+		return(retval);
+	}
+
+	/**
+	 * Returns true if variable held in a slot has been defined local
+	 * in this context.
+	 * @param slot slot of variable to check.
+	 * @return true if variable defined local.
+	 */
+	public boolean hasLocalScope(int slot)
+	{
+		return(m_isLocalSlot != null && m_isLocalSlot[slot]);
 	}
 
 	/**
@@ -3239,19 +3679,40 @@ public class Context
 	 */
 	public void defineVariable(String varName, Argument value)
 	{
-		/*
-		 * Create new variable.
-		 */
-		if (m_vars == null)
-			m_vars = new HashMap<String, Argument>();
+		int slot = getSlot(varName);
+		if (slot >= 0)
+		{
+			defineVariable(slot, value);
+		}
+		else
+		{
+			/*
+			 * Create new variable.
+			 */
+			if (m_vars == null)
+				m_vars = new HashMap<String, Argument>();
 
-		/*
-		 * Clone hashmap variables to avoid changes to entries
-		 * in one variable being visible to others.
-		 */
+			/*
+			 * Clone hashmap variables to avoid changes to entries
+			 * in one variable being visible to others.
+			 */
+			if (value.getType() == Argument.HASHMAP)
+				value = (Argument)value.clone();
+			m_vars.put(varName, value);
+		}
+	}
+
+	/**
+	 * Define variable held in a slot in current context, replacing
+	 * any existing value.
+	 * @param slot slot of variable to define.
+	 * @param value is value for this variable
+	 */
+	public void defineVariable(int slot, Argument value)
+	{
 		if (value.getType() == Argument.HASHMAP)
 			value = (Argument)value.clone();
-		m_vars.put(varName, value);
+		m_slotValues[slot] = value;
 	}
 
 	/**
@@ -3263,13 +3724,14 @@ public class Context
 	 */
 	public void defineHashMapEntry(String hashMapName, String key, Argument value)
 	{
-		if (m_vars == null)
+		int slot = getSlot(hashMapName);
+		if (m_vars == null && slot < 0)
 			m_vars = new HashMap<String, Argument>();
 
 		/*
 		 * Create new entry in a hash map.
 		 */
-		Argument arg = m_vars.get(hashMapName);
+		Argument arg = (slot >= 0) ? m_slotValues[slot] : m_vars.get(hashMapName);
 		if (arg == null || arg.getType() != Argument.HASHMAP)
 		{
 			/*
@@ -3277,7 +3739,10 @@ public class Context
 			 * create new one.
 			 */
 			arg = new Argument();
-			m_vars.put(hashMapName, arg);
+			if (slot >= 0)
+				m_slotValues[slot] = arg;
+			else
+				m_vars.put(hashMapName, arg);
 			
 		}
 		arg.addHashMapEntry(key, value);
@@ -3337,7 +3802,21 @@ public class Context
 	public StringDimension getStringDimension(String s, boolean scaleToWorlds)
 		throws IOException, MapyrusException
 	{
-		StringDimension retval;
+		return(getStringDimensions(new String[]{s}, scaleToWorlds)[0]);
+	}
+
+	/**
+	 * Returns dimensions of several strings, drawn to current page with current font.
+	 * @param strings strings to calculate height and width for.
+	 * @param scaleToWorlds scale dimensions to world coordinates, if true.
+	 * @return height and width of each string in millimetres.
+	 * @throws IOException if font cannot be read.
+	 * @throws MapyrusException if font is not valid.
+	 */	
+	public StringDimension []getStringDimensions(String []strings, boolean scaleToWorlds)
+		throws IOException, MapyrusException
+	{
+		StringDimension []retval;
 
 		if (m_outputFormat != null)
 		{
@@ -3347,31 +3826,37 @@ public class Context
 			 * the font and then forget it.
 			 */
 			setGraphicsAttributes(ATTRIBUTE_FONT);
-			retval = m_outputFormat.getStringDimension(s, m_fontName, m_fontSize, m_fontLineSpacing);
-			double w = retval.getWidth();
-			double h = retval.getHeight();
-			double a = retval.getAscent();
-			double d = retval.getDescent();
+			retval = m_outputFormat.getStringDimensions(strings, m_fontName, m_fontSize, m_fontLineSpacing);
 
-			if (m_pageWorldExtents != null && scaleToWorlds)
+			for (int i = 0; i < retval.length; i++)
 			{
-				w = w / m_outputFormat.getPageWidth() * m_pageWorldExtents.getWidth();
-				h = h / m_outputFormat.getPageHeight() * m_pageWorldExtents.getHeight();
-				a = a / m_outputFormat.getPageHeight() * m_pageWorldExtents.getHeight();
-				d = d / m_outputFormat.getPageHeight() * m_pageWorldExtents.getHeight();
+				double w = retval[i].getWidth();
+				double h = retval[i].getHeight();
+				double a = retval[i].getAscent();
+				double d = retval[i].getDescent();
+
+				if (m_pageWorldExtents != null && scaleToWorlds)
+				{
+					w = w / m_outputFormat.getPageWidth() * m_pageWorldExtents.getWidth();
+					h = h / m_outputFormat.getPageHeight() * m_pageWorldExtents.getHeight();
+					a = a / m_outputFormat.getPageHeight() * m_pageWorldExtents.getHeight();
+					d = d / m_outputFormat.getPageHeight() * m_pageWorldExtents.getHeight();
+				}
+				w = w / m_scaling;
+				h = h / m_scaling;
+				a = a / m_scaling;
+				d = d / m_scaling;
+				retval[i].setSize(w, h, a, d);
 			}
-			w = w / m_scaling;
-			h = h / m_scaling;
-			a = a / m_scaling;
-			d = d / m_scaling;
-			retval.setSize(w, h, a, d);
 		}
 		else
 		{
 			/*
 			 * Not possible to accurately calculate width if no page defined.
 			 */
-			retval = new StringDimension();
+			retval = new StringDimension[strings.length];
+			for (int i = 0; i < retval.length; i++)
+				retval[i] = new StringDimension();
 		}
 		return(retval);
 	}	
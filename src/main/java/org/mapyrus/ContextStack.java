@@ -39,11 +39,13 @@ import java.util.LinkedList;
 
 import javax.script.Bindings;
 
+import org.mapyrus.dataset.ConnectionPool;
 import org.mapyrus.dataset.DatasetFactory;
 import org.mapyrus.dataset.GeographicDataset;
 import org.mapyrus.font.StringDimension;
 import org.mapyrus.image.Bitmap;
 import org.mapyrus.image.ColorIcon;
+import org.mapyrus.image.ImageCache;
 import org.mapyrus.image.ImageIOWrapper;
 
 /**
@@ -73,6 +75,41 @@ public class ContextStack
 	private static final String PAGE_VARIABLE = "page";
 	private static final String SCREEN_VARIABLE = "screen";
 	private static final String IMAGEMAP_VARIABLE = "imagemap";
+
+	/*
+	 * Identifiers for internal variables, resolved from variable names.
+	 */
+	private static final int UNKNOWN_VARIABLE_CODE = 0;
+	private static final int FETCH_MORE_VARIABLE_CODE = 1;
+	private static final int FETCH_COUNT_VARIABLE_CODE = 2;
+	private static final int TIMER_VARIABLE_CODE = 3;
+	private static final int TIME_VARIABLE_CODE = 4;
+	private static final int VERSION_VARIABLE_CODE = 5;
+	private static final int FREE_MEMORY_VARIABLE_CODE = 6;
+	private static final int TOTAL_MEMORY_VARIABLE_CODE = 7;
+	private static final int STATEMENT_CACHE_HITS_VARIABLE_CODE = 8;
+	private static final int STATEMENT_CACHE_MISSES_VARIABLE_CODE = 9;
+	private static final int FILENAME_VARIABLE_CODE = 10;
+	private static final int ROTATION_VARIABLE_CODE = 11;
+	private static final int SCALE_VARIABLE_CODE = 12;
+	private static final int KEY_COUNT_VARIABLE_CODE = 13;
+	private static final int KEY_NEXT_VARIABLE_CODE = 14;
+	private static final int PAGE_VARIABLE_CODE = 15;
+	private static final int SCREEN_VARIABLE_CODE = 16;
+	private static final int PATH_PART_VARIABLE_CODE = 17;
+	private static final int PATH_VARIABLE_CODE = 18;
+	private static final int WORLDS_VARIABLE_CODE = 19;
+	private static final int DATASET_VARIABLE_CODE = 20;
+	private static final int IMAGEMAP_X_VARIABLE_CODE = 21;
+	private static final int IMAGEMAP_Y_VARIABLE_CODE = 22;
+	private static final int IMAGE_CACHE_HITS_VARIABLE_CODE = 23;
+	private static final int IMAGE_CACHE_MISSES_VARIABLE_CODE = 24;
+	private static final int IMAGE_CACHE_EVICTIONS_VARIABLE_CODE = 25;
+	private static final int IMAGE_CACHE_BYTES_VARIABLE_CODE = 26;
+	private static final int JDBC_ACTIVE_VARIABLE_CODE = 27;
+	private static final int JDBC_IDLE_VARIABLE_CODE = 28;
+	private static final int JDBC_WAITS_VARIABLE_CODE = 29;
+	private static final int JDBC_WAIT_TIME_VARIABLE_CODE = 30;
 	
 	/*
 	 * Stack of contexts, with current context in last slot.
@@ -171,15 +208,16 @@ public class ContextStack
 	 * Pushes copy of context at top of stack onto stack.
 	 * This context is later removed with popContext().
 	 * @param blockName is procedure block name containing statements to be executed.
+	 * @param slots slots of local variables in procedure block, or null.
 	 * @throws MapyrusException if maximum stack depth exceeded.
 	 */
-	private void pushContext(String blockName) throws MapyrusException
+	private void pushContext(String blockName, VariableSlots slots) throws MapyrusException
 	{
 		if (m_stack.size() == MAX_STACK_LENGTH)
 		{
 			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.RECURSION));
 		}
-		m_stack.add(new Context(getCurrentContext(), blockName));
+		m_stack.add(new Context(getCurrentContext(), blockName, slots));
 	}
 
 	/**
@@ -420,8 +458,15 @@ public class ContextStack
 		String extras, InputStream stdin) throws MapyrusException
 	{
 		GeographicDataset dataset;
+
+		/*
+		 * Close any previous dataset first, so that reopening a database
+		 * query does not wait for a second connection from the pool.
+		 */
+		Context context = getCurrentContext();
+		context.closeDataset();
 		dataset = DatasetFactory.open(type, name, extras, stdin, m_throttle);
-		getCurrentContext().setDataset(dataset);
+		context.setDataset(dataset);
 	}
 
 	/**
@@ -456,6 +501,28 @@ public class ContextStack
 		getCurrentContext().lineTo(x, y);
 	}
 
+	/**
+	 * Add geometry to path.
+	 * @param coords geometry array to add to path.
+	 * @throws MapyrusException if geometry begins with a line segment and path is empty.
+	 */
+	public void addGeometry(double []coords) throws MapyrusException
+	{
+		getCurrentContext().addGeometry(coords);
+	}
+
+	/**
+	 * Simplify geometry for drawing on current page.
+	 * @param coords geometry array in world coordinates.
+	 * @param tolerance distance in millimetres on page within which
+	 * points are removed.
+	 * @return simplified geometry array.
+	 */
+	public double []simplifyGeometry(double []coords, double tolerance)
+	{
+		return(getCurrentContext().simplifyGeometry(coords, tolerance));
+	}
+
 	/**
 	 * Add point to path with straight line segment relative to last point.
 	 * @param x X coordinate distance to move, relative to last point.
@@ -606,14 +673,24 @@ public class ContextStack
 			{
 				/*
 				 * Load icon from either as a resource from a JAR file,
-				 * a URL, or as a plain file.
+				 * a URL, or as a plain file.  Icons from resources and
+				 * files are shared with other interpreters.
 				 */
+				String cacheKey = null;
+				boolean isCached = false;
 				try
 				{
 					if (isResource)
 					{
-						ClassLoader loader = this.getClass().getClassLoader();
-						url = loader.getResource(filename);
+						cacheKey = ImageCache.getResourceKey(filename, currentColor);
+						icon = ImageCache.get(cacheKey);
+						isCached = (icon != null);
+						if (icon == null)
+						{
+							ClassLoader loader = this.getClass().getClassLoader();
+							url = loader.getResource(filename);
+							icon = ImageIOWrapper.read(url, currentColor);
+						}
 					}
 					else
 					{
@@ -624,12 +701,17 @@ public class ContextStack
 						}
 
 						url = new URL(filename);
+						icon = ImageIOWrapper.read(url, currentColor);
 					}
-					icon = ImageIOWrapper.read(url, currentColor);
 				}
 				catch (MalformedURLException e)
 				{
-					icon = ImageIOWrapper.read(new File(filename), currentColor);
+					File f = new File(filename);
+					cacheKey = ImageCache.getKey(f, currentColor, null);
+					icon = ImageCache.get(cacheKey);
+					isCached = (icon != null);
+					if (icon == null)
+						icon = ImageIOWrapper.read(f, currentColor);
 				}
 
 				if (icon == null)
@@ -637,15 +719,20 @@ public class ContextStack
 					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_FORMAT) +
 						": " + filename);
 				}
-			}
 
-			/*
-			 * Do not cache large icons, load them each time they are needed.
-			 * Do not cache an icon given as hex digits as we may want
-			 * it in a different color next time.
-			 */
-			if ((!isDigits) && icon.getImage().getHeight() * icon.getImage().getWidth() <= 128 * 128)
-				m_iconCache.put(filename, icon);
+				if (cacheKey != null)
+				{
+					if (!isCached)
+						ImageCache.put(cacheKey, icon);
+				}
+				else if (icon.getImage().getHeight() * icon.getImage().getWidth() <= 128 * 128)
+				{
+					/*
+					 * Do not cache large icons from URLs, load them each time they are needed.
+					 */
+					m_iconCache.put(filename, icon);
+				}
+			}
 		}
 		getCurrentContext().drawIcon(icon, size);
 	}
@@ -819,10 +906,15 @@ public class ContextStack
 
 	/**
 	 * Replace path defining polygon with a sinkhole point.
+	 * @param isPolylabel true to find pole of inaccessibility using polylabel
+	 * algorithm, false to find point using raster algorithm.
+	 * @param bitmapSize size of bitmap for raster algorithm, or -1 to
+	 * use bitmap with same resolution as page.
+	 * @throws MapyrusException if no output device.
 	 */
-	public void createSinkhole()
+	public void createSinkhole(boolean isPolylabel, int bitmapSize) throws MapyrusException
 	{
-		getCurrentContext().createSinkhole();
+		getCurrentContext().createSinkhole(isPolylabel, bitmapSize);
 	}
 
 	/**
@@ -1229,369 +1321,649 @@ public class ContextStack
 	}
 
 	/**
-	 * Returns value of a variable.
-	 * @param varName variable name to lookup.
-	 * @param interpreterFilename name of file being interpreted.
-	 * @return value of variable, or null if it is not defined.
-	 * @throws MapyrusException if variable cannot be evaluated.
+	 * Internal variable with name resolved to an identifier,
+	 * so that its value can be found without comparing strings.
 	 */
-	public Argument getVariableValue(String varName, String interpreterFilename)
-		throws MapyrusException
+	public static class InternalVariable
 	{
-		Argument retval = null;
-		String sub;
+		private int m_code;
+		private String m_subName;
+
+		private InternalVariable(int code, String subName)
+		{
+			m_code = code;
+			m_subName = subName;
+		}
+	}
+
+	/**
+	 * Resolve name of internal variable.
+	 * @param varName variable name.
+	 * @return resolved internal variable, or null if varName is
+	 * not an internal variable name.
+	 */
+	public static InternalVariable resolveInternalVariable(String varName)
+	{
+		InternalVariable retval = null;
+		int code = UNKNOWN_VARIABLE_CODE;
+		String subName = null;
 		char c;
-		double d;
-		int i;
-		Rectangle2D bounds;
 
 		if (varName.startsWith(INTERNAL_VARIABLE_PREFIX) &&
 			varName.length() > INTERNAL_VARIABLE_PREFIX.length() &&
 			(!varName.equals(HTTPRequest.HTTP_HEADER_ARRAY)))
 		{
 			c = varName.charAt(INTERNAL_VARIABLE_PREFIX.length());
-
-			/*
-			 * Return internal/system variable.
-			 */
 			if (c == 'f' && varName.equals(INTERNAL_VARIABLE_PREFIX + "fetch.more"))
 			{
-				Dataset dataset = getCurrentContext().getDataset();
-				if (dataset != null && dataset.hasMoreRows())
-					retval = Argument.numericOne;
-				else
-					retval = Argument.numericZero;
+				code = FETCH_MORE_VARIABLE_CODE;
 			}
 			else if (c == 'f' && varName.equals(INTERNAL_VARIABLE_PREFIX + "fetch.count"))
 			{
-				Dataset dataset = getCurrentContext().getDataset();
-				if (dataset == null)
-					retval = Argument.numericZero;
-				else
-					retval = new Argument(dataset.getFetchCount());
+				code = FETCH_COUNT_VARIABLE_CODE;
 			}
 			else if (c == 't' && varName.equals(INTERNAL_VARIABLE_PREFIX + "timer"))
 			{
-				/*
-				 * The elapsed time in seconds since this context was created
-				 * at the beginning of interpreting a file.
-				 */
-				retval = new Argument((System.currentTimeMillis() - m_startTime) / 1000.0);
+				code = TIMER_VARIABLE_CODE;
 			}
 			else if (c == 't' && varName.startsWith(INTERNAL_VARIABLE_PREFIX + "time."))
 			{
-				sub = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + "time.".length());
-				GregorianCalendar calendar = new GregorianCalendar();
-
-				if (sub.equals("hour"))
-					retval = setTwoDigitNumber(calendar.get(Calendar.HOUR_OF_DAY));
-				else if (sub.equals("minute"))
-					retval = setTwoDigitNumber(calendar.get(Calendar.MINUTE));
-				else if (sub.equals("second"))
-					retval = setTwoDigitNumber(calendar.get(Calendar.SECOND));
-				else if (sub.equals("day"))
-					retval = setTwoDigitNumber(calendar.get(Calendar.DAY_OF_MONTH));
-				else if (sub.equals("day.name"))
-				{
-					SimpleDateFormat sdf = new SimpleDateFormat("EEEE");
-					retval = new Argument(Argument.STRING, sdf.format(calendar.getTime()));
-				}
-				else if (sub.equals("month"))
-					retval = setTwoDigitNumber(calendar.get(Calendar.MONTH) + 1);
-				else if (sub.equals("month.name"))
-				{
-					SimpleDateFormat sdf = new SimpleDateFormat("MMMM");
-					retval = new Argument(Argument.STRING, sdf.format(calendar.getTime()));
-				}
-				else if (sub.equals("week.of.year"))
-					retval = new Argument(calendar.get(Calendar.WEEK_OF_YEAR));
-				else if (sub.equals("day.of.week"))
-				{
-					int dayOfWeek;
-
-					/*
-					 * Convert Java Calendar values for days into values 1-7,
-					 * with Monday=1 like in cron(1) tasks.
-					 */
-					int cd = calendar.get(Calendar.DAY_OF_WEEK);
-					if (cd == Calendar.MONDAY)
-						dayOfWeek = 1;
-					else if (cd == Calendar.TUESDAY)
-						dayOfWeek = 2;
-					else if (cd == Calendar.WEDNESDAY)
-						dayOfWeek = 3;
-					else if (cd == Calendar.THURSDAY)
-						dayOfWeek = 4;
-					else if (cd == Calendar.FRIDAY)
-						dayOfWeek = 5;
-					else if (cd == Calendar.SATURDAY)
-						dayOfWeek = 6;
-					else
-						dayOfWeek = 7;
-					retval = new Argument(dayOfWeek);
-				}
-				else if (sub.equals("year"))
-					retval = new Argument(calendar.get(Calendar.YEAR));
-				else if (sub.equals("stamp"))	
-					retval = new Argument(Argument.STRING, calendar.getTime().toString());
-				else
-					retval = null;
+				code = TIME_VARIABLE_CODE;
+				subName = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + "time.".length());
 			}
 			else if (c == 'v' && varName.equals(INTERNAL_VARIABLE_PREFIX + "version"))
 			{
-				retval = new Argument(Argument.STRING, Constants.getVersion());
+				code = VERSION_VARIABLE_CODE;
 			}
 			else if (c == 'f' && varName.equals(INTERNAL_VARIABLE_PREFIX + "freeMemory"))
 			{
-				retval = new Argument(Runtime.getRuntime().freeMemory());
+				code = FREE_MEMORY_VARIABLE_CODE;
 			}
 			else if (c == 't' && varName.equals(INTERNAL_VARIABLE_PREFIX + "totalMemory"))
 			{
-				retval = new Argument(Runtime.getRuntime().totalMemory());
+				code = TOTAL_MEMORY_VARIABLE_CODE;
+			}
+			else if (c == 's' && varName.equals(INTERNAL_VARIABLE_PREFIX + "statementcache.hits"))
+			{
+				code = STATEMENT_CACHE_HITS_VARIABLE_CODE;
+			}
+			else if (c == 's' && varName.equals(INTERNAL_VARIABLE_PREFIX + "statementcache.misses"))
+			{
+				code = STATEMENT_CACHE_MISSES_VARIABLE_CODE;
+			}
+			else if (c == 'i' && varName.equals(INTERNAL_VARIABLE_PREFIX + "imagecache.hits"))
+			{
+				code = IMAGE_CACHE_HITS_VARIABLE_CODE;
+			}
+			else if (c == 'i' && varName.equals(INTERNAL_VARIABLE_PREFIX + "imagecache.misses"))
+			{
+				code = IMAGE_CACHE_MISSES_VARIABLE_CODE;
+			}
+			else if (c == 'i' && varName.equals(INTERNAL_VARIABLE_PREFIX + "imagecache.evictions"))
+			{
+				code = IMAGE_CACHE_EVICTIONS_VARIABLE_CODE;
+			}
+			else if (c == 'i' && varName.equals(INTERNAL_VARIABLE_PREFIX + "imagecache.bytes"))
+			{
+				code = IMAGE_CACHE_BYTES_VARIABLE_CODE;
+			}
+			else if (c == 'j' && varName.equals(INTERNAL_VARIABLE_PREFIX + "jdbc.active"))
+			{
+				code = JDBC_ACTIVE_VARIABLE_CODE;
+			}
+			else if (c == 'j' && varName.equals(INTERNAL_VARIABLE_PREFIX + "jdbc.idle"))
+			{
+				code = JDBC_IDLE_VARIABLE_CODE;
+			}
+			else if (c == 'j' && varName.equals(INTERNAL_VARIABLE_PREFIX + "jdbc.waits"))
+			{
+				code = JDBC_WAITS_VARIABLE_CODE;
+			}
+			else if (c == 'j' && varName.equals(INTERNAL_VARIABLE_PREFIX + "jdbc.waittime"))
+			{
+				code = JDBC_WAIT_TIME_VARIABLE_CODE;
 			}
 			else if (c == 'f' && varName.equals(INTERNAL_VARIABLE_PREFIX + "filename"))
 			{
-				retval = new Argument(Argument.STRING, interpreterFilename);
+				code = FILENAME_VARIABLE_CODE;
 			}
 			else if (c == 'r' && varName.equals(INTERNAL_VARIABLE_PREFIX + "rotation"))
 			{
-				retval = new Argument(Math.toDegrees(getCurrentContext().getRotation()));
+				code = ROTATION_VARIABLE_CODE;
 			}
 			else if (c == 's' && varName.equals(INTERNAL_VARIABLE_PREFIX + "scale"))
 			{
-				retval = new Argument(getCurrentContext().getScaling());
+				code = SCALE_VARIABLE_CODE;
 			}
 			else if (c == 'k' && varName.equals(INTERNAL_VARIABLE_PREFIX + "key.count"))
 			{
-				retval = new Argument(m_legendEntries.size());
+				code = KEY_COUNT_VARIABLE_CODE;
 			}
 			else if (c == 'k' && varName.equals(INTERNAL_VARIABLE_PREFIX + "key.next"))
 			{
-				LegendEntry top = m_legendEntries.first();
-				if (top == null)
-					retval = Argument.emptyString;
-				else
-					retval = new Argument(Argument.STRING, top.getBlockName());
+				code = KEY_NEXT_VARIABLE_CODE;
 			}
 			else if (varName.startsWith(INTERNAL_VARIABLE_PREFIX + PAGE_VARIABLE + "."))
 			{
-				sub = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + PAGE_VARIABLE.length() + 1);
-				if (sub.equals("width"))
-					retval = new Argument(getCurrentContext().getPageWidth());
-				else if (sub.equals("height"))
-					retval = new Argument(getCurrentContext().getPageHeight());
-				else if (sub.equals("format"))
-					retval = new Argument(Argument.STRING, getCurrentContext().getPageFormat());
-				else if (sub.equals("resolution.mm"))
-					retval = new Argument(getCurrentContext().getResolution());
-				else if (sub.equals("resolution.dpi"))
-				{
-					retval = new Argument(Constants.MM_PER_INCH /
-						getCurrentContext().getResolution());
-				}
-				else
-					retval = null;
+				code = PAGE_VARIABLE_CODE;
+				subName = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + PAGE_VARIABLE.length() + 1);
 			}
 			else if (varName.startsWith(INTERNAL_VARIABLE_PREFIX + SCREEN_VARIABLE + "."))
 			{
-				sub = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + SCREEN_VARIABLE.length() + 1);
-				if (sub.equals("width"))
-					retval = new Argument(Constants.getScreenWidth());
-				else if (sub.equals("height"))
-					retval = new Argument(Constants.getScreenHeight());
-				else if (sub.equals("resolution.dpi"))
-					retval = new Argument(Constants.getScreenResolution());
-				else if (sub.equals("resolution.mm"))
-				{
-					retval = new Argument(Constants.MM_PER_INCH /
-						Constants.getScreenResolution());
-				}
-				else
-					retval = null;
+				code = SCREEN_VARIABLE_CODE;
+				subName = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + SCREEN_VARIABLE.length() + 1);
 			}
 			else if (varName.startsWith(INTERNAL_VARIABLE_PREFIX + PATH_VARIABLE + "."))
 			{
-				sub = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + PATH_VARIABLE.length() + 1);
-				if (sub.equals("length"))
-					retval = new Argument(getCurrentContext().getPathLength());
-				else if (sub.equals("area"))
-					retval = new Argument(getCurrentContext().getPathArea());
-				else if (sub.equals("centroid.x"))
-					retval = new Argument(getCurrentContext().getPathCentroid().getX());
-				else if (sub.equals("centroid.y"))
-					retval = new Argument(getCurrentContext().getPathCentroid().getY());
-				else if (sub.equals("start.x"))
-					retval = new Argument(getCurrentContext().getPathStartPoint().getX());
-				else if (sub.equals("start.y"))
-					retval = new Argument(getCurrentContext().getPathStartPoint().getY());
-				else if (sub.equals("end.x"))
-					retval = new Argument(getCurrentContext().getPathEndPoint().getX());
-				else if (sub.equals("end.y"))
-					retval = new Argument(getCurrentContext().getPathEndPoint().getY());
-				else if (sub.equals("start.angle"))
-				{
-					double radians = getCurrentContext().getPathStartAngle();
-					retval = new Argument(Math.toDegrees(radians));
-				}
-				else if (sub.equals("end.angle"))
-				{
-					double radians = getCurrentContext().getPathEndAngle();
-					retval = new Argument(Math.toDegrees(radians));
-				}
-				else
-				{
-					bounds = getCurrentContext().getBounds2D();
-					retval = getBoundingBoxVariable(sub, bounds);
-				}
+				code = PATH_PART_VARIABLE_CODE;
+				subName = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + PATH_VARIABLE.length() + 1);
 			}
 			else if (varName.equals(INTERNAL_VARIABLE_PREFIX + PATH_VARIABLE))
 			{
-				retval = getCurrentContext().getPathArgument();
+				code = PATH_VARIABLE_CODE;
 			}
 			else if (varName.startsWith(INTERNAL_VARIABLE_PREFIX + WORLDS_VARIABLE + "."))
 			{
-				bounds = getCurrentContext().getWorldExtents();
-				sub = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + WORLDS_VARIABLE.length() + 1);
-				if (sub.equals("scale"))
-				{
-					retval = new Argument(getCurrentContext().getWorldScale());
-				}
-				else
-				{
-					retval = getBoundingBoxVariable(sub, bounds);
-				}
+				code = WORLDS_VARIABLE_CODE;
+				subName = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + WORLDS_VARIABLE.length() + 1);
 			}
 			else if (varName.startsWith(INTERNAL_VARIABLE_PREFIX + DATASET_VARIABLE + "."))
 			{
-				Dataset dataset = getCurrentContext().getDataset();
-				if (dataset == null)
-				{
-					/*
-					 * None of these variables are meaningful if there is
-					 * no dataset defined.
-					 */
-					retval = Argument.emptyString;
-				}
-				else
-				{
-					sub = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + DATASET_VARIABLE.length() + 1);
-					if (sub.equals("projection"))
-					{
-						String projection = dataset.getProjection();
-						if (projection == null)
-							retval = Argument.emptyString;
-						else
-							retval = new Argument(Argument.STRING, projection);
-					}
-					else if (sub.equals("fieldnames"))
-					{
-						String []fieldNames = dataset.getFieldNames();
-						retval = new Argument();
-
-						for (i = 0; i < fieldNames.length; i++)
-						{
-							retval.addHashMapEntry(String.valueOf(i + 1),
-								new Argument(Argument.STRING, fieldNames[i]));
-						}
-					}
-					else
-					{
-						Rectangle2D.Double worlds;
-						worlds = dataset.getWorlds();
-						retval = getBoundingBoxVariable(sub, worlds);
-					}
-				}
+				code = DATASET_VARIABLE_CODE;
+				subName = varName.substring(INTERNAL_VARIABLE_PREFIX.length() + DATASET_VARIABLE.length() + 1);
 			}
 			else if (varName.equals(INTERNAL_VARIABLE_PREFIX + IMAGEMAP_VARIABLE + ".x"))
 			{
-				if (m_imagemapPoint == null)
-					retval = Argument.numericMinusOne;
-				else
-					retval = new Argument(m_imagemapPoint.x);
+				code = IMAGEMAP_X_VARIABLE_CODE;
 			}
 			else if (varName.equals(INTERNAL_VARIABLE_PREFIX + IMAGEMAP_VARIABLE + ".y"))
 			{
-				if (m_imagemapPoint == null)
-					retval = Argument.numericMinusOne;
-				else
-					retval = new Argument(m_imagemapPoint.y);
+				code = IMAGEMAP_Y_VARIABLE_CODE;
 			}
+			retval = new InternalVariable(code, subName);
 		}
-		else
+		return(retval);
+	}
+
+	/**
+	 * Returns value of an internal variable.
+	 * @param variable internal variable to lookup.
+	 * @param interpreterFilename name of file being interpreted.
+	 * @return value of variable, or null if it is not defined.
+	 * @throws MapyrusException if variable cannot be evaluated.
+	 */
+	public Argument getInternalVariableValue(InternalVariable variable,
+		String interpreterFilename) throws MapyrusException
+	{
+		Argument retval = null;
+		int code = variable.m_code;
+		String sub = variable.m_subName;
+		int i;
+		Rectangle2D bounds;
+
+		if (code == FETCH_MORE_VARIABLE_CODE)
 		{
-			Context context = m_stack.getLast();
-			if (m_stack.size() > 1 && context.hasLocalScope(varName))
+			Dataset dataset = getCurrentContext().getDataset();
+			if (dataset != null && dataset.hasMoreRows())
+				retval = Argument.numericOne;
+			else
+				retval = Argument.numericZero;
+		}
+		else if (code == FETCH_COUNT_VARIABLE_CODE)
+		{
+			Dataset dataset = getCurrentContext().getDataset();
+			if (dataset == null)
+				retval = Argument.numericZero;
+			else
+				retval = new Argument(dataset.getFetchCount());
+		}
+		else if (code == TIMER_VARIABLE_CODE)
+		{
+			/*
+			 * The elapsed time in seconds since this context was created
+			 * at the beginning of interpreting a file.
+			 */
+			retval = new Argument((System.currentTimeMillis() - m_startTime) / 1000.0);
+		}
+		else if (code == TIME_VARIABLE_CODE)
+		{
+			GregorianCalendar calendar = new GregorianCalendar();
+
+			if (sub.equals("hour"))
+				retval = setTwoDigitNumber(calendar.get(Calendar.HOUR_OF_DAY));
+			else if (sub.equals("minute"))
+				retval = setTwoDigitNumber(calendar.get(Calendar.MINUTE));
+			else if (sub.equals("second"))
+				retval = setTwoDigitNumber(calendar.get(Calendar.SECOND));
+			else if (sub.equals("day"))
+				retval = setTwoDigitNumber(calendar.get(Calendar.DAY_OF_MONTH));
+			else if (sub.equals("day.name"))
+			{
+				SimpleDateFormat sdf = new SimpleDateFormat("EEEE");
+				retval = new Argument(Argument.STRING, sdf.format(calendar.getTime()));
+			}
+			else if (sub.equals("month"))
+				retval = setTwoDigitNumber(calendar.get(Calendar.MONTH) + 1);
+			else if (sub.equals("month.name"))
 			{
+				SimpleDateFormat sdf = new SimpleDateFormat("MMMM");
+				retval = new Argument(Argument.STRING, sdf.format(calendar.getTime()));
+			}
+			else if (sub.equals("week.of.year"))
+				retval = new Argument(calendar.get(Calendar.WEEK_OF_YEAR));
+			else if (sub.equals("day.of.week"))
+			{
+				int dayOfWeek;
+
 				/*
-				 * Lookup local variable in current context.
+				 * Convert Java Calendar values for days into values 1-7,
+				 * with Monday=1 like in cron(1) tasks.
 				 */
-				retval = context.getVariableValue(varName);
+				int cd = calendar.get(Calendar.DAY_OF_WEEK);
+				if (cd == Calendar.MONDAY)
+					dayOfWeek = 1;
+				else if (cd == Calendar.TUESDAY)
+					dayOfWeek = 2;
+				else if (cd == Calendar.WEDNESDAY)
+					dayOfWeek = 3;
+				else if (cd == Calendar.THURSDAY)
+					dayOfWeek = 4;
+				else if (cd == Calendar.FRIDAY)
+					dayOfWeek = 5;
+				else if (cd == Calendar.SATURDAY)
+					dayOfWeek = 6;
+				else
+					dayOfWeek = 7;
+				retval = new Argument(dayOfWeek);
 			}
-			else	
+			else if (sub.equals("year"))
+				retval = new Argument(calendar.get(Calendar.YEAR));
+			else if (sub.equals("stamp"))	
+				retval = new Argument(Argument.STRING, calendar.getTime().toString());
+			else
+				retval = null;
+		}
+		else if (code == VERSION_VARIABLE_CODE)
+		{
+			retval = new Argument(Argument.STRING, Constants.getVersion());
+		}
+		else if (code == FREE_MEMORY_VARIABLE_CODE)
+		{
+			retval = new Argument(Runtime.getRuntime().freeMemory());
+		}
+		else if (code == TOTAL_MEMORY_VARIABLE_CODE)
+		{
+			retval = new Argument(Runtime.getRuntime().totalMemory());
+		}
+		else if (code == STATEMENT_CACHE_HITS_VARIABLE_CODE)
+		{
+			retval = new Argument(StatementCache.getHitCount());
+		}
+		else if (code == STATEMENT_CACHE_MISSES_VARIABLE_CODE)
+		{
+			retval = new Argument(StatementCache.getMissCount());
+		}
+		else if (code == IMAGE_CACHE_HITS_VARIABLE_CODE)
+		{
+			retval = new Argument(ImageCache.getHitCount());
+		}
+		else if (code == IMAGE_CACHE_MISSES_VARIABLE_CODE)
+		{
+			retval = new Argument(ImageCache.getMissCount());
+		}
+		else if (code == IMAGE_CACHE_EVICTIONS_VARIABLE_CODE)
+		{
+			retval = new Argument(ImageCache.getEvictionCount());
+		}
+		else if (code == IMAGE_CACHE_BYTES_VARIABLE_CODE)
+		{
+			retval = new Argument(ImageCache.getSize());
+		}
+		else if (code == JDBC_ACTIVE_VARIABLE_CODE)
+		{
+			retval = new Argument(ConnectionPool.getActiveCount());
+		}
+		else if (code == JDBC_IDLE_VARIABLE_CODE)
+		{
+			retval = new Argument(ConnectionPool.getIdleCount());
+		}
+		else if (code == JDBC_WAITS_VARIABLE_CODE)
+		{
+			retval = new Argument(ConnectionPool.getWaitCount());
+		}
+		else if (code == JDBC_WAIT_TIME_VARIABLE_CODE)
+		{
+			retval = new Argument(ConnectionPool.getWaitTime());
+		}
+		else if (code == FILENAME_VARIABLE_CODE)
+		{
+			retval = new Argument(Argument.STRING, interpreterFilename);
+		}
+		else if (code == ROTATION_VARIABLE_CODE)
+		{
+			retval = new Argument(Math.toDegrees(getCurrentContext().getRotation()));
+		}
+		else if (code == SCALE_VARIABLE_CODE)
+		{
+			retval = new Argument(getCurrentContext().getScaling());
+		}
+		else if (code == KEY_COUNT_VARIABLE_CODE)
+		{
+			retval = new Argument(m_legendEntries.size());
+		}
+		else if (code == KEY_NEXT_VARIABLE_CODE)
+		{
+			LegendEntry top = m_legendEntries.first();
+			if (top == null)
+				retval = Argument.emptyString;
+			else
+				retval = new Argument(Argument.STRING, top.getBlockName());
+		}
+		else if (code == PAGE_VARIABLE_CODE)
+		{
+			if (sub.equals("width"))
+				retval = new Argument(getCurrentContext().getPageWidth());
+			else if (sub.equals("height"))
+				retval = new Argument(getCurrentContext().getPageHeight());
+			else if (sub.equals("format"))
+				retval = new Argument(Argument.STRING, getCurrentContext().getPageFormat());
+			else if (sub.equals("resolution.mm"))
+				retval = new Argument(getCurrentContext().getResolution());
+			else if (sub.equals("resolution.dpi"))
+			{
+				retval = new Argument(Constants.MM_PER_INCH /
+					getCurrentContext().getResolution());
+			}
+			else
+				retval = null;
+		}
+		else if (code == SCREEN_VARIABLE_CODE)
+		{
+			if (sub.equals("width"))
+				retval = new Argument(Constants.getScreenWidth());
+			else if (sub.equals("height"))
+				retval = new Argument(Constants.getScreenHeight());
+			else if (sub.equals("resolution.dpi"))
+				retval = new Argument(Constants.getScreenResolution());
+			else if (sub.equals("resolution.mm"))
+			{
+				retval = new Argument(Constants.MM_PER_INCH /
+					Constants.getScreenResolution());
+			}
+			else
+				retval = null;
+		}
+		else if (code == PATH_PART_VARIABLE_CODE)
+		{
+			if (sub.equals("length"))
+				retval = new Argument(getCurrentContext().getPathLength());
+			else if (sub.equals("area"))
+				retval = new Argument(getCurrentContext().getPathArea());
+			else if (sub.equals("centroid.x"))
+				retval = new Argument(getCurrentContext().getPathCentroid().getX());
+			else if (sub.equals("centroid.y"))
+				retval = new Argument(getCurrentContext().getPathCentroid().getY());
+			else if (sub.equals("start.x"))
+				retval = new Argument(getCurrentContext().getPathStartPoint().getX());
+			else if (sub.equals("start.y"))
+				retval = new Argument(getCurrentContext().getPathStartPoint().getY());
+			else if (sub.equals("end.x"))
+				retval = new Argument(getCurrentContext().getPathEndPoint().getX());
+			else if (sub.equals("end.y"))
+				retval = new Argument(getCurrentContext().getPathEndPoint().getY());
+			else if (sub.equals("start.angle"))
+			{
+				double radians = getCurrentContext().getPathStartAngle();
+				retval = new Argument(Math.toDegrees(radians));
+			}
+			else if (sub.equals("end.angle"))
+			{
+				double radians = getCurrentContext().getPathEndAngle();
+				retval = new Argument(Math.toDegrees(radians));
+			}
+			else
+			{
+				bounds = getCurrentContext().getBounds2D();
+				retval = getBoundingBoxVariable(sub, bounds);
+			}
+		}
+		else if (code == PATH_VARIABLE_CODE)
+		{
+			retval = getCurrentContext().getPathArgument();
+		}
+		else if (code == WORLDS_VARIABLE_CODE)
+		{
+			bounds = getCurrentContext().getWorldExtents();
+			if (sub.equals("scale"))
+			{
+				retval = new Argument(getCurrentContext().getWorldScale());
+			}
+			else
+			{
+				retval = getBoundingBoxVariable(sub, bounds);
+			}
+		}
+		else if (code == DATASET_VARIABLE_CODE)
+		{
+			Dataset dataset = getCurrentContext().getDataset();
+			if (dataset == null)
 			{
 				/*
-				 * Variable not defined in current context, is
-				 * it set as a global in the first context instead?
+				 * None of these variables are meaningful if there is
+				 * no dataset defined.
 				 */
-				context = m_stack.getFirst();
-				retval = context.getVariableValue(varName);
-			
-				String property = null;
-				try
+				retval = Argument.emptyString;
+			}
+			else
+			{
+				if (sub.equals("projection"))
 				{
-					if (retval == null)
-					{
-						try
-						{
-							/*
-							 * Variable not defined by user.  Is it set
-							 * as a system property or in environment?
-							 */
-							property = System.getProperty(varName);
-						}
-						catch (SecurityException e)
-						{
-							/*
-							 * We cannot access variable as a property so
-							 * consider it to be undefined.
-							 */
-						}
-						try
-						{
-							if (property == null)
-								property = System.getenv(varName);
-						}
-						catch (SecurityException e)
-						{
-							/*
-							 * We cannot access variable from environment so
-							 * consider it to be undefined.
-							 */
-						}
+					String projection = dataset.getProjection();
+					if (projection == null)
+						retval = Argument.emptyString;
+					else
+						retval = new Argument(Argument.STRING, projection);
+				}
+				else if (sub.equals("fieldnames"))
+				{
+					String []fieldNames = dataset.getFieldNames();
+					retval = new Argument();
 
-						if (property != null)
-						{
-							/*
-							 * Try to convert it to a number.
-							 */
-							d = Double.parseDouble(property);
-							retval = new Argument(d);
-						}
+					for (i = 0; i < fieldNames.length; i++)
+					{
+						retval.addHashMapEntry(String.valueOf(i + 1),
+							new Argument(Argument.STRING, fieldNames[i]));
 					}
 				}
-				catch (NumberFormatException e)
+				else
 				{
-					/*
-					 * System property was found but it is a
-					 * string, not a number.
-					 */
-					retval = new Argument(Argument.STRING, property);
+					Rectangle2D.Double worlds;
+					worlds = dataset.getWorlds();
+					retval = getBoundingBoxVariable(sub, worlds);
 				}
 			}
 		}
+		else if (code == IMAGEMAP_X_VARIABLE_CODE)
+		{
+			if (m_imagemapPoint == null)
+				retval = Argument.numericMinusOne;
+			else
+				retval = new Argument(m_imagemapPoint.x);
+		}
+		else if (code == IMAGEMAP_Y_VARIABLE_CODE)
+		{
+			if (m_imagemapPoint == null)
+				retval = Argument.numericMinusOne;
+			else
+				retval = new Argument(m_imagemapPoint.y);
+		}
 		return(retval);
 	}
 
+	/**
+	 * Returns value of a variable.
+	 * @param varName variable name to lookup.
+	 * @param interpreterFilename name of file being interpreted.
+	 * @return value of variable, or null if it is not defined.
+	 * @throws MapyrusException if variable cannot be evaluated.
+	 */
+	public Argument getVariableValue(String varName, String interpreterFilename)
+		throws MapyrusException
+	{
+		Argument retval;
+
+		InternalVariable internal = resolveInternalVariable(varName);
+		if (internal != null)
+			retval = getInternalVariableValue(internal, interpreterFilename);
+		else
+			retval = getUserVariableValue(varName);
+		return(retval);
+	}
+
+	/**
+	 * Returns value of a variable defined by the user, or
+	 * set as a system property or in the environment.
+	 * @param varName variable name to lookup.
+	 * @return value of variable, or null if it is not defined.
+	 */
+	private Argument getUserVariableValue(String varName)
+	{
+		Argument retval = null;
+		double d;
+
+		Context context = m_stack.getLast();
+		if (m_stack.size() > 1 && context.hasLocalScope(varName))
+		{
+			/*
+			 * Lookup local variable in current context.
+			 */
+			retval = context.getVariableValue(varName);
+		}
+		else	
+		{
+			/*
+			 * Variable not defined in current context, is
+			 * it set as a global in the first context instead?
+			 */
+			context = m_stack.getFirst();
+			retval = context.getVariableValue(varName);
+		
+			String property = null;
+			try
+			{
+				if (retval == null)
+				{
+					try
+					{
+						/*
+						 * Variable not defined by user.  Is it set
+						 * as a system property or in environment?
+						 */
+						property = System.getProperty(varName);
+					}
+					catch (SecurityException e)
+					{
+						/*
+						 * We cannot access variable as a property so
+						 * consider it to be undefined.
+						 */
+					}
+					try
+					{
+						if (property == null)
+							property = System.getenv(varName);
+					}
+					catch (SecurityException e)
+					{
+						/*
+						 * We cannot access variable from environment so
+						 * consider it to be undefined.
+						 */
+					}
+
+					if (property != null)
+					{
+						/*
+						 * Try to convert it to a number.
+						 */
+						d = Double.parseDouble(property);
+						retval = new Argument(d);
+					}
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				/*
+				 * System property was found but it is a
+				 * string, not a number.
+				 */
+				retval = new Argument(Argument.STRING, property);
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Returns value of a parameter or local variable in a procedure block.
+	 * @param slots slots of variables in procedure block.
+	 * @param slot slot of variable.
+	 * @param varName variable name, for lookup if variable is not local.
+	 * @param interpreterFilename name of file being interpreted.
+	 * @return value of variable, or null if it is not defined.
+	 * @throws MapyrusException if variable cannot be evaluated.
+	 */
+	public Argument getLocalVariableValue(VariableSlots slots, int slot,
+		String varName, String interpreterFilename) throws MapyrusException
+	{
+		Argument retval;
+		Context context = m_stack.getLast();
+		if (context.getVariableSlots() == slots && context.hasLocalScope(slot))
+			retval = context.getVariableValue(slot);
+		else
+			retval = getVariableValue(varName, interpreterFilename);
+		return(retval);
+	}
+
+	/**
+	 * Define a parameter or local variable in a procedure block.
+	 * @param slots slots of variables in procedure block.
+	 * @param slot slot of variable.
+	 * @param varName variable name, for defining variable if it is not local.
+	 * @param value is value for this variable.
+	 */
+	public void defineLocalVariable(VariableSlots slots, int slot,
+		String varName, Argument value)
+	{
+		Context context = getCurrentContext();
+		if (context.getVariableSlots() == slots && context.hasLocalScope(slot))
+			context.defineVariable(slot, value);
+		else
+			defineVariable(varName, value);
+	}
+
+	/**
+	 * Define parameter of procedure block as a local variable.
+	 * @param index index of parameter in parameter list.
+	 * @param parameterName name of parameter.
+	 * @param value value of parameter.
+	 */
+	public void defineParameter(int index, String parameterName, Argument value)
+	{
+		Context context = getCurrentContext();
+		VariableSlots slots = context.getVariableSlots();
+		if (slots != null)
+		{
+			int slot = slots.getParameterSlot(index);
+			context.setLocalScope(slot);
+			context.defineVariable(slot, value);
+		}
+		else
+		{
+			context.setLocalScope(parameterName);
+			context.defineVariable(parameterName, value);
+		}
+	}
+
 	/**
 	 * Indicates that a variable in the current context is to have local scope,
 	 * defined in current context only and not accessible by any other context.
@@ -1726,7 +2098,19 @@ public class ContextStack
 	 */
 	public void saveState(String blockName) throws MapyrusException
 	{
-		pushContext(blockName);
+		pushContext(blockName, null);
+	}
+
+	/**
+	 * Save current context so that it can be restored later with restoreState,
+	 * holding parameters and local variables of a procedure block in slots.
+	 * @param blockName name of procedure block that saved state will run.
+	 * @param slots slots of parameters and local variables in procedure block.
+	 * @throws MapyrusException if maximum stack depth exceeded.
+	 */
+	public void saveState(String blockName, VariableSlots slots) throws MapyrusException
+	{
+		pushContext(blockName, slots);
 	}
 
 	/**
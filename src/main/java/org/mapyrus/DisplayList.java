@@ -0,0 +1,1146 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Shape;
+import java.awt.color.ColorSpace;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+import org.mapyrus.image.ColorIcon;
+
+/**
+ * A display list, recording drawing operations made to an output page
+ * as a compact binary stream of operations.
+ * The display list is held in memory until it exceeds a size limit,
+ * then it is moved to a temporary file.
+ *
+ * A display list can be replayed to another output page, in any format,
+ * creating the same page again without re-running the commands
+ * and re-reading the datasets that created it.
+ */
+public class DisplayList
+{
+	/*
+	 * Codes for each operation in display list.
+	 */
+	private static final int SAVE_STATE = 1;
+	private static final int RESTORE_STATE = 2;
+	private static final int SET_FONT = 3;
+	private static final int SET_JUSTIFY = 4;
+	private static final int SET_COLOR = 5;
+	private static final int SET_BLEND = 6;
+	private static final int SET_LINESTYLE = 7;
+	private static final int SET_CLIP = 8;
+	private static final int DRAW_ICON = 9;
+	private static final int DRAW_GEOIMAGE = 10;
+	private static final int DRAW_EPS = 11;
+	private static final int DRAW_SVG = 12;
+	private static final int ADD_SVG_CODE = 13;
+	private static final int DRAW_PDF = 14;
+	private static final int BEGIN_PDF_GROUP = 15;
+	private static final int END_PDF_GROUP = 16;
+	private static final int STROKE = 17;
+	private static final int FILL = 18;
+	private static final int SET_EVENT_SCRIPT = 19;
+	private static final int GRADIENT_FILL = 20;
+	private static final int CLIP = 21;
+	private static final int LABEL = 22;
+
+	/*
+	 * Marker for end of segments in a shape.
+	 */
+	private static final int END_OF_SHAPE = -1;
+
+	/*
+	 * Types of color stored in display list.
+	 */
+	private static final int NO_COLOR = 0;
+	private static final int RGB_COLOR = 1;
+	private static final int CMYK_COLOR = 2;
+
+	/*
+	 * Maximum size of display list to hold in memory before moving it to a file.
+	 */
+	private static final int DEFAULT_MAX_MEMORY = 16 * 1024 * 1024;
+
+	private DataOutputStream m_out;
+	private ByteArrayOutputStream m_buffer;
+	private File m_file;
+	private int m_maxMemory;
+	private IOException m_error;
+
+	/*
+	 * Images already stored in display list, so that an icon drawn many
+	 * times is only stored once.
+	 */
+	private WeakHashMap<BufferedImage, Integer> m_imageIds;
+	private int m_imageCounter;
+
+	/**
+	 * Output stream holding display list in memory, then moving it
+	 * to a temporary file when it becomes too large.
+	 */
+	private class SpillingOutputStream extends OutputStream
+	{
+		private OutputStream m_stream = m_buffer;
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			if (m_file == null && m_buffer.size() + 1 > m_maxMemory)
+				spill();
+			m_stream.write(b);
+		}
+
+		@Override
+		public void write(byte []b, int off, int len) throws IOException
+		{
+			if (m_file == null && m_buffer.size() + len > m_maxMemory)
+				spill();
+			m_stream.write(b, off, len);
+		}
+
+		/*
+		 * Move display list from memory to a temporary file.
+		 */
+		private void spill() throws IOException
+		{
+			m_file = File.createTempFile(Constants.PROGRAM_NAME, ".dl");
+			m_file.deleteOnExit();
+			m_stream = new BufferedOutputStream(new FileOutputStream(m_file));
+			m_buffer.writeTo(m_stream);
+			m_buffer = null;
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			m_stream.flush();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			m_stream.close();
+		}
+	}
+
+	/**
+	 * Create new, empty display list.
+	 */
+	public DisplayList()
+	{
+		this(DEFAULT_MAX_MEMORY);
+	}
+
+	/**
+	 * Create new, empty display list.
+	 * @param maxMemory maximum number of bytes of display list to hold in memory.
+	 */
+	public DisplayList(int maxMemory)
+	{
+		m_maxMemory = maxMemory;
+		m_buffer = new ByteArrayOutputStream();
+		m_file = null;
+		m_out = new DataOutputStream(new BufferedOutputStream(new SpillingOutputStream()));
+		m_error = null;
+		m_imageIds = new WeakHashMap<BufferedImage, Integer>();
+		m_imageCounter = 0;
+	}
+
+	/**
+	 * Get size of display list.
+	 * @return number of bytes in display list.
+	 */
+	public long size()
+	{
+		return(m_out.size());
+	}
+
+	/*
+	 * Write string, which may be null, to display list.
+	 */
+	private void writeString(String s) throws IOException
+	{
+		if (s == null)
+		{
+			m_out.writeInt(-1);
+		}
+		else
+		{
+			byte []b = s.getBytes(StandardCharsets.UTF_8);
+			m_out.writeInt(b.length);
+			m_out.write(b);
+		}
+	}
+
+	/*
+	 * Write color, which may be null, to display list.
+	 */
+	private void writeColor(Color color) throws IOException
+	{
+		if (color == null)
+		{
+			m_out.writeByte(NO_COLOR);
+		}
+		else if (color.getColorSpace().getType() == ColorSpace.TYPE_CMYK)
+		{
+			m_out.writeByte(CMYK_COLOR);
+			float []c = color.getColorComponents(null);
+			for (int i = 0; i < c.length; i++)
+				m_out.writeFloat(c[i]);
+			m_out.writeByte(color.getAlpha());
+		}
+		else
+		{
+			m_out.writeByte(RGB_COLOR);
+			m_out.writeInt(color.getRGB());
+		}
+	}
+
+	/*
+	 * Write each segment of shape to display list.
+	 */
+	private void writeShape(Shape shape) throws IOException
+	{
+		PathIterator pi = shape.getPathIterator(null);
+		double []coords = new double[6];
+		m_out.writeByte(pi.getWindingRule());
+		while (!pi.isDone())
+		{
+			int segmentType = pi.currentSegment(coords);
+			m_out.writeByte(segmentType);
+			int nCoords = 0;
+			if (segmentType == PathIterator.SEG_MOVETO || segmentType == PathIterator.SEG_LINETO)
+				nCoords = 2;
+			else if (segmentType == PathIterator.SEG_QUADTO)
+				nCoords = 4;
+			else if (segmentType == PathIterator.SEG_CUBICTO)
+				nCoords = 6;
+			for (int i = 0; i < nCoords; i++)
+				m_out.writeDouble(coords[i]);
+			pi.next();
+		}
+		m_out.writeByte(END_OF_SHAPE);
+	}
+
+	/*
+	 * Write list of points to display list.
+	 */
+	private void writePoints(ArrayList<Point2D> pointList) throws IOException
+	{
+		m_out.writeInt(pointList.size());
+		for (Point2D pt : pointList)
+		{
+			m_out.writeDouble(pt.getX());
+			m_out.writeDouble(pt.getY());
+		}
+	}
+
+	/*
+	 * Write image to display list, or just a reference to it
+	 * if it has already been written.
+	 */
+	private void writeImage(BufferedImage image) throws IOException
+	{
+		Integer id = m_imageIds.get(image);
+		if (id != null)
+		{
+			m_out.writeInt(id.intValue());
+		}
+		else
+		{
+			id = Integer.valueOf(m_imageCounter++);
+			m_imageIds.put(image, id);
+			m_out.writeInt(id.intValue());
+
+			/*
+			 * Keep image type, unless it depends on a color model
+			 * that we do not store.
+			 */
+			int imageType = image.getType();
+			if (imageType == BufferedImage.TYPE_CUSTOM ||
+				imageType == BufferedImage.TYPE_BYTE_BINARY ||
+				imageType == BufferedImage.TYPE_BYTE_INDEXED)
+			{
+				imageType = BufferedImage.TYPE_INT_ARGB;
+			}
+
+			int width = image.getWidth();
+			int height = image.getHeight();
+			m_out.writeInt(width);
+			m_out.writeInt(height);
+			m_out.writeByte(imageType);
+			int []row = new int[width];
+			for (int y = 0; y < height; y++)
+			{
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int x = 0; x < width; x++)
+					m_out.writeInt(row[x]);
+			}
+		}
+	}
+
+	/*
+	 * Write code for next operation to display list.
+	 */
+	private void writeOperation(int code) throws IOException
+	{
+		m_out.writeByte(code);
+	}
+
+	/*
+	 * Save first error writing to display list, to be reported when it is replayed.
+	 */
+	private void setError(IOException e)
+	{
+		if (m_error == null)
+			m_error = e;
+	}
+
+	/**
+	 * Record saving graphics state.
+	 */
+	public void saveState()
+	{
+		try
+		{
+			writeOperation(SAVE_STATE);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record restoring graphics state.
+	 */
+	public void restoreState()
+	{
+		try
+		{
+			writeOperation(RESTORE_STATE);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record setting font.
+	 * @param fontName name of font.
+	 * @param fontSize size for labelling in millimetres.
+	 * @param fontRotation rotation angle for font, in degrees.
+	 * @param outlineWidth width for character outlines.
+	 * @param lineSpacing spacing between lines in multi-line labels.
+	 */
+	public void setFontAttribute(String fontName, double fontSize,
+		double fontRotation, double outlineWidth, double lineSpacing)
+	{
+		try
+		{
+			writeOperation(SET_FONT);
+			writeString(fontName);
+			m_out.writeDouble(fontSize);
+			m_out.writeDouble(fontRotation);
+			m_out.writeDouble(outlineWidth);
+			m_out.writeDouble(lineSpacing);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record setting label justification.
+	 * @param justify label justification value.
+	 */
+	public void setJustifyAttribute(int justify)
+	{
+		try
+		{
+			writeOperation(SET_JUSTIFY);
+			m_out.writeInt(justify);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record setting color.
+	 * @param color color to draw in.
+	 */
+	public void setColorAttribute(Color color)
+	{
+		try
+		{
+			writeOperation(SET_COLOR);
+			writeColor(color);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record setting color blending mode.
+	 * @param blend color blending mode.
+	 */
+	public void setBlendAttribute(String blend)
+	{
+		try
+		{
+			writeOperation(SET_BLEND);
+			writeString(blend);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record setting linestyle.
+	 * @param linestyle line width, cap and join style, dash pattern.
+	 */
+	public void setLinestyleAttribute(BasicStroke linestyle)
+	{
+		try
+		{
+			writeOperation(SET_LINESTYLE);
+			m_out.writeFloat(linestyle.getLineWidth());
+			m_out.writeByte(linestyle.getEndCap());
+			m_out.writeByte(linestyle.getLineJoin());
+			m_out.writeFloat(linestyle.getMiterLimit());
+			float []dashes = linestyle.getDashArray();
+			if (dashes == null)
+			{
+				m_out.writeInt(-1);
+			}
+			else
+			{
+				m_out.writeInt(dashes.length);
+				for (int i = 0; i < dashes.length; i++)
+					m_out.writeFloat(dashes[i]);
+			}
+			m_out.writeFloat(linestyle.getDashPhase());
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record setting clip paths.
+	 * @param clipPaths polygons to clip against, or null if there are no clip polygons.
+	 */
+	public void setClipAttribute(ArrayList<GeometricPath> clipPaths)
+	{
+		try
+		{
+			writeOperation(SET_CLIP);
+			if (clipPaths == null)
+			{
+				m_out.writeInt(-1);
+			}
+			else
+			{
+				m_out.writeInt(clipPaths.size());
+				for (GeometricPath clipPath : clipPaths)
+					writeShape(clipPath.getShape());
+			}
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record drawing icon.
+	 * @param pointList points at which to draw icon.
+	 * @param icon image to draw.
+	 * @param size size of icon in millimeters.
+	 * @param rotation rotation angle for icon.
+	 * @param scaling scale factor for icon.
+	 */
+	public void drawIcon(ArrayList<Point2D> pointList, ColorIcon icon, double size,
+		double rotation, double scaling)
+	{
+		try
+		{
+			writeOperation(DRAW_ICON);
+			writePoints(pointList);
+			writeImage(icon.getImage());
+			writeColor(icon.getColor());
+			m_out.writeDouble(size);
+			m_out.writeDouble(rotation);
+			m_out.writeDouble(scaling);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record drawing geo-referenced image.
+	 * @param image image to display.
+	 * @param x X coordinate of bottom left corner of image.
+	 * @param y Y coordinate of bottom left corner of image.
+	 * @param width width of image in millimetres.
+	 * @param height height of image in millimetres.
+	 */
+	public void drawGeoImage(BufferedImage image,
+		double x, double y, double width, double height)
+	{
+		try
+		{
+			writeOperation(DRAW_GEOIMAGE);
+			writeImage(image);
+			m_out.writeDouble(x);
+			m_out.writeDouble(y);
+			m_out.writeDouble(width);
+			m_out.writeDouble(height);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/*
+	 * Record drawing EPS or SVG file.
+	 */
+	private void drawFile(int code, ArrayList<Point2D> pointList, String filename,
+		double size, double rotation, double scaling)
+	{
+		try
+		{
+			writeOperation(code);
+			writePoints(pointList);
+			writeString(filename);
+			m_out.writeDouble(size);
+			m_out.writeDouble(rotation);
+			m_out.writeDouble(scaling);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record drawing EPS file.
+	 * @param pointList points at which to draw EPS file.
+	 * @param filename EPS filename.
+	 * @param size size for EPS file on page in millimetres.
+	 * @param rotation rotation angle for EPS file.
+	 * @param scaling scale factor for EPS file.
+	 */
+	public void drawEPS(ArrayList<Point2D> pointList, String filename,
+		double size, double rotation, double scaling)
+	{
+		drawFile(DRAW_EPS, pointList, filename, size, rotation, scaling);
+	}
+
+	/**
+	 * Record drawing SVG file.
+	 * @param pointList points at which to draw SVG file.
+	 * @param filename SVG filename.
+	 * @param size size for SVG file on page in millimetres.
+	 * @param rotation rotation angle for SVG file.
+	 * @param scaling scale factor for SVG file.
+	 */
+	public void drawSVG(ArrayList<Point2D> pointList, String filename,
+		double size, double rotation, double scaling)
+	{
+		drawFile(DRAW_SVG, pointList, filename, size, rotation, scaling);
+	}
+
+	/**
+	 * Record adding SVG code to page.
+	 * @param xml XML elements to add to SVG file.
+	 */
+	public void addSVGCode(String xml)
+	{
+		try
+		{
+			writeOperation(ADD_SVG_CODE);
+			writeString(xml);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record drawing page of PDF file.
+	 * @param pointList points at which to draw PDF file.
+	 * @param filename PDF filename.
+	 * @param page page number in PDF file to display.
+	 * @param size size for PDF file on page in millimetres.
+	 * @param rotation rotation angle for PDF file.
+	 * @param scaling scale factor for PDF file.
+	 */
+	public void drawPDF(ArrayList<Point2D> pointList, String filename, int page,
+		double size, double rotation, double scaling)
+	{
+		try
+		{
+			writeOperation(DRAW_PDF);
+			writePoints(pointList);
+			writeString(filename);
+			m_out.writeInt(page);
+			m_out.writeDouble(size);
+			m_out.writeDouble(rotation);
+			m_out.writeDouble(scaling);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record beginning a PDF group.
+	 * @param groupName name of group.
+	 */
+	public void beginPDFGroup(String groupName)
+	{
+		try
+		{
+			writeOperation(BEGIN_PDF_GROUP);
+			writeString(groupName);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record ending a PDF group.
+	 */
+	public void endPDFGroup()
+	{
+		try
+		{
+			writeOperation(END_PDF_GROUP);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/*
+	 * Record operation on a shape with an optional string.
+	 */
+	private void drawShape(int code, Shape shape, String s)
+	{
+		try
+		{
+			writeOperation(code);
+			writeShape(shape);
+			writeString(s);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record drawing shape.
+	 * @param shape shape to draw on page.
+	 * @param xmlAttributes XML attributes to add for SVG output.
+	 */
+	public void stroke(Shape shape, String xmlAttributes)
+	{
+		drawShape(STROKE, shape, xmlAttributes);
+	}
+
+	/**
+	 * Record filling shape.
+	 * @param shape shape to fill on page.
+	 * @param xmlAttributes XML attributes to add for SVG output.
+	 */
+	public void fill(Shape shape, String xmlAttributes)
+	{
+		drawShape(FILL, shape, xmlAttributes);
+	}
+
+	/**
+	 * Record setting script commands for shape.
+	 * @param shape shape on page.
+	 * @param scriptCommands script commands to run when this shape is clicked.
+	 */
+	public void setEventScript(Shape shape, String scriptCommands)
+	{
+		drawShape(SET_EVENT_SCRIPT, shape, scriptCommands);
+	}
+
+	/**
+	 * Record filling shape with gradient fill pattern.
+	 * @param shape shape to be filled.
+	 * @param isVerticalGradient true if vertical color gradient to be used.
+	 * @param c1 color for left or bottom of shape.
+	 * @param c2 color for right or top of shape.
+	 */
+	public void gradientFill(Shape shape, boolean isVerticalGradient, Color c1, Color c2)
+	{
+		try
+		{
+			writeOperation(GRADIENT_FILL);
+			writeShape(shape);
+			m_out.writeBoolean(isVerticalGradient);
+			writeColor(c1);
+			writeColor(c2);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/**
+	 * Record setting clip region to inside of shape.
+	 * @param shape shape to clip to.
+	 */
+	public void clip(Shape shape)
+	{
+		drawShape(CLIP, shape, null);
+	}
+
+	/**
+	 * Record drawing label.
+	 * @param pointList points at which to draw label.
+	 * @param label string to draw.
+	 */
+	public void label(ArrayList<Point2D> pointList, String label)
+	{
+		try
+		{
+			writeOperation(LABEL);
+			writePoints(pointList);
+			writeString(label);
+		}
+		catch (IOException e)
+		{
+			setError(e);
+		}
+	}
+
+	/*
+	 * Read string, which may be null, from display list.
+	 */
+	private static String readString(DataInputStream in) throws IOException
+	{
+		String retval = null;
+		int length = in.readInt();
+		if (length >= 0)
+		{
+			byte []b = new byte[length];
+			in.readFully(b);
+			retval = new String(b, StandardCharsets.UTF_8);
+		}
+		return(retval);
+	}
+
+	/*
+	 * Read color, which may be null, from display list.
+	 */
+	private static Color readColor(DataInputStream in) throws IOException
+	{
+		Color retval = null;
+		int colorType = in.readByte();
+		if (colorType == CMYK_COLOR)
+		{
+			float []c = new float[4];
+			for (int i = 0; i < c.length; i++)
+				c[i] = in.readFloat();
+			int alpha = in.readUnsignedByte();
+			retval = new Color(new CMYKColorSpace(), c, alpha / 255.0f);
+		}
+		else if (colorType == RGB_COLOR)
+		{
+			retval = new Color(in.readInt(), true);
+		}
+		return(retval);
+	}
+
+	/*
+	 * Read shape from display list.
+	 */
+	private static Path2D readShape(DataInputStream in) throws IOException
+	{
+		Path2D retval = new Path2D.Double(in.readByte());
+		int segmentType;
+		while ((segmentType = in.readByte()) != END_OF_SHAPE)
+		{
+			if (segmentType == PathIterator.SEG_MOVETO)
+			{
+				retval.moveTo(in.readDouble(), in.readDouble());
+			}
+			else if (segmentType == PathIterator.SEG_LINETO)
+			{
+				retval.lineTo(in.readDouble(), in.readDouble());
+			}
+			else if (segmentType == PathIterator.SEG_QUADTO)
+			{
+				retval.quadTo(in.readDouble(), in.readDouble(),
+					in.readDouble(), in.readDouble());
+			}
+			else if (segmentType == PathIterator.SEG_CUBICTO)
+			{
+				retval.curveTo(in.readDouble(), in.readDouble(),
+					in.readDouble(), in.readDouble(),
+					in.readDouble(), in.readDouble());
+			}
+			else
+			{
+				retval.closePath();
+			}
+		}
+		return(retval);
+	}
+
+	/*
+	 * Read shape from display list as a geometric path.
+	 */
+	private static GeometricPath readGeometricPath(DataInputStream in)
+		throws IOException, MapyrusException
+	{
+		GeometricPath retval = new GeometricPath();
+		PathIterator pi = readShape(in).getPathIterator(null);
+		float []coords = new float[6];
+		float lastX = 0, lastY = 0;
+		while (!pi.isDone())
+		{
+			int segmentType = pi.currentSegment(coords);
+			if (segmentType == PathIterator.SEG_MOVETO)
+			{
+				retval.moveTo(coords[0], coords[1], 0);
+				lastX = coords[0];
+				lastY = coords[1];
+			}
+			else if (segmentType == PathIterator.SEG_LINETO)
+			{
+				retval.lineTo(coords[0], coords[1]);
+				lastX = coords[0];
+				lastY = coords[1];
+			}
+			else if (segmentType == PathIterator.SEG_QUADTO)
+			{
+				/*
+				 * Convert quadratic curve to the equivalent cubic curve.
+				 */
+				retval.curveTo(lastX + 2 * (coords[0] - lastX) / 3,
+					lastY + 2 * (coords[1] - lastY) / 3,
+					coords[2] + 2 * (coords[0] - coords[2]) / 3,
+					coords[3] + 2 * (coords[1] - coords[3]) / 3,
+					coords[2], coords[3]);
+				lastX = coords[2];
+				lastY = coords[3];
+			}
+			else if (segmentType == PathIterator.SEG_CUBICTO)
+			{
+				retval.curveTo(coords[0], coords[1], coords[2], coords[3],
+					coords[4], coords[5]);
+				lastX = coords[4];
+				lastY = coords[5];
+			}
+			else
+			{
+				retval.closePath();
+			}
+			pi.next();
+		}
+		return(retval);
+	}
+
+	/*
+	 * Read list of points from display list.
+	 */
+	private static ArrayList<Point2D> readPoints(DataInputStream in) throws IOException
+	{
+		int nPoints = in.readInt();
+		ArrayList<Point2D> retval = new ArrayList<Point2D>(nPoints);
+		for (int i = 0; i < nPoints; i++)
+			retval.add(new Point2D.Double(in.readDouble(), in.readDouble()));
+		return(retval);
+	}
+
+	/*
+	 * Read image from display list, or find image that was read earlier.
+	 */
+	private static BufferedImage readImage(DataInputStream in,
+		ArrayList<BufferedImage> images) throws IOException
+	{
+		BufferedImage retval;
+		int id = in.readInt();
+		if (id < images.size())
+		{
+			retval = images.get(id);
+		}
+		else
+		{
+			int width = in.readInt();
+			int height = in.readInt();
+			int imageType = in.readByte();
+			retval = new BufferedImage(width, height, imageType);
+			int []row = new int[width];
+			for (int y = 0; y < height; y++)
+			{
+				for (int x = 0; x < width; x++)
+					row[x] = in.readInt();
+				retval.setRGB(0, y, width, 1, row, 0, width);
+			}
+			images.add(retval);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Replay all operations in display list to an output page.
+	 * @param outputFormat output page to draw to.
+	 * @throws IOException if reading display list or writing to output page fails.
+	 * @throws MapyrusException if drawing to output page fails.
+	 */
+	public void replay(OutputFormat outputFormat) throws IOException, MapyrusException
+	{
+		m_out.flush();
+		if (m_error != null)
+			throw m_error;
+
+		InputStream stream;
+		if (m_file != null)
+			stream = new BufferedInputStream(new FileInputStream(m_file));
+		else
+			stream = new ByteArrayInputStream(m_buffer.toByteArray());
+
+		ArrayList<BufferedImage> images = new ArrayList<BufferedImage>();
+		try (DataInputStream in = new DataInputStream(stream))
+		{
+			int code;
+			while ((code = in.read()) >= 0)
+			{
+				if (code == SAVE_STATE)
+				{
+					outputFormat.saveState();
+				}
+				else if (code == RESTORE_STATE)
+				{
+					outputFormat.restoreState();
+				}
+				else if (code == SET_FONT)
+				{
+					String fontName = readString(in);
+					double fontSize = in.readDouble();
+					double fontRotation = in.readDouble();
+					double outlineWidth = in.readDouble();
+					double lineSpacing = in.readDouble();
+					outputFormat.setFontAttribute(fontName, fontSize,
+						fontRotation, outlineWidth, lineSpacing);
+				}
+				else if (code == SET_JUSTIFY)
+				{
+					outputFormat.setJustifyAttribute(in.readInt());
+				}
+				else if (code == SET_COLOR)
+				{
+					outputFormat.setColorAttribute(readColor(in));
+				}
+				else if (code == SET_BLEND)
+				{
+					outputFormat.setBlendAttribute(readString(in));
+				}
+				else if (code == SET_LINESTYLE)
+				{
+					float width = in.readFloat();
+					int cap = in.readByte();
+					int join = in.readByte();
+					float miterLimit = in.readFloat();
+					int nDashes = in.readInt();
+					float []dashes = null;
+					if (nDashes >= 0)
+					{
+						dashes = new float[nDashes];
+						for (int i = 0; i < nDashes; i++)
+							dashes[i] = in.readFloat();
+					}
+					float dashPhase = in.readFloat();
+					outputFormat.setLinestyleAttribute(new BasicStroke(width,
+						cap, join, miterLimit, dashes, dashPhase));
+				}
+				else if (code == SET_CLIP)
+				{
+					int nPaths = in.readInt();
+					ArrayList<GeometricPath> clipPaths = null;
+					if (nPaths >= 0)
+					{
+						clipPaths = new ArrayList<GeometricPath>(nPaths);
+						for (int i = 0; i < nPaths; i++)
+							clipPaths.add(readGeometricPath(in));
+					}
+					outputFormat.setClipAttribute(clipPaths);
+				}
+				else if (code == DRAW_ICON)
+				{
+					ArrayList<Point2D> pointList = readPoints(in);
+					BufferedImage image = readImage(in, images);
+					Color color = readColor(in);
+					double size = in.readDouble();
+					double rotation = in.readDouble();
+					double scaling = in.readDouble();
+					outputFormat.drawIcon(pointList, new ColorIcon(image, color),
+						size, rotation, scaling);
+				}
+				else if (code == DRAW_GEOIMAGE)
+				{
+					BufferedImage image = readImage(in, images);
+					double x = in.readDouble();
+					double y = in.readDouble();
+					double width = in.readDouble();
+					double height = in.readDouble();
+					outputFormat.drawGeoImage(image, x, y, width, height);
+				}
+				else if (code == DRAW_EPS || code == DRAW_SVG)
+				{
+					ArrayList<Point2D> pointList = readPoints(in);
+					String filename = readString(in);
+					double size = in.readDouble();
+					double rotation = in.readDouble();
+					double scaling = in.readDouble();
+					if (code == DRAW_EPS)
+						outputFormat.drawEPS(pointList, filename, size, rotation, scaling);
+					else
+						outputFormat.drawSVG(pointList, filename, size, rotation, scaling);
+				}
+				else if (code == ADD_SVG_CODE)
+				{
+					outputFormat.addSVGCode(readString(in));
+				}
+				else if (code == DRAW_PDF)
+				{
+					ArrayList<Point2D> pointList = readPoints(in);
+					String filename = readString(in);
+					int page = in.readInt();
+					double size = in.readDouble();
+					double rotation = in.readDouble();
+					double scaling = in.readDouble();
+					outputFormat.drawPDF(pointList, filename, page, size, rotation, scaling);
+				}
+				else if (code == BEGIN_PDF_GROUP)
+				{
+					outputFormat.beginPDFGroup(readString(in));
+				}
+				else if (code == END_PDF_GROUP)
+				{
+					outputFormat.endPDFGroup();
+				}
+				else if (code == STROKE)
+				{
+					Path2D shape = readShape(in);
+					outputFormat.stroke(shape, readString(in));
+				}
+				else if (code == FILL)
+				{
+					Path2D shape = readShape(in);
+					outputFormat.fill(shape, readString(in));
+				}
+				else if (code == SET_EVENT_SCRIPT)
+				{
+					Path2D shape = readShape(in);
+					outputFormat.setEventScript(shape, readString(in));
+				}
+				else if (code == GRADIENT_FILL)
+				{
+					Path2D shape = readShape(in);
+					boolean isVerticalGradient = in.readBoolean();
+					Color c1 = readColor(in);
+					Color c2 = readColor(in);
+					outputFormat.gradientFill(shape, isVerticalGradient, c1, c2);
+				}
+				else if (code == CLIP)
+				{
+					Path2D shape = readShape(in);
+					readString(in);
+					outputFormat.clip(shape);
+				}
+				else if (code == LABEL)
+				{
+					ArrayList<Point2D> pointList = readPoints(in);
+					outputFormat.label(pointList, readString(in));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Release display list, deleting any temporary file holding it.
+	 */
+	public void close()
+	{
+		try
+		{
+			m_out.close();
+		}
+		catch (IOException e)
+		{
+		}
+		if (m_file != null)
+		{
+			m_file.delete();
+			m_file = null;
+		}
+		m_buffer = null;
+		m_imageIds = null;
+	}
+}
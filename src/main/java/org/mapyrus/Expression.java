@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.mapyrus.function.*;
 
@@ -772,7 +773,903 @@ public class Expression
 		}
 	}
 
+	/*
+	 * Node in an expression tree compiled to nodes specialised for
+	 * each operation.  Numeric values are passed between nodes as doubles
+	 * using evaluateNumber(), avoiding creating an Argument for every
+	 * intermediate result.
+	 */
+	private static abstract class CompiledNode
+	{
+		/**
+		 * Evaluate node.
+		 * @param context variable definitions and other context information.
+		 * @param interpreterFilename name of file being interpreted.
+		 * @return numeric or string value of node.
+		 * @throws MapyrusException if node cannot be evaluated.
+		 * @throws InterruptedException if evaluation is interrupted.
+		 */
+		public abstract Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException;
+
+		/**
+		 * Evaluate node as a number.
+		 * @param context variable definitions and other context information.
+		 * @param interpreterFilename name of file being interpreted.
+		 * @return numeric value of node.
+		 * @throws MapyrusException if node cannot be evaluated.
+		 * @throws InterruptedException if evaluation is interrupted.
+		 */
+		public double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			return(evaluate(context, interpreterFilename).getNumericValue());
+		}
+	}
+
+	/*
+	 * Node that always evaluates to a number.
+	 */
+	private static abstract class NumericNode extends CompiledNode
+	{
+		@Override
+		public abstract double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException;
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			double d = evaluateNumber(context, interpreterFilename);
+			if (d == 0.0)
+				return(Argument.numericZero);
+			else if (d == 1.0)
+				return(Argument.numericOne);
+			else
+				return(new Argument(d));
+		}
+	}
+
+	/*
+	 * Numeric operation between two sub-expressions.
+	 */
+	private static abstract class BinaryNumericNode extends NumericNode
+	{
+		private CompiledNode m_left;
+		private CompiledNode m_right;
+
+		public BinaryNumericNode(CompiledNode left, CompiledNode right)
+		{
+			m_left = left;
+			m_right = right;
+		}
+
+		/**
+		 * Apply operation to values of sub-expressions.
+		 * @param l value of left hand side of expression.
+		 * @param r value of right hand side of expression.
+		 * @return result of operation.
+		 * @throws MapyrusException on numeric overflow.
+		 */
+		protected abstract double apply(double l, double r) throws MapyrusException;
+
+		@Override
+		public double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			double l = m_left.evaluateNumber(context, interpreterFilename);
+			double r = m_right.evaluateNumber(context, interpreterFilename);
+			return(apply(l, r));
+		}
+	}
+
+	/*
+	 * Comparison of two sub-expressions as strings.
+	 */
+	private static abstract class BinaryLexicalNode extends NumericNode
+	{
+		private CompiledNode m_left;
+		private CompiledNode m_right;
+
+		public BinaryLexicalNode(CompiledNode left, CompiledNode right)
+		{
+			m_left = left;
+			m_right = right;
+		}
+
+		/**
+		 * Compare values of sub-expressions.
+		 * @param l value of left hand side of expression.
+		 * @param r value of right hand side of expression.
+		 * @return result of comparison.
+		 */
+		protected abstract boolean apply(String l, String r);
+
+		@Override
+		public double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			String l = m_left.evaluate(context, interpreterFilename).toString();
+			String r = m_right.evaluate(context, interpreterFilename).toString();
+			return(apply(l, r) ? 1 : 0);
+		}
+	}
+
+	/*
+	 * Number or string value.
+	 */
+	private static class ConstantNode extends CompiledNode
+	{
+		private Argument m_value;
+
+		public ConstantNode(Argument value)
+		{
+			m_value = value;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+		{
+			return(m_value);
+		}
+
+		@Override
+		public double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException
+		{
+			return(m_value.getNumericValue());
+		}
+	}
+
+	/*
+	 * Value of a variable.
+	 */
+	private static class VariableNode extends CompiledNode
+	{
+		private String m_varName;
+
+		public VariableNode(String varName)
+		{
+			m_varName = varName;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException
+		{
+			/*
+			 * Variables that are not assigned are given the value of
+			 * an empty string, like in awk(1) and Perl.
+			 */
+			Argument retval = context.getVariableValue(m_varName, interpreterFilename);
+			if (retval == null)
+				retval = Argument.emptyString;
+			return(retval);
+		}
+
+		@Override
+		public double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException
+		{
+			Argument value = context.getVariableValue(m_varName, interpreterFilename);
+			return((value == null) ? 0 : value.getNumericValue());
+		}
+	}
+
+	/*
+	 * Call to a function.
+	 */
+	private static class FunctionNode extends CompiledNode
+	{
+		private Function m_function;
+		private CompiledNode []m_args;
+
+		/*
+		 * List for passing argument values to function, reused by each call.
+		 * A recursive call to a user function, or a call from another
+		 * thread sharing this expression, finds no list available and
+		 * creates its own.
+		 */
+		private AtomicReference<ArrayList<Argument>> m_spareValues;
+
+		public FunctionNode(Function function, CompiledNode []args)
+		{
+			m_function = function;
+			m_args = args;
+			m_spareValues = new AtomicReference<ArrayList<Argument>>(new ArrayList<Argument>(args.length));
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			ArrayList<Argument> values = m_spareValues.getAndSet(null);
+			if (values == null)
+				values = new ArrayList<Argument>(m_args.length);
+
+			try
+			{
+				for (int i = 0; i < m_args.length; i++)
+					values.add(m_args[i].evaluate(context, interpreterFilename));
+
+				try
+				{
+					return(m_function.evaluate(context, values));
+				}
+				catch (MapyrusException e)
+				{
+					/*
+					 * Prepend function name to error message.
+					 */
+					throw new MapyrusException(m_function.getName() + ": " + e.getMessage());
+				}
+			}
+			finally
+			{
+				/*
+				 * Do not keep references to argument values.
+				 */
+				values.clear();
+				m_spareValues.set(values);
+			}
+		}
+	}
+
+	/*
+	 * Negation of a sub-expression.
+	 */
+	private static class NotNode extends NumericNode
+	{
+		private CompiledNode m_operand;
+
+		public NotNode(CompiledNode operand)
+		{
+			m_operand = operand;
+		}
+
+		@Override
+		public double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			if (m_operand instanceof NumericNode)
+			{
+				double d = m_operand.evaluateNumber(context, interpreterFilename);
+				return(NumericalAnalysis.equals(d, 0.0) ? 1 : 0);
+			}
+
+			/*
+			 * Strings are false only if they are empty.
+			 */
+			Argument value = m_operand.evaluate(context, interpreterFilename);
+			if (value.getType() == Argument.NUMERIC)
+				return(NumericalAnalysis.equals(value.getNumericValue(), 0.0) ? 1 : 0);
+			else
+				return((value.getStringValue().length() == 0) ? 1 : 0);
+		}
+	}
+
+	/*
+	 * Concatenation of two sub-expressions as strings.
+	 */
+	private static class ConcatNode extends CompiledNode
+	{
+		private CompiledNode m_left;
+		private CompiledNode m_right;
+
+		public ConcatNode(CompiledNode left, CompiledNode right)
+		{
+			m_left = left;
+			m_right = right;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			String s = m_left.evaluate(context, interpreterFilename).toString() +
+				m_right.evaluate(context, interpreterFilename).toString();
+			if (s.length() == 0)
+				return(Argument.emptyString);
+			else
+				return(new Argument(Argument.STRING, s));
+		}
+	}
+
+	/*
+	 * Choice between two sub-expressions depending on value of a condition.
+	 */
+	private static class ConditionalNode extends CompiledNode
+	{
+		private CompiledNode m_condition;
+		private CompiledNode m_trueValue;
+		private CompiledNode m_falseValue;
+
+		public ConditionalNode(CompiledNode condition, CompiledNode trueValue,
+			CompiledNode falseValue)
+		{
+			m_condition = condition;
+			m_trueValue = trueValue;
+			m_falseValue = falseValue;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			if (m_condition.evaluateNumber(context, interpreterFilename) != 0)
+				return(m_trueValue.evaluate(context, interpreterFilename));
+			else
+				return(m_falseValue.evaluate(context, interpreterFilename));
+		}
+
+		@Override
+		public double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			if (m_condition.evaluateNumber(context, interpreterFilename) != 0)
+				return(m_trueValue.evaluateNumber(context, interpreterFilename));
+			else
+				return(m_falseValue.evaluateNumber(context, interpreterFilename));
+		}
+	}
+
+	/*
+	 * Assignment of a sub-expression to a variable.
+	 */
+	private static class AssignNode extends CompiledNode
+	{
+		private String m_varName;
+		private CompiledNode m_value;
+
+		public AssignNode(String varName, CompiledNode value)
+		{
+			m_varName = varName;
+			m_value = value;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			Argument value = m_value.evaluate(context, interpreterFilename);
+			context.defineVariable(m_varName, value);
+			return(value);
+		}
+	}
+
+	/*
+	 * Assignment of a sub-expression to an entry in a hash map.
+	 */
+	private static class AssignHashMapNode extends CompiledNode
+	{
+		private String m_hashMapName;
+		private CompiledNode m_key;
+		private CompiledNode m_value;
+
+		public AssignHashMapNode(String hashMapName, CompiledNode key, CompiledNode value)
+		{
+			m_hashMapName = hashMapName;
+			m_key = key;
+			m_value = value;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			Argument value = m_value.evaluate(context, interpreterFilename);
+			Argument key = m_key.evaluate(context, interpreterFilename);
+			if (key.getType() != Argument.NUMERIC && key.getType() != Argument.STRING)
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_HASHMAP_KEY));
+			}
+			if (value.getType() == Argument.HASHMAP)
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NESTED_HASHMAP));
+			}
+			context.defineHashMapEntry(m_hashMapName, key.getStringValue(), value);
+			return(value);
+		}
+	}
+
+	/*
+	 * Lookup of an entry in a hash map variable.
+	 */
+	private static class HashMapReferenceNode extends CompiledNode
+	{
+		private String m_hashMapName;
+		private CompiledNode m_key;
+
+		public HashMapReferenceNode(String hashMapName, CompiledNode key)
+		{
+			m_hashMapName = hashMapName;
+			m_key = key;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			Argument hashMapVar = context.getVariableValue(m_hashMapName, interpreterFilename);
+			Argument key = m_key.evaluate(context, interpreterFilename);
+			if (key.getType() != Argument.NUMERIC && key.getType() != Argument.STRING)
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_HASHMAP_KEY));
+			}
+
+			/*
+			 * Return empty string if no hash map exists with this name.
+			 */
+			if (hashMapVar == null || hashMapVar.getType() != Argument.HASHMAP)
+				return(Argument.emptyString);
+			else
+				return(hashMapVar.getHashMapEntry(key.getStringValue()));
+		}
+	}
+
+	/*
+	 * Value of an internal variable.
+	 */
+	private static class InternalVariableNode extends CompiledNode
+	{
+		private ContextStack.InternalVariable m_variable;
+
+		public InternalVariableNode(ContextStack.InternalVariable variable)
+		{
+			m_variable = variable;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException
+		{
+			Argument retval = context.getInternalVariableValue(m_variable, interpreterFilename);
+			if (retval == null)
+				retval = Argument.emptyString;
+			return(retval);
+		}
+	}
+
+	/*
+	 * Value of a parameter or local variable in a procedure block.
+	 */
+	private static class LocalVariableNode extends CompiledNode
+	{
+		private VariableSlots m_slots;
+		private int m_slot;
+		private String m_varName;
+
+		public LocalVariableNode(VariableSlots slots, int slot, String varName)
+		{
+			m_slots = slots;
+			m_slot = slot;
+			m_varName = varName;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException
+		{
+			Argument retval = context.getLocalVariableValue(m_slots, m_slot,
+				m_varName, interpreterFilename);
+			if (retval == null)
+				retval = Argument.emptyString;
+			return(retval);
+		}
+
+		@Override
+		public double evaluateNumber(ContextStack context, String interpreterFilename)
+			throws MapyrusException
+		{
+			Argument value = context.getLocalVariableValue(m_slots, m_slot,
+				m_varName, interpreterFilename);
+			return((value == null) ? 0 : value.getNumericValue());
+		}
+	}
+
+	/*
+	 * Assignment of a sub-expression to a local variable in a procedure block.
+	 */
+	private static class LocalAssignNode extends CompiledNode
+	{
+		private VariableSlots m_slots;
+		private int m_slot;
+		private String m_varName;
+		private CompiledNode m_value;
+
+		public LocalAssignNode(VariableSlots slots, int slot, String varName,
+			CompiledNode value)
+		{
+			m_slots = slots;
+			m_slot = slot;
+			m_varName = varName;
+			m_value = value;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			Argument value = m_value.evaluate(context, interpreterFilename);
+			context.defineLocalVariable(m_slots, m_slot, m_varName, value);
+			return(value);
+		}
+	}
+
+	/*
+	 * Part of expression tree that is not compiled, evaluated by
+	 * traversing the expression tree.
+	 */
+	private static class TreeNode extends CompiledNode
+	{
+		private ExpressionTreeNode m_tree;
+
+		public TreeNode(ExpressionTreeNode tree)
+		{
+			m_tree = tree;
+		}
+
+		@Override
+		public Argument evaluate(ContextStack context, String interpreterFilename)
+			throws MapyrusException, InterruptedException
+		{
+			return(m_tree.evaluate(context, interpreterFilename));
+		}
+	}
+
+	/**
+	 * Check result of numeric operation is a valid number.
+	 * @param d result of numeric operation.
+	 * @return d.
+	 * @throws MapyrusException on numeric overflow or divide by zero.
+	 */
+	private static double checkOverflow(double d) throws MapyrusException
+	{
+		if (Double.isInfinite(d) || Double.isNaN(d))
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NUMERIC_OVERFLOW));
+		return(d);
+	}
+
+	/**
+	 * Check whether expression tree is only a variable name.
+	 * @param t expression tree.
+	 * @return true if expression tree is a variable name.
+	 */
+	private boolean isVariable(ExpressionTreeNode t)
+	{
+		return(t != null && t.m_isLeaf && t.m_leafArg != null &&
+			t.m_leafArg.getType() == Argument.VARIABLE);
+	}
+
+	/**
+	 * Compile lookup of a variable.  Internal variables are resolved
+	 * now, and local variables in a procedure block are looked up by slot.
+	 * @param varName variable name.
+	 * @return compiled variable lookup.
+	 */
+	private CompiledNode compileVariable(String varName)
+	{
+		CompiledNode retval;
+		ContextStack.InternalVariable internal = ContextStack.resolveInternalVariable(varName);
+		int slot = (m_variableSlots != null) ? m_variableSlots.getSlot(varName) : -1;
+
+		if (internal != null)
+			retval = new InternalVariableNode(internal);
+		else if (slot >= 0)
+			retval = new LocalVariableNode(m_variableSlots, slot, varName);
+		else
+			retval = new VariableNode(varName);
+		return(retval);
+	}
+
+	/**
+	 * Compile expression tree to nodes specialised for each operation.
+	 * Parts of the tree that cannot be compiled are evaluated by
+	 * traversing the tree.
+	 * @param t expression tree to compile.
+	 * @return compiled expression, or null if t is null.
+	 */
+	private CompiledNode compile(ExpressionTreeNode t)
+	{
+		CompiledNode retval;
+
+		if (t == null)
+		{
+			retval = null;
+		}
+		else if (t.m_isLeaf)
+		{
+			if (t.m_leafArg == null)
+				retval = new TreeNode(t);
+			else if (t.m_leafArg.getType() == Argument.VARIABLE)
+				retval = compileVariable(t.m_leafArg.getVariableName());
+			else
+				retval = new ConstantNode(t.m_leafArg);
+		}
+		else if (t.m_isFunction)
+		{
+			CompiledNode []args = new CompiledNode[t.m_branches.size()];
+			for (int i = 0; i < args.length; i++)
+				args[i] = compile(t.m_branches.get(i));
+			retval = new FunctionNode(t.m_function, args);
+		}
+		else if (t.m_operation == NOT_OPERATION)
+		{
+			retval = new NotNode(compile(t.m_branches.get(0)));
+		}
+		else if (t.m_operation == CONDITIONAL_OPERATION)
+		{
+			retval = new ConditionalNode(compile(t.m_branches.get(0)),
+				compile(t.m_branches.get(1)), compile(t.m_branches.get(2)));
+		}
+		else if (t.m_operation == CONCAT_OPERATION)
+		{
+			retval = new ConcatNode(compile(t.m_branches.get(0)),
+				compile(t.m_branches.get(1)));
+		}
+		else if (t.m_operation == ASSIGN_OPERATION && isVariable(t.m_branches.get(0)))
+		{
+			String varName = t.m_branches.get(0).m_leafArg.getVariableName();
+			int slot = (m_variableSlots != null) ? m_variableSlots.getSlot(varName) : -1;
+			if (slot >= 0)
+			{
+				retval = new LocalAssignNode(m_variableSlots, slot, varName,
+					compile(t.m_branches.get(1)));
+			}
+			else
+			{
+				retval = new AssignNode(varName, compile(t.m_branches.get(1)));
+			}
+		}
+		else if (t.m_operation == ASSIGN_OPERATION &&
+			t.m_branches.get(0).m_operation == HASHMAP_REFERENCE &&
+			isVariable(t.m_branches.get(0).m_branches.get(0)))
+		{
+			ExpressionTreeNode leftBranch = t.m_branches.get(0);
+			retval = new AssignHashMapNode(leftBranch.m_branches.get(0).m_leafArg.getVariableName(),
+				compile(leftBranch.m_branches.get(1)), compile(t.m_branches.get(1)));
+		}
+		else if (t.m_operation == HASHMAP_REFERENCE && isVariable(t.m_branches.get(0)))
+		{
+			retval = new HashMapReferenceNode(t.m_branches.get(0).m_leafArg.getVariableName(),
+				compile(t.m_branches.get(1)));
+		}
+		else
+		{
+			retval = compileBinaryOperation(t);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Compile numeric operation or string comparison between two sub-expressions.
+	 * @param t expression tree containing operation.
+	 * @return compiled expression.
+	 */
+	private CompiledNode compileBinaryOperation(ExpressionTreeNode t)
+	{
+		CompiledNode retval;
+		CompiledNode left = null, right = null;
+
+		if (t.m_branches.size() == 2)
+		{
+			left = compile(t.m_branches.get(0));
+			right = compile(t.m_branches.get(1));
+		}
+
+		switch (t.m_operation)
+		{
+		case PLUS_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r) throws MapyrusException
+				{
+					return(checkOverflow(l + r));
+				}
+			};
+			break;
+		case MINUS_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r) throws MapyrusException
+				{
+					return(checkOverflow(l - r));
+				}
+			};
+			break;
+		case MULTIPLY_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r) throws MapyrusException
+				{
+					return(checkOverflow(l * r));
+				}
+			};
+			break;
+		case DIVIDE_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r) throws MapyrusException
+				{
+					return(checkOverflow(l / r));
+				}
+			};
+			break;
+		case MODULO_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r) throws MapyrusException
+				{
+					return(checkOverflow(NumericalAnalysis.fmod(l, r)));
+				}
+			};
+			break;
+		case NUMERIC_EQUALS_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r)
+				{
+					return(NumericalAnalysis.equals(l, r) ? 1 : 0);
+				}
+			};
+			break;
+		case NUMERIC_NOT_EQUALS_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r)
+				{
+					return(NumericalAnalysis.equals(l, r) ? 0 : 1);
+				}
+			};
+			break;
+		case NUMERIC_GREATER_THAN_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r)
+				{
+					return((l > r && (!NumericalAnalysis.equals(l, r))) ? 1 : 0);
+				}
+			};
+			break;
+		case NUMERIC_GREATER_EQUAL_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r)
+				{
+					return((l > r || NumericalAnalysis.equals(l, r)) ? 1 : 0);
+				}
+			};
+			break;
+		case NUMERIC_LESS_THAN_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r)
+				{
+					return((l < r && (!NumericalAnalysis.equals(l, r))) ? 1 : 0);
+				}
+			};
+			break;
+		case NUMERIC_LESS_EQUAL_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r)
+				{
+					return((l < r || NumericalAnalysis.equals(l, r)) ? 1 : 0);
+				}
+			};
+			break;
+		case AND_OPERATION:
+			/*
+			 * Both sides are always evaluated, as the tree is.
+			 */
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r)
+				{
+					return((l != 0 && r != 0) ? 1 : 0);
+				}
+			};
+			break;
+		case OR_OPERATION:
+			retval = new BinaryNumericNode(left, right)
+			{
+				@Override
+				protected double apply(double l, double r)
+				{
+					return((l != 0 || r != 0) ? 1 : 0);
+				}
+			};
+			break;
+		case LEXICAL_EQUALS_OPERATION:
+			retval = new BinaryLexicalNode(left, right)
+			{
+				@Override
+				protected boolean apply(String l, String r)
+				{
+					return(l.equals(r));
+				}
+			};
+			break;
+		case LEXICAL_NOT_EQUALS_OPERATION:
+			retval = new BinaryLexicalNode(left, right)
+			{
+				@Override
+				protected boolean apply(String l, String r)
+				{
+					return(!l.equals(r));
+				}
+			};
+			break;
+		case LEXICAL_GREATER_THAN_OPERATION:
+			retval = new BinaryLexicalNode(left, right)
+			{
+				@Override
+				protected boolean apply(String l, String r)
+				{
+					return(l.compareTo(r) > 0);
+				}
+			};
+			break;
+		case LEXICAL_GREATER_EQUAL_OPERATION:
+			retval = new BinaryLexicalNode(left, right)
+			{
+				@Override
+				protected boolean apply(String l, String r)
+				{
+					return(l.compareTo(r) >= 0);
+				}
+			};
+			break;
+		case LEXICAL_LESS_THAN_OPERATION:
+			retval = new BinaryLexicalNode(left, right)
+			{
+				@Override
+				protected boolean apply(String l, String r)
+				{
+					return(l.compareTo(r) < 0);
+				}
+			};
+			break;
+		case LEXICAL_LESS_EQUAL_OPERATION:
+			retval = new BinaryLexicalNode(left, right)
+			{
+				@Override
+				protected boolean apply(String l, String r)
+				{
+					return(l.compareTo(r) <= 0);
+				}
+			};
+			break;
+		default:
+			/*
+			 * Increment, decrement and string repetition
+			 * are evaluated by traversing the tree.
+			 */
+			retval = new TreeNode(t);
+			break;
+		}
+		return(retval);
+	}
+
 	private ExpressionTreeNode m_exprTree;
+	private CompiledNode m_compiled;
+
+	/*
+	 * Slots of local variables in procedure block containing this expression.
+	 */
+	private VariableSlots m_variableSlots;
 
 	/*
 	 * Parse expression including assignment to variables.
@@ -1834,6 +2731,7 @@ public class Expression
 		throws IOException, MapyrusException
 	{
 		m_exprTree = parseAssignment(p, userFunctions);
+		m_compiled = compile(m_exprTree);
 	}
 
 	/**
@@ -1847,7 +2745,21 @@ public class Expression
 	public Argument evaluate(ContextStack context, String interpreterFilename)
 		throws MapyrusException, InterruptedException
 	{
-		return(m_exprTree.evaluate(context, interpreterFilename));
+		return(m_compiled.evaluate(context, interpreterFilename));
+	}
+
+	/**
+	 * Compile expression again, resolving parameters and local variables
+	 * of the procedure block containing the expression to slots.
+	 * @param slots slots of variables in procedure block.
+	 */
+	public void resolveVariableSlots(VariableSlots slots)
+	{
+		if (slots.size() > 0)
+		{
+			m_variableSlots = slots;
+			m_compiled = compile(m_exprTree);
+		}
 	}
 
 	/**
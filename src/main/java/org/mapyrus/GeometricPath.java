@@ -125,6 +125,34 @@ public class GeometricPath
 		m_nLineTos++;
 	}
 
+	/**
+	 * Add points of a simple geometry to path.
+	 * @param coords geometry array containing MOVETO or LINETO for each point.
+	 * @param index index in geometry array of first point.
+	 * @param pts transformed X and Y coordinates of each point.
+	 * @param nPts number of points to add.
+	 */
+	public void appendGeometry(double []coords, int index, float []pts, int nPts)
+	{
+		for (int i = 0; i < nPts; i++)
+		{
+			float x = pts[i * 2];
+			float y = pts[i * 2 + 1];
+			if (coords[index] == Argument.MOVETO)
+			{
+				m_path.moveTo(x, y);
+				m_moveTos.add(new Point2D.Float(x, y));
+				m_rotations.add(Double.valueOf(0));
+			}
+			else
+			{
+				m_path.lineTo(x, y);
+				m_nLineTos++;
+			}
+			index += 3;
+		}
+	}
+
 	/**
 	 * Add circular arc to path from last point to a new point, given centre and direction.
 	 * @param direction positive for clockwise, negative for anti-clockwise.
@@ -30,20 +30,29 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.mapyrus.dataset.ConnectionPool;
+
 /**
- * A request from from an HTTP client that is handled asynchronously.
- * The request is parsed, run in a separate thread and then results
- * are returned to HTTP client.
+ * A connection from an HTTP client that is handled asynchronously
+ * by a thread in a thread pool.
+ * Each request is parsed, run and then results are returned to HTTP client.
+ * The connection is kept open for further requests if the HTTP client
+ * asks for this.
  */
-public class HTTPRequest extends Thread
+public class HTTPRequest implements Runnable
 {
 	/*
 	 * Keywords and codes received and sent in HTTP headers.
@@ -52,12 +61,17 @@ public class HTTPRequest extends Thread
 	public static final String HTTP_OK_KEYWORD = HTTP_KEYWORD + " 200 OK";
 	private static final String HTTP_BAD_KEYWORD = HTTP_KEYWORD + " 400 Bad Request";
 	private static final String HTTP_NOT_FOUND_KEYWORD = HTTP_KEYWORD + " 404 Not Found";
+	private static final String HTTP_BUSY_KEYWORD = HTTP_KEYWORD + " 503 Service Unavailable";
 	private static final int HTTP_OK_CODE = 200;
 	private static final int HTTP_BAD_CODE = 400;
 	private static final int HTTP_NOT_FOUND_CODE = 404;
 
 	public static final String CONTENT_TYPE_KEYWORD = "Content-Type";
 	private static final String CONTENT_LENGTH_KEYWORD = "Content-Length";
+	private static final String CONNECTION_KEYWORD = "Connection";
+	private static final String KEEP_ALIVE_KEYWORD = "keep-alive";
+	private static final String CLOSE_KEYWORD = "close";
+	private static final String HTTP_1_1_KEYWORD = "HTTP/1.1";
 	private static final String GET_REQUEST_KEYWORD = "GET";
 	private static final int GET_REQUEST = 1;
 	private static final String POST_REQUEST_KEYWORD = "POST";
@@ -71,10 +85,20 @@ public class HTTPRequest extends Thread
 	 */
 	public static final String HTTP_HEADER_ARRAY = Constants.PROGRAM_NAME + ".http.header";
 
+	/*
+	 * Counter for giving each connection a unique name.
+	 */
+	private static AtomicInteger m_connectionCounter = new AtomicInteger();
+
+	private String m_name;
 	private Pool<Interpreter> m_pool;
-	private Interpreter m_interpreter;
 	private Socket m_socket;
 
+	/*
+	 * Connections waiting for a thread to handle them.
+	 */
+	private Collection<Runnable> m_waitingConnections;
+
 	/*
 	 * The MIME type, filename, image map coordinates and Mapyrus commands
 	 * parsed for this request.
@@ -85,7 +109,14 @@ public class HTTPRequest extends Thread
 	private String m_variables, m_commands;
 
 	/*
-	 * Holds return status and any error message from running this thread.
+	 * True if request was sent using HTTP/1.1 and true if HTTP client
+	 * asked for connection to be kept open after this request.
+	 */
+	private boolean m_isHTTP11Request;
+	private boolean m_isKeepAliveRequested;
+
+	/*
+	 * Holds return status and any error message from running this request.
 	 */
 	private int m_returnStatus;
 	private String m_errorMessage;
@@ -96,32 +127,44 @@ public class HTTPRequest extends Thread
 	private Logger m_logger;
 
 	/*
-	 * Timestamp at which this thread was created.
+	 * Thread running commands for current request and timestamp
+	 * at which request began.
 	 */
-	private long m_creationTimeMillis;
+	private Thread m_thread;
+	private long m_startTimeMillis;
+	private volatile boolean m_isFinished;
 
 	/**
-	 * Create new HTTP request.
+	 * Create new HTTP connection.
 	 * @param socket HTTP connection from client.
-	 * @param interpreter interpreter to use for handling request.
-	 * @param interpreterPool pool of interpreters to put interpreter back into when finished.
+	 * @param interpreterPool pool of interpreters to take an interpreter
+	 * from for handling each request.
+	 * @param waitingConnections connections waiting to be handled.
+	 * Connection is not kept open if other connections are waiting.
 	 * @param logger logger to write log messages to.
 	 */
-	public HTTPRequest(Socket socket, Interpreter interpreter,
-		Pool<Interpreter> interpreterPool, Logger logger)
+	public HTTPRequest(Socket socket, Pool<Interpreter> interpreterPool,
+		Collection<Runnable> waitingConnections, Logger logger)
 	{
-		super();
-		
+		m_name = "HTTP-" + m_connectionCounter.incrementAndGet();
 		m_socket = socket;
-		m_interpreter = interpreter;
 		m_pool = interpreterPool;
-		m_imagemapPoint = null;
-		m_returnStatus = HTTP_OK_CODE;
+		m_waitingConnections = waitingConnections;
 		m_logger = logger;
-		m_creationTimeMillis = System.currentTimeMillis();
+		m_isFinished = false;
+		m_startTimeMillis = System.currentTimeMillis();
 		m_currentDirectory = new File(System.getProperty("user.dir"));
 	}
 
+	/**
+	 * Get name of this connection, for log messages.
+	 * @return connection name.
+	 */
+	public String getName()
+	{
+		return(m_name);
+	}
+
 	/**
 	 * Check whether a word is legal as a variable name.
 	 * @param word is word to check.
@@ -318,6 +361,13 @@ public class HTTPRequest extends Thread
 				": " + firstLine);
 		}
 
+		/*
+		 * HTTP/1.1 clients expect connection to be kept open for further requests.
+		 */
+		String version = st.nextToken();
+		m_isHTTP11Request = version.equals(HTTP_1_1_KEYWORD);
+		m_isKeepAliveRequested = m_isHTTP11Request;
+
 		int questionIndex = url.indexOf('?');
 		if (questionIndex >= 0)
 		{	
@@ -410,7 +460,14 @@ public class HTTPRequest extends Thread
 				if (isValidKeyword)
 					addVariable(variables, HTTP_HEADER_ARRAY + "['" + keyword + "']", value);
 
-				if (keyword.equals(CONTENT_LENGTH_KEYWORD))
+				if (keyword.equalsIgnoreCase(CONNECTION_KEYWORD))
+				{
+					if (value.equalsIgnoreCase(KEEP_ALIVE_KEYWORD))
+						m_isKeepAliveRequested = true;
+					else if (value.equalsIgnoreCase(CLOSE_KEYWORD))
+						m_isKeepAliveRequested = false;
+				}
+				else if (keyword.equalsIgnoreCase(CONTENT_LENGTH_KEYWORD))
 				{
 					try
 					{
@@ -430,21 +487,26 @@ public class HTTPRequest extends Thread
 		{
 			/*
 			 * Read POST request form data that follows the HTTP header.
+			 * Content-Length is a count of bytes and the reader returns
+			 * each byte as one ISO-8859-1 character, so exactly the
+			 * form data is read, leaving any following request on
+			 * the connection unread.
 			 */
-			StringBuilder sb = new StringBuilder(postRequestLength);
+			byte []b = new byte[postRequestLength];
 			for (int i = 0; i < postRequestLength; i++)
 			{
 				int c = reader.read();
 				if (c < 0)
 					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.MISSING_HTTP_POST));
-				sb.append((char)c);
+				b[i] = (byte)c;
 			}
+			String form = new String(b, StandardCharsets.UTF_8);
 			if (m_logger.isLoggable(Level.FINE))
 			{
 				m_logger.fine(getName() + ": " +
-					MapyrusMessages.get(MapyrusMessages.HTTP_HEADER) + ": " + sb.toString());
+					MapyrusMessages.get(MapyrusMessages.HTTP_HEADER) + ": " + form);
 			}
-			variables.append(parseForm(sb.toString()));
+			variables.append(parseForm(form));
 		}
 		m_variables = variables.toString();
 
@@ -486,22 +548,157 @@ public class HTTPRequest extends Thread
 		return(sb.toString());
 	}
 
-	@Override
-	public void run()
+	/**
+	 * Add headers giving content length and whether connection
+	 * is kept open to HTTP response header.
+	 * @param reply HTTP response header.
+	 * @param contentLength number of bytes that will follow header.
+	 * @param keepAlive true if connection will be kept open after this request.
+	 * @return HTTP response header with extra headers added.
+	 */
+	private String addConnectionHeaders(String reply, long contentLength, boolean keepAlive)
+	{
+		StringBuilder sb = new StringBuilder(reply.trim());
+
+		/*
+		 * Reply to HTTP/1.1 clients with the same version so that they
+		 * continue using the connection.
+		 */
+		if (m_isHTTP11Request && sb.indexOf(HTTP_KEYWORD + " ") == 0)
+			sb.replace(0, HTTP_KEYWORD.length(), HTTP_1_1_KEYWORD);
+		sb.append(Constants.LINE_SEPARATOR);
+		if (reply.toLowerCase().indexOf(CONTENT_LENGTH_KEYWORD.toLowerCase() + ":") < 0)
+		{
+			sb.append(CONTENT_LENGTH_KEYWORD).append(": ").append(contentLength);
+			sb.append(Constants.LINE_SEPARATOR);
+		}
+		sb.append(CONNECTION_KEYWORD).append(": ");
+		sb.append(keepAlive ? KEEP_ALIVE_KEYWORD : CLOSE_KEYWORD);
+		sb.append(Constants.LINE_SEPARATOR);
+		sb.append(Constants.LINE_SEPARATOR);
+		return(sb.toString());
+	}
+
+	/**
+	 * Run commands for request, using an interpreter from the pool.
+	 * @param byteArrayStream stream to write output of commands to.
+	 * @return HTTP response header set by commands.
+	 */
+	private String interpretRequest(ByteArrayOutputStream byteArrayStream)
+		throws IOException, InterruptedException, MapyrusException
+	{
+		String httpResponse = null;
+
+		/*
+		 * Take an interpreter to handle this request (waiting
+		 * until one becomes available, if necessary).
+		 */
+		Interpreter interpreter = m_pool.get(Constants.HTTP_TIMEOUT);
+		if (interpreter == null)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.HTTP_TIMEOUT));
+		}
+
+		/*
+		 * Send commands to Mapyrus to interpret and capture their output.
+		 */
+		FileOrURL f1 = new FileOrURL(new StringReader(m_variables), getName());
+		ContextStack context = new ContextStack();
+		if (m_imagemapPoint != null)
+		{
+			context.setImagemapPoint(m_imagemapPoint);
+		}
+		PrintStream printStream = new PrintStream(byteArrayStream);
+
+		try
+		{
+			synchronized (this)
+			{
+				m_thread = Thread.currentThread();
+			}
+
+			byte []emptyBuffer = new byte[0];
+			ByteArrayInputStream emptyStdin = new ByteArrayInputStream(emptyBuffer);
+
+			/*
+			 * Run commands to set variables, then run commands to generate output.
+			 */
+			interpreter.getThrottle().restart();
+			interpreter.interpret(context, f1, emptyStdin, null);
+			interpreter.interpret(context, m_commands, getName(), emptyStdin, printStream);
+			httpResponse = context.getHTTPResponse().trim() +
+				Constants.LINE_SEPARATOR + Constants.LINE_SEPARATOR;
+			context.closeContextStack();
+			context = null;
+		}
+		finally
+		{
+			/*
+			 * Ensure that context is always closed.
+			 */
+			try
+			{
+				if (context != null)
+					context.closeContextStack();
+			}
+			catch (IOException e)
+			{
+			}
+			catch (MapyrusException e)
+			{
+			}
+
+			/*
+			 * Clear any interrupt of this thread for taking too long
+			 * so that it does not affect the next request.
+			 */
+			synchronized (this)
+			{
+				m_thread = null;
+				Thread.interrupted();
+			}
+
+			/*
+			 * Return interpreter to the pool for use by someone else.
+			 */
+			m_pool.put(interpreter);
+		}
+
+		printStream.flush();
+		return(httpResponse);
+	}
+
+	/**
+	 * Read, parse and execute a single HTTP request from an HTTP client
+	 * and send reply.
+	 * @param inReader reader for socket from HTTP client.
+	 * @param outStream stream for socket to HTTP client.
+	 * @param isLastRequest true if connection is to be closed after this request.
+	 * @return true if connection is to be kept open for another request.
+	 * @throws IOException if reply cannot be sent to HTTP client.
+	 */
+	private boolean handleRequest(BufferedReader inReader, BufferedOutputStream outStream,
+		boolean isLastRequest) throws IOException
 	{
 		ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
-		BufferedOutputStream outStream = null;
-		BufferedReader inReader = null;
 		BufferedInputStream inStream = null;
 		String reply;
 		String httpResponse = null;
+		boolean keepAlive = false;
+
+		m_mimeType = m_filename = null;
+		m_variables = m_commands = null;
+		m_imagemapPoint = null;
+		m_isHTTP11Request = m_isKeepAliveRequested = false;
+		m_returnStatus = HTTP_OK_CODE;
+		m_errorMessage = null;
+		m_startTimeMillis = System.currentTimeMillis();
 
 		/*
 		 * Read and parse and execute HTTP request from an HTTP client.
 		 */
 		try
 		{
-			inReader = new BufferedReader(new InputStreamReader(m_socket.getInputStream()));
 			try
 			{
 				parseRequest(inReader);
@@ -522,53 +719,7 @@ public class HTTPRequest extends Thread
 			}
 			else if (m_mimeType == null)
 			{
-				/*
-				 * Send commands to Mapyrus to interpret and capture their output.
-				 */
-				FileOrURL f1 = new FileOrURL(new StringReader(m_variables), getName());
-				FileOrURL f2 = new FileOrURL(new StringReader(m_commands), getName());
-				ContextStack context = new ContextStack();
-				if (m_imagemapPoint != null)
-				{
-					context.setImagemapPoint(m_imagemapPoint);
-				}
-				PrintStream printStream = new PrintStream(byteArrayStream);
-
-				try
-				{
-					byte []emptyBuffer = new byte[0];
-					ByteArrayInputStream emptyStdin = new ByteArrayInputStream(emptyBuffer);
-					
-					/*
-					 * Run commands to set variables, then run commands to generate output.
-					 */
-					m_interpreter.getThrottle().restart();
-					m_interpreter.interpret(context, f1, emptyStdin, null);
-					m_interpreter.interpret(context, f2, emptyStdin, printStream);
-					httpResponse = context.getHTTPResponse().trim() +
-						Constants.LINE_SEPARATOR + Constants.LINE_SEPARATOR;
-					context.closeContextStack();
-					context = null;
-				}
-				finally
-				{
-					/*
-					 * Ensure that context is always closed.
-					 */
-					try
-					{
-						if (context != null)
-							context.closeContextStack();
-					}
-					catch (IOException e)
-					{
-					}
-					catch (MapyrusException e)
-					{
-					}
-				}
-
-				printStream.flush();
+				httpResponse = interpretRequest(byteArrayStream);
 			}
 			else
 			{
@@ -604,20 +755,25 @@ public class HTTPRequest extends Thread
 			/*
 			 * Now send output from request (or an error message
 			 * explaining why it could be completed) to the HTTP client.
+			 * Connection is only kept open after successful requests
+			 * and when no other HTTP clients are waiting.
 			 */
-			outStream = new BufferedOutputStream(m_socket.getOutputStream());
 			if (m_returnStatus == HTTP_OK_CODE)
 			{
+				keepAlive = m_isKeepAliveRequested && (!isLastRequest) &&
+					m_waitingConnections.isEmpty();
+
 				if (m_mimeType == null)
 				{
-					reply = httpResponse;
+					reply = addConnectionHeaders(httpResponse,
+						byteArrayStream.size(), keepAlive);
 				}
 				else
 				{
 					reply = HTTP_OK_KEYWORD + Constants.LINE_SEPARATOR +
-						CONTENT_TYPE_KEYWORD + ": " + m_mimeType +
-						Constants.LINE_SEPARATOR +
-						Constants.LINE_SEPARATOR;
+						CONTENT_TYPE_KEYWORD + ": " + m_mimeType;
+					reply = addConnectionHeaders(reply,
+						new File(m_filename).length(), keepAlive);
 				}
 
 				if (m_logger.isLoggable(Level.FINE))
@@ -648,6 +804,10 @@ public class HTTPRequest extends Thread
 						m_logger.fine(getName() + ": " +
 							MapyrusMessages.get(MapyrusMessages.HTTP_RETURNED) +
 							": " + byteArrayStream.size());
+
+						String poolStatistics = ConnectionPool.getStatistics();
+						if (poolStatistics.length() > 0)
+							m_logger.fine(getName() + ": " + poolStatistics);
 					}
 				}
 				else
@@ -687,14 +847,93 @@ public class HTTPRequest extends Thread
 						CONTENT_TYPE_KEYWORD + ": " + contentType);
 				}
 
+				byte []message = (m_errorMessage + Constants.LINE_SEPARATOR).getBytes();
 				reply = result + Constants.LINE_SEPARATOR +
-					CONTENT_TYPE_KEYWORD + ": " + contentType + Constants.LINE_SEPARATOR +
-					Constants.LINE_SEPARATOR +
-					m_errorMessage + Constants.LINE_SEPARATOR;
+					CONTENT_TYPE_KEYWORD + ": " + contentType;
+				reply = addConnectionHeaders(reply, message.length, false);
 				outStream.write(reply.getBytes());
+				outStream.write(message);
+				m_logger.severe(getName() + ": " + m_errorMessage);
 			}
 			outStream.flush();
 		}
+		finally
+		{
+			/*
+			 * Make sure any file being read by this request is closed
+			 * in all circumstances.
+			 */
+			try
+			{
+				if (inStream != null)
+					inStream.close();
+			}
+			catch (IOException e2)
+			{
+			}
+		}
+		return(keepAlive);
+	}
+
+	/**
+	 * Wait for HTTP client to send another request on connection.
+	 * @param inReader reader for socket from HTTP client.
+	 * @return true if another request is available, false if HTTP client
+	 * closed connection or did not send another request in time.
+	 */
+	private boolean waitForNextRequest(BufferedReader inReader) throws IOException
+	{
+		boolean retval;
+
+		m_socket.setSoTimeout(Constants.HTTP_KEEP_ALIVE_TIMEOUT);
+		try
+		{
+			/*
+			 * Allow for line feed at end of previous request being skipped too.
+			 */
+			inReader.mark(2);
+			retval = (inReader.read() >= 0);
+			if (retval)
+				inReader.reset();
+		}
+		catch (SocketTimeoutException e)
+		{
+			retval = false;
+		}
+		m_socket.setSoTimeout(Constants.HTTP_SOCKET_TIMEOUT);
+		return(retval);
+	}
+
+	@Override
+	public void run()
+	{
+		BufferedOutputStream outStream = null;
+		BufferedReader inReader = null;
+
+		/*
+		 * Handle requests from HTTP client until connection is closed.
+		 */
+		try
+		{
+			/*
+			 * Read HTTP header as ISO-8859-1 so that each character
+			 * read is one byte.
+			 */
+			inReader = new BufferedReader(new InputStreamReader(m_socket.getInputStream(),
+				StandardCharsets.ISO_8859_1));
+			outStream = new BufferedOutputStream(m_socket.getOutputStream());
+
+			int nRequests = 0;
+			boolean keepAlive = true;
+			while (keepAlive)
+			{
+				nRequests++;
+				boolean isLastRequest = (nRequests >= Constants.HTTP_KEEP_ALIVE_MAX_REQUESTS);
+				keepAlive = handleRequest(inReader, outStream, isLastRequest);
+				if (keepAlive)
+					keepAlive = waitForNextRequest(inReader);
+			}
+		}
 		catch (IOException e)
 		{
 			if (m_returnStatus == HTTP_OK_CODE)
@@ -702,6 +941,7 @@ public class HTTPRequest extends Thread
 				m_returnStatus = HTTP_BAD_CODE;
 				m_errorMessage = e.toString();
 			}
+			m_logger.severe(getName() + ": " + m_errorMessage);
 		}
 		finally
 		{
@@ -734,52 +974,54 @@ public class HTTPRequest extends Thread
 			catch (IOException e2)
 			{
 			}
-
-			/*
-			 * Make sure any file being read by this request is closed
-			 * in all circumstances.
-			 */
-			try
-			{
-				if (inStream != null)
-					inStream.close();
-			}
-			catch (IOException e2)
-			{
-			}
+			m_isFinished = true;
 		}
-
-		/*
-		 * Return interpreter to the pool for use by someone else.
-		 */
-		m_pool.put(m_interpreter);
 	}
 
 	/**
-	 * Indicates whether thread to process HTTP request succeeded or failed.
-	 * @return true if thread completed successfully.
+	 * Send reply to HTTP client that server is too busy to handle
+	 * its request, then close connection.
+	 * @param socket HTTP connection from client.
+	 * @throws IOException if reply cannot be sent.
 	 */
-	public boolean getStatus()
+	public static void sendBusyReply(Socket socket) throws IOException
 	{
-		return(m_returnStatus == HTTP_OK_CODE);
+		try
+		{
+			byte []message = (MapyrusMessages.get(MapyrusMessages.HTTP_BUSY) +
+				Constants.LINE_SEPARATOR).getBytes();
+			String reply = HTTP_BUSY_KEYWORD + Constants.LINE_SEPARATOR +
+				CONTENT_TYPE_KEYWORD + ": " + MimeTypes.get("txt") + Constants.LINE_SEPARATOR +
+				CONTENT_LENGTH_KEYWORD + ": " + message.length + Constants.LINE_SEPARATOR +
+				CONNECTION_KEYWORD + ": " + CLOSE_KEYWORD + Constants.LINE_SEPARATOR +
+				Constants.LINE_SEPARATOR;
+			OutputStream outStream = socket.getOutputStream();
+			outStream.write(reply.getBytes());
+			outStream.write(message);
+			outStream.flush();
+		}
+		finally
+		{
+			socket.close();
+		}
 	}
 
 	/**
-	 * Returns error message describing why processing the HTTP request failed.
-	 * @return error message.
+	 * Indicates whether connection to HTTP client has been closed.
+	 * @return true if all requests have been handled.
 	 */
-	public String getErrorMessage()
+	public boolean isFinished()
 	{
-		return(m_errorMessage);
+		return(m_isFinished);
 	}
 
-
 	/**
-	 * Return timestamp at which thread was created.
-	 * @return time stamp in milliseconds.
+	 * Interrupt any request that has run for too long.
+	 * @param now current time in milliseconds.
 	 */
-	public long getCreationTime()
+	public synchronized void interruptIfOverdue(long now)
 	{
-		return(m_creationTimeMillis);
+		if (m_thread != null && now - m_startTimeMillis > Constants.MAX_HTTP_REQUEST_TIME)
+			m_thread.interrupt();
 	}
 }
@@ -24,6 +24,7 @@ import java.awt.Color;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -35,6 +36,7 @@ import java.util.HashMap;
 import java.util.StringTokenizer;
 
 import org.mapyrus.function.UserFunction;
+import org.mapyrus.geom.Sinkhole;
 
 /**
  * Language interpreter.  Parse and executes commands read from file, or
@@ -527,7 +529,7 @@ public class Interpreter implements Cloneable
 					": " + MapyrusMessages.get(MapyrusMessages.WRONG_PARAMETERS));
 			}
 
-			context.saveState(blockName);
+			context.saveState(blockName, block.getVariableSlots());
 			Point2D.Float pt = (Point2D.Float)(moveTos.get(i));
 			context.setTranslation(pt.x, pt.y);
 
@@ -617,54 +619,6 @@ public class Interpreter implements Cloneable
 		legendList.acceptAdditions();
 	}
 
-	/**
-	 * Walk through a geometry, adding it to current path.
-	 * @param context context containing path to add geometry to.
-	 * @param coords geometry array to add to path.
-	 * @param index index in geometry array at which to start walking.
-	 * @return index one greater than the last element in the geometry array. 
-	 */
-	private int addGeometryToPath(ContextStack context, double []coords, int index)
-		throws MapyrusException
-	{
-		int i;
-		int geometryType = (int)(coords[index]);
-		int nCoords = (int)(coords[index + 1]);
-		index += 2;
-
-		/*
-		 * Add geometry to path.  Complex, nested geometries must be
-		 * added recursively.
-		 */
-		switch (geometryType)
-		{
-			case Argument.GEOMETRY_POINT:
-			case Argument.GEOMETRY_LINESTRING:
-			case Argument.GEOMETRY_POLYGON:
-				for (i = 0; i < nCoords; i++)
-				{
-					double x = coords[index + 1];
-					double y = coords[index + 2];
-					if (coords[index] == Argument.MOVETO)
-						context.moveTo(x, y);
-					else
-						context.lineTo(x, y);
-					index += 3;
-				}
-				break;
-			case Argument.GEOMETRY_MULTIPOINT:
-			case Argument.GEOMETRY_MULTILINESTRING:
-			case Argument.GEOMETRY_MULTIPOLYGON:
-			case Argument.GEOMETRY_COLLECTION:
-				for (i = 0; i < nCoords; i++)
-				{
-					index = addGeometryToPath(context, coords, index);
-				}
-				break;
-		}
-		return(index);
-	}
-
 	/*
 	 * Execute a single statement, changing the path, context or generating
 	 * some output.
@@ -1509,10 +1463,26 @@ public class Interpreter implements Cloneable
 				break;
 
 			case ADDPATH:
-				for (int i = 0; i < nExpressions; i++)
+				/*
+				 * Geometries may be followed by options.  A geometry
+				 * given as an OGC WKT string never contains '='.
+				 */
+				double simplifyTolerance = -1;
+				int nGeometries = nExpressions;
+				if (nExpressions > 1 &&
+					m_executeArgs[nExpressions - 1].getType() == Argument.STRING &&
+					m_executeArgs[nExpressions - 1].getStringValue().indexOf('=') >= 0)
+				{
+					nGeometries--;
+					extras = m_executeArgs[nGeometries].getStringValue();
+					simplifyTolerance = parseSimplifyTolerance(context, extras);
+				}
+				for (int i = 0; i < nGeometries; i++)
 				{
 					double coords[] = m_executeArgs[i].getGeometryValue();
-					addGeometryToPath(context, coords, 0);
+					if (simplifyTolerance >= 0)
+						coords = context.simplifyGeometry(coords, simplifyTolerance);
+					context.addGeometry(coords);
 				}
 				break;
 				
@@ -1608,11 +1578,70 @@ public class Interpreter implements Cloneable
 				break;
 
 			case SINKHOLE:
-				if (nExpressions > 0)
+				if (nExpressions == 0)
+				{
+					context.createSinkhole(false, Sinkhole.DEFAULT_BITMAP_SIZE);
+				}
+				else if (nExpressions == 1)
+				{
+					extras = m_executeArgs[0].getStringValue();
+					boolean isPolylabel = false;
+					int bitmapSize = Sinkhole.DEFAULT_BITMAP_SIZE;
+					StringTokenizer st2 = new StringTokenizer(extras);
+					while (st2.hasMoreTokens())
+					{
+						String token = st2.nextToken();
+						if (token.startsWith("method="))
+						{
+							String method = token.substring(7);
+							if (method.equalsIgnoreCase("polylabel"))
+								isPolylabel = true;
+							else if (method.equalsIgnoreCase("raster"))
+								isPolylabel = false;
+							else
+								throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OPTION) +
+									": " + token);
+						}
+						else if (token.startsWith("bitmap="))
+						{
+							/*
+							 * Parse bitmap size in pixels or use bitmap
+							 * with same resolution as page.
+							 */
+							String s = token.substring(7);
+							if (s.equalsIgnoreCase("adaptive"))
+							{
+								bitmapSize = -1;
+							}
+							else
+							{
+								try
+								{
+									bitmapSize = Integer.parseInt(s);
+								}
+								catch (NumberFormatException e)
+								{
+									bitmapSize = 0;
+								}
+								if (bitmapSize <= 0)
+								{
+									throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+										": " + s);
+								}
+							}
+						}
+						else
+						{
+							throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OPTION) +
+								": " + token);
+						}
+					}
+					context.createSinkhole(isPolylabel, bitmapSize);
+				}
+				else
 				{
 					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.UNEXPECTED_VALUES));
 				}
-				context.createSinkhole();
 				break;
 
 			case STROKE:
@@ -2176,6 +2205,10 @@ public class Interpreter implements Cloneable
 				String []fieldNames = context.getDatasetFieldNames();
 				String fieldName;
 
+				double fetchTolerance = -1;
+				if (nExpressions > 0)
+					fetchTolerance = parseSimplifyTolerance(context, m_executeArgs[0].getStringValue());
+
 				for (int i = 0; i < row.size(); i++)
 				{
 						/*
@@ -2185,7 +2218,17 @@ public class Interpreter implements Cloneable
 							fieldName = fieldNames[i];
 						else
 							fieldName = DefaultFieldNames.get(i);
-						context.defineVariable(fieldName, row.get(i));
+						Argument field = row.get(i);
+						if (fetchTolerance >= 0 && field.getType() == Argument.GEOMETRY)
+						{
+							/*
+							 * Simplify geometry for drawing on current page.
+							 */
+							double []coords = context.simplifyGeometry(field.getGeometryValue(),
+								fetchTolerance);
+							field = new Argument((int)coords[0], coords);
+						}
+						context.defineVariable(fieldName, field);
 				}
 				break;
 
@@ -2354,6 +2397,58 @@ public class Interpreter implements Cloneable
 		}		
 	}
 
+	/**
+	 * Parse simplify option for geometry.
+	 * @param context context containing page resolution.
+	 * @param extras options containing simplify=true, simplify=false
+	 * or simplify= and a distance in millimetres.
+	 * @return distance in millimetres on page within which points are
+	 * removed when simplifying geometry, or -1 if geometry is not to be simplified.
+	 * @throws MapyrusException if simplify option is invalid.
+	 */
+	private double parseSimplifyTolerance(ContextStack context, String extras)
+		throws MapyrusException
+	{
+		double retval = -1;
+		StringTokenizer st = new StringTokenizer(extras);
+		while (st.hasMoreTokens())
+		{
+			String token = st.nextToken();
+			if (token.startsWith("simplify="))
+			{
+				String s = token.substring(9);
+				if (s.equalsIgnoreCase("true"))
+				{
+					/*
+					 * Remove points closer than a pixel to the simplified line.
+					 */
+					retval = context.getResolution();
+				}
+				else if (s.equalsIgnoreCase("false"))
+				{
+					retval = -1;
+				}
+				else
+				{
+					try
+					{
+						retval = Double.parseDouble(s);
+					}
+					catch (NumberFormatException e)
+					{
+						retval = -1;
+					}
+					if (retval < 0)
+					{
+						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+							": " + s);
+					}
+				}
+			}
+		}
+		return(retval);
+	}
+
 	/**
 	 * Parse a size, with or without units
 	 * @param dim size which may be a number in millimeters or a string like "15px".
@@ -2672,13 +2767,12 @@ public class Interpreter implements Cloneable
 		}
 		while(!parsedEndKeyword);
 
-		if (isFunction)
-			function.setStatements(procedureStatements);
-
 		/*
 		 * Return procedure block as a single statement.
 		 */
 		retval = new Statement(blockName, parameters, procedureStatements);
+		if (isFunction)
+			function.setStatements(procedureStatements, retval.getVariableSlots());
 		return(new ParsedStatement(retval));
 	}
 
@@ -3196,6 +3290,87 @@ public class Interpreter implements Cloneable
 		}
 	}
 
+	/**
+	 * Executes commands, reusing statements parsed by an earlier call
+	 * with the same commands if they are available in the statement cache.
+	 * @param context is the context to use during interpretation.
+	 * @param commands commands to execute.
+	 * @param name name of source of commands, for error messages.
+	 * @param stdin is stream to use for standard input by this interpreter.
+	 * @param stdout is stream to use for standard output by this interpreter.
+	 * @throws IOException if commands cannot be read from included files.
+	 * @throws InterruptedException if execution of commands is interrupted.
+	 * @throws MapyrusException if execution of commands fails.
+	 */
+	public void interpret(ContextStack context, String commands, String name,
+		InputStream stdin, PrintStream stdout)
+		throws IOException, InterruptedException, MapyrusException
+	{
+		boolean isIncludeAllowed = m_throttle.isIOAllowed();
+		String cacheKey = (isIncludeAllowed ? "+" : "-") + commands;
+
+		/*
+		 * Parsed statements refer to any user functions they call, and
+		 * user functions belong to a single interpreter.  So statements
+		 * can only be shared between interpreters if no user functions
+		 * are defined.
+		 */
+		boolean isCacheable = m_userFunctions.isEmpty();
+		ArrayList<Statement> statements = null;
+		if (isCacheable)
+			statements = StatementCache.get(cacheKey);
+		if (statements != null)
+		{
+			m_stdinStream = stdin;
+			m_stdoutStream = stdout;
+			m_context = context;
+			context.setStdout(stdout);
+			context.setThrottle(m_throttle);
+
+			for (int i = 0; i < statements.size(); i++)
+			{
+				if (executeStatement(statements.get(i)) != null)
+					break;
+			}
+			return;
+		}
+
+		Statement st;
+		FileOrURL f = new FileOrURL(new StringReader(commands), name);
+		Preprocessor preprocessor = new Preprocessor(f, isIncludeAllowed);
+		m_stdinStream = stdin;
+		m_stdoutStream = stdout;
+		m_context = context;
+		context.setStdout(stdout);
+		context.setThrottle(m_throttle);
+		statements = new ArrayList<Statement>();
+
+		try
+		{
+			while ((st = parseStatement(preprocessor)) != null)
+			{
+				statements.add(st);
+				Argument returnValue = executeStatement(st);
+				if (returnValue != null)
+				{
+					/*
+					 * Statements following 'RETURN' were not parsed.
+					 */
+					isCacheable = false;
+					break;
+				}
+			}
+
+			HashMap<File, Long> includedFiles = preprocessor.getIncludedFiles();
+			if (isCacheable && m_userFunctions.isEmpty() && includedFiles != null)
+				StatementCache.put(cacheKey, statements, includedFiles);
+		}
+		finally
+		{
+			preprocessor.close();
+		}
+	}
+
 	private void makeCall(Statement block, ArrayList<String> parameters, Argument []args)
 		throws IOException, InterruptedException, MapyrusException
 	{
@@ -3205,8 +3380,7 @@ public class Interpreter implements Cloneable
 		for (int i = 0; i < args.length; i++)
 		{
 			parameterName = parameters.get(i);
-			m_context.setLocalScope(parameterName);
-			m_context.defineVariable(parameterName, args[i]);
+			m_context.defineParameter(i, parameterName, args[i]);
 		}
 
 		/*
@@ -3519,7 +3693,7 @@ public class Interpreter implements Cloneable
 
 				for (int i = 0; i < moveToCount; i++)
 				{
-					m_context.saveState(blockName);
+					m_context.saveState(blockName, block.getVariableSlots());
 					Point2D.Float pt = (Point2D.Float)(moveTos.get(i));
 					m_context.setTranslation(pt.x, pt.y);
 					m_context.clearPath();
@@ -3536,7 +3710,7 @@ public class Interpreter implements Cloneable
 				 * Execute statements in procedure block.  Surround statments
 				 * with a save/restore so nothing can be changed by accident.
 				 */
-				m_context.saveState(blockName);
+				m_context.saveState(blockName, block.getVariableSlots());
 				makeCall(block, formalParameters, args);
 				m_context.restoreState();
 			}
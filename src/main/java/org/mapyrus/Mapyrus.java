@@ -27,10 +27,16 @@ import java.net.SocketTimeoutException;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.mapyrus.dataset.ConnectionPool;
+import org.mapyrus.dataset.ShapefileIndex;
 import org.mapyrus.gui.MapyrusFrame;
 import org.mapyrus.logging.SingleLineFormatter;
 
@@ -39,6 +45,8 @@ import org.mapyrus.logging.SingleLineFormatter;
  * lines and polygons to various output formats.
  * Runs as either an interpreter for files given on the command
  * line, as a library embedded in a Java application, or as an HTTP server.
+ * Files can also be run once for each page in a batch of pages, with pages
+ * run concurrently by separate interpreters.
  *
  * An interpreter is not thread-safe.
  *
@@ -169,11 +177,20 @@ public class Mapyrus
 			"Variables are passed to " + Constants.PROGRAM_NAME + " using the Java -D option.",
 			"",
 			"Options:",
+			"  -b <pages>    runs commands once for each page in file <pages>.  Each line",
+			"                of file contains a filename and xmin, ymin, xmax, ymax for",
+			"                a page.  Or <pages> is a tile grid in the form",
+			"                grid:<columns>,<rows>,<xmin>,<ymin>,<xmax>,<ymax>,<filename>",
+			"                with {row} and {column} in <filename> replaced for each tile.",
+			"                Pages are run concurrently, set by -p option.",
 			"  -e <commands> runs given commands instead of reading commands from a file",
 			"  -g            starts Mapyrus GUI for each filename",
 			"  -h            print this message",
+			"  -i <shapefile> builds spatial index file for ESRI shape file and exits",
 			"  -l <level>    sets logging level for HTTP server.  One of ",
 			"                FINEST, FINER, FINE, CONFIG, INFO, WARNING, SEVERE.",
+			"  -p <threads>  sets number of pages to run at the same time with -b option.",
+			"                Default is number of processors.",
 			"  -r <percent>:<maxtime> restricts CPU usage.  percent value in",
 			"                range 1-100 gives maximum CPU load, a lower value gives",
 			"                other processes more time to run.  maxtime defines",
@@ -260,6 +277,9 @@ public class Mapyrus
 			catch (SocketTimeoutException e)
 			{
 				logger.info(MapyrusMessages.get(MapyrusMessages.IDLE));
+				String poolStatistics = ConnectionPool.getStatistics();
+				if (poolStatistics.length() > 0)
+					logger.info(poolStatistics);
 			}
 		}
 		return(clientSocket);
@@ -278,7 +298,8 @@ public class Mapyrus
 	{
 		ServerSocket serverSocket = null;
 		Pool<Interpreter> interpreterPool;
-		HashSet<HTTPRequest> activeThreads;
+		HashSet<HTTPRequest> activeConnections;
+		ThreadPoolExecutor executor;
 
 		/*
 		 * Make pool of interpreters available to threads that
@@ -290,9 +311,17 @@ public class Mapyrus
 			interpreterPool.put((Interpreter)interpreter.clone());
 
 		/*
-		 * Initialise set of threads that have been started.
+		 * Create pool of threads to handle connections, with a bounded
+		 * queue of connections waiting for a thread.
 		 */
-		activeThreads = new HashSet<HTTPRequest>();
+		executor = new ThreadPoolExecutor(Constants.MAX_HTTP_CONNECTIONS,
+			Constants.MAX_HTTP_CONNECTIONS, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(Constants.HTTP_ACCEPT_BACKLOG));
+
+		/*
+		 * Initialise set of connections that have been started.
+		 */
+		activeConnections = new HashSet<HTTPRequest>();
 
 		/*
 		 * Create a logger for writing errors and information whilst
@@ -316,13 +345,14 @@ public class Mapyrus
 			 * Create socket on given port.  If port was 0 then it
 			 * is assigned to any free port number.
 			 */
-			serverSocket = new ServerSocket(port);
+			serverSocket = new ServerSocket(port, Constants.HTTP_ACCEPT_BACKLOG);
 			port = serverSocket.getLocalPort();
 		}
 		catch (IOException e)
 		{
 			System.err.println(MapyrusMessages.get(MapyrusMessages.INIT_HTTP_FAILED) +
 				": " + e.getMessage());
+			executor.shutdown();
 			return;
 		}
 
@@ -356,72 +386,42 @@ public class Mapyrus
 				socket.setSoTimeout(Constants.HTTP_SOCKET_TIMEOUT);
 
 				/*
-				 * Take a intepreter to handle this request (waiting
-				 * until one becomes available, if necessary).
-				 * Then start new thread to handle this request.
+				 * Pass connection to a thread in the thread pool.
 				 */
-				interpreter = interpreterPool.get(Constants.HTTP_TIMEOUT);
-				if (interpreter == null)
+				HTTPRequest request = new HTTPRequest(socket,
+					interpreterPool, executor.getQueue(), logger);
+
+				try
 				{
-					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.HTTP_TIMEOUT));
+					executor.execute(request);
+				}
+				catch (RejectedExecutionException e)
+				{
+					/*
+					 * Too many connections are waiting, so reject this one
+					 * immediately rather than making client wait even longer.
+					 */
+					Socket busySocket = socket;
+					socket = null;
+					HTTPRequest.sendBusyReply(busySocket);
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.HTTP_BUSY) +
+						": " + request.getName());
 				}
 
-				HTTPRequest request = new HTTPRequest(socket,
-					interpreter, interpreterPool, logger);
-
-				activeThreads.add(request);
+				activeConnections.add(request);
 				logger.fine(MapyrusMessages.get(MapyrusMessages.STARTED_THREAD) +
 					": " + request.getName());
 
 				/*
-				 * Forget about socket, the request thread guarantees that it
+				 * Forget about socket, the request guarantees that it
 				 * will be closed.
 				 */
 				socket = null;
-				request.start();
-
-				/*
-				 * Join any threads we started that have now finished.
-				 */
-				Iterator<HTTPRequest> iterator = activeThreads.iterator();
-				while (iterator.hasNext())
-				{
-					HTTPRequest active = iterator.next();
-					if (!active.isAlive())
-					{
-						/*
-						 * Wait for thread to complete,
-						 * then check if it succeeded.
-						 */
-						active.join();
-						logger.fine(MapyrusMessages.get(MapyrusMessages.JOINED_THREAD) +
-							": " + active.getName());
-						if (!active.getStatus())
-							logger.severe(active.getName() + ": " + active.getErrorMessage());
-						iterator.remove();
-					}
-					else
-					{
-						/*
-						 * Interrupt any requests that have run for too long.
-						 */
-						long now = System.currentTimeMillis();
-						long age = now - active.getCreationTime();
-						if (age > Constants.MAX_HTTP_REQUEST_TIME)
-						{
-							active.interrupt();
-						}
-					}
-				}
 			}
 			catch (IOException e)
 			{
 				logger.severe(e.getMessage());
 			}
-			catch (InterruptedException e)
-			{
-				logger.severe(e.getMessage());
-			}
 			catch (MapyrusException e)
 			{
 				logger.severe(e.getMessage());
@@ -444,6 +444,27 @@ public class Mapyrus
 				{
 				}
 			}
+
+			/*
+			 * Forget any connections that have now finished and
+			 * interrupt any requests that have run for too long.
+			 */
+			long now = System.currentTimeMillis();
+			Iterator<HTTPRequest> iterator = activeConnections.iterator();
+			while (iterator.hasNext())
+			{
+				HTTPRequest active = iterator.next();
+				if (active.isFinished())
+				{
+					logger.fine(MapyrusMessages.get(MapyrusMessages.JOINED_THREAD) +
+						": " + active.getName());
+					iterator.remove();
+				}
+				else
+				{
+					active.interruptIfOverdue(now);
+				}
+			}
 		}
 	}
 
@@ -486,6 +507,8 @@ public class Mapyrus
 		StringBuilder commandsToExecute = new StringBuilder();
 		boolean startGui = false;
 		Throttle throttle = null;
+		String batchPages = null;
+		int parallelism = Runtime.getRuntime().availableProcessors();
 
 		if (args.length == 0)
 			startGui = true;
@@ -537,6 +560,38 @@ public class Mapyrus
 				argIndex += 2;
 				isHttpServer = true;
 			}
+			else if (arg.equals("-b"))
+			{
+				if (argIndex + 1 == args.length)
+					printUsageAndExit();
+
+				/*
+				 * Pages to run commands for in batch mode.
+				 */
+				batchPages = args[argIndex + 1];
+				argIndex += 2;
+			}
+			else if (arg.equals("-p"))
+			{
+				if (argIndex + 1 == args.length)
+					printUsageAndExit();
+
+				try
+				{
+					parallelism = Integer.parseInt(args[argIndex + 1]);
+				}
+				catch (NumberFormatException e)
+				{
+					parallelism = 0;
+				}
+				if (parallelism < 1)
+				{
+					System.err.println(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + args[argIndex + 1]);
+					printUsageAndExit();
+				}
+				argIndex += 2;
+			}
 			else if (arg.equals("-e"))
 			{
 				if (argIndex + 1 == args.length)
@@ -554,6 +609,33 @@ public class Mapyrus
 				startGui = true;
 				argIndex++;
 			}
+			else if (arg.equals("-i"))
+			{
+				/*
+				 * Build spatial index for shape file and quit.
+				 */
+				if (argIndex + 1 == args.length)
+					printUsageAndExit();
+
+				String shapeFilename = args[argIndex + 1];
+				if (!(shapeFilename.endsWith(".shp") || shapeFilename.endsWith(".SHP")))
+					shapeFilename = shapeFilename + ".shp";
+				try
+				{
+					ShapefileIndex.build(shapeFilename);
+				}
+				catch (IOException e)
+				{
+					System.err.println(e.getMessage());
+					System.exit(1);
+				}
+				catch (MapyrusException e)
+				{
+					System.err.println(e.getMessage());
+					System.exit(1);
+				}
+				System.exit(0);
+			}
 			else if (arg.equals("-l"))
 			{
 				/*
@@ -659,6 +741,37 @@ public class Mapyrus
 			interpreter.setThrottle(throttle);
 		}
 
+		if (batchPages != null)
+		{
+			/*
+			 * Run commands for each page, then exit.
+			 */
+			boolean succeeded = false;
+			try
+			{
+				BatchRenderer batchRenderer = new BatchRenderer(batchPages);
+				String commands = null;
+				if (commandsToExecute.length() > 0)
+					commands = commandsToExecute.toString();
+				String []filenames = new String[args.length - argIndex];
+				System.arraycopy(args, argIndex, filenames, 0, filenames.length);
+				succeeded = batchRenderer.render(interpreter, commands, filenames, parallelism);
+			}
+			catch (IOException e)
+			{
+				System.err.println(e.getMessage());
+			}
+			catch (InterruptedException e)
+			{
+				System.err.println(e.getMessage());
+			}
+			catch (MapyrusException e)
+			{
+				System.err.println(e.getMessage());
+			}
+			System.exit(succeeded ? 0 : 1);
+		}
+
 		if (commandsToExecute.length() > 0)
 		{
 			/*
@@ -31,12 +31,15 @@ public class MapyrusMessages
 	public static final String ABOUT = "about";
 	public static final String ACCEPTING_HTTP = "acceptinghttp";
 	public static final String BAD_IMAGE_READER_CLASS = "badimagereaderclass";
+	public static final String BATCH_NO_OUTPUT = "batchnooutput";
 	public static final String CANNOT_OPEN_URL = "cannotopenurl";
 	public static final String CLASS_NOT_FUNCTION = "classnotfunction";
 	public static final String CLOSE = "close";
 	public static final String CLOSE_TAB = "closetab";
 	public static final String COLOR_NOT_FOUND = "colornotfound";
 	public static final String COPY = "copy";
+	public static final String DB_POOL_STATISTICS = "dbpoolstatistics";
+	public static final String DB_POOL_TIMEOUT = "dbpooltimeout";
 	public static final String DEFINE_TRANSFORM = "definetransform";
 	public static final String EDIT = "edit";
 	public static final String ERROR_FILE = "errorfile";
@@ -58,6 +61,7 @@ public class MapyrusMessages
 	public static final String GEOMETRY_NOT_NUMERIC = "geometrynotnumeric";
 	public static final String HASHMAP_NOT_NUMERIC = "hashmapnotnumeric";
 	public static final String HELP = "help";
+	public static final String HTTP_BUSY = "httpbusy";
 	public static final String HTTP_HEADER = "httpheader";
 	public static final String HTTP_NOT_FOUND = "httpnotfound";
 	public static final String HTTP_RETURNED = "httpreturned";
@@ -69,6 +73,7 @@ public class MapyrusMessages
 	public static final String INTERRUPTED = "interrupted";
 	public static final String INVALID_ARC = "invalidarc";
 	public static final String INVALID_ARRAY = "invalidarray";
+	public static final String INVALID_BATCH = "invalidbatch";
 	public static final String INVALID_BEZIER = "invalidbezier";
 	public static final String INVALID_BLEND = "invalidblend";
 	public static final String INVALID_BOX = "invalidbox";
@@ -137,6 +142,7 @@ public class MapyrusMessages
 	public static final String INVALID_SCALING = "invalidscaling";
 	public static final String INVALID_SCRIPT = "invalidscript";
 	public static final String INVALID_SETOUTPUT = "invalidsetoutput";
+	public static final String INVALID_SHAPE_INDEX = "invalidshapeindex";
 	public static final String INVALID_SINEWAVE = "invalidsinewave";
 	public static final String INVALID_SIZE = "invalidsize";
 	public static final String INVALID_SPACING = "invalidspacing";
@@ -153,6 +159,7 @@ public class MapyrusMessages
 	public static final String INVALID_WORLDS = "invalidworlds";
 	public static final String INVALID_WORLD_UNITS = "invalidworldunits";
 	public static final String JOINED_THREAD = "joinedthread";
+	public static final String MISSING_EXTENTS = "missingextents";
 	public static final String MISSING_FIELD = "missingfield";
 	public static final String MISSING_FILENAME = "missingfilename";
 	public static final String MISSING_HTTP_POST = "missinghttppost";
@@ -165,6 +172,7 @@ public class MapyrusMessages
 	public static final String NOT_ASCENDING = "notascending";
 	public static final String NOT_A_OTF_FILE = "notaotffile";
 	public static final String NOT_A_PAT_FILE = "notapatfile";
+	public static final String NOT_A_PBF_FILE = "notapbffile";
 	public static final String NOT_A_PFA_FILE = "notapfafile";
 	public static final String NOT_A_PFB_FILE = "notapfbfile";
 	public static final String NOT_A_PPM_FILE = "notappmfile";
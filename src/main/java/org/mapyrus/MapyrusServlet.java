@@ -107,7 +107,6 @@ public class MapyrusServlet extends HttpServlet
 
 		String servletPath = request.getServletPath();
 		FileOrURL f1 = new FileOrURL(new StringReader(variables.toString()), servletPath);
-		FileOrURL f2 = new FileOrURL(new StringReader(paramValue), servletPath);
 		ContextStack context = new ContextStack();
 		byte []emptyBuffer = new byte[0];
 		ByteArrayInputStream emptyStdin = new ByteArrayInputStream(emptyBuffer);
@@ -131,7 +130,7 @@ public class MapyrusServlet extends HttpServlet
 			throttle.setIOAllowed(isIOAllowed);
 			interpreter.setThrottle(throttle);
 			interpreter.interpret(context, f1, emptyStdin, null);
-			interpreter.interpret(context, f2, emptyStdin, printStream);
+			interpreter.interpret(context, paramValue, servletPath, emptyStdin, printStream);
 			String responseHeader = context.getHTTPResponse().trim();
 			context.closeContextStack();
 			context = null;
@@ -39,6 +39,7 @@ import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
@@ -54,6 +55,8 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -64,19 +67,23 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 
 import org.mapyrus.font.AdobeFontMetrics;
 import org.mapyrus.font.AdobeFontMetricsManager;
+import org.mapyrus.font.FontFileCache;
 import org.mapyrus.font.OpenTypeFont;
 import org.mapyrus.font.PostScriptFont;
 import org.mapyrus.font.StringDimension;
 import org.mapyrus.font.TrueTypeFont;
 import org.mapyrus.gui.MapyrusFrame;
+import org.mapyrus.image.BandedImage;
 import org.mapyrus.image.BlendComposite;
 import org.mapyrus.image.ColorIcon;
 import org.mapyrus.image.ImageIOWrapper;
 import org.mapyrus.io.ASCII85Writer;
+import org.mapyrus.io.CountingOutputStream;
 import org.mapyrus.io.WildcardFile;
 import org.mapyrus.pdf.PDFFile;
 import org.mapyrus.ps.PostScriptFile;
@@ -167,6 +174,7 @@ public class OutputFormat
 	private int m_outputType;
 	private String m_formatName;
 	private BufferedImage m_image;
+	private BandedImage m_bandedImage;
 	private String m_filename;
 	private PrintWriter m_writer;
 	private OutputStream m_outputStream;
@@ -180,11 +188,26 @@ public class OutputFormat
 	private String m_uniqueKey;
 	private Throttle m_throttle;
 
+	/*
+	 * Display list recording drawing to page, and copies of page
+	 * in other formats to be created from display list.
+	 */
+	private DisplayList m_displayList;
+	private ArrayList<String []> m_copies;
+	private double m_copyWidth;
+	private double m_copyHeight;
+	private PrintStream m_copyStdoutStream;
+
 	/*
 	 * Frequently used fonts.
 	 */
 	private FontCache m_fontCache;
 
+	/*
+	 * Dimensions of strings already measured on this page.
+	 */
+	private LRUCache<String, StringDimension> m_stringDimensionCache;
+
 	/*
 	 * List of font definitions included in this PostScript file and list of fonts
 	 * used in this file but not defined.
@@ -293,14 +316,39 @@ public class OutputFormat
 	private Stack<Integer> m_SVGOpenGTags;
 	private int m_gradientCounter;
 
+	/*
+	 * Graphics state last written to PostScript or PDF output and
+	 * graphics states saved before it, so that operators setting a
+	 * value that is already set can be skipped.
+	 */
+	private GraphicsState m_deviceState;
+	private Stack<GraphicsState> m_deviceStates;
+
+	/*
+	 * Number of saved graphics states not yet written to output.
+	 * Saving state is delayed until something is drawn so that states
+	 * that are saved and restored without drawing anything are skipped.
+	 */
+	private int m_nPendingSaves;
+
 	/*
 	 * File offset of each object in PDF file and buffers containing
 	 * all geometry and additional objects (images and graphics
 	 * states) to be included in PDF file.
 	 */
-	private ArrayList<Integer> m_PDFFileOffsets;
+	private ArrayList<Long> m_PDFFileOffsets;
+	private CountingOutputStream m_PDFCountingStream;
 	private StringWriter m_PDFGeometryStringWriter;
 	private PrintWriter m_PDFGeometryWriter;
+
+	/*
+	 * Flag true for binary PDF output, with geometry compressed into a
+	 * temporary file or memory buffer as it is written, and images and
+	 * geometry written without ASCII85 encoding.
+	 */
+	private boolean m_isPDFBinary;
+	private File m_PDFGeometryFile;
+	private ByteArrayOutputStream m_PDFGeometryBuffer;
 	private HashMap<String, String> m_PDFExtGStateObjects;
 	private HashMap<String, BigString> m_PDFImageObjects;
 
@@ -324,6 +372,84 @@ public class OutputFormat
 	private DecimalFormat m_coordinateDecimal = new DecimalFormat("#.###",
 			Constants.US_DECIMAL_FORMAT_SYMBOLS);
 
+	/*
+	 * Operators last written to PostScript or PDF output to set each
+	 * graphics attribute, or null if attribute has not been set.
+	 */
+	private static class GraphicsState
+	{
+		String m_color;
+		String m_blend;
+		String m_linestyle;
+		String m_font;
+		String m_justify;
+
+		GraphicsState()
+		{
+		}
+
+		GraphicsState(GraphicsState state)
+		{
+			m_color = state.m_color;
+			m_blend = state.m_blend;
+			m_linestyle = state.m_linestyle;
+			m_font = state.m_font;
+			m_justify = state.m_justify;
+		}
+	}
+
+	/*
+	 * Writer for page contents that first writes any saved
+	 * graphics states that have not yet been written.
+	 */
+	private class PageContentWriter extends PrintWriter
+	{
+		PageContentWriter(Writer out)
+		{
+			super(out);
+		}
+
+		/*
+		 * Write graphics states saved since something was last written.
+		 */
+		private void writePendingSaves()
+		{
+			String save = (m_outputType == SVG) ? "<g>\r\n" : "q\r\n";
+			int nSaves = m_nPendingSaves;
+			m_nPendingSaves = 0;
+			for (int i = 0; i < nSaves; i++)
+			{
+				super.write(save, 0, save.length());
+				if (m_outputType == SVG)
+					m_SVGOpenGTags.set(m_SVGOpenGTags.size() - nSaves + i, Integer.valueOf(1));
+			}
+		}
+
+		@Override
+		public void write(int c)
+		{
+			if (m_nPendingSaves > 0)
+				writePendingSaves();
+			super.write(c);
+		}
+
+		@Override
+		public void write(char []buf, int off, int len)
+		{
+			if (m_nPendingSaves > 0)
+				writePendingSaves();
+			super.write(buf, off, len);
+		}
+
+		@Override
+		public void write(String s, int off, int len)
+		{
+			if (m_nPendingSaves > 0)
+				writePendingSaves();
+			super.write(s, off, len);
+		}
+	}
+
 	/**
 	 * Write PostScript file header, including document structuring conventions (DSC).
 	 * @param width width of page in mm.
@@ -549,64 +675,72 @@ public class OutputFormat
 
 		m_pfbFiles = fontList;
 
-		m_PDFFileOffsets = new ArrayList<Integer>();
+		m_PDFFileOffsets = new ArrayList<Long>();
 
-		int nChars = writeLine(m_writer, "%PDF-1.5");
+		writeLine(m_writer, "%PDF-1.5");
+		if (m_isPDFBinary)
+		{
+			/*
+			 * Comment containing bytes with high bit set to mark file as binary.
+			 */
+			m_writer.flush();
+			m_PDFCountingStream.write(new byte[]{'%', (byte)0xe2, (byte)0xe3, (byte)0xcf, (byte)0xd3, '\r', '\n'});
+		}
 
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
-		nChars += writeLine(m_writer, "1 0 obj % Document Catalog");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Type /Catalog");
-		nChars += writeLine(m_writer, "/Outlines 3 0 R");
-		nChars += writeLine(m_writer, "/Pages 4 0 R");
+		markPDFObjectOffset();
+		writeLine(m_writer, "1 0 obj % Document Catalog");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Type /Catalog");
+		writeLine(m_writer, "/Outlines 3 0 R");
+		writeLine(m_writer, "/Pages 4 0 R");
 
 		/*
 		 * We don't know what Optional Content groups will be used.
 		 * Use references so we can define them later.
 		 */
-		nChars += writeLine(m_writer, "/OCProperties");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/OCGs 5 0 R");
-		nChars += writeLine(m_writer, "/D << /Order 6 0 R /BaseState /ON >>");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
-		nChars += writeLine(m_writer, "2 0 obj % Document Metadata");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Creator (" + Constants.PROGRAM_NAME +
+		writeLine(m_writer, "/OCProperties");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/OCGs 5 0 R");
+		writeLine(m_writer, "/D << /Order 6 0 R /BaseState /ON >>");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+
+		markPDFObjectOffset();
+		writeLine(m_writer, "2 0 obj % Document Metadata");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Creator (" + Constants.PROGRAM_NAME +
 			" " + Constants.getVersion() + ")");
 		String author = System.getProperty("user.name");
 		if (author != null)
-			nChars += writeLine(m_writer, "/Author (" + author + ")");
+			writeLine(m_writer, "/Author (" + author + ")");
 
 		StringBuffer date = new StringBuffer("D:");
 		date.append(new SimpleDateFormat("yyyyMMddHHmmssZZZZZ").format(new Date()));
 		date.insert(date.length() - 2, '\'');
 		date.append('\'');
-		nChars += writeLine(m_writer, "/CreationDate (" + date.toString() + ")");
-		nChars += writePostScriptString(m_writer, "/Title", filename);
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
-		nChars += writeLine(m_writer, "3 0 obj % Document");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Type /Outlines");
-		nChars += writeLine(m_writer, "/Count 0");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
-		nChars += writeLine(m_writer, "4 0 obj % Page Tree Node");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Type /Pages");
-		nChars += writeLine(m_writer, "/Kids [8 0 R]");
-		nChars += writeLine(m_writer, "/Count 1");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
+		writeLine(m_writer, "/CreationDate (" + date.toString() + ")");
+		writePostScriptString(m_writer, "/Title", filename);
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+
+		markPDFObjectOffset();
+		writeLine(m_writer, "3 0 obj % Document");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Type /Outlines");
+		writeLine(m_writer, "/Count 0");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+
+		markPDFObjectOffset();
+		writeLine(m_writer, "4 0 obj % Page Tree Node");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Type /Pages");
+		writeLine(m_writer, "/Kids [8 0 R]");
+		writeLine(m_writer, "/Count 1");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+		markPDFObjectOffset();
 
 		if (turnPage)
 		{
@@ -624,8 +758,31 @@ public class OutputFormat
 		m_PDFImageObjects = new HashMap<String, BigString>();
 		m_PDFIncludedFiles = new ArrayList<PDFFile>();
 		m_PDFIncludedPages = new ArrayList<ArrayList<Integer>>();
-		m_PDFGeometryStringWriter = new StringWriter();
-		m_PDFGeometryWriter = new PrintWriter(m_PDFGeometryStringWriter);
+		if (m_isPDFBinary)
+		{
+			/*
+			 * Compress geometry as it is written, into a temporary file
+			 * if possible, to avoid holding it all in memory.
+			 */
+			OutputStream geometryStream;
+			if (m_throttle.isIOAllowed())
+			{
+				m_PDFGeometryFile = File.createTempFile(Constants.PROGRAM_NAME, null);
+				geometryStream = new BufferedOutputStream(new FileOutputStream(m_PDFGeometryFile));
+			}
+			else
+			{
+				m_PDFGeometryBuffer = new ByteArrayOutputStream();
+				geometryStream = m_PDFGeometryBuffer;
+			}
+			m_PDFGeometryWriter = new PageContentWriter(new BufferedWriter(new OutputStreamWriter(
+				new DeflaterOutputStream(geometryStream), "ISO-8859-1")));
+		}
+		else
+		{
+			m_PDFGeometryStringWriter = new StringWriter();
+			m_PDFGeometryWriter = new PageContentWriter(m_PDFGeometryStringWriter);
+		}
 		m_PDFContentGroupNames = new ArrayList<String>();
 		m_PDFContentGroupNestingLevels = new ArrayList<Integer>();
 		m_PDFCurrentContentGroupNesting = 0;
@@ -672,11 +829,9 @@ public class OutputFormat
 			 * Read .afm file for each additional font file given by user.
 			 */
 			String afmFilename = m_afmFiles.get(i);
-			try (BufferedReader reader = new BufferedReader(new FileReader(afmFilename)))
-			{
-				AdobeFontMetrics afm = new AdobeFontMetrics(reader, afmFilename, m_encodeAsISOLatin1, m_glyphFile);
-				m_PDFFonts.add(afm);
-			}
+			AdobeFontMetrics afm = FontFileCache.getAdobeFontMetrics(afmFilename,
+				m_encodeAsISOLatin1, m_glyphFile);
+			m_PDFFonts.add(afm);
 		}
 
 		for (int i = 0; i < m_otfFiles.size(); i++)
@@ -685,7 +840,7 @@ public class OutputFormat
 			 * Read .otf file for each additional font file given by user.
 			 */
 			String otfFilename = m_otfFiles.get(i);
-			OpenTypeFont otf = new OpenTypeFont(otfFilename);
+			OpenTypeFont otf = FontFileCache.getOpenTypeFont(otfFilename);
 			m_OTFFonts.add(otf);
 		}
 	}
@@ -1039,71 +1194,68 @@ public class OutputFormat
 			contentGroupsOrderArray.append("]");
 		contentGroupsDictionary.append(">>");
 
-		Integer offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-		int nChars = offset.intValue();
-
-		nChars += writeLine(m_writer, "5 0 obj % Optional Content Groups");
-		nChars += writeLine(m_writer, "[" + contentGroupsArray + "]");
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
-
-		nChars += writeLine(m_writer, "6 0 obj % Optional Content Groups Order");
-		nChars += writeLine(m_writer, "[" + contentGroupsOrderArray + "]");
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
-
-		nChars += writeLine(m_writer, "7 0 obj % Optional Content Group Resource Properties");
-		nChars += writeLine(m_writer, contentGroupsDictionary);
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
-
-		nChars += writeLine(m_writer, "8 0 obj % Single Page");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Type /Page");
-		nChars += writeLine(m_writer, "/Parent 4 0 R");
-		nChars += writeLine(m_writer, "/MediaBox " + m_mediaBox);
-		nChars += writeLine(m_writer, "/Contents " + objectCounter + " 0 R");
+		writeLine(m_writer, "5 0 obj % Optional Content Groups");
+		writeLine(m_writer, "[" + contentGroupsArray + "]");
+		writeLine(m_writer, "endobj");
+		markPDFObjectOffset();
+
+		writeLine(m_writer, "6 0 obj % Optional Content Groups Order");
+		writeLine(m_writer, "[" + contentGroupsOrderArray + "]");
+		writeLine(m_writer, "endobj");
+		markPDFObjectOffset();
+
+		writeLine(m_writer, "7 0 obj % Optional Content Group Resource Properties");
+		writeLine(m_writer, contentGroupsDictionary);
+		writeLine(m_writer, "endobj");
+		markPDFObjectOffset();
+
+		writeLine(m_writer, "8 0 obj % Single Page");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Type /Page");
+		writeLine(m_writer, "/Parent 4 0 R");
+		writeLine(m_writer, "/MediaBox " + m_mediaBox);
+		writeLine(m_writer, "/Contents " + objectCounter + " 0 R");
 		objectCounter++;
-		nChars += writeLine(m_writer, "/Resources");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/ProcSet [/PDF /Text /ImageB /ImageC]");
-		nChars += writeLine(m_writer, "/ExtGState " + objectCounter + " 0 R");
+		writeLine(m_writer, "/Resources");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/ProcSet [/PDF /Text /ImageB /ImageC]");
+		writeLine(m_writer, "/ExtGState " + objectCounter + " 0 R");
 		objectCounter++;
-		nChars += writeLine(m_writer, "/ColorSpace " + objectCounter + " 0 R");
+		writeLine(m_writer, "/ColorSpace " + objectCounter + " 0 R");
 		objectCounter++;
-		nChars += writeLine(m_writer, "/Pattern " + objectCounter + " 0 R");
+		writeLine(m_writer, "/Pattern " + objectCounter + " 0 R");
 		objectCounter++;
-		nChars += writeLine(m_writer, "/Shading " + objectCounter + " 0 R");
+		writeLine(m_writer, "/Shading " + objectCounter + " 0 R");
 		objectCounter++;
-		nChars += writeLine(m_writer, "/XObject " + objectCounter + " 0 R");
+		writeLine(m_writer, "/XObject " + objectCounter + " 0 R");
 		objectCounter++;
 
-		nChars += writeLine(m_writer, "/Font");
-		nChars += writeLine(m_writer, fontDictionary.toString());
+		writeLine(m_writer, "/Font");
+		writeLine(m_writer, fontDictionary.toString());
 
 		/*
 		 * Add reference to optional content groups.
 		 */
-		nChars += writeLine(m_writer, "/Properties 7 0 R");
+		writeLine(m_writer, "/Properties 7 0 R");
 
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(Integer.valueOf(nChars));
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+		markPDFObjectOffset();
 
 		/*
 		 * Now add font width, font descriptor and font file objects.
 		 */
 		for (int i = 0; i < pdfFontObjects.size(); i++)
 		{
-			nChars += writeLine(m_writer, pdfFontObjects.get(i).toString());
-			m_PDFFileOffsets.add(Integer.valueOf(nChars));
+			writeLine(m_writer, pdfFontObjects.get(i).toString());
+			markPDFObjectOffset();
 		}
 
 		for (int i = 0; i < pdfContentGroupObjects.size(); i++)
 		{
-			nChars += writeLine(m_writer, pdfContentGroupObjects.get(i));
-			m_PDFFileOffsets.add(Integer.valueOf(nChars));
+			writeLine(m_writer, pdfContentGroupObjects.get(i));
+			markPDFObjectOffset();
 		}
 	}
 
@@ -1208,8 +1360,19 @@ public class OutputFormat
 		boolean fractionalFontMetrics)
 	{
 		double scale;
+		int imageWidth, imageHeight;
 
 		scale = resolution / Constants.MM_PER_INCH;
+		if (m_bandedImage != null)
+		{
+			imageWidth = m_bandedImage.getWidth();
+			imageHeight = m_bandedImage.getHeight();
+		}
+		else
+		{
+			imageWidth = m_image.getWidth();
+			imageHeight = m_image.getHeight();
+		}
 
 		/*
 		 * Set background of entire image to desired color.
@@ -1218,7 +1381,7 @@ public class OutputFormat
 		{
 			Color originalColor = m_graphics2D.getColor();
 			m_graphics2D.setColor(backgroundColor);
-			m_graphics2D.fillRect(0, 0, m_image.getWidth(), m_image.getHeight());
+			m_graphics2D.fillRect(0, 0, imageWidth, imageHeight);
 			m_graphics2D.setColor(originalColor);
 		}
 
@@ -1226,7 +1389,7 @@ public class OutputFormat
 		 * Set transform with origin in lower-left corner and
 		 * Y axis increasing upwards.
 		 */
-		m_graphics2D.translate(0, m_image.getHeight());
+		m_graphics2D.translate(0, imageHeight);
 		m_graphics2D.scale(scale, -scale);
 
 		/*
@@ -1347,7 +1510,15 @@ public class OutputFormat
 		m_OTFFonts = new ArrayList<OpenTypeFont>();
 		m_otfFiles = new ArrayList<String>();
 		m_SVGOpenGTags = new Stack<Integer>();
+		m_deviceState = new GraphicsState();
+		m_deviceStates = new Stack<GraphicsState>();
+		m_nPendingSaves = 0;
 		m_isUpdatingFile = false;
+		m_isPDFBinary = false;
+		m_PDFGeometryFile = null;
+		m_PDFGeometryBuffer = null;
+		m_displayList = null;
+		m_copies = null;
 		int resolution;
 		boolean turnPage = false;
 		Color backgroundColor = null;
@@ -1355,6 +1526,7 @@ public class OutputFormat
 		boolean lineAntiAliasing = false;
 		boolean fractionalFontMetrics = false;
 		boolean compressOutput = false;
+		int bandHeight = 0;
 		String scriptFilename = null;
 		Rectangle2D existingBoundingBox = null;
 		m_uniqueKey = getUniqueKey();
@@ -1413,7 +1585,7 @@ public class OutputFormat
 						WildcardFile wildcard = new WildcardFile(fontFilename);
 						Iterator<String> it = wildcard.getMatchingFiles().iterator();
 						while (it.hasNext())
-							fontList.add(new PostScriptFont(it.next(), isBinary));
+							fontList.add(FontFileCache.getPostScriptFont(it.next(), isBinary));
 					}
 				}
 			}
@@ -1585,7 +1757,7 @@ public class OutputFormat
 						while (it.hasNext())
 						{
 							String s = it.next();
-							TrueTypeFont ttf = new TrueTypeFont(s);
+							TrueTypeFont ttf = FontFileCache.getTrueTypeFont(s);
 							String fontName = ttf.getName();
 							m_TTFFonts.put(fontName, ttf);
 							m_TTFFonts.put(fontName.toLowerCase(), ttf);
@@ -1624,6 +1796,11 @@ public class OutputFormat
 				String flag = token.substring(9);
 				compressOutput = flag.equalsIgnoreCase("true");
 			}
+			else if (token.startsWith("binary=") && m_outputType == PDF)
+			{
+				String flag = token.substring(7);
+				m_isPDFBinary = flag.equalsIgnoreCase("true");
+			}
 			else if (token.startsWith("imagemap=") && m_outputType == IMAGE_FILE)
 			{
 				String imageMapFilename = token.substring(9);
@@ -1666,6 +1843,35 @@ public class OutputFormat
 						": " + e.getMessage());
 				}
 			}
+			else if (token.startsWith("bandheight=") && m_outputType == IMAGE_FILE)
+			{
+				String pixels = token.substring(11);
+				try
+				{
+					bandHeight = Integer.parseInt(pixels);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + pixels);
+				}
+			}
+			else if (token.startsWith("copy=") &&
+				m_outputType != INTERNAL_IMAGE && m_outputType != SCREEN_WINDOW)
+			{
+				/*
+				 * Format, filename and options for another copy of this page.
+				 */
+				String []copy = token.substring(5).split(",", 3);
+				if (copy.length < 2 || copy[0].length() == 0 || copy[1].length() == 0)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OPTION) +
+						": " + token);
+				}
+				if (m_copies == null)
+					m_copies = new ArrayList<String []>();
+				m_copies.add(copy);
+			}
 			else if (token.startsWith("maximumimagememory="))
 			{
 				String memoryLimit = token.substring(19);
@@ -1784,7 +1990,20 @@ public class OutputFormat
 				m_outputStream = new FileOutputStream(m_tempFile);
 			}
 
-			m_writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(m_outputStream)));
+			if (m_outputType == PDF)
+			{
+				/*
+				 * Count bytes written so that offset of each object in
+				 * PDF file is known.
+				 */
+				m_PDFCountingStream = new CountingOutputStream(m_outputStream);
+				m_outputStream = m_PDFCountingStream;
+			}
+
+			if (m_outputType == PDF)
+				m_writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(m_outputStream)));
+			else
+				m_writer = new PageContentWriter(new BufferedWriter(new OutputStreamWriter(m_outputStream)));
 
 			m_suppliedFontResources = new HashSet<String>();
 
@@ -1821,7 +2040,7 @@ public class OutputFormat
 		}
 		else if (m_outputType == SVG)
 		{
-			m_writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(m_outputStream)));
+			m_writer = new PageContentWriter(new BufferedWriter(new OutputStreamWriter(m_outputStream)));
 			writeSVGHeader(width, height, scriptFilename, backgroundColor);
 
 			/*
@@ -1875,8 +2094,20 @@ public class OutputFormat
 					else
 						imageType = BufferedImage.TYPE_INT_ARGB;
 
-					m_image = new BufferedImage(widthInPixels, heightInPixels,
-						imageType);
+					if (m_outputType == IMAGE_FILE && bandHeight > 0 && bandHeight < heightInPixels)
+					{
+						/*
+						 * Image is drawn in bands when it is written to file,
+						 * to avoid holding whole image in memory.
+						 */
+						m_bandedImage = new BandedImage(widthInPixels, heightInPixels,
+							imageType, bandHeight);
+					}
+					else
+					{
+						m_image = new BufferedImage(widthInPixels, heightInPixels,
+							imageType);
+					}
 				}
 			}
 			else if (m_outputType == INTERNAL_IMAGE)
@@ -1888,7 +2119,10 @@ public class OutputFormat
 				width = m_image.getWidth() / (resolution / Constants.MM_PER_INCH);
 				height = m_image.getHeight() / (resolution / Constants.MM_PER_INCH);
 			}
-			m_graphics2D = (Graphics2D)(m_image.getGraphics());
+			if (m_bandedImage != null)
+				m_graphics2D = m_bandedImage.createGraphics();
+			else
+				m_graphics2D = (Graphics2D)(m_image.getGraphics());
 			setupBufferedImage(resolution, backgroundColor, lineAntiAliasing, labelAntiAliasing, fractionalFontMetrics);
 		}
 
@@ -1905,8 +2139,22 @@ public class OutputFormat
 		m_filename = filename;
 		m_pageWidth = width;
 		m_pageHeight = height;
+
+		if (m_copies != null)
+		{
+			/*
+			 * Record everything drawn to page so that
+			 * copies can be made when page is complete.
+			 */
+			m_displayList = new DisplayList();
+			m_copyWidth = width;
+			m_copyHeight = height;
+			m_copyStdoutStream = stdoutStream;
+		}
+
 		m_resolution = Constants.MM_PER_INCH / resolution;
 		m_fontCache = new FontCache();
+		m_stringDimensionCache = new LRUCache<String, StringDimension>(Constants.STRING_DIMENSION_CACHE_SIZE);
 		m_justificationShiftX = JUSTIFY_LEFT;
 		m_justificationShiftY = JUSTIFY_BOTTOM;
 		m_fontOutlineWidth = 0.0;
@@ -2101,20 +2349,136 @@ public class OutputFormat
 	 */
 	public StringDimension getStringDimension(String s, String fontName, double fontSize, double lineSpacing)
 		throws IOException, MapyrusException
+	{
+		String keyPrefix = getStringDimensionKeyPrefix(fontName, fontSize, lineSpacing);
+		return(getStringDimension(s, keyPrefix, fontName, fontSize, lineSpacing));
+	}
+
+	/**
+	 * Returns height and width of several strings, all drawn with the same font.
+	 * @param strings strings to calculate width for.
+	 * @param fontName name of font to calculate dimensions for.
+	 * @param fontSize size of characters in millimetres.
+	 * @param lineSpacing fraction of fontSize for line spacing.
+	 * @return height and width of each string in millimetres.
+	 * @throws IOException if font file cannot be read.
+	 * @throws MapyrusException if bounding box of a string cannot be calculated.
+	 */
+	public StringDimension []getStringDimensions(String []strings, String fontName,
+		double fontSize, double lineSpacing)
+		throws IOException, MapyrusException
+	{
+		String keyPrefix = getStringDimensionKeyPrefix(fontName, fontSize, lineSpacing);
+		StringDimension []retval = new StringDimension[strings.length];
+		for (int i = 0; i < strings.length; i++)
+			retval[i] = getStringDimension(strings[i], keyPrefix, fontName, fontSize, lineSpacing);
+		return(retval);
+	}
+
+	/**
+	 * Build start of key for cache of string dimensions, identifying
+	 * the font that is actually used to measure strings.
+	 * @param fontName name of font.
+	 * @param fontSize size of characters in millimetres.
+	 * @param lineSpacing fraction of fontSize for line spacing.
+	 * @return key prefix, to be followed by the string being measured.
+	 */
+	private String getStringDimensionKeyPrefix(String fontName, double fontSize, double lineSpacing)
+	{
+		StringBuilder sb = new StringBuilder(64);
+		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
+		{
+			sb.append(fontName);
+		}
+		else if (m_baseFont != null)
+		{
+			/*
+			 * Java2D measurements are made with the current font,
+			 * not the font name passed to us.
+			 */
+			sb.append(m_baseFont.getName()).append('\n');
+			sb.append(m_baseFont.getStyle()).append('\n');
+			sb.append(m_baseFont.getSize2D());
+		}
+		sb.append('\n').append(fontSize);
+		sb.append('\n').append(lineSpacing).append('\n');
+		return(sb.toString());
+	}
+
+	/**
+	 * Returns height and width of a string, using cached value if
+	 * string has been measured before.
+	 * @param s string to calculate width for.
+	 * @param keyPrefix key prefix from getStringDimensionKeyPrefix().
+	 * @param fontName name of font to calculate dimensions for.
+	 * @param fontSize size of characters in millimetres.
+	 * @param lineSpacing fraction of fontSize for line spacing.
+	 * @return height and width of string in millimetres.
+	 */
+	private StringDimension getStringDimension(String s, String keyPrefix,
+		String fontName, double fontSize, double lineSpacing)
+		throws IOException, MapyrusException
+	{
+		String key = keyPrefix.concat(s);
+		StringDimension dim = m_stringDimensionCache.get(key);
+		if (dim == null)
+		{
+			dim = calculateStringDimension(s, fontName, fontSize, lineSpacing);
+			m_stringDimensionCache.put(key, dim);
+		}
+
+		/*
+		 * Return a copy because callers scale the dimensions they are given.
+		 */
+		StringDimension retval = new StringDimension();
+		retval.setSize(dim.getWidth(), dim.getHeight(), dim.getAscent(), dim.getDescent());
+		return(retval);
+	}
+
+	/**
+	 * Calculate height and width of a string, drawn to current page.
+	 * @param s string to calculate width for.
+	 * @param fontName name of font to calculate dimensions for.
+	 * @param fontSize size of characters in millimetres.
+	 * @param lineSpacing fraction of fontSize for line spacing.
+	 * @return height and width of string in millimetres.
+	 */
+	private StringDimension calculateStringDimension(String s, String fontName,
+		double fontSize, double lineSpacing)
+		throws IOException, MapyrusException
 	{
 		StringDimension retval = new StringDimension();
-		BufferedReader stringReader = new BufferedReader(new StringReader(s));
 		double width = 0, height = 0, ascent = 0, descent = fontSize;
 		String token;
 		double w, a, d;
 		int lineNumber = 0;
+		int len = s.length();
+		int lineStart = 0;
 
 		/*
 		 * Break multi-line strings into separate lines so we
 		 * can find the width of the longest line.
 		 */
-		while ((token = stringReader.readLine()) != null)
+		while (lineStart < len)
 		{
+			int lineEnd = lineStart;
+			char c = 0;
+			while (lineEnd < len && (c = s.charAt(lineEnd)) != '\n' && c != '\r')
+				lineEnd++;
+			token = s.substring(lineStart, lineEnd);
+
+			/*
+			 * Skip line terminator, treating CR LF as a single terminator.
+			 */
+			lineStart = lineEnd;
+			if (lineStart < len)
+			{
+				lineStart++;
+				if (c == '\r' && lineStart < len && s.charAt(lineStart) == '\n')
+					lineStart++;
+			}
+			boolean isLastLine = (lineStart >= len);
+
 			if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
 			{
 				/*
@@ -2151,11 +2515,14 @@ public class OutputFormat
 			{
 				/*
 				 * Use Java2D calculation for bounding box of string displayed with
-				 * horizontal font.
+				 * horizontal font.  Glyph bounds are only needed for the ascent
+				 * of the first line and the descent of the last line.
 				 */
 				FontRenderContext frc = m_graphics2D.getFontRenderContext();
 				Rectangle2D stringBounds = m_baseFont.getStringBounds(token, frc);
-				Rectangle2D glyphBounds = m_baseFont.createGlyphVector(frc, token).getVisualBounds();
+				Rectangle2D glyphBounds = null;
+				if (lineNumber == 0 || isLastLine)
+					glyphBounds = m_baseFont.createGlyphVector(frc, token).getVisualBounds();
 				w = stringBounds.getWidth();
 				if (w > width)
 					width = w;
@@ -2169,7 +2536,8 @@ public class OutputFormat
 					height += fontSize * lineSpacing;
 					ascent += fontSize * lineSpacing;
 				}
-				descent = -(glyphBounds.getMinY() + glyphBounds.getHeight());
+				if (isLastLine)
+					descent = -(glyphBounds.getMinY() + glyphBounds.getHeight());
 			}
 			lineNumber++;
 		}
@@ -2194,6 +2562,15 @@ public class OutputFormat
 		return(m_pageMask);
 	}
 
+	/*
+	 * Record file offset at which next object in PDF file begins.
+	 */
+	private void markPDFObjectOffset()
+	{
+		m_writer.flush();
+		m_PDFFileOffsets.add(Long.valueOf(m_PDFCountingStream.getCount()));
+	}
+
 	/*
 	 * Write a line to PostScript, PDF or SVG file.
 	 * @return number of characters written to file.
@@ -2412,7 +2789,10 @@ public class OutputFormat
 		}
 		if (m_outputType == PDF)
 		{
-			writeLine(pw, "/Filter [/ASCII85Decode /FlateDecode]");
+			if (m_isPDFBinary)
+				writeLine(pw, "/Filter /FlateDecode");
+			else
+				writeLine(pw, "/Filter [/ASCII85Decode /FlateDecode]");
 		}
 		else
 		{
@@ -2428,11 +2808,14 @@ public class OutputFormat
 		}
 
 		/*
-		 * Write ASCII85 encoded string containing all pixel values.
+		 * Write ASCII85 encoded string containing all pixel values,
+		 * or compressed binary pixel values for binary PDF output.
 		 */
 		StringWriter ascii85sw = null;
 		PrintWriter ascii85pw = null;
 		BufferedWriter ascii85fw = null;
+		ByteArrayOutputStream binaryBuffer = null;
+		OutputStream pixelStream = null;
 		File tempFile = null;
 		if (m_outputType == PDF)
 		{
@@ -2452,8 +2835,16 @@ public class OutputFormat
 				if (dir == null)
 					dir = System.getProperty("user.dir");
 				tempFile = new File(dir, Constants.PROGRAM_NAME + "." + imageKey);
-				ascii85fw = new BufferedWriter(new FileWriter(tempFile));
-				ascii85pw = new PrintWriter(ascii85fw);
+				if (m_isPDFBinary)
+				{
+					pixelStream = new DeflaterOutputStream(new BufferedOutputStream(
+						new FileOutputStream(tempFile)));
+				}
+				else
+				{
+					ascii85fw = new BufferedWriter(new FileWriter(tempFile));
+					ascii85pw = new PrintWriter(ascii85fw);
+				}
 			}
 			else
 			{
@@ -2461,8 +2852,16 @@ public class OutputFormat
 				 *  Not sure how well image will compress though so
 				 *  allocate big buffer.
 				 */
-				ascii85sw = new StringWriter(encodedSize + 1);
-				ascii85pw = new PrintWriter(ascii85sw);
+				if (m_isPDFBinary)
+				{
+					binaryBuffer = new ByteArrayOutputStream(encodedSize + 1);
+					pixelStream = new DeflaterOutputStream(binaryBuffer);
+				}
+				else
+				{
+					ascii85sw = new StringWriter(encodedSize + 1);
+					ascii85pw = new PrintWriter(ascii85sw);
+				}
 				m_imageMemory += encodedSize;
 			}
 		}
@@ -2470,13 +2869,27 @@ public class OutputFormat
 		{
 			ascii85pw = pw;
 		}
-		ASCII85Writer ascii85 = new ASCII85Writer(ascii85pw, m_outputType == PDF);
+
+		ASCII85Writer ascii85 = null;
+		if (pixelStream == null)
+		{
+			final ASCII85Writer encoder = new ASCII85Writer(ascii85pw, m_outputType == PDF);
+			ascii85 = encoder;
+			pixelStream = new OutputStream()
+			{
+				@Override
+				public void write(int b) throws IOException
+				{
+					encoder.write(b);
+				}
+			};
+		}
 		int byteValue = 0;
 		int bitCounter = 0;
 		for (int row = 0; row < pixelHeight; row += step)
 		{
 			m_throttle.sleep();
-			if (tempFile != null && ascii85pw.checkError())
+			if (tempFile != null && ascii85pw != null && ascii85pw.checkError())
 			{
 				/*
 				 * Ensure temporary file is thrown away before we fail.
@@ -2515,7 +2928,7 @@ public class OutputFormat
 
 					if (bitCounter == 8 || (col + step >= pixelWidth))
 					{
-						ascii85.write(byteValue);
+						pixelStream.write(byteValue);
 						byteValue = bitCounter = 0;
 					}
 				}
@@ -2529,71 +2942,117 @@ public class OutputFormat
 					int green = ((pixel >> 8) & 0xff);
 					int red = ((pixel >> 16) & 0xff);
 
-					ascii85.write(red);
-					ascii85.write(green);
-					ascii85.write(blue);
+					pixelStream.write(red);
+					pixelStream.write(green);
+					pixelStream.write(blue);
 				}
 			}
 		}
-		ascii85.close();
-		int nEncodedChars = ascii85.getEncodedLength();
 
-		/*
-		 * Write ASCII85 end-of-data marker.
-		 */
-		nEncodedChars += writeLine(ascii85pw, "~>");
-		if (m_outputType == PDF)
+		if (m_isPDFBinary)
 		{
-			ascii85pw.flush();
-
-			writeLine(pw, "/Length " + nEncodedChars);
-			writeLine(pw, ">>");
-			writeLine(pw, "stream");
-			pw.flush();
-			BigString bigs = new BigString();
-			if (ascii85sw != null)
+			try
 			{
-				/*
-				 * Everything is held in memory
-				 * in a single string.
-				 */
-				StringBuffer sb = ascii85sw.getBuffer();
-				writeLine(pw, sb);
-				writeLine(pw, "endstream");
-				pw.flush();
-				bigs.append(sw.getBuffer());
+				pixelStream.close();
 			}
-			else
+			catch (IOException e)
 			{
-				boolean checkError = ascii85pw.checkError();
-				if (ascii85fw != null)
-					ascii85fw.close();
-
-				if (tempFile != null && checkError)
+				if (tempFile != null)
 				{
 					tempFile.delete();
 					throw new MapyrusException(tempFile.getPath() +
 						": " + MapyrusMessages.get(MapyrusMessages.ERROR_FILE));
 				}
+				throw e;
+			}
 
-				/*
-				 * Append PDF commands, then large temporary file containing
-				 * image, then more PDF commands.
-				 */
-				bigs.append(sw.getBuffer());
-				bigs.append(tempFile);
+			long binaryLength = (tempFile != null) ? tempFile.length() : binaryBuffer.size();
+			writeLine(pw, "/Length " + binaryLength);
+			writeLine(pw, ">>");
+			writeLine(pw, "stream");
+			pw.flush();
 
-				StringWriter sw2 = new StringWriter();
-				pw = new PrintWriter(sw2);
-				writeLine(pw, "endstream");
-				pw.flush();
-				bigs.append(sw2.getBuffer());
-			}
+			/*
+			 * Append PDF commands, then compressed image bytes,
+			 * then more PDF commands.
+			 */
+			BigString bigs = new BigString();
+			bigs.append(sw.getBuffer());
+			if (tempFile != null)
+				bigs.appendBinary(tempFile);
+			else
+				bigs.append(binaryBuffer.toByteArray());
+
+			StringWriter sw2 = new StringWriter();
+			pw = new PrintWriter(sw2);
+			writeLine(pw, "");
+			writeLine(pw, "endstream");
+			pw.flush();
+			bigs.append(sw2.getBuffer());
 			m_PDFImageObjects.put(imageKey, bigs);
 		}
 		else
 		{
-			writeLine(pw, "Q");
+			ascii85.close();
+			int nEncodedChars = ascii85.getEncodedLength();
+
+			/*
+			 * Write ASCII85 end-of-data marker.
+			 */
+			nEncodedChars += writeLine(ascii85pw, "~>");
+			if (m_outputType == PDF)
+			{
+				ascii85pw.flush();
+
+				writeLine(pw, "/Length " + nEncodedChars);
+				writeLine(pw, ">>");
+				writeLine(pw, "stream");
+				pw.flush();
+				BigString bigs = new BigString();
+				if (ascii85sw != null)
+				{
+					/*
+					 * Everything is held in memory
+					 * in a single string.
+					 */
+					StringBuffer sb = ascii85sw.getBuffer();
+					writeLine(pw, sb);
+					writeLine(pw, "endstream");
+					pw.flush();
+					bigs.append(sw.getBuffer());
+				}
+				else
+				{
+					boolean checkError = ascii85pw.checkError();
+					if (ascii85fw != null)
+						ascii85fw.close();
+
+					if (tempFile != null && checkError)
+					{
+						tempFile.delete();
+						throw new MapyrusException(tempFile.getPath() +
+							": " + MapyrusMessages.get(MapyrusMessages.ERROR_FILE));
+					}
+
+					/*
+					 * Append PDF commands, then large temporary file containing
+					 * image, then more PDF commands.
+					 */
+					bigs.append(sw.getBuffer());
+					bigs.append(tempFile);
+
+					StringWriter sw2 = new StringWriter();
+					pw = new PrintWriter(sw2);
+					writeLine(pw, "endstream");
+					pw.flush();
+					bigs.append(sw2.getBuffer());
+				}
+				m_PDFImageObjects.put(imageKey, bigs);
+			}
+			else
+			{
+				writeLine(pw, "Q");
+			}
 		}
 	}
 
@@ -2603,20 +3062,24 @@ public class OutputFormat
 	 */
 	public void saveState()
 	{
-		if (m_outputType == POSTSCRIPT_GEOMETRY)
-			writeLine(m_writer, "q");
-		else if (m_outputType == PDF)
-			writeLine(m_PDFGeometryWriter, "q");
+		if (m_displayList != null)
+			m_displayList.saveState();
+
+		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
+		{
+			m_deviceStates.push(new GraphicsState(m_deviceState));
+			m_nPendingSaves++;
+		}
 		else if (m_outputType == SVG)
 		{
-			writeLine(m_writer, "<g>");
-
 			/*
 			 * We will use <g> tags for clipping too.  Keep track
 			 * of how many we open so that we can close them all when
-			 * we restore the state.
+			 * we restore the state.  The first <g> tag is written
+			 * when something is drawn.
 			 */
-			m_SVGOpenGTags.push(Integer.valueOf(1));
+			m_SVGOpenGTags.push(Integer.valueOf(0));
+			m_nPendingSaves++;
 		}
 	}
 
@@ -2628,16 +3091,31 @@ public class OutputFormat
 	 */
 	public boolean restoreState()
 	{
+		if (m_displayList != null)
+			m_displayList.restoreState();
+
 		boolean retval;
 
+		/*
+		 * If nothing was drawn since state was saved then
+		 * state was not written and does not need to be restored.
+		 */
+		boolean isPending = (m_nPendingSaves > 0);
+		if (isPending)
+			m_nPendingSaves--;
+
 		if (m_outputType == POSTSCRIPT_GEOMETRY)
 		{
-			writeLine(m_writer, "Q");
+			if (!isPending)
+				writeLine(m_writer, "Q");
+			m_deviceState = m_deviceStates.pop();
 			retval = true;
 		}
 		else if (m_outputType == PDF)
 		{
-			writeLine(m_PDFGeometryWriter, "Q");
+			if (!isPending)
+				writeLine(m_PDFGeometryWriter, "Q");
+			m_deviceState = m_deviceStates.pop();
 			retval = false;
 		}
 		else
@@ -2658,6 +3136,13 @@ public class OutputFormat
 			 */
 			retval = false;
 		}
+
+		/*
+		 * Copies of page replayed from display list may be in a format
+		 * that cannot restore state, so caller must always set everything again.
+		 */
+		if (m_displayList != null)
+			retval = false;
 		return(retval);
 	}
 
@@ -2668,12 +3153,23 @@ public class OutputFormat
 	 */
 	public void closeOutputFormat() throws IOException, MapyrusException
 	{
+		/*
+		 * Stop recording to display list before finishing page.
+		 */
+		DisplayList displayList = m_displayList;
+		m_displayList = null;
+
 		try
 		{
 			flushOutput();
+			if (displayList != null)
+				writeCopies(displayList);
 		}
 		finally
 		{
+			if (displayList != null)
+				displayList.close();
+
 			if (m_outputType == PDF)
 			{
 				/*
@@ -2684,6 +3180,38 @@ public class OutputFormat
 				{
 					it.next().deleteFiles();
 				}
+				if (m_PDFGeometryFile != null)
+				{
+					m_PDFGeometryWriter.close();
+					m_PDFGeometryFile.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create each copy of page requested, replaying display list to
+	 * draw the page again in the format of the copy.
+	 * @param displayList display list containing everything drawn to page.
+	 * @throws IOException if writing to a copy fails.
+	 * @throws MapyrusException if a copy cannot be created.
+	 */
+	private void writeCopies(DisplayList displayList) throws IOException, MapyrusException
+	{
+		for (String []copy : m_copies)
+		{
+			String extras = "";
+			if (copy.length > 2)
+				extras = copy[2].replace(',', ' ');
+			OutputFormat outputFormat = new OutputFormat(copy[1], copy[0],
+				m_copyWidth, m_copyHeight, extras, m_copyStdoutStream, m_throttle);
+			try
+			{
+				displayList.replay(outputFormat);
+			}
+			finally
+			{
+				outputFormat.closeOutputFormat();
 			}
 		}
 	}
@@ -2773,37 +3301,69 @@ public class OutputFormat
 			 * Now that we have the complete geometry, we can compress it
 			 * and write it to the PDF file.
 			 */
-			m_PDFGeometryWriter.flush();
-			StringBuffer sb2 = m_PDFGeometryStringWriter.getBuffer();
-			int stringLength = sb2.length();
-			StringWriter sw = new StringWriter(stringLength);
-			ASCII85Writer ascii85 = new ASCII85Writer(sw, true);
-			for (int i = 0; i < stringLength; i++)
-				ascii85.write(sb2.charAt(i));
-			ascii85.close();
-			sw.write("~>");
-			StringBuffer compressedGeometry = sw.getBuffer();
-			int geometryLength = compressedGeometry.length() + 2;
-
 			int objIndex = m_PDFFileOffsets.size();
-			int nChars = writeLine(m_writer, objIndex + " 0 obj % Geometry Object");
-			objIndex++;
-			nChars += writeLine(m_writer, "<< /Length " + geometryLength);
-			nChars += writeLine(m_writer, "/Filter [/ASCII85Decode /FlateDecode] >>");
-			nChars += writeLine(m_writer, "stream");
-			nChars += writeLine(m_writer, compressedGeometry.toString());
-			nChars += writeLine(m_writer, "endstream");
-			nChars += writeLine(m_writer, "endobj");
+			if (m_isPDFBinary)
+			{
+				/*
+				 * Geometry is already compressed.  Copy it to the PDF file.
+				 */
+				m_PDFGeometryWriter.close();
+				if (m_PDFGeometryWriter.checkError())
+				{
+					throw new MapyrusException(m_filename +
+						": " + MapyrusMessages.get(MapyrusMessages.ERROR_FILE));
+				}
+
+				long geometryLength;
+				if (m_PDFGeometryFile != null)
+					geometryLength = m_PDFGeometryFile.length();
+				else
+					geometryLength = m_PDFGeometryBuffer.size();
+
+				writeLine(m_writer, objIndex + " 0 obj % Geometry Object");
+				objIndex++;
+				writeLine(m_writer, "<< /Length " + geometryLength);
+				writeLine(m_writer, "/Filter /FlateDecode >>");
+				writeLine(m_writer, "stream");
+				m_writer.flush();
+				if (m_PDFGeometryFile != null)
+					Files.copy(m_PDFGeometryFile.toPath(), m_PDFCountingStream);
+				else
+					m_PDFGeometryBuffer.writeTo(m_PDFCountingStream);
+				writeLine(m_writer, "");
+			}
+			else
+			{
+				m_PDFGeometryWriter.flush();
+				StringBuffer sb2 = m_PDFGeometryStringWriter.getBuffer();
+				int stringLength = sb2.length();
+				StringWriter sw = new StringWriter(stringLength);
+				ASCII85Writer ascii85 = new ASCII85Writer(sw, true);
+				for (int i = 0; i < stringLength; i++)
+					ascii85.write(sb2.charAt(i));
+				ascii85.close();
+				sw.write("~>");
+				StringBuffer compressedGeometry = sw.getBuffer();
+				int geometryLength = compressedGeometry.length() + 2;
+
+				writeLine(m_writer, objIndex + " 0 obj % Geometry Object");
+				objIndex++;
+				writeLine(m_writer, "<< /Length " + geometryLength);
+				writeLine(m_writer, "/Filter [/ASCII85Decode /FlateDecode] >>");
+				writeLine(m_writer, "stream");
+				writeLine(m_writer, compressedGeometry.toString());
+			}
+			writeLine(m_writer, "endstream");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing graphics states defining
 			 * blend modes and alpha values.
 			 */
-			Integer offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % Graphics States");
+			markPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % Graphics States");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
+			writeLine(m_writer, "<<");
 
 			Object []pdfExtGStateObjs = m_PDFExtGStateObjects.keySet().toArray();
 			Arrays.sort(pdfExtGStateObjs);
@@ -2811,7 +3371,7 @@ public class OutputFormat
 			for (int i = 0; i < pdfExtGStateObjs.length; i++)
 			{
 				String key = pdfExtGStateObjs[i].toString();
-				nChars += writeLine(m_writer, "/" + key +
+				writeLine(m_writer, "/" + key +
 					" " + (objIndex + counter + 4) + " 0 R");
 				counter++;
 			}
@@ -2832,7 +3392,7 @@ public class OutputFormat
 						 * Include dictionary keys from external PDF files
 						 * and any other objects that the keys refer to.
 						 */
-						nChars += writeLine(m_writer, list.get(0).toString());
+						writeLine(m_writer, list.get(0).toString());
 						for (int k = 1; k < list.size(); k++)
 						{
 							includedExtGstateObjects.add(list.get(k));
@@ -2841,18 +3401,17 @@ public class OutputFormat
 					}
 				}
 			}
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing colorspaces used in external
 			 * PDF files.
 			 */
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % ColorSpace");
+			markPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % ColorSpace");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
+			writeLine(m_writer, "<<");
 			ArrayList<StringBuffer> includedColorSpaceObjects = new ArrayList<StringBuffer>();
 			for (int i = 0; i < m_PDFIncludedFiles.size(); i++)
 			{
@@ -2869,7 +3428,7 @@ public class OutputFormat
 						 * Include dictionary keys from external PDF files
 						 * and any other objects that the keys refer to.
 						 */
-						nChars += writeLine(m_writer, list.get(0).toString());
+						writeLine(m_writer, list.get(0).toString());
 						for (int k = 1; k < list.size(); k++)
 						{
 							includedColorSpaceObjects.add(list.get(k));
@@ -2878,48 +3437,45 @@ public class OutputFormat
 					}
 				}
 			}
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing patterns used in external
 			 * PDF files.
 			 */
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % Pattern");
+			markPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % Pattern");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, "<<");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing shading used in external
 			 * PDF files.
 			 */
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % Shading");
+			markPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % Shading");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, "<<");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing each image used in file.
 			 */
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % Image Dictionary");
+			markPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % Image Dictionary");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
+			writeLine(m_writer, "<<");
 
 			Object []pdfImageObjs = m_PDFImageObjects.keySet().toArray();
 			Arrays.sort(pdfImageObjs);
 			for (int i = 0; i < pdfImageObjs.length; i++)
 			{
 				String key = pdfImageObjs[i].toString();
-				nChars += writeLine(m_writer, "/" + key +
+				writeLine(m_writer, "/" + key +
 					" " + (objIndex + counter) + " 0 R");
 				counter++;
 			}
@@ -2939,7 +3495,7 @@ public class OutputFormat
 						 * Include dictionary keys from external PDF files
 						 * and any other objects that the keys refer to.
 						 */
-						nChars += writeLine(m_writer, list.get(0).toString());
+						writeLine(m_writer, list.get(0).toString());
 						for (int k = 1; k < list.size(); k++)
 						{
 							includedImageObjects.add(list.get(k));
@@ -2948,62 +3504,57 @@ public class OutputFormat
 					}
 				}
 			}
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write each graphics state and each image to PDF file.
 			 */
 			for (int i = 0; i < pdfExtGStateObjs.length; i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
+				markPDFObjectOffset();
 
 				Object key = pdfExtGStateObjs[i];
-				nChars = writeLine(m_writer, objIndex + " 0 obj % " + key);
-				nChars += writeLine(m_writer, m_PDFExtGStateObjects.get(key).toString());
-				nChars += writeLine(m_writer, "endobj");
+				writeLine(m_writer, objIndex + " 0 obj % " + key);
+				writeLine(m_writer, m_PDFExtGStateObjects.get(key).toString());
+				writeLine(m_writer, "endobj");
 				objIndex++;
 			}
 			for (int i = 0; i < includedExtGstateObjects.size(); i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
+				markPDFObjectOffset();
 
 				String extGState = includedExtGstateObjects.get(i).toString();
-				nChars = writeLine(m_writer, extGState);
+				writeLine(m_writer, extGState);
 				objIndex++;
 			}
 			for (int i = 0; i < includedColorSpaceObjects.size(); i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
+				markPDFObjectOffset();
 
 				String colorSpace = includedColorSpaceObjects.get(i).toString();
-				nChars = writeLine(m_writer, colorSpace);
+				writeLine(m_writer, colorSpace);
 				objIndex++;
 			}
 			for (int i = 0; i < pdfImageObjs.length; i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
+				markPDFObjectOffset();
 
 				Object key = pdfImageObjs[i];
-				nChars = writeLine(m_writer, objIndex + " 0 obj % " + key);
+				writeLine(m_writer, objIndex + " 0 obj % " + key);
 				BigString bigString = m_PDFImageObjects.get(key);
-				nChars += bigString.writeTo(m_filename, m_writer);
-				nChars += writeLine(m_writer, "");
-				nChars += writeLine(m_writer, "endobj");
+				bigString.writeTo(m_filename, m_writer, m_PDFCountingStream);
+				writeLine(m_writer, "");
+				writeLine(m_writer, "endobj");
 				objIndex++;
 			}
 
 			for (int i = 0; i < includedImageObjects.size(); i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(Integer.valueOf(offset.intValue() + nChars));
+				markPDFObjectOffset();
 
 				String image = includedImageObjects.get(i).toString();
-				nChars = writeLine(m_writer, image);
+				writeLine(m_writer, image);
 				objIndex++;
 			}
 
@@ -3011,10 +3562,12 @@ public class OutputFormat
 			 * Write cross reference table giving file offset of each
 			 * object in PDF file.
 			 */
+			m_writer.flush();
+			long xrefOffset = m_PDFCountingStream.getCount();
 			writeLine(m_writer, "xref");
 			writeLine(m_writer, "0 " + (m_PDFFileOffsets.size() + 1));
 			writeLine(m_writer, "0000000000 65535 f");
-			Iterator<Integer> it = m_PDFFileOffsets.iterator();
+			Iterator<Long> it = m_PDFFileOffsets.iterator();
 			while (it.hasNext())
 			{
 				String fileOffset = it.next().toString();
@@ -3038,8 +3591,7 @@ public class OutputFormat
 			 * Write file offset of start of cross reference table.
 			 */
 			writeLine(m_writer, "startxref");
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			writeLine(m_writer, Integer.toString(offset.intValue() + nChars));
+			writeLine(m_writer, Long.toString(xrefOffset));
 			writeLine(m_writer, "%%EOF");
 
 			if (m_isStandardOutput)
@@ -3088,7 +3640,10 @@ public class OutputFormat
 			/*
 			 * Write image buffer to file.
 			 */
-			ImageIOWrapper.write(m_image, m_formatName, m_outputStream);
+			if (m_bandedImage != null)
+				ImageIOWrapper.write(m_bandedImage, m_formatName, m_outputStream);
+			else
+				ImageIOWrapper.write(m_image, m_formatName, m_outputStream);
 
 			if (m_isStandardOutput)
 				m_outputStream.flush();
@@ -3106,6 +3661,7 @@ public class OutputFormat
 		}
 
 		m_image = null;
+		m_bandedImage = null;
 		m_graphics2D = null;
 
 		if (m_outputType != INTERNAL_IMAGE)
@@ -3158,6 +3714,9 @@ public class OutputFormat
 		double fontRotation, double outlineWidth, double lineSpacing)
 		throws IOException, MapyrusException
 	{
+		if (m_displayList != null)
+			m_displayList.setFontAttribute(fontName, fontSize, fontRotation, outlineWidth, lineSpacing);
+
 		if (m_outputType == POSTSCRIPT_GEOMETRY)
 		{
 			if (m_encodeAsISOLatin1.contains(fontName) && (!m_reencodedFonts.contains(fontName)))
@@ -3173,11 +3732,16 @@ public class OutputFormat
 			/*
 			 * Set font and size for labelling.
 			 */
-			writeLine(m_writer, "/" + fontName + " " +
+			String font = "/" + fontName + " " +
 				fontSize + " " +
 				fontRotation + " " +
 				lineSpacing + " " +
-				outlineWidth + " font");
+				outlineWidth + " font";
+			if (!font.equals(m_deviceState.m_font))
+			{
+				writeLine(m_writer, font);
+				m_deviceState.m_font = font;
+			}
 			m_neededFontResources.add(fontName);
 		}
 		else if (m_outputType == PDF)
@@ -3280,6 +3844,9 @@ public class OutputFormat
 	 */
 	public void setJustifyAttribute(int justify)
 	{
+		if (m_displayList != null)
+			m_displayList.setJustifyAttribute(justify);
+
 		/*
 		 * Calculate fraction of string height and width to move text to get required
 		 * justification.
@@ -3304,7 +3871,12 @@ public class OutputFormat
 			 * Define dictionary entries for justification settings for PostScript
 			 * procedure to use for aligning text correctly itself.
 			 */
-			writeLine(m_writer, m_justificationShiftX + " " + m_justificationShiftY + " ju");
+			String ju = m_justificationShiftX + " " + m_justificationShiftY + " ju";
+			if (!ju.equals(m_deviceState.m_justify))
+			{
+				writeLine(m_writer, ju);
+				m_deviceState.m_justify = ju;
+			}
 		}
 	}
 
@@ -3314,64 +3886,95 @@ public class OutputFormat
 	 */
 	public void setColorAttribute(Color color)
 	{
+		if (m_displayList != null)
+			m_displayList.setColorAttribute(color);
+
 		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
 		{
-			float c[] = color.getColorComponents(null);
-			PrintWriter pw;
-
-			if (m_outputType == PDF)
-				pw = m_PDFGeometryWriter;
-			else
-				pw = m_writer;
-
-			StringBuffer sb = new StringBuffer();
-			for (int i = 0; i < c.length; i++)
+			String operators = getColorOperators(color);
+			if (!operators.equals(m_deviceState.m_color))
 			{
-				sb.append(m_coordinateDecimal.format(c[i]));
-				sb.append(' ');
+				writeLine((m_outputType == PDF) ? m_PDFGeometryWriter : m_writer, operators);
+				m_deviceState.m_color = operators;
 			}
+		}
+		else
+		{
+			m_graphics2D.setColor(color);
+		}
+	}
 
-			int colorSpaceType = color.getColorSpace().getType();
-			if (colorSpaceType == ColorSpace.TYPE_CMYK)
-				writeLine(pw, sb.toString() + "K");
-			else if (c[0] == 0 && c[1] == 0 && c[2] == 0)
-				writeLine(pw, "0 G");
-			else
-				writeLine(pw, sb.toString() + "RG");
-
-			if (m_outputType == PDF)
-			{
-				if (colorSpaceType == ColorSpace.TYPE_CMYK)
-					writeLine(pw, sb.toString() + "k");
-				else if (c[0] == 0 && c[1] == 0 && c[2] == 0)
-					writeLine(pw, "0 g");
-				else
-					writeLine(pw, sb.toString() + "rg");
+	/*
+	 * Set color in output format, without recording it in display list
+	 * or in current graphics state.
+	 */
+	private void writeColor(Color color)
+	{
+		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
+		{
+			writeLine((m_outputType == PDF) ? m_PDFGeometryWriter : m_writer,
+				getColorOperators(color));
+		}
+		else
+		{
+			m_graphics2D.setColor(color);
+		}
+	}
 
-				/*
-				 * Write graphics state dictionary entry setting
-				 * alpha to desired value.
-				 *
-				 * Alpha value is used in dictionary name so that
-				 * repeated use of the same alpha value results in
-				 * the same dictionary value being used.
-				 */
-				int alpha = color.getAlpha();
-				String as = m_coordinateDecimal.format(alpha / 255.0);
-				String gsKey = m_PDFGstatePrefix + alpha;
-				m_PDFExtGStateObjects.put(gsKey, "<< /Type /ExtGState /CA " +
-					as + " /ca " + as + " >>");
+	/*
+	 * Get PostScript or PDF operators to set a color.
+	 */
+	private String getColorOperators(Color color)
+	{
+		float c[] = color.getColorComponents(null);
 
-				/*
-				 * Set graphics state in new dictionary entry.
-				 */
-				writeLine(pw, "/" + gsKey + " gs");
-			}
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < c.length; i++)
+		{
+			sb.append(m_coordinateDecimal.format(c[i]));
+			sb.append(' ');
 		}
+		String components = sb.toString();
+		sb.setLength(0);
+
+		int colorSpaceType = color.getColorSpace().getType();
+		if (colorSpaceType == ColorSpace.TYPE_CMYK)
+			sb.append(components).append("K");
+		else if (c[0] == 0 && c[1] == 0 && c[2] == 0)
+			sb.append("0 G");
 		else
+			sb.append(components).append("RG");
+
+		if (m_outputType == PDF)
 		{
-			m_graphics2D.setColor(color);
+			sb.append("\r\n");
+			if (colorSpaceType == ColorSpace.TYPE_CMYK)
+				sb.append(components).append("k");
+			else if (c[0] == 0 && c[1] == 0 && c[2] == 0)
+				sb.append("0 g");
+			else
+				sb.append(components).append("rg");
+
+			/*
+			 * Write graphics state dictionary entry setting
+			 * alpha to desired value.
+			 *
+			 * Alpha value is used in dictionary name so that
+			 * repeated use of the same alpha value results in
+			 * the same dictionary value being used.
+			 */
+			int alpha = color.getAlpha();
+			String as = m_coordinateDecimal.format(alpha / 255.0);
+			String gsKey = m_PDFGstatePrefix + alpha;
+			m_PDFExtGStateObjects.put(gsKey, "<< /Type /ExtGState /CA " +
+				as + " /ca " + as + " >>");
+
+			/*
+			 * Set graphics state in new dictionary entry.
+			 */
+			sb.append("\r\n/").append(gsKey).append(" gs");
 		}
+		return(sb.toString());
 	}
 
 	/**
@@ -3380,6 +3983,9 @@ public class OutputFormat
 	 */
 	public void setBlendAttribute(String blend)
 	{
+		if (m_displayList != null)
+			m_displayList.setBlendAttribute(blend);
+
 		blend = blend.toLowerCase().trim();
 		if (m_outputType == PDF)
 		{
@@ -3407,7 +4013,12 @@ public class OutputFormat
 			 */
 			String gsKey = m_PDFGstatePrefix + blend;
 			m_PDFExtGStateObjects.put(gsKey, "<< /Type /ExtGState /BM /" + blend + " >>");
-			writeLine(m_PDFGeometryWriter, "/" + gsKey + " gs");
+			String gs = "/" + gsKey + " gs";
+			if (!gs.equals(m_deviceState.m_blend))
+			{
+				writeLine(m_PDFGeometryWriter, gs);
+				m_deviceState.m_blend = gs;
+			}
 		}
 		else if (m_outputType != POSTSCRIPT_GEOMETRY)
 		{
@@ -3424,6 +4035,9 @@ public class OutputFormat
 	 */
 	public void setLinestyleAttribute(BasicStroke linestyle)
 	{
+		if (m_displayList != null)
+			m_displayList.setLinestyleAttribute(linestyle);
+
 		double width = linestyle.getLineWidth();
 		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
 		{
@@ -3454,9 +4068,10 @@ public class OutputFormat
 
 			if (width < m_minimumLineWidth)
 				width = m_minimumLineWidth;
-			writeLine(pw, m_coordinateDecimal.format(width) + " w " +
-				cap + " J " + join + " j " +
-				m_coordinateDecimal.format(linestyle.getMiterLimit()) + " M");
+			StringBuffer s = new StringBuffer();
+			s.append(m_coordinateDecimal.format(width)).append(" w ");
+			s.append(cap).append(" J ").append(join).append(" j ");
+			s.append(m_coordinateDecimal.format(linestyle.getMiterLimit())).append(" M\r\n");
 
 			/*
 			 * If there a dash pattern then set that too.
@@ -3464,7 +4079,7 @@ public class OutputFormat
 			float dashes[] = linestyle.getDashArray();
 			if (dashes != null)
 			{
-				StringBuffer s = new StringBuffer("[");
+				s.append("[");
 				for (int i = 0; i < dashes.length; i++)
 				{
 					if (i > 0)
@@ -3474,14 +4089,20 @@ public class OutputFormat
 				s.append("] ");
 				s.append(linestyle.getDashPhase());
 				s.append(" d");
-				writeLine(pw, s.toString());
 			}
 			else
 			{
 				/*
 				 * Remove any dashed line previously defined.
 				 */
-				writeLine(pw, "[] 0 d");
+				s.append("[] 0 d");
+			}
+
+			String operators = s.toString();
+			if (!operators.equals(m_deviceState.m_linestyle))
+			{
+				writeLine(pw, operators);
+				m_deviceState.m_linestyle = operators;
 			}
 		}
 		else
@@ -3512,6 +4133,9 @@ public class OutputFormat
 	 */
 	public void setClipAttribute(ArrayList<GeometricPath> clipPaths)
 	{
+		if (m_displayList != null)
+			m_displayList.setClipAttribute(clipPaths);
+
 		if (m_outputType != POSTSCRIPT_GEOMETRY && m_outputType != PDF && m_outputType != SVG)
 		{
 			m_graphics2D.setClip(null);
@@ -3754,6 +4378,9 @@ public class OutputFormat
 		double rotation, double scaling)
 		throws IOException, MapyrusException
 	{
+		if (m_displayList != null)
+			m_displayList.drawIcon(pointList, icon, size, rotation, scaling);
+
 		int pixelWidth = icon.getImage().getWidth();
 		int pixelHeight = icon.getImage().getHeight();
 		Point2D pt;
@@ -3901,6 +4528,9 @@ public class OutputFormat
 		double x, double y, double width, double height)
 		throws MapyrusException, IOException
 	{
+		if (m_displayList != null)
+			m_displayList.drawGeoImage(image, x, y, width, height);
+
 		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
 		{
 			writePostScriptOrPDFImage(image, null, x + width / 2,
@@ -3946,7 +4576,7 @@ public class OutputFormat
 			path.lineTo((float)(currentPoint.getX() + yDist + yDist),
 				(float)(currentPoint.getY() - xDist - xDist));
 			path.closePath();
-			fill(path, null);
+			fillShape(path, null);
 		}
 		m_graphics2D.setColor(currentColor);
 	}
@@ -3965,6 +4595,9 @@ public class OutputFormat
 		double size, double rotation, double scaling)
 		throws IOException, MapyrusException
 	{
+		if (m_displayList != null)
+			m_displayList.drawEPS(pointList, filename, size, rotation, scaling);
+
 		PostScriptFile psfile = new PostScriptFile(filename);
 		Rectangle boundingBox = psfile.getBoundingBox();
 		int pointWidth = (int)boundingBox.getWidth();
@@ -4067,6 +4700,9 @@ public class OutputFormat
 		double size, double rotation, double scaling)
 		throws IOException, MapyrusException
 	{
+		if (m_displayList != null)
+			m_displayList.drawSVG(pointList, filename, size, rotation, scaling);
+
 		SVGFile svgfile = new SVGFile(filename);
 		Rectangle2D boundingBox = svgfile.getBoundingBox();
 		int pointWidth = (int)boundingBox.getWidth();
@@ -4143,6 +4779,9 @@ public class OutputFormat
 	public void addSVGCode(String xml)
 		throws IOException
 	{
+		if (m_displayList != null)
+			m_displayList.addSVGCode(xml);
+
 		if (m_outputType == SVG)
 		{
 			writeLine(m_writer, "<!-- svgcode -->");
@@ -4165,6 +4804,9 @@ public class OutputFormat
 		double size, double rotation, double scaling)
 		throws IOException, MapyrusException
 	{
+		if (m_displayList != null)
+			m_displayList.drawPDF(pointList, filename, page, size, rotation, scaling);
+
 		/*
 		 * If we have used this PDF file before then use same file,
 		 * otherwise we need to open it.
@@ -4252,7 +4894,7 @@ public class OutputFormat
 					 */
 					writeLine(m_PDFGeometryWriter, "% " + filename);
 					writeLine(m_PDFGeometryWriter, "q");
-					setColorAttribute(Color.BLACK);
+					writeColor(Color.BLACK);
 					writeLine(m_PDFGeometryWriter, "1 0 0 1 " +
 						m_coordinateDecimal.format(x) + " " +
 						m_coordinateDecimal.format(y) + " cm");
@@ -4294,6 +4936,9 @@ public class OutputFormat
 
 	public void beginPDFGroup(String groupName)
 	{
+		if (m_displayList != null)
+			m_displayList.beginPDFGroup(groupName);
+
 		if (m_outputType == PDF)
 		{
 			int size = m_PDFContentGroupNames.size();
@@ -4308,6 +4953,9 @@ public class OutputFormat
 
 	public void endPDFGroup() throws MapyrusException
 	{
+		if (m_displayList != null)
+			m_displayList.endPDFGroup();
+
 		if (m_outputType == PDF)
 		{
 			if (m_PDFCurrentContentGroupNesting > 0)
@@ -4329,6 +4977,9 @@ public class OutputFormat
 	 */
 	public void stroke(Shape shape, String xmlAttributes)
 	{
+		if (m_displayList != null)
+			m_displayList.stroke(shape, xmlAttributes);
+
 		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == SVG || m_outputType == PDF)
 		{
 			if (shape.intersects(0.0, 0.0, m_pageWidth, m_pageHeight))
@@ -4424,6 +5075,17 @@ public class OutputFormat
 	 * run when this shape is clicked.
 	 */
 	public void fill(Shape shape, String xmlAttributes)
+	{
+		if (m_displayList != null)
+			m_displayList.fill(shape, xmlAttributes);
+
+		fillShape(shape, xmlAttributes);
+	}
+
+	/*
+	 * Fill shape on output page, without recording it in display list.
+	 */
+	private void fillShape(Shape shape, String xmlAttributes)
 	{
 		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == SVG || m_outputType == PDF)
 		{
@@ -4486,6 +5148,9 @@ public class OutputFormat
 	 */
 	public void setEventScript(Shape shape, String scriptCommands)
 	{
+		if (m_displayList != null)
+			m_displayList.setEventScript(shape, scriptCommands);
+
 		if (m_imageMapWriter != null)
 		{
 			/*
@@ -4516,6 +5181,9 @@ public class OutputFormat
 	 */
 	public void gradientFill(Shape shape, boolean isVerticalGradient, Color c1, Color c2)
 	{
+		if (m_displayList != null)
+			m_displayList.gradientFill(shape, isVerticalGradient, c1, c2);
+
 		if (m_outputType == SVG)
 		{
 			if (shape.intersects(0.0, 0.0, m_pageWidth, m_pageHeight))
@@ -4560,6 +5228,9 @@ public class OutputFormat
 	 */
 	public void clip(Shape shape)
 	{
+		if (m_displayList != null)
+			m_displayList.clip(shape);
+
 		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
 		{
 			PrintWriter pw;
@@ -4726,6 +5397,9 @@ public class OutputFormat
 	 */
 	public void label(ArrayList<Point2D> pointList, String label) throws IOException, MapyrusException
 	{
+		if (m_displayList != null)
+			m_displayList.label(pointList, label);
+
 		Point2D pt, startPt;
 		double x, y;
 		double lastX = 0, lastY = 0;
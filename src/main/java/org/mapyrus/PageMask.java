@@ -22,24 +22,31 @@ package org.mapyrus;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
 
 /**
  * Manages a bitmap mask for a page.  Rectangular regions of the page can
  * be marked as "0" or "1".  rectangular regions can then be queried to determine
  * whether they contain all 0's, 1's or a mixture.
+ *
+ * The mask is held as a packed bitset split into square tiles of
+ * 64 x 64 pixels, with each row of a tile packed into a single long.
+ * Tiles containing only zeroes are not allocated.  Shapes are rasterised
+ * only over their own bounding box and compared with the mask one long
+ * at a time.
  */
 public class PageMask
 {
 	/*
-	 * The mask as a 0/1 array (corresponding to values false/true)
-	 * and its width and height.
+	 * Width and height of each tile in pixels.  Tile width is
+	 * the number of bits in a long, so that each row of a tile is one long.
 	 */
-	BufferedImage m_mask;
-	private Graphics2D m_maskGraphics;
-	private int m_maskWidth;
-	private int m_maskHeight;
+	private static final int TILE_SIZE = 64;
+	private static final int TILE_SHIFT = 6;
 
 	/*
 	 * Number of pixels in mask for each millimetre on page.
@@ -47,27 +54,223 @@ public class PageMask
 	 */
 	private static final int PIXELS_PER_MM = 3;
 
+	/*
+	 * Size of page in millimetres, size of mask in pixels and number of tiles.
+	 */
+	private int m_maskWidth;
+	private int m_maskHeight;
+	private int m_pixelWidth;
+	private int m_pixelHeight;
+	private int m_tilesAcross;
+	private int m_tilesDown;
+
+	/*
+	 * Bits in rightmost column of tiles that are inside the mask.
+	 */
+	private long m_lastTileBits;
+
+	/*
+	 * Tiles of mask, in row order.  A null tile contains all zeroes.
+	 * Leftmost pixel in each tile row is stored in the most significant bit.
+	 */
+	private long [][]m_tiles;
+
+	/*
+	 * Reusable buffer for rasterising shapes.
+	 */
+	private BufferedImage m_scratchImage;
+	private Graphics2D m_scratchGraphics;
+
 	/**
 	 * Create new mask, with all values initially zero.
-	 * @param maskWidth width of mask in pixels.
-	 * @param maskHeight height of mask in pixels.
+	 * @param maskWidth width of mask in millimetres.
+	 * @param maskHeight height of mask in millimetres.
 	 */
 	public PageMask(int maskWidth, int maskHeight)
 	{
-		m_mask = new BufferedImage(maskWidth * PIXELS_PER_MM,
-			maskHeight * PIXELS_PER_MM,
-			BufferedImage.TYPE_BYTE_BINARY);
-		m_maskGraphics = (Graphics2D)m_mask.getGraphics();
-		m_maskGraphics.scale(PIXELS_PER_MM, PIXELS_PER_MM);
-		m_maskGraphics.setColor(Color.BLACK);
-		m_maskGraphics.fillRect(0, 0, maskWidth, maskHeight);
-
 		m_maskWidth = maskWidth;
 		m_maskHeight = maskHeight;
+		m_pixelWidth = Math.max(maskWidth * PIXELS_PER_MM, 0);
+		m_pixelHeight = Math.max(maskHeight * PIXELS_PER_MM, 0);
+		m_tilesAcross = (m_pixelWidth + TILE_SIZE - 1) >> TILE_SHIFT;
+		m_tilesDown = (m_pixelHeight + TILE_SIZE - 1) >> TILE_SHIFT;
+		m_tiles = new long[m_tilesAcross * m_tilesDown][];
+		if (m_pixelWidth > 0)
+			m_lastTileBits = columnBits(0, (m_pixelWidth - 1) & (TILE_SIZE - 1));
+	}
+
+	/**
+	 * Get bits to use for a range of pixel columns within a tile row.
+	 * @param fromBit first column in tile, in range 0-63.
+	 * @param toBit last column in tile, in range 0-63.
+	 * @return bitmask with bits set for columns fromBit to toBit inclusive.
+	 */
+	private static long columnBits(int fromBit, int toBit)
+	{
+		long bits = (-1L >>> fromBit);
+		if (toBit < TILE_SIZE - 1)
+			bits &= ~(-1L >>> (toBit + 1));
+		return(bits);
+	}
+
+	/**
+	 * Combine bits into one row of mask.
+	 * @param tileColumn column of tile containing bits.
+	 * @param y pixel row in mask.
+	 * @param bits bits to set or clear.
+	 * @param value 0 to clear bits, 1 to set bits.
+	 */
+	private void applyBits(int tileColumn, int y, long bits, int value)
+	{
+		int tileIndex = (y >> TILE_SHIFT) * m_tilesAcross + tileColumn;
+		long []tile = m_tiles[tileIndex];
+		if (value != 0)
+		{
+			if (tile == null)
+			{
+				tile = new long[TILE_SIZE];
+				m_tiles[tileIndex] = tile;
+			}
+			tile[y & (TILE_SIZE - 1)] |= bits;
+		}
+		else if (tile != null)
+		{
+			tile[y & (TILE_SIZE - 1)] &= ~bits;
+		}
+	}
+
+	/**
+	 * Find whether any of bits are set in one row of mask.
+	 * @param tileColumn column of tile containing bits.
+	 * @param y pixel row in mask.
+	 * @param bits bits to check.
+	 * @return true if any of the bits are set in the mask.
+	 */
+	private boolean isAnyBitSet(int tileColumn, int y, long bits)
+	{
+		long []tile = m_tiles[(y >> TILE_SHIFT) * m_tilesAcross + tileColumn];
+		return(tile != null && (tile[y & (TILE_SIZE - 1)] & bits) != 0);
+	}
+
+	/**
+	 * Set or clear a rectangular block of pixels in the mask.
+	 * Pixels outside mask are ignored.
+	 * @param px1 first pixel column.
+	 * @param py1 first pixel row.
+	 * @param px2 last pixel column.
+	 * @param py2 last pixel row.
+	 * @param value 0 or 1 value to set.
+	 */
+	private void setPixels(int px1, int py1, int px2, int py2, int value)
+	{
+		px1 = Math.max(px1, 0);
+		py1 = Math.max(py1, 0);
+		px2 = Math.min(px2, m_pixelWidth - 1);
+		py2 = Math.min(py2, m_pixelHeight - 1);
+		if (px1 > px2 || py1 > py2)
+			return;
+
+		int firstTile = px1 >> TILE_SHIFT;
+		int lastTile = px2 >> TILE_SHIFT;
+		for (int t = firstTile; t <= lastTile; t++)
+		{
+			int fromBit = (t == firstTile) ? (px1 & (TILE_SIZE - 1)) : 0;
+			int toBit = (t == lastTile) ? (px2 & (TILE_SIZE - 1)) : TILE_SIZE - 1;
+			long bits = columnBits(fromBit, toBit);
+			for (int y = py1; y <= py2; y++)
+				applyBits(t, y, bits, value);
+		}
+	}
+
+	/**
+	 * Find whether all pixels in a rectangular block of the mask are zero.
+	 * @param px1 first pixel column, must be inside mask.
+	 * @param py1 first pixel row, must be inside mask.
+	 * @param px2 last pixel column, must be inside mask.
+	 * @param py2 last pixel row, must be inside mask.
+	 * @return true if all pixels are zero.
+	 */
+	private boolean isAllPixelsZero(int px1, int py1, int px2, int py2)
+	{
+		int firstTile = px1 >> TILE_SHIFT;
+		int lastTile = px2 >> TILE_SHIFT;
+		for (int t = firstTile; t <= lastTile; t++)
+		{
+			int fromBit = (t == firstTile) ? (px1 & (TILE_SIZE - 1)) : 0;
+			int toBit = (t == lastTile) ? (px2 & (TILE_SIZE - 1)) : TILE_SIZE - 1;
+			long bits = columnBits(fromBit, toBit);
+			for (int y = py1; y <= py2; y++)
+			{
+				if (isAnyBitSet(t, y, bits))
+					return(false);
+			}
+		}
+		return(true);
+	}
+
+	/**
+	 * Rasterise a shape into the scratch buffer.  The scratch buffer
+	 * covers whole tile columns so that each 8 bytes of a scanline
+	 * lines up with one row of a tile.
+	 * @param s shape to rasterise.
+	 * @param firstTile first tile column covered by scratch buffer.
+	 * @param nTiles number of tile columns covered by scratch buffer.
+	 * @param py1 first pixel row covered by scratch buffer.
+	 * @param nRows number of pixel rows covered by scratch buffer.
+	 * @return scanline data of scratch buffer.
+	 */
+	private byte []rasterise(Shape s, int firstTile, int nTiles, int py1, int nRows)
+	{
+		int width = nTiles * TILE_SIZE;
+		if (m_scratchImage == null || m_scratchImage.getWidth() < width ||
+			m_scratchImage.getHeight() < nRows)
+		{
+			int newWidth = width;
+			int newHeight = nRows;
+			if (m_scratchImage != null)
+			{
+				newWidth = Math.max(newWidth, m_scratchImage.getWidth());
+				newHeight = Math.max(newHeight, m_scratchImage.getHeight());
+			}
+			if (m_scratchGraphics != null)
+				m_scratchGraphics.dispose();
+			m_scratchImage = new BufferedImage(newWidth, newHeight,
+				BufferedImage.TYPE_BYTE_BINARY);
+			m_scratchGraphics = (Graphics2D)m_scratchImage.getGraphics();
+			m_scratchGraphics.setColor(Color.WHITE);
+		}
+
+		byte []data = ((DataBufferByte)m_scratchImage.getRaster().getDataBuffer()).getData();
+		int stride = m_scratchImage.getWidth() / 8;
+		Arrays.fill(data, 0, nRows * stride, (byte)0);
+
+		/*
+		 * Translate shape so that top-left corner of area being rasterised
+		 * is at top-left corner of scratch buffer.
+		 */
+		AffineTransform affine = AffineTransform.getTranslateInstance(-(firstTile << TILE_SHIFT), -py1);
+		affine.scale(PIXELS_PER_MM, PIXELS_PER_MM);
+		m_scratchGraphics.setTransform(affine);
+		m_scratchGraphics.fill(s);
+		return(data);
 	}
 
 	/**
-	 * Set all values inside rectangular area in mask to 0 or to 1. 
+	 * Read one row of a tile from the scratch buffer.
+	 * @param data scanline data of scratch buffer.
+	 * @param offset offset of first byte of tile row.
+	 * @return tile row, with leftmost pixel in most significant bit.
+	 */
+	private static long readTileRow(byte []data, int offset)
+	{
+		long bits = 0;
+		for (int i = 0; i < 8; i++)
+			bits = (bits << 8) | (data[offset + i] & 0xff);
+		return(bits);
+	}
+
+	/**
+	 * Set all values inside rectangular area in mask to 0 or to 1.
 	 * @param x1 X coordinate of one corner of area.
 	 * @param y1 Y coordinate of one corner of area.
 	 * @param x2 X coordinate of opposite corner of area.
@@ -82,23 +285,51 @@ public class PageMask
 		int yMax = Math.max(y1, y2);
 		int width = Math.max(xMax - xMin, 1);
 		int height = Math.max(yMax - yMin, 1);
-		m_maskGraphics.setColor(value != 0 ? Color.WHITE : Color.BLACK);
-		m_maskGraphics.fillRect(xMin, yMin, width, height);
+		setPixels(xMin * PIXELS_PER_MM, yMin * PIXELS_PER_MM,
+			(xMin + width) * PIXELS_PER_MM - 1,
+			(yMin + height) * PIXELS_PER_MM - 1, value);
 	}
 
 	/**
-	 * Set all values inside shape in mask to 0 or to 1. 
+	 * Set all values inside shape in mask to 0 or to 1.
 	 * @param s area to set in mask.
 	 * @param value 0 or 1 value to set.
 	 */
 	public void setValue(Shape s, int value)
 	{
-		m_maskGraphics.setColor(value != 0 ? Color.WHITE : Color.BLACK);
 		Rectangle2D bounds = s.getBounds2D();
 		if (bounds.getWidth() == 0 && bounds.getHeight() == 0)
-			m_maskGraphics.fillRect((int)bounds.getMinX(), (int)bounds.getMinY(), 1, 1);
-		else
-			m_maskGraphics.fill(s);
+		{
+			int x = (int)bounds.getMinX() * PIXELS_PER_MM;
+			int y = (int)bounds.getMinY() * PIXELS_PER_MM;
+			setPixels(x, y, x + PIXELS_PER_MM - 1, y + PIXELS_PER_MM - 1, value);
+			return;
+		}
+
+		int px1 = Math.max((int)Math.floor(bounds.getMinX() * PIXELS_PER_MM), 0);
+		int py1 = Math.max((int)Math.floor(bounds.getMinY() * PIXELS_PER_MM), 0);
+		int px2 = Math.min((int)Math.ceil(bounds.getMaxX() * PIXELS_PER_MM), m_pixelWidth - 1);
+		int py2 = Math.min((int)Math.ceil(bounds.getMaxY() * PIXELS_PER_MM), m_pixelHeight - 1);
+		if (px1 > px2 || py1 > py2)
+			return;
+
+		int firstTile = px1 >> TILE_SHIFT;
+		int nTiles = (px2 >> TILE_SHIFT) - firstTile + 1;
+		int nRows = py2 - py1 + 1;
+		byte []data = rasterise(s, firstTile, nTiles, py1, nRows);
+		int stride = m_scratchImage.getWidth() / 8;
+
+		for (int row = 0; row < nRows; row++)
+		{
+			for (int t = 0; t < nTiles; t++)
+			{
+				long bits = readTileRow(data, row * stride + t * 8);
+				if (firstTile + t == m_tilesAcross - 1)
+					bits &= m_lastTileBits;
+				if (bits != 0)
+					applyBits(firstTile + t, py1 + row, bits, value);
+			}
+		}
 	}
 
 	/**
@@ -121,21 +352,11 @@ public class PageMask
 		 * Therefore if any part of the rectangle falls outside the
 		 * mask then the test for all zeroes fails.
 		 */
-		boolean foundNonZero = (xMin < 0 || yMin < 0 || xMax >= m_maskWidth || yMax >= m_maskHeight);
+		if (xMin < 0 || yMin < 0 || xMax >= m_maskWidth || yMax >= m_maskHeight)
+			return(false);
 
-		int y = yMin * PIXELS_PER_MM;
-		while ((!foundNonZero) && y <= yMax * PIXELS_PER_MM)
-		{
-			int x = xMin * PIXELS_PER_MM;
-			while ((!foundNonZero) && x <= xMax * PIXELS_PER_MM)
-			{
-				int pixel = (m_mask.getRGB(x, y) & 0xffffff);
-				foundNonZero = (pixel != 0); 
-				x++;
-			}
-			y++;
-		}
-		return(!foundNonZero);
+		return(isAllPixelsZero(xMin * PIXELS_PER_MM, yMin * PIXELS_PER_MM,
+			xMax * PIXELS_PER_MM, yMax * PIXELS_PER_MM));
 	}
 
 	/**
@@ -146,52 +367,51 @@ public class PageMask
 	public boolean isAllZero(Shape s)
 	{
 		Rectangle2D bounds = s.getBounds2D();
-		boolean foundNonZero = (bounds.getMinX() < 0 || bounds.getMinY() < 0 ||
-			bounds.getMaxX() >= m_maskWidth || bounds.getMaxY() >= m_maskHeight);
-		if (!foundNonZero)
+		if (bounds.getMinX() < 0 || bounds.getMinY() < 0 ||
+			bounds.getMaxX() >= m_maskWidth || bounds.getMaxY() >= m_maskHeight)
 		{
-			/*
-			 * Make another buffer covering the same area as the mask.
-			 * Draw the shape into this buffer.
-			 * If any pixels are set in this buffer and in the mask then
-			 * there is an overlap.
-			 */
-			BufferedImage shapeBuffer = new BufferedImage(m_maskWidth * PIXELS_PER_MM,
-				m_maskHeight * PIXELS_PER_MM,
-				BufferedImage.TYPE_BYTE_BINARY);
-			Graphics2D shapeGraphics = (Graphics2D)shapeBuffer.getGraphics();
-			shapeGraphics.scale(PIXELS_PER_MM, PIXELS_PER_MM);
-			shapeGraphics.setColor(Color.BLACK);
-			shapeGraphics.fillRect(0, 0, m_maskWidth, m_maskHeight);
-			shapeGraphics.setColor(Color.WHITE);
-
-			if (bounds.getWidth() == 0 && bounds.getHeight() == 0)
-				shapeGraphics.fillRect((int)bounds.getMinX(), (int)bounds.getMinY(), 1, 1);
-			else
-				shapeGraphics.fill(s);
-
-			int y = (int)(bounds.getMinY() * PIXELS_PER_MM);
-			int xMax = (int)(bounds.getMaxX() * PIXELS_PER_MM);
-			int yMax = (int)(bounds.getMaxY() * PIXELS_PER_MM);
-			while (y <= yMax && (!foundNonZero))
+			return(false);
+		}
+
+		if (bounds.getWidth() == 0 && bounds.getHeight() == 0)
+		{
+			int x = (int)bounds.getMinX() * PIXELS_PER_MM;
+			int y = (int)bounds.getMinY() * PIXELS_PER_MM;
+			return(isAllPixelsZero(x, y, x + PIXELS_PER_MM - 1, y + PIXELS_PER_MM - 1));
+		}
+
+		int px1 = (int)(bounds.getMinX() * PIXELS_PER_MM);
+		int py1 = (int)(bounds.getMinY() * PIXELS_PER_MM);
+		int px2 = (int)(bounds.getMaxX() * PIXELS_PER_MM);
+		int py2 = (int)(bounds.getMaxY() * PIXELS_PER_MM);
+
+		/*
+		 * Skip rasterising shape if there is nothing set in
+		 * mask under its bounding box.
+		 */
+		if (isAllPixelsZero(px1, py1, px2, py2))
+			return(true);
+
+		/*
+		 * Draw the shape into scratch buffer covering its bounding box.
+		 * If any pixels are set in this buffer and in the mask then
+		 * there is an overlap.
+		 */
+		int firstTile = px1 >> TILE_SHIFT;
+		int nTiles = (px2 >> TILE_SHIFT) - firstTile + 1;
+		int nRows = py2 - py1 + 1;
+		byte []data = rasterise(s, firstTile, nTiles, py1, nRows);
+		int stride = m_scratchImage.getWidth() / 8;
+
+		for (int row = 0; row < nRows; row++)
+		{
+			for (int t = 0; t < nTiles; t++)
 			{
-				int x = (int)(bounds.getMinX() * PIXELS_PER_MM);
-				while (x <= xMax && (!foundNonZero))
-				{
-					int shapePixel = (shapeBuffer.getRGB(x, y) & 0xffffff);
-					if (shapePixel != 0)
-					{
-						/*
-						 * Is shape overlapping part of the mask that is set to 1?
-						 */
-						int maskPixel = (m_mask.getRGB(x, y) & 0xffffff);
-						foundNonZero = (maskPixel != 0);
-					}
-					x++;
-				}
-				y++;
+				long bits = readTileRow(data, row * stride + t * 8);
+				if (bits != 0 && isAnyBitSet(firstTile + t, py1 + row, bits))
+					return(false);
 			}
 		}
-		return(!foundNonZero);
+		return(true);
 	}
 }
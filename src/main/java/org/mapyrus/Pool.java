@@ -19,39 +19,49 @@
 
 package org.mapyrus;
 
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages a pool (or 'bag') of objects of the same type for use in
  * connection pooling.  When an object is requested, one of the objects
  * in the pool is returned, with the request blocking until an object
  * becomes available if the pool is currently empty.
+ * Objects are held in a lock-free queue so that threads only block
+ * when the pool is empty.
  * @param <E> the type of objects in the pool.
  */
 public class Pool<E>
 {
-	private LinkedList<E> m_list;
+	private ConcurrentLinkedDeque<E> m_list;
+
+	/*
+	 * Number of objects available in the pool.
+	 */
+	private Semaphore m_available;
 
 	/**
 	 * Create new pool.
 	 */
 	public Pool()
 	{
-		m_list = new LinkedList<E>();
+		m_list = new ConcurrentLinkedDeque<E>();
+		m_available = new Semaphore(0);
 	}
 
 	/**
 	 * Add object to pool
 	 * @param o object to add to pool.
 	 */
-	public synchronized void put(E o)
+	public void put(E o)
 	{
 		/*
 		 * Add object to pool and notify anyone who is waiting on this pool for
 		 * an object that a new one is available.
 		 */
-		m_list.add(o);
-		notifyAll();
+		m_list.addLast(o);
+		m_available.release();
 	}
 
 	/**
@@ -61,27 +71,25 @@ public class Pool<E>
 	 * @return one object from the pool, or null if none available
 	 * and none become available within timeout.
 	 */
-	public synchronized E get(long timeout)
+	public E get(long timeout)
 	{
-		E retval;
-		while (m_list.size() == 0)
+		E retval = null;
+		boolean acquired;
+
+		try
+		{
+			/*
+			 * Wait for someone to add an object if pool is empty.
+			 */
+			acquired = m_available.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
 		{
-			try
-			{
-				/*
-				 * Pool is empty, wait for someone to add an object.
-				 */
-				wait(timeout);
-			}
-			catch(InterruptedException e)
-			{
-			}
+			acquired = false;
 		}
 
-		if (m_list.size() > 0)
-			retval = m_list.removeLast();
-		else
-			retval = null;
+		if (acquired)
+			retval = m_list.pollLast();
 		return(retval);
 	}
 }
@@ -21,6 +21,7 @@ package org.mapyrus;
 
 import java.io.*;
 import java.net.MalformedURLException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.lang.String;
 
@@ -69,6 +70,12 @@ class Preprocessor
 	 */
 	private boolean m_isIncludeAllowed;
 
+	/*
+	 * Local files that have been included and their modification times
+	 * when they were opened.  Set to null if any URL was included.
+	 */
+	private HashMap<File, Long> m_includedFiles;
+
 	/**
 	 * Create stack of files being read.
 	 * @param f is the first file to push onto the stack.
@@ -80,6 +87,7 @@ class Preprocessor
 		m_fileStack.add(f);
 		m_initialFile = f;
 		m_isIncludeAllowed = isIncludeAllowed;
+		m_includedFiles = new HashMap<File, Long>();
 	}
 
 	/**
@@ -140,6 +148,12 @@ class Preprocessor
 				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_TEXT_FILE) +
 					": " + f.toString());
 			}
+			m_includedFiles = null;
+		}
+		else if (m_includedFiles != null)
+		{
+			File includedFile = new File(filename);
+			m_includedFiles.put(includedFile, Long.valueOf(includedFile.lastModified()));
 		}
 		m_fileStack.add(f);
 	}
@@ -478,6 +492,16 @@ class Preprocessor
 		return(getCurrentFilename() + ":" + getCurrentLineNumber());
 	}
 
+	/**
+	 * Get local files that have been included so far, with their
+	 * modification times at the time they were opened.
+	 * @return included files, or null if any URL was included.
+	 */
+	public HashMap<File, Long> getIncludedFiles()
+	{
+		return(m_includedFiles);
+	}
+
 	/**
 	 * Close preprocessor, closing all files it was reading.
 	 * The preprocessor cannot be used again after calling this method.
@@ -53,6 +53,7 @@ public class Statement
 	private String m_blockName;
 	private ArrayList<Statement> m_statementBlock;
 	private ArrayList<String> m_parameters;
+	private VariableSlots m_variableSlots;
 	
 	private Expression []m_expressions;
 
@@ -125,6 +126,7 @@ public class Statement
 		m_blockName = blockName;
 		m_parameters = parameters;
 		m_statementBlock = statements;
+		m_variableSlots = new VariableSlots(parameters, statements);
 		m_type = StatementType.BLOCK;
 	}
 
@@ -282,6 +284,15 @@ public class Statement
 		return(m_statementBlock);
 	}
 
+	/**
+	 * Return slots for parameters and local variables in a procedure.
+	 * @return variable slots.
+	 */
+	public VariableSlots getVariableSlots()
+	{
+		return(m_variableSlots);
+	}
+
 	@Override
 	public String toString()
 	{
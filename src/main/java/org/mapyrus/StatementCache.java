@@ -0,0 +1,129 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of parsed statements, shared by all interpreters.
+ * Commands that are run repeatedly, such as those sent to the HTTP server
+ * or servlet, are parsed once and the parsed statements are reused.
+ * Statements parsed from included files are discarded from the cache
+ * when any of the included files is modified.
+ */
+public class StatementCache
+{
+	/*
+	 * Number of parsed command strings to cache in memory.
+	 */
+	private static final int STATEMENT_CACHE_SIZE = 64;
+
+	/*
+	 * Parsed statements, with the files that were included and
+	 * their modification times when they were parsed.
+	 */
+	private static class CacheEntry
+	{
+		ArrayList<Statement> m_statements;
+		HashMap<File, Long> m_includedFiles;
+
+		CacheEntry(ArrayList<Statement> statements, HashMap<File, Long> includedFiles)
+		{
+			m_statements = statements;
+			m_includedFiles = includedFiles;
+		}
+	}
+
+	private static LRUCache<String, CacheEntry> m_cache =
+		new LRUCache<String, CacheEntry>(STATEMENT_CACHE_SIZE);
+	private static long m_hitCount = 0;
+	private static long m_missCount = 0;
+
+	/**
+	 * Get parsed statements for commands from cache.
+	 * @param commands commands that were parsed.
+	 * @return parsed statements, or null if commands not in cache
+	 * or any file they include has been modified since they were parsed.
+	 */
+	public static synchronized ArrayList<Statement> get(String commands)
+	{
+		ArrayList<Statement> retval = null;
+		CacheEntry entry = m_cache.get(commands);
+		if (entry != null)
+		{
+			for (Map.Entry<File, Long> included : entry.m_includedFiles.entrySet())
+			{
+				if (included.getKey().lastModified() != included.getValue().longValue())
+				{
+					/*
+					 * Included file has changed so commands must be parsed again.
+					 */
+					m_cache.remove(commands);
+					entry = null;
+					break;
+				}
+			}
+		}
+
+		if (entry != null)
+		{
+			retval = entry.m_statements;
+			m_hitCount++;
+		}
+		else
+		{
+			m_missCount++;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Add parsed statements to cache.
+	 * @param commands commands that were parsed.
+	 * @param statements statements parsed from commands.
+	 * @param includedFiles files included by commands and their modification times.
+	 */
+	public static synchronized void put(String commands, ArrayList<Statement> statements,
+		HashMap<File, Long> includedFiles)
+	{
+		m_cache.put(commands, new CacheEntry(statements, includedFiles));
+	}
+
+	/**
+	 * Get number of times that parsed statements were found in the cache.
+	 * @return number of cache hits.
+	 */
+	public static synchronized long getHitCount()
+	{
+		return(m_hitCount);
+	}
+
+	/**
+	 * Get number of times that parsed statements were not found in the cache.
+	 * @return number of cache misses.
+	 */
+	public static synchronized long getMissCount()
+	{
+		return(m_missCount);
+	}
+}
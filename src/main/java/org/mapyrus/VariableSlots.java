@@ -0,0 +1,151 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Parameters and local variables of a procedure block or function,
+ * each assigned to a slot in an array when the block is parsed.
+ * Expressions in the block then access these variables by slot
+ * instead of looking them up by name.
+ *
+ * A variable declared with a 'local' statement has a slot but is only
+ * local once the 'local' statement has executed.  Until then it is
+ * looked up as a global variable.
+ */
+public class VariableSlots
+{
+	private HashMap<String, Integer> m_slots;
+	private int []m_parameterSlots;
+
+	/**
+	 * Assign slots to parameters and local variables of a procedure block
+	 * and resolve variables in expressions of the block to slots.
+	 * @param parameters parameter names of procedure block.
+	 * @param statements statements in procedure block.
+	 */
+	public VariableSlots(ArrayList<String> parameters, ArrayList<Statement> statements)
+	{
+		m_slots = new HashMap<String, Integer>();
+		m_parameterSlots = new int[parameters.size()];
+		for (int i = 0; i < m_parameterSlots.length; i++)
+			m_parameterSlots[i] = addSlot(parameters.get(i));
+
+		addLocalVariables(statements);
+		resolveExpressions(statements);
+	}
+
+	/**
+	 * Assign slot to a variable.
+	 * @param varName variable name.
+	 * @return slot for variable.
+	 */
+	private int addSlot(String varName)
+	{
+		Integer slot = m_slots.get(varName);
+		if (slot == null)
+		{
+			slot = Integer.valueOf(m_slots.size());
+			m_slots.put(varName, slot);
+		}
+		return(slot.intValue());
+	}
+
+	/**
+	 * Assign slots to all variables declared in 'local' statements.
+	 * @param statements statements to search.
+	 */
+	private void addLocalVariables(ArrayList<Statement> statements)
+	{
+		for (int j = 0; statements != null && j < statements.size(); j++)
+		{
+			Statement statement = statements.get(j);
+			if (statement.getType() == StatementType.LOCAL)
+			{
+				Expression []expr = statement.getExpressions();
+				for (int i = 0; i < expr.length; i++)
+				{
+					String varName = expr[i].getVariableName();
+					if (varName != null)
+						addSlot(varName);
+				}
+			}
+			addLocalVariables(statement.getThenStatements());
+			addLocalVariables(statement.getElseStatements());
+			addLocalVariables(statement.getLoopStatements());
+		}
+	}
+
+	/**
+	 * Resolve variables in all expressions to slots.
+	 * @param statements statements containing expressions.
+	 */
+	private void resolveExpressions(ArrayList<Statement> statements)
+	{
+		for (int j = 0; statements != null && j < statements.size(); j++)
+		{
+			Statement statement = statements.get(j);
+			Expression []expr = statement.getExpressions();
+			if (expr != null)
+			{
+				for (int i = 0; i < expr.length; i++)
+					expr[i].resolveVariableSlots(this);
+			}
+			if (statement.getForHashMap() != null)
+				statement.getForHashMap().resolveVariableSlots(this);
+
+			resolveExpressions(statement.getThenStatements());
+			resolveExpressions(statement.getElseStatements());
+			resolveExpressions(statement.getLoopStatements());
+		}
+	}
+
+	/**
+	 * Get slot of a variable.
+	 * @param varName variable name.
+	 * @return slot of variable, or -1 if variable has no slot.
+	 */
+	public int getSlot(String varName)
+	{
+		Integer slot = m_slots.get(varName);
+		return((slot == null) ? -1 : slot.intValue());
+	}
+
+	/**
+	 * Get slot of a parameter.
+	 * @param index index of parameter in parameter list.
+	 * @return slot of parameter.
+	 */
+	public int getParameterSlot(int index)
+	{
+		return(m_parameterSlots[index]);
+	}
+
+	/**
+	 * Get number of slots.
+	 * @return number of slots.
+	 */
+	public int size()
+	{
+		return(m_slots.size());
+	}
+}
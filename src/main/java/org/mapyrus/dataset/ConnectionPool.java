@@ -21,101 +21,343 @@ package org.mapyrus.dataset;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.mapyrus.Constants;
+import org.mapyrus.LRUCache;
+import org.mapyrus.MapyrusMessages;
 
 /**
  * Implements pool of connections to databases that can be used
  * by one thread and then returned for reuse by another thread.
- * Size of pool is not limited.  A new connection will be made
- * if there are no connections available for reuse.
+ * Each database URL has a separate pool, limited to a maximum number
+ * of connections.  Threads wait for a connection to be returned to the
+ * pool when all connections are in use.
+ * Connections are taken from and returned to the pool without locking,
+ * so that many threads can use the pool at the same time.
  */
 public class ConnectionPool
 {
-	private static HashMap<String, LinkedList<TimeStampedConnection>> m_pool =
-		new HashMap<String, LinkedList<TimeStampedConnection>>();
+	/*
+	 * Pool of connections for a single database URL.
+	 */
+	private static class URLPool
+	{
+		/*
+		 * Idle connections, with most recently used connection first.
+		 */
+		ConcurrentLinkedDeque<TimeStampedConnection> m_idleConnections =
+			new ConcurrentLinkedDeque<TimeStampedConnection>();
+
+		/*
+		 * Permits for the maximum number of connections
+		 * that may be open to the database.
+		 */
+		Semaphore m_permits = new Semaphore(m_maxConnections, true);
+
+		AtomicInteger m_activeCount = new AtomicInteger();
+		AtomicLong m_waitCount = new AtomicLong();
+		AtomicLong m_waitTime = new AtomicLong();
+		AtomicLong m_timeoutCount = new AtomicLong();
+	}
+
+	/*
+	 * Maximum number of connections to each database and time in
+	 * seconds to wait for a connection when all connections are in use.
+	 */
+	private static int m_maxConnections = Math.max(1, getIntProperty("jdbc.pool.size",
+		Constants.DB_POOL_SIZE));
+	private static int m_waitTimeout = getIntProperty("jdbc.pool.timeout",
+		Constants.DB_CONNECTION_TIMEOUT);
+
+	/*
+	 * SQL query to check that an unused connection is still usable
+	 * before reusing it, or null to not check connections.
+	 */
+	private static String m_validationQuery = System.getProperty(Constants.PROGRAM_NAME +
+		".jdbc.pool.validationquery");
+
+	private static ConcurrentHashMap<String, URLPool> m_pool =
+		new ConcurrentHashMap<String, URLPool>();
+
+	/*
+	 * Background timer closing connections that have been idle for a long time.
+	 */
+	private static Timer m_idleTimer = null;
+
+	/*
+	 * Number of prepared SQL statements to keep for each database connection.
+	 */
+	private static final int STATEMENT_CACHE_SIZE = 32;
+
+	/*
+	 * Prepared SQL statements for each database connection,
+	 * reused when the same SQL query is made again on the connection.
+	 */
+	private static ConcurrentHashMap<Connection, LRUCache<String, PreparedStatement>> m_statementCaches =
+		new ConcurrentHashMap<Connection, LRUCache<String, PreparedStatement>>();
 
 	/**
-	 * Get an unused or new database connection.
+	 * Get integer value set by a Java property.
+	 * @param name name of property, without program name prefix.
+	 * @param defaultValue value to use if property is not set.
+	 * @return property value.
+	 */
+	private static int getIntProperty(String name, int defaultValue)
+	{
+		int retval = defaultValue;
+		String property = System.getProperty(Constants.PROGRAM_NAME + "." + name);
+		if (property != null)
+		{
+			try
+			{
+				retval = Integer.parseInt(property);
+			}
+			catch (NumberFormatException e)
+			{
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get pool for a database URL, creating it if it does not exist.
 	 * @param url database connection string.
-	 * @param properties username, password for database connection.
-	 * @return database connection.
-	 * @throws SQLException if creating a new database connection fails.
+	 * @return pool of connections.
 	 */
-	public static synchronized Connection get(String url, Properties properties)
-		throws SQLException
+	private static URLPool getURLPool(String url)
+	{
+		URLPool retval = m_pool.get(url);
+		if (retval == null)
+		{
+			URLPool newPool = new URLPool();
+			retval = m_pool.putIfAbsent(url, newPool);
+			if (retval == null)
+			{
+				retval = newPool;
+				startIdleTimer();
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Start background timer that closes idle connections.
+	 */
+	private static synchronized void startIdleTimer()
 	{
-		LinkedList<TimeStampedConnection> connections = m_pool.get(url);
-		if (connections != null)
+		if (m_idleTimer == null)
+		{
+			long period = Constants.DB_IDLE_TIMEOUT * 1000L / 4;
+			m_idleTimer = new Timer(true);
+			m_idleTimer.schedule(new TimerTask()
+			{
+				@Override
+				public void run()
+				{
+					closeIdleConnections();
+				}
+			}, period, period);
+		}
+	}
+
+	/**
+	 * Close any database connections that have not been used for a long time.
+	 * This avoids any socket timeout on the database connection
+	 * and holding idle connections open.
+	 */
+	private static void closeIdleConnections()
+	{
+		long now = System.currentTimeMillis();
+		for (URLPool pool : m_pool.values())
 		{
 			/*
-			 * Close any database connections that have not
-			 * been used for a long time.
-			 * This avoids any socket timeout on the database connection
-			 * and holding idle connections open.
+			 * Least recently used connections are at the end of the list.
+			 * Another thread may take a connection at the same time, so only
+			 * close connections that are successfully removed from the list.
 			 */
-			long now = System.currentTimeMillis();
-			ListIterator<TimeStampedConnection> it = connections.listIterator();
+			Iterator<TimeStampedConnection> it = pool.m_idleConnections.descendingIterator();
 			while (it.hasNext())
 			{
 				TimeStampedConnection tc = it.next();
-				long age = now - tc.getLastUseTimeStamp();
-				if (age > Constants.DB_IDLE_TIMEOUT * 1000)
-				{
-					try
-					{
-						tc.getConnection().close();
-					}
-					catch (SQLException ignore)
-					{
-					}
-					it.remove();
-				}
+				if (isExpired(tc, now) && pool.m_idleConnections.removeLastOccurrence(tc))
+					close(tc.getConnection());
 			}
 		}
+	}
 
-		if (connections == null)
+	/**
+	 * Check whether a connection has been idle too long to be used again.
+	 * @param tc connection.
+	 * @param now current time in milliseconds.
+	 * @return true if connection has been idle too long.
+	 */
+	private static boolean isExpired(TimeStampedConnection tc, long now)
+	{
+		long age = now - tc.getLastUseTimeStamp();
+		return(age > Constants.DB_IDLE_TIMEOUT * 1000L);
+	}
+
+	/**
+	 * Check that a connection to a database is still usable.
+	 * @param connection database connection.
+	 * @param validationQuery SQL query to run to check connection.
+	 * @return true if query ran successfully.
+	 */
+	private static boolean isValid(Connection connection, String validationQuery)
+	{
+		boolean retval = true;
+		Statement statement = null;
+		try
+		{
+			statement = connection.createStatement();
+			statement.setQueryTimeout(Constants.DB_CONNECTION_TIMEOUT);
+			statement.execute(validationQuery);
+		}
+		catch (SQLException e)
+		{
+			retval = false;
+		}
+		finally
 		{
-			connections = new LinkedList<TimeStampedConnection>();
-			m_pool.put(url, connections);
+			try
+			{
+				if (statement != null)
+					statement.close();
+			}
+			catch (SQLException e)
+			{
+			}
 		}
+		return(retval);
+	}
 
-		Connection retval;
-		if (connections.isEmpty())
+	/**
+	 * Close a database connection, ignoring any error.
+	 * @param connection database connection.
+	 */
+	private static void close(Connection connection)
+	{
+		try
 		{
-			/*
-			 * Create a new connection to database.
-			 */
-			DriverManager.setLoginTimeout(Constants.DB_CONNECTION_TIMEOUT);
-			retval = DriverManager.getConnection(url, properties);
+			m_statementCaches.remove(connection);
+			connection.close();
+		}
+		catch (SQLException ignore)
+		{
+		}
+	}
 
+	/**
+	 * Get an unused or new database connection.
+	 * @param url database connection string.
+	 * @param properties username, password for database connection.
+	 * @return database connection.
+	 * @throws SQLException if creating a new database connection fails
+	 * or no connection becomes available.
+	 */
+	public static Connection get(String url, Properties properties)
+		throws SQLException
+	{
+		URLPool pool = getURLPool(url);
+
+		/*
+		 * Wait for a connection to become available if the
+		 * maximum number of connections are already in use.
+		 */
+		if (!pool.m_permits.tryAcquire())
+		{
+			boolean acquired = false;
+			long startTime = System.currentTimeMillis();
+			try
+			{
+				acquired = pool.m_permits.tryAcquire(m_waitTimeout, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			pool.m_waitCount.incrementAndGet();
+			pool.m_waitTime.addAndGet(System.currentTimeMillis() - startTime);
+			if (!acquired)
+			{
+				pool.m_timeoutCount.incrementAndGet();
+				throw new SQLException(MapyrusMessages.get(MapyrusMessages.DB_POOL_TIMEOUT));
+			}
+		}
+
+		Connection retval = null;
+		try
+		{
 			/*
-			 * Some operations can be optimised if database
-			 * knows that this connection is read-only.
+			 * Reuse most recently used connection, skipping any
+			 * that are too old or no longer usable.
 			 */
-			try
+			long now = System.currentTimeMillis();
+			TimeStampedConnection tc;
+			while (retval == null && (tc = pool.m_idleConnections.pollFirst()) != null)
 			{
-				retval.setReadOnly(true);
+				Connection connection = tc.getConnection();
+				if (isExpired(tc, now) ||
+					(m_validationQuery != null && !isValid(connection, m_validationQuery)))
+				{
+					close(connection);
+				}
+				else
+				{
+					retval = connection;
+				}
 			}
-			catch (UnsupportedOperationException e)
+
+			if (retval == null)
 			{
 				/*
-				 * No problem if database does not support read-only operation.
+				 * Create a new connection to database.
 				 */
+				DriverManager.setLoginTimeout(Constants.DB_CONNECTION_TIMEOUT);
+				Connection connection = DriverManager.getConnection(url, properties);
+
+				/*
+				 * Some operations can be optimised if database
+				 * knows that this connection is read-only.
+				 */
+				try
+				{
+					connection.setReadOnly(true);
+				}
+				catch (UnsupportedOperationException e)
+				{
+					/*
+					 * No problem if database does not support read-only operation.
+					 */
+				}
+				catch (SQLException e)
+				{
+					close(connection);
+					throw e;
+				}
+				retval = connection;
 			}
 		}
-		else
+		finally
 		{
-			/*
-			 * Reuse an existing connection.
-			 */
-			retval = connections.removeFirst().getConnection();
+			if (retval == null)
+				pool.m_permits.release();
 		}
+		pool.m_activeCount.incrementAndGet();
 		return(retval);
 	}
 
@@ -125,16 +367,16 @@ public class ConnectionPool
 	 * @param connection connection to return
 	 * @param isGoodConnection true if connection used successfully.
 	 */
-	public static synchronized void put(String url, Connection connection,
+	public static void put(String url, Connection connection,
 		boolean isGoodConnection)
 	{
+		URLPool pool = m_pool.get(url);
 		if (isGoodConnection)
 		{
 			/*
 			 * Place connection back in the pool for reuse.
 			 */
-			LinkedList<TimeStampedConnection> connections = m_pool.get(url);
-			connections.add(new TimeStampedConnection(connection));
+			pool.m_idleConnections.offerFirst(new TimeStampedConnection(connection));
 		}
 		else
 		{
@@ -142,13 +384,125 @@ public class ConnectionPool
 			 * Close bad connection.  We will reconnect to
 			 * database next time.
 			 */
-			try
-			{
-				connection.close();
-			}
-			catch (SQLException ignore)
+			close(connection);
+		}
+		pool.m_activeCount.decrementAndGet();
+		pool.m_permits.release();
+	}
+
+	/**
+	 * Get number of database connections currently in use, for all databases.
+	 * @return number of connections.
+	 */
+	public static int getActiveCount()
+	{
+		int retval = 0;
+		for (URLPool pool : m_pool.values())
+			retval += pool.m_activeCount.get();
+		return(retval);
+	}
+
+	/**
+	 * Get number of unused database connections in pool, for all databases.
+	 * @return number of connections.
+	 */
+	public static int getIdleCount()
+	{
+		int retval = 0;
+		for (URLPool pool : m_pool.values())
+			retval += pool.m_idleConnections.size();
+		return(retval);
+	}
+
+	/**
+	 * Get number of times that a thread waited for a database connection,
+	 * for all databases.
+	 * @return number of waits.
+	 */
+	public static long getWaitCount()
+	{
+		long retval = 0;
+		for (URLPool pool : m_pool.values())
+			retval += pool.m_waitCount.get();
+		return(retval);
+	}
+
+	/**
+	 * Get total time that threads waited for a database connection,
+	 * for all databases.
+	 * @return wait time in milliseconds.
+	 */
+	public static long getWaitTime()
+	{
+		long retval = 0;
+		for (URLPool pool : m_pool.values())
+			retval += pool.m_waitTime.get();
+		return(retval);
+	}
+
+	/**
+	 * Get description of each database connection pool, for logging.
+	 * @return description of connections to each database, or empty
+	 * string if no databases are connected.
+	 */
+	public static String getStatistics()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, URLPool> entry : m_pool.entrySet())
+		{
+			URLPool pool = entry.getValue();
+			if (sb.length() > 0)
+				sb.append(Constants.LINE_SEPARATOR);
+			sb.append(MapyrusMessages.get(MapyrusMessages.DB_POOL_STATISTICS));
+			sb.append(": ").append(entry.getKey());
+			sb.append(" active=").append(pool.m_activeCount.get());
+			sb.append(" idle=").append(pool.m_idleConnections.size());
+			sb.append(" waits=").append(pool.m_waitCount.get());
+			sb.append(" waittime=").append(pool.m_waitTime.get());
+			sb.append(" timeouts=").append(pool.m_timeoutCount.get());
+		}
+		return(sb.toString());
+	}
+
+	/**
+	 * Get cache of prepared statements for a database connection.
+	 * Each connection is used by only one thread at a time so
+	 * the cache for a connection does not need to be synchronized.
+	 * Statements are closed when they are removed from the cache.
+	 * @param connection database connection.
+	 * @return cache of prepared statements for connection.
+	 */
+	public static LRUCache<String, PreparedStatement> getStatementCache(Connection connection)
+	{
+		LRUCache<String, PreparedStatement> retval = m_statementCaches.get(connection);
+		if (retval == null)
+		{
+			retval = new LRUCache<String, PreparedStatement>(STATEMENT_CACHE_SIZE)
 			{
-			}
+				private static final long serialVersionUID = 0x4a510005;
+
+				/*
+				 * Close statements that are removed from cache.
+				 */
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+				{
+					boolean isRemoved = super.removeEldestEntry(eldest);
+					if (isRemoved)
+					{
+						try
+						{
+							eldest.getValue().close();
+						}
+						catch (SQLException e)
+						{
+						}
+					}
+					return(isRemoved);
+				}
+			};
+			m_statementCaches.put(connection, retval);
 		}
+		return(retval);
 	}
 }
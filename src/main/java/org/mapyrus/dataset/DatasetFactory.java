@@ -76,6 +76,8 @@ public class DatasetFactory
 				retval = new ShapefileDataset(name, extras);
 			else if (type.equalsIgnoreCase("jdbc"))
 				retval = new JDBCDataset(name, extras);
+			else if (type.equalsIgnoreCase("osm") && name.toLowerCase().endsWith(".pbf"))
+				retval = new OpenStreetMapPBFDataset(name, extras, stdin);
 			else if (type.equalsIgnoreCase("osm"))
 				retval = new OpenStreetMapDataset(name, extras, stdin);
 			else if (type.equalsIgnoreCase("internal"))
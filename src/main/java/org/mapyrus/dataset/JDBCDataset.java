@@ -24,6 +24,7 @@ import java.awt.geom.Rectangle2D.Double;
 import java.util.Hashtable;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.sql.*;
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -32,6 +33,7 @@ import javax.sql.DataSource;
 
 import org.mapyrus.Argument;
 import org.mapyrus.Constants;
+import org.mapyrus.LRUCache;
 import org.mapyrus.MapyrusException;
 import org.mapyrus.MapyrusMessages;
 import org.mapyrus.Row;
@@ -41,14 +43,28 @@ import org.mapyrus.Row;
  */
 public class JDBCDataset implements GeographicDataset
 {
+	/*
+	 * Marker added to prefetched rows after the last row.
+	 */
+	private static final Object END_OF_ROWS = new Object();
+
 	/*
 	 * SQL query being executed and it's result.
 	 */
 	private Connection m_connection = null;
 	private Statement m_statement = null;
+	private boolean m_isStatementCached = false;
 	private ResultSet m_resultSet = null;
 	private String m_sql;
 
+	/*
+	 * Rows fetched and converted by a separate thread
+	 * while the current rows are being processed.
+	 */
+	private ArrayBlockingQueue<Object> m_prefetchQueue = null;
+	private Thread m_prefetchThread = null;
+	private boolean m_isEndOfRows = false;
+
 	private String m_url;
 	private String m_jndiName = null;
 
@@ -71,6 +87,10 @@ public class JDBCDataset implements GeographicDataset
 		String token, key, value;
 		String driver = null;
 		Properties properties = new Properties();
+		int fetchSize = 0;
+		int prefetchSize = 0;
+		double []extents = new double[4];
+		int extentsSetMask = 0;
 
 		m_sql = filename;
 
@@ -90,6 +110,52 @@ public class JDBCDataset implements GeographicDataset
 					m_url = value;
 				else if (key.equals("jndiname"))
 					m_jndiName = value;
+				else if (key.equals("fetchsize") || key.equals("prefetch"))
+				{
+					int n;
+					try
+					{
+						n = Integer.parseInt(value);
+					}
+					catch (NumberFormatException e)
+					{
+						n = -1;
+					}
+					if (n < 0)
+					{
+						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+							": " + value);
+					}
+					if (key.equals("fetchsize"))
+						fetchSize = n;
+					else
+						prefetchSize = n;
+				}
+				else if (key.equals("xmin") || key.equals("ymin") ||
+					key.equals("xmax") || key.equals("ymax"))
+				{
+					double d;
+					try
+					{
+						d = java.lang.Double.parseDouble(value);
+					}
+					catch (NumberFormatException e)
+					{
+						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+							": " + value);
+					}
+					int extentsIndex;
+					if (key.equals("xmin"))
+						extentsIndex = 0;
+					else if (key.equals("ymin"))
+						extentsIndex = 1;
+					else if (key.equals("xmax"))
+						extentsIndex = 2;
+					else
+						extentsIndex = 3;
+					extents[extentsIndex] = d;
+					extentsSetMask |= (1 << extentsIndex);
+				}
 				else
 				{
 					properties.put(key, value);
@@ -157,21 +223,36 @@ public class JDBCDataset implements GeographicDataset
 			 * Send SQL query to database so we can immediately find the
 			 * field names and types it returns.
 			 */
-			m_statement = m_connection.createStatement();
-
-			try
+			if (extentsSetMask == 0)
 			{
 				/*
-				 * Set timeout for SQL statement execution but just continue
-				 * anyway if database does not support it.
+				 * Run SQL query unchanged, so that any '?' characters in it are
+				 * passed to the database, such as PostgreSQL ?, ?| and ?& operators.
 				 */
-				m_statement.setQueryTimeout(Constants.DB_CONNECTION_TIMEOUT);
+				m_statement = m_connection.createStatement();
+				setQueryTimeout(m_statement);
+				m_statement.setFetchSize(fetchSize);
+				m_resultSet = m_statement.executeQuery(m_sql);
 			}
-			catch (SQLException e)
+			else
 			{
-			}
+				if (extentsSetMask != 0xf)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.MISSING_EXTENTS) +
+						": " + m_sql);
+				}
 
-			m_resultSet = m_statement.executeQuery(m_sql);
+				/*
+				 * Set any '?' placeholders in SQL query to the bounding
+				 * rectangle of data to fetch.
+				 */
+				PreparedStatement preparedStatement = prepareStatement();
+				preparedStatement.setFetchSize(fetchSize);
+				int nPlaceholders = countPlaceholders(m_sql);
+				for (int i = 0; i < nPlaceholders; i++)
+					preparedStatement.setDouble(i + 1, extents[i % extents.length]);
+				m_resultSet = preparedStatement.executeQuery();
+			}
 			ResultSetMetaData resultSetMetadata = m_resultSet.getMetaData();
 
 			int columnCount = resultSetMetadata.getColumnCount();
@@ -206,6 +287,9 @@ public class JDBCDataset implements GeographicDataset
 
 				m_fieldTypes[i] = resultSetMetadata.getColumnType(i + 1);
 			}
+
+			if (prefetchSize > 0)
+				startPrefetch(prefetchSize);
 		}
 		catch (SQLException e1)
 		{
@@ -245,6 +329,168 @@ public class JDBCDataset implements GeographicDataset
 		}
 	}
 
+	/**
+	 * Set timeout for SQL statement execution but just continue
+	 * anyway if database does not support it.
+	 * @param statement statement to set timeout for.
+	 */
+	private static void setQueryTimeout(Statement statement)
+	{
+		try
+		{
+			statement.setQueryTimeout(Constants.DB_CONNECTION_TIMEOUT);
+		}
+		catch (SQLException e)
+		{
+		}
+	}
+
+	/**
+	 * Get prepared statement for SQL query, reusing a statement already
+	 * prepared for the database connection if possible.
+	 * @return prepared statement.
+	 * @throws SQLException if preparing statement fails.
+	 */
+	private PreparedStatement prepareStatement() throws SQLException
+	{
+		LRUCache<String, PreparedStatement> cache = null;
+		PreparedStatement retval = null;
+
+		/*
+		 * Connections from a JNDI DataSource are closed after use
+		 * so their statements cannot be reused.
+		 */
+		if (m_jndiName == null)
+		{
+			cache = ConnectionPool.getStatementCache(m_connection);
+			retval = cache.get(m_sql);
+		}
+
+		if (retval == null)
+		{
+			retval = m_connection.prepareStatement(m_sql);
+			setQueryTimeout(retval);
+
+			if (cache != null)
+				cache.put(m_sql, retval);
+		}
+		else
+		{
+			retval.clearParameters();
+		}
+		m_statement = retval;
+		m_isStatementCached = (cache != null);
+		return(retval);
+	}
+
+	/**
+	 * Count '?' placeholders in an SQL query, ignoring any in quoted strings.
+	 * @param sql SQL query.
+	 * @return number of placeholders.
+	 */
+	private static int countPlaceholders(String sql)
+	{
+		int retval = 0;
+		char quote = 0;
+		for (int i = 0; i < sql.length(); i++)
+		{
+			char c = sql.charAt(i);
+			if (quote != 0)
+			{
+				if (c == quote)
+					quote = 0;
+			}
+			else if (c == '\'' || c == '"')
+			{
+				quote = c;
+			}
+			else if (c == '?')
+			{
+				retval++;
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Start thread fetching rows and converting them to the
+	 * types used by Mapyrus, while earlier rows are being processed.
+	 * @param prefetchSize maximum number of rows to fetch in advance.
+	 */
+	private void startPrefetch(int prefetchSize)
+	{
+		m_prefetchQueue = new ArrayBlockingQueue<Object>(prefetchSize + 1);
+		m_prefetchThread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					Row row;
+					do
+					{
+						Object o;
+						try
+						{
+							row = readRow();
+							o = (row != null) ? row : END_OF_ROWS;
+						}
+						catch (MapyrusException e)
+						{
+							row = null;
+							o = e;
+						}
+						catch (RuntimeException e)
+						{
+							row = null;
+							o = new MapyrusException(e.toString());
+						}
+						m_prefetchQueue.put(o);
+					}
+					while (row != null);
+				}
+				catch (InterruptedException e)
+				{
+					/*
+					 * Dataset closed before all rows were fetched.
+					 */
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		m_prefetchThread.setDaemon(true);
+		m_prefetchThread.start();
+	}
+
+	/**
+	 * Stop thread fetching rows, waiting until it is finished
+	 * with the database connection.
+	 */
+	private void stopPrefetch()
+	{
+		if (m_prefetchThread != null)
+		{
+			m_prefetchThread.interrupt();
+			boolean isInterrupted = false;
+			while (m_prefetchThread.isAlive())
+			{
+				try
+				{
+					m_prefetchThread.join();
+				}
+				catch (InterruptedException e)
+				{
+					isInterrupted = true;
+				}
+			}
+			if (isInterrupted)
+				Thread.currentThread().interrupt();
+			m_prefetchThread = null;
+			m_prefetchQueue = null;
+		}
+	}
+
 	/**
 	 * Projection of database data not known.
 	 */
@@ -290,6 +536,53 @@ public class JDBCDataset implements GeographicDataset
 	 */
 	@Override
 	public Row fetch() throws MapyrusException
+	{
+		Row retval;
+
+		if (m_prefetchQueue != null)
+		{
+			/*
+			 * Take next row fetched by prefetch thread.
+			 */
+			retval = null;
+			if (!m_isEndOfRows)
+			{
+				Object o;
+				try
+				{
+					o = m_prefetchQueue.take();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INTERRUPTED));
+				}
+
+				if (o instanceof Row)
+				{
+					retval = (Row)o;
+				}
+				else
+				{
+					m_isEndOfRows = true;
+					if (o instanceof MapyrusException)
+						throw (MapyrusException)o;
+				}
+			}
+		}
+		else
+		{
+			retval = readRow();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read next row from query result.
+	 * @return next row returned by query, or null if no more rows available.
+	 * @throws MapyrusException if reading row fails.
+	 */
+	private Row readRow() throws MapyrusException
 	{
 		Row retval;
 		Argument arg;
@@ -479,9 +772,17 @@ public class JDBCDataset implements GeographicDataset
 
 	private void close(boolean succeeded) throws MapyrusException
 	{
+		stopPrefetch();
+
 		try
 		{
-			if (m_statement != null)
+			/*
+			 * Keep prepared statement open if it may be reused
+			 * with the same database connection.
+			 */
+			if (m_resultSet != null)
+				m_resultSet.close();
+			if (m_statement != null && !(m_isStatementCached && succeeded))
 				m_statement.close();
 		}
 		catch (SQLException e)
@@ -518,6 +819,7 @@ public class JDBCDataset implements GeographicDataset
 			}
 			m_connection = null;
 			m_statement = null;
+			m_resultSet = null;
 		}
 	}
 
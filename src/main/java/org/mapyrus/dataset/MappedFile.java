@@ -0,0 +1,172 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.mapyrus.MapyrusMessages;
+
+/**
+ * Read-only local file mapped into memory for random access.
+ * Files smaller than 2GB are mapped in one piece.  Larger files
+ * are mapped in windows that are moved as the file is read.
+ * Buffers returned are in little endian byte order.
+ */
+class MappedFile
+{
+	/*
+	 * Size of each window mapped into memory for files too large to map in one piece.
+	 */
+	private static final long WINDOW_SIZE = 1024L * 1024L * 1024L;
+
+	private RandomAccessFile m_file;
+	private FileChannel m_channel;
+	private long m_length;
+
+	/*
+	 * Part of file currently mapped into memory and a copy of
+	 * the mapped buffer used for bulk reads.
+	 */
+	private ByteBuffer m_window;
+	private ByteBuffer m_windowCopy;
+	private long m_windowStart;
+	private long m_windowEnd;
+
+	/**
+	 * Open file for reading.
+	 * @param file file to open.
+	 * @throws IOException if file cannot be opened or mapped into memory.
+	 */
+	public MappedFile(File file) throws IOException
+	{
+		m_file = new RandomAccessFile(file, "r");
+		try
+		{
+			m_channel = m_file.getChannel();
+			m_length = m_channel.size();
+			mapWindow(0, (int)Math.min(m_length, Integer.MAX_VALUE));
+		}
+		catch (IOException e)
+		{
+			m_file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Map part of file into memory.
+	 * @param offset offset in file of start of window.
+	 * @param minLength minimum number of bytes that window must contain.
+	 * @throws IOException if mapping fails.
+	 */
+	private void mapWindow(long offset, int minLength) throws IOException
+	{
+		long size = Math.max(Math.min(m_length - offset, WINDOW_SIZE), minLength);
+		if (m_length <= Integer.MAX_VALUE)
+		{
+			offset = 0;
+			size = m_length;
+		}
+		m_window = m_channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		m_window.order(ByteOrder.LITTLE_ENDIAN);
+		m_windowCopy = m_window.duplicate();
+		m_windowStart = offset;
+		m_windowEnd = offset + size;
+	}
+
+	/**
+	 * Get length of file.
+	 * @return length in bytes.
+	 */
+	public long length()
+	{
+		return(m_length);
+	}
+
+	/**
+	 * Ensure that a range of bytes in file is mapped into memory.
+	 * @param offset offset in file.
+	 * @param length number of bytes.
+	 * @return index in buffer returned by getBuffer() of byte at offset.
+	 * @throws IOException if mapping fails.
+	 */
+	public int locate(long offset, int length) throws IOException
+	{
+		if (offset < m_windowStart || offset + length > m_windowEnd)
+		{
+			if (offset + length > m_length)
+				throw new IOException(MapyrusMessages.get(MapyrusMessages.UNEXPECTED_EOF));
+			mapWindow(offset, length);
+		}
+		return((int)(offset - m_windowStart));
+	}
+
+	/**
+	 * Get buffer containing part of file currently mapped into memory.
+	 * @return buffer in little endian byte order.
+	 */
+	public ByteBuffer getBuffer()
+	{
+		return(m_window);
+	}
+
+	/**
+	 * Read a single byte from file.
+	 * @param offset offset in file.
+	 * @return byte value.
+	 * @throws IOException if reading fails.
+	 */
+	public byte getByte(long offset) throws IOException
+	{
+		int index = locate(offset, 1);
+		return(m_window.get(index));
+	}
+
+	/**
+	 * Read bytes from file into an array.
+	 * @param offset offset in file.
+	 * @param dest array to read into.
+	 * @param destOffset offset in array.
+	 * @param length number of bytes to read.
+	 * @throws IOException if reading fails.
+	 */
+	public void get(long offset, byte []dest, int destOffset, int length) throws IOException
+	{
+		int index = locate(offset, length);
+		((Buffer)m_windowCopy).position(index);
+		m_windowCopy.get(dest, destOffset, length);
+	}
+
+	/**
+	 * Close file.  Memory mapping is released when buffers are garbage collected.
+	 * @throws IOException if closing fails.
+	 */
+	public void close() throws IOException
+	{
+		m_window = m_windowCopy = null;
+		m_file.close();
+	}
+}
@@ -23,15 +23,17 @@ import java.awt.geom.Rectangle2D;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.StringTokenizer;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.mapyrus.Argument;
 import org.mapyrus.Constants;
@@ -39,8 +41,10 @@ import org.mapyrus.FileOrURL;
 import org.mapyrus.MapyrusException;
 import org.mapyrus.MapyrusMessages;
 import org.mapyrus.Row;
+import org.mapyrus.geom.Geometry;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
@@ -48,19 +52,45 @@ import org.xml.sax.helpers.DefaultHandler;
  * using
  * <a href="http://wiki.openstreetmap.org/index.php/OSM_Protocol_Version_0.5">
  * OSM Protocol Version 0.5.</a>.
+ *
+ * By default the whole file is read when the dataset is opened.
+ * In streaming mode the file is read incrementally as each node or
+ * way is fetched so that rows are never all held in memory.
+ * Node coordinates are always held in an {@link OpenStreetMapNodeStore}
+ * to build ways.
  */
 public class OpenStreetMapDataset extends DefaultHandler implements GeographicDataset
 {
-	private static String[] FIELD_NAMES = new String[]{"TYPE", "ID", "GEOMETRY", "TAGS"};
+	static String[] FIELD_NAMES = new String[]{"TYPE", "ID", "GEOMETRY", "TAGS"};
 
-	private static Argument NODE_TYPE_ARGUMENT = new Argument(Argument.STRING, "node");
-	private static Argument WAY_TYPE_ARGUMENT = new Argument(Argument.STRING, "way");
+	static Argument NODE_TYPE_ARGUMENT = new Argument(Argument.STRING, "node");
+	static Argument WAY_TYPE_ARGUMENT = new Argument(Argument.STRING, "way");
 
 	/*
 	 * Rows of data parsed from XML file for nodes and ways.
+	 * In streaming mode, only rows parsed but not yet fetched.
 	 */
 	private LinkedList<Row> m_data;
 
+	/*
+	 * File being read, and XML parser reading it in streaming mode.
+	 */
+	private String m_filename;
+	private InputStream m_inStream;
+	private Process m_process;
+	private XMLStreamReader m_xmlReader;
+	private AttributesImpl m_attributes;
+
+	/*
+	 * Only nodes and ways overlapping this area are fetched.
+	 */
+	private Rectangle2D.Double m_queryExtents;
+
+	/*
+	 * Extents given in <bounds> element of XML file.
+	 */
+	private Rectangle2D.Double m_bounds;
+
 	/*
 	 * World extents of data read from XML file.
 	 */
@@ -72,7 +102,7 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	/*
 	 * Lookup table of nodes for construction of ways from a list of node IDs.
 	 */
-	private HashMap<String, double []> m_allNodes;
+	private OpenStreetMapNodeStore m_allNodes;
 
 	/*
 	 * State during XML parsing. 
@@ -85,7 +115,8 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	private double m_lon = 0;
 	private boolean m_visible = true;
 	private Argument m_tags = null;
-	private ArrayList<String> m_wayNodes = null;
+	private long []m_wayNodes = null;
+	private int m_nWayNodes = 0;
 
 	/**
 	 * Open file or URL to OpenStreetmap XML data and read data.
@@ -98,21 +129,29 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	public OpenStreetMapDataset(String filename, String extras, InputStream stdin)
 		throws IOException, MapyrusException
 	{
-		InputStream inStream = null;
-		Process process = null;
+		boolean streaming = false;
+		StringTokenizer st = new StringTokenizer(extras);
+		while (st.hasMoreTokens())
+		{
+			String token = st.nextToken();
+			if (token.startsWith("streaming="))
+				streaming = token.substring(10).equalsIgnoreCase("true");
+		}
+		m_queryExtents = parseQueryExtents(extras);
+
+		m_filename = filename;
+		m_data = new LinkedList<Row>();
+		m_allNodes = new OpenStreetMapNodeStore(OpenStreetMapNodeStore.DEFAULT_RUN_LENGTH);
 
 		try
 		{
-			m_data = new LinkedList<Row>();
-			m_allNodes = new HashMap<String, double []>();
-
 			/*
 			 * Check if we should read standard input, start a program and
 			 * read its output, or just read a plain file.
 			 */
 			if (filename.equals("-"))
 			{
-				inStream = stdin;
+				m_inStream = stdin;
 			}
 			else if (filename.endsWith("|"))
 			{
@@ -122,21 +161,35 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 					cmdArray = new String[]{command};
 				else
 					cmdArray = new String[]{"sh", "-c", command};
-				process = Runtime.getRuntime().exec(cmdArray);
-				inStream = new BufferedInputStream(process.getInputStream());
+				m_process = Runtime.getRuntime().exec(cmdArray);
+				m_inStream = new BufferedInputStream(m_process.getInputStream());
 			}
 			else
 			{	
 
 				FileOrURL url = new FileOrURL(filename);
-				inStream = url.getInputStream();
+				m_inStream = url.getInputStream();
 			}
 
-			/*
-			 * Parse XML file into memory.
-			 */
-			SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-			saxParser.parse(inStream, this);
+			if (streaming)
+			{
+				/*
+				 * Start reading XML file, parsing only as far as the first node
+				 * so that header information is available.
+				 */
+				m_xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(m_inStream);
+				m_attributes = new AttributesImpl();
+				parseNextRow();
+			}
+			else
+			{
+				/*
+				 * Parse XML file into memory.
+				 */
+				SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+				saxParser.parse(m_inStream, this);
+				m_allNodes.close();
+			}
 		}
 		catch (SAXException e)
 		{
@@ -146,55 +199,168 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 		{
 			throw new MapyrusException(e.getMessage() + ": " + filename);
 		}
+		catch (XMLStreamException e)
+		{
+			throw new MapyrusException(e.getMessage() + ": " + filename);
+		}
 		finally
 		{
-			try
+			if (m_xmlReader == null)
+				closeInput();
+		}
+	}
+
+	/**
+	 * Parse bounding rectangle of data to fetch from options.
+	 * @param extras options for reading data.
+	 * @return bounding rectangle, covering everything if no rectangle is given.
+	 * @throws MapyrusException if rectangle values are invalid.
+	 */
+	static Rectangle2D.Double parseQueryExtents(String extras) throws MapyrusException
+	{
+		double xMin = -Double.MAX_VALUE, yMin = -Double.MAX_VALUE;
+		double xMax = Double.MAX_VALUE, yMax = Double.MAX_VALUE;
+
+		StringTokenizer st = new StringTokenizer(extras);
+		while (st.hasMoreTokens())
+		{
+			String token = st.nextToken();
+			if (token.startsWith("xmin=") || token.startsWith("ymin=") ||
+				token.startsWith("xmax=") || token.startsWith("ymax="))
 			{
-				/*
-				 * Read any remaining output from external program.
-				 */
-				if (process != null)
+				String s = token.substring(5);
+				double d;
+				try
+				{
+					d = Double.parseDouble(s);
+				}
+				catch (NumberFormatException e)
 				{
-					while (inStream.read() > 0)
-						;
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + s);
 				}
+				if (token.startsWith("xmin="))
+					xMin = d;
+				else if (token.startsWith("ymin="))
+					yMin = d;
+				else if (token.startsWith("xmax="))
+					xMax = d;
+				else
+					yMax = d;
 			}
-			catch(IOException e)
+		}
+
+		if (xMin > xMax)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_RANGE) +
+				": " + xMin + " - " + xMax);
+		}
+		if (yMin > yMax)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_RANGE) +
+				": " + yMin + " - " + yMax);
+		}
+		return(new Rectangle2D.Double(xMin, yMin, xMax - xMin, yMax - yMin));
+	}
+
+	/**
+	 * Finish reading file being read, waiting for any external program to terminate.
+	 * @throws MapyrusException if external program failed.
+	 */
+	private void closeInput() throws MapyrusException
+	{
+		m_xmlReader = null;
+		try
+		{
+			/*
+			 * Read any remaining output from external program.
+			 */
+			if (m_process != null)
 			{
-			}				
+				while (m_inStream.read() > 0)
+					;
+			}
+		}
+		catch(IOException e)
+		{
+		}				
 
-			try
+		try
+		{
+			if (m_process != null)
 			{
-				if (process != null)
+				/*
+				 * We've read all of external program's output, now wait for
+				 * it to terminate.
+				 */
+				Process process = m_process;
+				m_process = null;
+				int status = process.waitFor();
+				if (status != 0)
 				{
-					/*
-					 * We've read all of external program's output, now wait for
-					 * it to terminate.
-					 */
-					int status = process.waitFor();
-					if (status != 0)
-					{
-						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.PROCESS_ERROR) + ": " + filename);
-					}
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.PROCESS_ERROR) + ": " + m_filename);
 				}
 			}
-			catch (InterruptedException e)
+		}
+		catch (InterruptedException e)
+		{
+			throw new MapyrusException(e.getMessage()  + ": " + m_filename);
+		}
+		finally
+		{
+			try
 			{
-				throw new MapyrusException(e.getMessage()  + ": " + filename);
+				/*
+				 * Ensure that file being read is always closed.
+				 */
+				if (m_inStream != null)
+					m_inStream.close();
 			}
-			finally
+			catch (IOException e)
 			{
-				try
-				{
-					/*
-					 * Ensure that file being read is always closed.
-					 */
-					if (inStream != null)
-						inStream.close();
-				}
-				catch (IOException e)
+			}
+			m_inStream = null;
+		}
+	}
+
+	/**
+	 * Continue parsing XML file in streaming mode until the next
+	 * row is available or the end of the file is reached.
+	 * @throws XMLStreamException if XML file cannot be parsed.
+	 * @throws SAXException if XML file is not an OpenStreetmap XML file.
+	 * @throws MapyrusException if reading file fails.
+	 */
+	private void parseNextRow()
+		throws XMLStreamException, SAXException, MapyrusException
+	{
+		while (m_data.isEmpty() && m_xmlReader != null)
+		{
+			int event = m_xmlReader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				/*
+				 * Pass element to same handler used for parsing whole file.
+				 */
+				String qName = m_xmlReader.getLocalName();
+				m_attributes.clear();
+				for (int i = 0; i < m_xmlReader.getAttributeCount(); i++)
 				{
+					String attrName = m_xmlReader.getAttributeLocalName(i);
+					m_attributes.addAttribute("", attrName, attrName, "CDATA",
+						m_xmlReader.getAttributeValue(i));
 				}
+				startElement("", qName, qName, m_attributes);
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				String qName = m_xmlReader.getLocalName();
+				endElement("", qName, qName);
+			}
+			else if (event == XMLStreamConstants.END_DOCUMENT)
+			{
+				m_xmlReader.close();
+				closeInput();
+				m_allNodes.close();
 			}
 		}
 	}
@@ -277,7 +443,9 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 			if (m_visible)
 			{
 				m_wayId = getAttribute(qName, attributes, "id");
-				m_wayNodes = new ArrayList<String>();
+				if (m_wayNodes == null)
+					m_wayNodes = new long[64];
+				m_nWayNodes = 0;
 				m_tags = null;
 			}
 		}
@@ -298,7 +466,13 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 			 * Add node to list of nodes for a way.
 			 */
 			String ref = getAttribute(qName, attributes, "ref");
-			m_wayNodes.add(ref);
+			if (m_nWayNodes == m_wayNodes.length)
+			{
+				long []wayNodes = new long[m_wayNodes.length * 2];
+				System.arraycopy(m_wayNodes, 0, wayNodes, 0, m_nWayNodes);
+				m_wayNodes = wayNodes;
+			}
+			m_wayNodes[m_nWayNodes++] = parseId(ref);
 		}
 		else if (qName.equals("osm"))
 		{
@@ -308,6 +482,42 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 			m_OSMVersion = getAttribute(qName, attributes, "version");
 			m_OSMGenerator = getAttribute(qName, attributes, "generator");
 		}
+		else if (qName.equals("bounds"))
+		{
+			try
+			{
+				double minLat = Double.parseDouble(getAttribute(qName, attributes, "minlat"));
+				double minLon = Double.parseDouble(getAttribute(qName, attributes, "minlon"));
+				double maxLat = Double.parseDouble(getAttribute(qName, attributes, "maxlat"));
+				double maxLon = Double.parseDouble(getAttribute(qName, attributes, "maxlon"));
+				m_bounds = new Rectangle2D.Double(minLon, minLat, maxLon - minLon, maxLat - minLat);
+			}
+			catch (NumberFormatException e)
+			{
+				throw new SAXException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+					": <bounds>");
+			}
+		}
+	}
+
+	/**
+	 * Parse node ID.
+	 * @param id node ID.
+	 * @return node ID as number.
+	 */
+	private long parseId(String id) throws SAXException
+	{
+		long retval;
+		try
+		{
+			retval = Long.parseLong(id);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new SAXException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+				": " + id);
+		}
+		return(retval);
 	}
 
 	@Override
@@ -331,8 +541,16 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 				else
 					row.add(Argument.emptyString);
 				m_tags = null;
-				m_data.add(row);
-				m_allNodes.put(m_nodeId, els);
+				if (m_queryExtents.contains(m_lon, m_lat))
+					m_data.add(row);
+				try
+				{
+					m_allNodes.put(parseId(m_nodeId), m_lon, m_lat);
+				}
+				catch (IOException e)
+				{
+					throw new SAXException(e.getMessage());
+				}
 			}
 		}
 		else if (qName.equals("way"))
@@ -342,53 +560,84 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 				/*
 				 * Build a dataset row for the way we have finished reading.
 				 */
-				Row row = new Row(FIELD_NAMES.length);
-				row.add(WAY_TYPE_ARGUMENT);
-				row.add(new Argument(Argument.STRING, m_wayId));
-				
-				/*
-				 * Determine if way is a closed polygon.
-				 */
-				boolean isClosed = false;
-				int nNodes = m_wayNodes.size();
-				if (nNodes > 1)
-				{
-					String startNodeId = m_wayNodes.get(0);
-					String endNodeId = m_wayNodes.get(nNodes - 1);
-					double []startNodeEls = m_allNodes.get(startNodeId);
-					double []endNodeEls = m_allNodes.get(endNodeId);
-					isClosed = (startNodeEls[3] == endNodeEls[3] && startNodeEls[4] == endNodeEls[4]);
-				}
-
-				/*
-				 * Build line or polygon geometry.
-				 */
-				double []els = new double[nNodes * 3 + 2];
-				els[0] = (isClosed) ? Argument.GEOMETRY_POLYGON : Argument.GEOMETRY_LINESTRING;
-				els[1] = nNodes;
-				int elsIndex = 2;
-				int segType = Argument.MOVETO;
-				Iterator<String> it = m_wayNodes.iterator();
-				while (it.hasNext())
-				{
-					String nodeId = it.next();
-					double []nodeEls = m_allNodes.get(nodeId);
-					els[elsIndex] = segType;
-					els[elsIndex + 1] = nodeEls[3];
-					els[elsIndex + 2] = nodeEls[4];
-					elsIndex += 3;
-					segType = Argument.LINETO;
-				}
-				Argument geometryArgument = new Argument((int)els[0], els);
-				row.add(geometryArgument);
-				if (m_tags != null)
-					row.add(m_tags);
-				else
-					row.add(Argument.emptyString);
+				Row row = buildWayRow(m_wayId, m_wayNodes, m_nWayNodes, m_tags,
+					m_allNodes, m_queryExtents);
 				m_tags = null;
-				m_data.add(row);
+				if (row != null)
+					m_data.add(row);
+			}
+		}
+	}
+
+	/**
+	 * Build a dataset row for a way.
+	 * @param wayId ID of way.
+	 * @param wayNodes IDs of nodes in way.
+	 * @param nWayNodes number of nodes in way.
+	 * @param tags tags for way, or null if way has no tags.
+	 * @param allNodes nodes read so far.
+	 * @param queryExtents bounding rectangle of data to fetch.
+	 * @return row for way, or null if way has no nodes or does not overlap rectangle.
+	 */
+	static Row buildWayRow(String wayId, long []wayNodes, int nWayNodes, Argument tags,
+		OpenStreetMapNodeStore allNodes, Rectangle2D.Double queryExtents)
+	{
+		Row row = new Row(FIELD_NAMES.length);
+		row.add(WAY_TYPE_ARGUMENT);
+		row.add(new Argument(Argument.STRING, wayId));
+
+		/*
+		 * Build line or polygon geometry, skipping any nodes
+		 * that are not included in file.
+		 */
+		double []els = new double[nWayNodes * 3 + 2];
+		double []pt = new double[2];
+		int nNodes = 0;
+		int elsIndex = 2;
+		int segType = Argument.MOVETO;
+		double wayXMin = Double.MAX_VALUE, wayYMin = Double.MAX_VALUE;
+		double wayXMax = -Double.MAX_VALUE, wayYMax = -Double.MAX_VALUE;
+		for (int i = 0; i < nWayNodes; i++)
+		{
+			if (allNodes.get(wayNodes[i], pt))
+			{
+				els[elsIndex] = segType;
+				els[elsIndex + 1] = pt[0];
+				els[elsIndex + 2] = pt[1];
+				elsIndex += 3;
+				segType = Argument.LINETO;
+				nNodes++;
+
+				wayXMin = Math.min(wayXMin, pt[0]);
+				wayYMin = Math.min(wayYMin, pt[1]);
+				wayXMax = Math.max(wayXMax, pt[0]);
+				wayYMax = Math.max(wayYMax, pt[1]);
 			}
 		}
+
+		/*
+		 * Determine if way is a closed polygon.
+		 */
+		boolean isClosed = false;
+		if (nNodes > 1)
+		{
+			isClosed = (els[3] == els[elsIndex - 2] && els[4] == els[elsIndex - 1]);
+		}
+		els[0] = (isClosed) ? Argument.GEOMETRY_POLYGON : Argument.GEOMETRY_LINESTRING;
+		els[1] = nNodes;
+		Argument geometryArgument = new Argument((int)els[0], els);
+		row.add(geometryArgument);
+		if (tags != null)
+			row.add(tags);
+		else
+			row.add(Argument.emptyString);
+
+		if (nNodes == 0 || (!Geometry.overlaps(queryExtents,
+			wayXMin, wayYMin, wayXMax, wayYMax)))
+		{
+			row = null;
+		}
+		return(row);
 	}
 
 	@Override
@@ -415,13 +664,40 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	@Override
 	public Rectangle2D.Double getWorlds()
 	{
-		return(new Rectangle2D.Double(m_xMin, m_yMin, m_xMax - m_xMin, m_yMax - m_yMin));
+		Rectangle2D.Double retval;
+
+		/*
+		 * In streaming mode, the whole file has not yet been read so use
+		 * the bounds given at the start of the file, if available.
+		 */
+		if (m_xmlReader != null && m_bounds != null)
+			retval = m_bounds;
+		else
+			retval = new Rectangle2D.Double(m_xMin, m_yMin, m_xMax - m_xMin, m_yMax - m_yMin);
+		return(retval);
 	}
 
 	@Override
 	public Row fetch() throws MapyrusException
 	{
 		Row retval;
+
+		if (m_data != null && m_data.isEmpty() && m_xmlReader != null)
+		{
+			try
+			{
+				parseNextRow();
+			}
+			catch (XMLStreamException e)
+			{
+				throw new MapyrusException(e.getMessage() + ": " + m_filename);
+			}
+			catch (SAXException e)
+			{
+				throw new MapyrusException(e.getMessage() + ": " + m_filename);
+			}
+		}
+
 		if (m_data == null || m_data.isEmpty())
 			retval = null;
 		else
@@ -433,5 +709,21 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	public void close() throws MapyrusException
 	{
 		m_data = null;
+		m_allNodes.close();
+		if (m_xmlReader != null)
+		{
+			try
+			{
+				m_xmlReader.close();
+			}
+			catch (XMLStreamException e)
+			{
+			}
+			m_xmlReader = null;
+			if (m_process != null)
+				m_process.destroy();
+			m_process = null;
+			closeInput();
+		}
 	}
 }
@@ -0,0 +1,332 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import org.mapyrus.Constants;
+
+/**
+ * Store of OpenStreetMap node coordinates, looked up by node ID.
+ * Node IDs and coordinates are held in arrays of primitive values,
+ * sorted by node ID.  When the number of nodes grows too large
+ * the arrays are written as a sorted run to a memory-mapped temporary
+ * file and new arrays are started.
+ *
+ * Nodes in OpenStreetMap files are normally sorted by ID, so each
+ * run covers a separate range of IDs and a lookup searches only one run.
+ */
+public class OpenStreetMapNodeStore
+{
+	/*
+	 * Default number of nodes to hold in memory before writing them to a file.
+	 */
+	public static final int DEFAULT_RUN_LENGTH = 4 * 1024 * 1024;
+
+	/*
+	 * Number of bytes for each node in file: ID, X and Y.
+	 */
+	private static final int NODE_BYTES = 8 * 3;
+
+	/*
+	 * Nodes held in memory.
+	 */
+	private long []m_ids;
+	private double []m_coords;
+	private int m_nNodes;
+	private boolean m_isSorted;
+
+	/*
+	 * Sorted runs of nodes written to file, with range of IDs in each run.
+	 */
+	private int m_runLength;
+	private File m_file;
+	private RandomAccessFile m_randomAccessFile;
+	private ArrayList<MappedByteBuffer> m_runs;
+	private ArrayList<long []> m_runRanges;
+	private long m_filePosition;
+
+	/**
+	 * Create new store for nodes.
+	 * @param runLength number of nodes to hold in memory before
+	 * writing them to a file.
+	 */
+	public OpenStreetMapNodeStore(int runLength)
+	{
+		m_runLength = runLength;
+		m_ids = new long[Math.min(runLength, 1024)];
+		m_coords = new double[m_ids.length * 2];
+		m_nNodes = 0;
+		m_isSorted = true;
+		m_runs = new ArrayList<MappedByteBuffer>();
+		m_runRanges = new ArrayList<long []>();
+		m_filePosition = 0;
+	}
+
+	/**
+	 * Add node to store.
+	 * @param id node ID.
+	 * @param x X coordinate (longitude) of node.
+	 * @param y Y coordinate (latitude) of node.
+	 * @throws IOException if writing nodes to file fails.
+	 */
+	public void put(long id, double x, double y) throws IOException
+	{
+		if (m_nNodes == m_runLength)
+			writeRun();
+
+		if (m_nNodes == m_ids.length)
+		{
+			/*
+			 * Grow arrays.
+			 */
+			int newLength = (int)Math.min((long)m_ids.length * 2, m_runLength);
+			long []ids = new long[newLength];
+			double []coords = new double[newLength * 2];
+			System.arraycopy(m_ids, 0, ids, 0, m_nNodes);
+			System.arraycopy(m_coords, 0, coords, 0, m_nNodes * 2);
+			m_ids = ids;
+			m_coords = coords;
+		}
+
+		if (m_nNodes > 0 && id <= m_ids[m_nNodes - 1])
+			m_isSorted = false;
+		m_ids[m_nNodes] = id;
+		m_coords[m_nNodes * 2] = x;
+		m_coords[m_nNodes * 2 + 1] = y;
+		m_nNodes++;
+	}
+
+	/**
+	 * Find coordinates of node.
+	 * @param id node ID.
+	 * @param pt array to set to X and Y coordinates of node.
+	 * @return true if node was found.
+	 */
+	public boolean get(long id, double []pt)
+	{
+		boolean found = false;
+
+		if (!m_isSorted)
+			sort(0, m_nNodes - 1);
+
+		int index = search(id);
+		if (index >= 0)
+		{
+			pt[0] = m_coords[index * 2];
+			pt[1] = m_coords[index * 2 + 1];
+			found = true;
+		}
+
+		/*
+		 * Search each run in file that could contain node.
+		 */
+		for (int i = m_runs.size() - 1; i >= 0 && (!found); i--)
+		{
+			long []range = m_runRanges.get(i);
+			if (id >= range[0] && id <= range[1])
+			{
+				MappedByteBuffer run = m_runs.get(i);
+				int low = 0;
+				int high = (int)range[2] - 1;
+				while (low <= high && (!found))
+				{
+					int mid = (low + high) >>> 1;
+					long midId = run.getLong(mid * NODE_BYTES);
+					if (midId < id)
+					{
+						low = mid + 1;
+					}
+					else if (midId > id)
+					{
+						high = mid - 1;
+					}
+					else
+					{
+						pt[0] = run.getDouble(mid * NODE_BYTES + 8);
+						pt[1] = run.getDouble(mid * NODE_BYTES + 16);
+						found = true;
+					}
+				}
+			}
+		}
+		return(found);
+	}
+
+	/**
+	 * Binary search for node in memory.
+	 * @param id node ID.
+	 * @return index of node, or -1 if not found.
+	 */
+	private int search(long id)
+	{
+		int retval = -1;
+		int low = 0;
+		int high = m_nNodes - 1;
+
+		while (low <= high && retval < 0)
+		{
+			int mid = (low + high) >>> 1;
+			if (m_ids[mid] < id)
+				low = mid + 1;
+			else if (m_ids[mid] > id)
+				high = mid - 1;
+			else
+				retval = mid;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Sort nodes in memory by ID, using quicksort.
+	 * @param low index of first node to sort.
+	 * @param high index of last node to sort.
+	 */
+	private void sort(int low, int high)
+	{
+		while (low < high)
+		{
+			long pivot = m_ids[(low + high) >>> 1];
+			int i = low;
+			int j = high;
+			while (i <= j)
+			{
+				while (m_ids[i] < pivot)
+					i++;
+				while (m_ids[j] > pivot)
+					j--;
+				if (i <= j)
+				{
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+
+			/*
+			 * Recurse into smaller part, loop for larger part to limit stack depth.
+			 */
+			if (j - low < high - i)
+			{
+				sort(low, j);
+				low = i;
+			}
+			else
+			{
+				sort(i, high);
+				high = j;
+			}
+		}
+		m_isSorted = true;
+	}
+
+	/**
+	 * Swap two nodes in memory.
+	 * @param i index of first node.
+	 * @param j index of second node.
+	 */
+	private void swap(int i, int j)
+	{
+		long id = m_ids[i];
+		m_ids[i] = m_ids[j];
+		m_ids[j] = id;
+
+		double d = m_coords[i * 2];
+		m_coords[i * 2] = m_coords[j * 2];
+		m_coords[j * 2] = d;
+
+		d = m_coords[i * 2 + 1];
+		m_coords[i * 2 + 1] = m_coords[j * 2 + 1];
+		m_coords[j * 2 + 1] = d;
+	}
+
+	/**
+	 * Write nodes in memory to file as a sorted run.
+	 * @throws IOException if writing file fails.
+	 */
+	private void writeRun() throws IOException
+	{
+		if (!m_isSorted)
+			sort(0, m_nNodes - 1);
+
+		if (m_randomAccessFile == null)
+		{
+			m_file = File.createTempFile(Constants.PROGRAM_NAME, ".osm.nodes");
+			m_file.deleteOnExit();
+			m_randomAccessFile = new RandomAccessFile(m_file, "rw");
+		}
+
+		long nBytes = (long)m_nNodes * NODE_BYTES;
+		MappedByteBuffer run = m_randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+			m_filePosition, nBytes);
+		for (int i = 0; i < m_nNodes; i++)
+		{
+			run.putLong(m_ids[i]);
+			run.putDouble(m_coords[i * 2]);
+			run.putDouble(m_coords[i * 2 + 1]);
+		}
+		m_runs.add(run);
+		m_runRanges.add(new long[]{m_ids[0], m_ids[m_nNodes - 1], m_nNodes});
+		m_filePosition += nBytes;
+		m_nNodes = 0;
+		m_isSorted = true;
+	}
+
+	/**
+	 * Get number of nodes in store.
+	 * @return number of nodes.
+	 */
+	public long size()
+	{
+		long retval = m_nNodes;
+		for (int i = 0; i < m_runRanges.size(); i++)
+			retval += m_runRanges.get(i)[2];
+		return(retval);
+	}
+
+	/**
+	 * Release memory and delete any temporary file used by store.
+	 */
+	public void close()
+	{
+		m_ids = null;
+		m_coords = null;
+		m_nNodes = 0;
+		m_runs.clear();
+		m_runRanges.clear();
+		try
+		{
+			if (m_randomAccessFile != null)
+				m_randomAccessFile.close();
+		}
+		catch (IOException e)
+		{
+		}
+		if (m_file != null)
+			m_file.delete();
+		m_randomAccessFile = null;
+		m_file = null;
+	}
+}
@@ -0,0 +1,921 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.mapyrus.Argument;
+import org.mapyrus.FileOrURL;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.MapyrusMessages;
+import org.mapyrus.Row;
+
+/**
+ * Implements reading of geographic datasets from an OpenStreetMap
+ * <a href="http://wiki.openstreetmap.org/wiki/PBF_Format">
+ * Protocolbuffer Binary Format (.osm.pbf)</a> file.
+ *
+ * The file is read incrementally as each node or way is fetched.
+ * Blocks of the file are decompressed and decoded in parallel,
+ * then nodes and ways are returned in the order they appear in the file,
+ * with the same fields as {@link OpenStreetMapDataset}.
+ */
+public class OpenStreetMapPBFDataset implements GeographicDataset
+{
+	/*
+	 * Maximum sizes of blob header and blob allowed by file format.
+	 */
+	private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+	/*
+	 * Required features of file that are implemented by this class.
+	 */
+	private static final String []SUPPORTED_FEATURES = new String[]{"OsmSchema-V0.6", "DenseNodes"};
+
+	/*
+	 * File being read.
+	 */
+	private String m_filename;
+	private DataInputStream m_inStream;
+
+	/*
+	 * Blocks of file being decoded in parallel, in order they appear in file.
+	 */
+	private ForkJoinPool m_forkJoinPool;
+	private ArrayDeque<Future<PrimitiveBlock>> m_blocks;
+	private int m_maxBlocks;
+
+	/*
+	 * Rows of data decoded from file for nodes and ways, not yet fetched.
+	 */
+	private LinkedList<Row> m_data;
+
+	/*
+	 * Lookup table of nodes for construction of ways from a list of node IDs.
+	 */
+	private OpenStreetMapNodeStore m_allNodes;
+
+	/*
+	 * Only nodes and ways overlapping this area are fetched.
+	 */
+	private Rectangle2D.Double m_queryExtents;
+
+	/*
+	 * Information from header of file.
+	 */
+	private Rectangle2D.Double m_bounds;
+	private String m_OSMGenerator = "";
+
+	/**
+	 * Nodes and ways decoded from one block of file.
+	 */
+	private static class PrimitiveBlock
+	{
+		long []m_nodeIds = new long[256];
+		double []m_nodeCoords = new double[512];
+		int m_nNodes = 0;
+		ArrayList<Row> m_nodeRows = new ArrayList<Row>();
+		ArrayList<String> m_wayIds = new ArrayList<String>();
+		ArrayList<long []> m_wayNodes = new ArrayList<long []>();
+		ArrayList<Argument> m_wayTags = new ArrayList<Argument>();
+
+		/**
+		 * Add node to block.
+		 * @param id node ID.
+		 * @param x X coordinate (longitude) of node.
+		 * @param y Y coordinate (latitude) of node.
+		 */
+		void addNode(long id, double x, double y)
+		{
+			if (m_nNodes == m_nodeIds.length)
+			{
+				m_nodeIds = Arrays.copyOf(m_nodeIds, m_nNodes * 2);
+				m_nodeCoords = Arrays.copyOf(m_nodeCoords, m_nNodes * 4);
+			}
+			m_nodeIds[m_nNodes] = id;
+			m_nodeCoords[m_nNodes * 2] = x;
+			m_nodeCoords[m_nNodes * 2 + 1] = y;
+			m_nNodes++;
+		}
+	}
+
+	/**
+	 * Decompresses and decodes one block of file.
+	 */
+	private class BlockDecoder implements Callable<PrimitiveBlock>
+	{
+		private byte []m_blob;
+
+		/**
+		 * Create decoder for block.
+		 * @param blob compressed block read from file.
+		 */
+		public BlockDecoder(byte []blob)
+		{
+			m_blob = blob;
+		}
+
+		@Override
+		public PrimitiveBlock call() throws MapyrusException
+		{
+			byte []buf = decompressBlob(m_blob);
+			m_blob = null;
+			return(decodePrimitiveBlock(new ProtobufReader(buf, 0, buf.length)));
+		}
+	}
+
+	/**
+	 * Open file or URL to OpenStreetMap .osm.pbf data and read header.
+	 * @param filename is file or URL to read data from.
+	 * @param extras options for reading data.
+	 * @param stdin standard input.
+	 * @throws IOException if opening file fails.
+	 * @throws MapyrusException if file is not an OpenStreetMap .osm.pbf file.
+	 */
+	public OpenStreetMapPBFDataset(String filename, String extras, InputStream stdin)
+		throws IOException, MapyrusException
+	{
+		m_filename = filename;
+		m_queryExtents = OpenStreetMapDataset.parseQueryExtents(extras);
+		m_data = new LinkedList<Row>();
+		m_allNodes = new OpenStreetMapNodeStore(OpenStreetMapNodeStore.DEFAULT_RUN_LENGTH);
+
+		if (filename.equals("-"))
+			m_inStream = new DataInputStream(new BufferedInputStream(stdin));
+		else
+			m_inStream = new DataInputStream(new FileOrURL(filename).getInputStream());
+
+		try
+		{
+			/*
+			 * File must begin with a header block.
+			 */
+			StringBuilder blobType = new StringBuilder();
+			byte []blob = readBlob(blobType);
+			if (blob == null || (!blobType.toString().equals("OSMHeader")))
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+			}
+			byte []buf = decompressBlob(blob);
+			decodeHeaderBlock(new ProtobufReader(buf, 0, buf.length));
+
+			/*
+			 * Start decoding blocks of nodes and ways in parallel and
+			 * wait for the first rows.
+			 */
+			int parallelism = Runtime.getRuntime().availableProcessors();
+			m_forkJoinPool = new ForkJoinPool(parallelism);
+			m_blocks = new ArrayDeque<Future<PrimitiveBlock>>();
+			m_maxBlocks = parallelism * 2;
+			readBlocks();
+			fetchBlocks();
+		}
+		catch (MapyrusException e)
+		{
+			close();
+			throw new MapyrusException(e.getMessage() + ": " + filename);
+		}
+		catch (IOException e)
+		{
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read next blob from file.
+	 * @param blobType buffer to set to type of blob.
+	 * @return blob, or null at end of file.
+	 * @throws IOException if reading file fails.
+	 * @throws MapyrusException if file is not an OpenStreetMap .osm.pbf file.
+	 */
+	private byte []readBlob(StringBuilder blobType) throws IOException, MapyrusException
+	{
+		byte []retval = null;
+
+		int c = m_inStream.read();
+		if (c >= 0)
+		{
+			/*
+			 * Read blob header, containing type and size of following blob.
+			 */
+			int headerSize = (c << 24) | (m_inStream.readUnsignedByte() << 16) |
+				m_inStream.readUnsignedShort();
+			if (headerSize <= 0 || headerSize > MAX_BLOB_HEADER_SIZE)
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+			byte []header = new byte[headerSize];
+			m_inStream.readFully(header);
+
+			long blobSize = -1;
+			ProtobufReader reader = new ProtobufReader(header, 0, headerSize);
+			while (reader.nextField())
+			{
+				if (reader.getFieldNumber() == 1)
+					blobType.append(reader.readString());
+				else if (reader.getFieldNumber() == 3)
+					blobSize = reader.readVarint();
+				else
+					reader.skipField();
+			}
+			if (blobSize < 0 || blobSize > MAX_BLOB_SIZE)
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+
+			retval = new byte[(int)blobSize];
+			m_inStream.readFully(retval);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Decompress a blob read from file.
+	 * @param blob blob containing compressed or uncompressed data.
+	 * @return uncompressed data.
+	 * @throws MapyrusException if blob is invalid or compression type not supported.
+	 */
+	private static byte []decompressBlob(byte []blob) throws MapyrusException
+	{
+		byte []raw = null;
+		byte []zlibData = null;
+		int rawSize = -1;
+		boolean isSupported = true;
+
+		ProtobufReader reader = new ProtobufReader(blob, 0, blob.length);
+		while (reader.nextField())
+		{
+			int fieldNumber = reader.getFieldNumber();
+			if (fieldNumber == 1)
+				raw = reader.readBytes();
+			else if (fieldNumber == 2)
+				rawSize = (int)reader.readVarint();
+			else if (fieldNumber == 3)
+				zlibData = reader.readBytes();
+			else
+			{
+				/*
+				 * LZMA and other compression types are not supported.
+				 */
+				isSupported = false;
+				reader.skipField();
+			}
+		}
+
+		if (raw == null && zlibData != null && rawSize >= 0 && rawSize <= MAX_BLOB_SIZE)
+		{
+			Inflater inflater = new Inflater();
+			try
+			{
+				raw = new byte[rawSize];
+				inflater.setInput(zlibData);
+				int nBytes = 0;
+				while (nBytes < rawSize && (!inflater.finished()) && (!inflater.needsInput()))
+					nBytes += inflater.inflate(raw, nBytes, rawSize - nBytes);
+				if (nBytes != rawSize)
+					raw = null;
+			}
+			catch (DataFormatException e)
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE) +
+					": " + e.getMessage());
+			}
+			finally
+			{
+				inflater.end();
+			}
+		}
+
+		if (raw == null)
+		{
+			String message = MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE);
+			if (!isSupported)
+				message = message + ": compression";
+			throw new MapyrusException(message);
+		}
+		return(raw);
+	}
+
+	/**
+	 * Decode header block of file.
+	 * @param reader reader for header block.
+	 * @throws MapyrusException if header is invalid or file requires unsupported features.
+	 */
+	private void decodeHeaderBlock(ProtobufReader reader) throws MapyrusException
+	{
+		while (reader.nextField())
+		{
+			int fieldNumber = reader.getFieldNumber();
+			if (fieldNumber == 1)
+			{
+				/*
+				 * Bounding box of data in file, in nanodegrees.
+				 */
+				long left = 0, right = 0, top = 0, bottom = 0;
+				ProtobufReader bboxReader = reader.readMessage();
+				while (bboxReader.nextField())
+				{
+					int bboxFieldNumber = bboxReader.getFieldNumber();
+					if (bboxFieldNumber == 1)
+						left = bboxReader.readSignedVarint();
+					else if (bboxFieldNumber == 2)
+						right = bboxReader.readSignedVarint();
+					else if (bboxFieldNumber == 3)
+						top = bboxReader.readSignedVarint();
+					else if (bboxFieldNumber == 4)
+						bottom = bboxReader.readSignedVarint();
+					else
+						bboxReader.skipField();
+				}
+				m_bounds = new Rectangle2D.Double(left / 1e9, bottom / 1e9,
+					(right - left) / 1e9, (top - bottom) / 1e9);
+			}
+			else if (fieldNumber == 4)
+			{
+				String feature = reader.readString();
+				if (!Arrays.asList(SUPPORTED_FEATURES).contains(feature))
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE) +
+						": " + feature);
+				}
+			}
+			else if (fieldNumber == 16)
+			{
+				m_OSMGenerator = reader.readString();
+			}
+			else
+			{
+				reader.skipField();
+			}
+		}
+	}
+
+	/**
+	 * Decode block of nodes and ways.
+	 * @param reader reader for block.
+	 * @return decoded nodes and ways.
+	 * @throws MapyrusException if block is invalid.
+	 */
+	private PrimitiveBlock decodePrimitiveBlock(ProtobufReader reader) throws MapyrusException
+	{
+		PrimitiveBlock retval = new PrimitiveBlock();
+		ArrayList<String> strings = new ArrayList<String>();
+		ArrayList<ProtobufReader> groups = new ArrayList<ProtobufReader>();
+		long granularity = 100, latOffset = 0, lonOffset = 0;
+
+		/*
+		 * Coordinate scaling may follow groups of nodes, so find
+		 * all fields of block before decoding groups.
+		 */
+		while (reader.nextField())
+		{
+			int fieldNumber = reader.getFieldNumber();
+			if (fieldNumber == 1)
+			{
+				ProtobufReader stringReader = reader.readMessage();
+				while (stringReader.nextField())
+				{
+					if (stringReader.getFieldNumber() == 1)
+						strings.add(stringReader.readString());
+					else
+						stringReader.skipField();
+				}
+			}
+			else if (fieldNumber == 2)
+				groups.add(reader.readMessage());
+			else if (fieldNumber == 17)
+				granularity = reader.readVarint();
+			else if (fieldNumber == 19)
+				latOffset = reader.readVarint();
+			else if (fieldNumber == 20)
+				lonOffset = reader.readVarint();
+			else
+				reader.skipField();
+		}
+
+		String []stringTable = strings.toArray(new String[strings.size()]);
+		for (int i = 0; i < groups.size(); i++)
+		{
+			ProtobufReader groupReader = groups.get(i);
+			while (groupReader.nextField())
+			{
+				int fieldNumber = groupReader.getFieldNumber();
+				if (fieldNumber == 1)
+				{
+					decodeNode(groupReader.readMessage(), stringTable,
+						granularity, latOffset, lonOffset, retval);
+				}
+				else if (fieldNumber == 2)
+				{
+					decodeDenseNodes(groupReader.readMessage(), stringTable,
+						granularity, latOffset, lonOffset, retval);
+				}
+				else if (fieldNumber == 3)
+				{
+					decodeWay(groupReader.readMessage(), stringTable, retval);
+				}
+				else
+				{
+					/*
+					 * Relations and changesets are not returned.
+					 */
+					groupReader.skipField();
+				}
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Decode single node.
+	 * @param reader reader for node.
+	 * @param stringTable strings for tags in block.
+	 * @param granularity scale of coordinates, in nanodegrees.
+	 * @param latOffset offset of latitude coordinates, in nanodegrees.
+	 * @param lonOffset offset of longitude coordinates, in nanodegrees.
+	 * @param block block to add node to.
+	 * @throws MapyrusException if node is invalid.
+	 */
+	private void decodeNode(ProtobufReader reader, String []stringTable,
+		long granularity, long latOffset, long lonOffset, PrimitiveBlock block)
+		throws MapyrusException
+	{
+		long id = 0, lat = 0, lon = 0;
+		long []keys = null, vals = null;
+		boolean isVisible = true;
+
+		while (reader.nextField())
+		{
+			int fieldNumber = reader.getFieldNumber();
+			if (fieldNumber == 1)
+				id = reader.readSignedVarint();
+			else if (fieldNumber == 2)
+				keys = readPacked(reader, false, false);
+			else if (fieldNumber == 3)
+				vals = readPacked(reader, false, false);
+			else if (fieldNumber == 4)
+				isVisible = decodeVisible(reader.readMessage());
+			else if (fieldNumber == 8)
+				lat = reader.readSignedVarint();
+			else if (fieldNumber == 9)
+				lon = reader.readSignedVarint();
+			else
+				reader.skipField();
+		}
+
+		if (isVisible)
+		{
+			Argument tags = null;
+			if (keys != null && vals != null)
+			{
+				for (int i = 0; i < keys.length && i < vals.length; i++)
+					tags = addTag(tags, stringTable, keys[i], vals[i]);
+			}
+			addNode(block, id, lonOffset + granularity * lon,
+				latOffset + granularity * lat, tags);
+		}
+	}
+
+	/**
+	 * Decode group of nodes stored in dense format.
+	 * @param reader reader for dense nodes.
+	 * @param stringTable strings for tags in block.
+	 * @param granularity scale of coordinates, in nanodegrees.
+	 * @param latOffset offset of latitude coordinates, in nanodegrees.
+	 * @param lonOffset offset of longitude coordinates, in nanodegrees.
+	 * @param block block to add nodes to.
+	 * @throws MapyrusException if nodes are invalid.
+	 */
+	private void decodeDenseNodes(ProtobufReader reader, String []stringTable,
+		long granularity, long latOffset, long lonOffset, PrimitiveBlock block)
+		throws MapyrusException
+	{
+		long []ids = null, lats = null, lons = null, keysVals = null, visible = null;
+
+		while (reader.nextField())
+		{
+			int fieldNumber = reader.getFieldNumber();
+			if (fieldNumber == 1)
+				ids = readPacked(reader, true, true);
+			else if (fieldNumber == 5)
+			{
+				ProtobufReader infoReader = reader.readMessage();
+				while (infoReader.nextField())
+				{
+					if (infoReader.getFieldNumber() == 6)
+						visible = readPacked(infoReader, false, false);
+					else
+						infoReader.skipField();
+				}
+			}
+			else if (fieldNumber == 8)
+				lats = readPacked(reader, true, true);
+			else if (fieldNumber == 9)
+				lons = readPacked(reader, true, true);
+			else if (fieldNumber == 10)
+				keysVals = readPacked(reader, false, false);
+			else
+				reader.skipField();
+		}
+
+		if (ids != null)
+		{
+			if (lats == null || lons == null || lats.length != ids.length || lons.length != ids.length)
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+
+			/*
+			 * Tags for all nodes are stored in a single list,
+			 * with tags for each node terminated by a zero.
+			 */
+			int keysValsIndex = 0;
+			for (int i = 0; i < ids.length; i++)
+			{
+				Argument tags = null;
+				while (keysVals != null && keysValsIndex < keysVals.length && keysVals[keysValsIndex] != 0)
+				{
+					if (keysValsIndex + 1 >= keysVals.length)
+						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+					tags = addTag(tags, stringTable, keysVals[keysValsIndex], keysVals[keysValsIndex + 1]);
+					keysValsIndex += 2;
+				}
+				keysValsIndex++;
+
+				if (visible == null || i >= visible.length || visible[i] != 0)
+				{
+					addNode(block, ids[i], lonOffset + granularity * lons[i],
+						latOffset + granularity * lats[i], tags);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decode single way.
+	 * @param reader reader for way.
+	 * @param stringTable strings for tags in block.
+	 * @param block block to add way to.
+	 * @throws MapyrusException if way is invalid.
+	 */
+	private void decodeWay(ProtobufReader reader, String []stringTable, PrimitiveBlock block)
+		throws MapyrusException
+	{
+		long id = 0;
+		long []keys = null, vals = null, refs = null;
+		boolean isVisible = true;
+
+		while (reader.nextField())
+		{
+			int fieldNumber = reader.getFieldNumber();
+			if (fieldNumber == 1)
+				id = reader.readVarint();
+			else if (fieldNumber == 2)
+				keys = readPacked(reader, false, false);
+			else if (fieldNumber == 3)
+				vals = readPacked(reader, false, false);
+			else if (fieldNumber == 4)
+				isVisible = decodeVisible(reader.readMessage());
+			else if (fieldNumber == 8)
+				refs = readPacked(reader, true, true);
+			else
+				reader.skipField();
+		}
+
+		if (isVisible)
+		{
+			Argument tags = null;
+			if (keys != null && vals != null)
+			{
+				for (int i = 0; i < keys.length && i < vals.length; i++)
+					tags = addTag(tags, stringTable, keys[i], vals[i]);
+			}
+			block.m_wayIds.add(Long.toString(id));
+			block.m_wayNodes.add((refs != null) ? refs : new long[0]);
+			block.m_wayTags.add(tags);
+		}
+	}
+
+	/**
+	 * Decode visible flag from information for a node or way.
+	 * @param reader reader for information.
+	 * @return false if node or way is marked as not visible.
+	 * @throws MapyrusException if information is invalid.
+	 */
+	private boolean decodeVisible(ProtobufReader reader) throws MapyrusException
+	{
+		boolean retval = true;
+		while (reader.nextField())
+		{
+			if (reader.getFieldNumber() == 6)
+				retval = (reader.readVarint() != 0);
+			else
+				reader.skipField();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read packed list of integer values.
+	 * @param reader reader with packed list as current field.
+	 * @param isSigned true if values are signed.
+	 * @param isDelta true if values are stored as differences from previous value.
+	 * @return values.
+	 * @throws MapyrusException if list is invalid.
+	 */
+	private static long []readPacked(ProtobufReader reader, boolean isSigned, boolean isDelta)
+		throws MapyrusException
+	{
+		ProtobufReader packedReader = reader.readMessage();
+		long []values = new long[16];
+		int nValues = 0;
+		long lastValue = 0;
+		while (packedReader.hasMoreValues())
+		{
+			long value = isSigned ? packedReader.readSignedVarint() : packedReader.readVarint();
+			if (isDelta)
+			{
+				value += lastValue;
+				lastValue = value;
+			}
+			if (nValues == values.length)
+				values = Arrays.copyOf(values, nValues * 2);
+			values[nValues++] = value;
+		}
+		return(Arrays.copyOf(values, nValues));
+	}
+
+	/**
+	 * Add tag to hash map of tags for a node or way.
+	 * @param tags hash map of tags, or null if no tags added yet.
+	 * @param stringTable strings for tags in block.
+	 * @param key index of key in string table.
+	 * @param value index of value in string table.
+	 * @return hash map of tags.
+	 * @throws MapyrusException if key or value index is invalid.
+	 */
+	private static Argument addTag(Argument tags, String []stringTable, long key, long value)
+		throws MapyrusException
+	{
+		if (key < 0 || key >= stringTable.length || value < 0 || value >= stringTable.length)
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+
+		if (tags == null)
+			tags = new Argument();
+		tags.addHashMapEntry(stringTable[(int)key], new Argument(Argument.STRING, stringTable[(int)value]));
+		return(tags);
+	}
+
+	/**
+	 * Add node to block, and build a dataset row for it if it is
+	 * inside bounding rectangle of data to fetch.
+	 * @param block block to add node to.
+	 * @param id node ID.
+	 * @param lon longitude, in nanodegrees.
+	 * @param lat latitude, in nanodegrees.
+	 * @param tags tags for node, or null if node has no tags.
+	 */
+	private void addNode(PrimitiveBlock block, long id, long lon, long lat, Argument tags)
+	{
+		/*
+		 * Divide nanodegrees to give same value as decimal degrees in XML files.
+		 */
+		double x = lon / 1e9;
+		double y = lat / 1e9;
+		block.addNode(id, x, y);
+
+		if (m_queryExtents.contains(x, y))
+		{
+			Row row = new Row(OpenStreetMapDataset.FIELD_NAMES.length);
+			row.add(OpenStreetMapDataset.NODE_TYPE_ARGUMENT);
+			row.add(new Argument(Argument.STRING, Long.toString(id)));
+			double []els = new double[]{Argument.GEOMETRY_POINT, 1, Argument.MOVETO, x, y};
+			row.add(new Argument(Argument.GEOMETRY_POINT, els));
+			if (tags != null)
+				row.add(tags);
+			else
+				row.add(Argument.emptyString);
+			block.m_nodeRows.add(row);
+		}
+	}
+
+	/**
+	 * Read blocks from file and start decoding them, until enough
+	 * blocks are being decoded or the end of file is reached.
+	 * @throws IOException if reading file fails.
+	 * @throws MapyrusException if file is not an OpenStreetMap .osm.pbf file.
+	 */
+	private void readBlocks() throws IOException, MapyrusException
+	{
+		try
+		{
+			while (m_inStream != null && m_blocks.size() < m_maxBlocks)
+			{
+				StringBuilder blobType = new StringBuilder();
+				byte []blob = readBlob(blobType);
+				if (blob == null)
+				{
+					m_inStream.close();
+					m_inStream = null;
+				}
+				else if (blobType.toString().equals("OSMData"))
+				{
+					m_blocks.add(m_forkJoinPool.submit(new BlockDecoder(blob)));
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.UNEXPECTED_EOF));
+		}
+	}
+
+	/**
+	 * Wait for blocks to be decoded and add their nodes and ways
+	 * to list of rows, until rows are available or all blocks are read.
+	 * @throws IOException if reading file fails.
+	 * @throws MapyrusException if file is not an OpenStreetMap .osm.pbf file.
+	 */
+	private void fetchBlocks() throws IOException, MapyrusException
+	{
+		while (m_data.isEmpty() && m_blocks != null && (!m_blocks.isEmpty()))
+		{
+			Future<PrimitiveBlock> future = m_blocks.removeFirst();
+			readBlocks();
+
+			PrimitiveBlock block;
+			try
+			{
+				block = future.get();
+			}
+			catch (ExecutionException e)
+			{
+				/*
+				 * Find exception thrown by decoder, that the thread pool
+				 * may have wrapped in other exceptions.
+				 */
+				Throwable cause = e.getCause();
+				while (cause.getCause() != null && (!(cause instanceof MapyrusException)))
+					cause = cause.getCause();
+				if (cause instanceof MapyrusException)
+					throw (MapyrusException)cause;
+				throw new MapyrusException(cause.toString());
+			}
+			catch (InterruptedException e)
+			{
+				throw new MapyrusException(e.getMessage());
+			}
+
+			/*
+			 * Ways refer to nodes in earlier blocks, so blocks are
+			 * added to node lookup table in the order they appear in file.
+			 */
+			for (int i = 0; i < block.m_nNodes; i++)
+			{
+				m_allNodes.put(block.m_nodeIds[i], block.m_nodeCoords[i * 2],
+					block.m_nodeCoords[i * 2 + 1]);
+			}
+			m_data.addAll(block.m_nodeRows);
+
+			for (int i = 0; i < block.m_wayIds.size(); i++)
+			{
+				long []wayNodes = block.m_wayNodes.get(i);
+				Row row = OpenStreetMapDataset.buildWayRow(block.m_wayIds.get(i),
+					wayNodes, wayNodes.length, block.m_wayTags.get(i),
+					m_allNodes, m_queryExtents);
+				if (row != null)
+					m_data.add(row);
+			}
+		}
+
+		if (m_blocks != null && m_blocks.isEmpty() && m_inStream == null)
+		{
+			/*
+			 * Finished reading whole file.
+			 */
+			m_forkJoinPool.shutdown();
+			m_allNodes.close();
+			m_blocks = null;
+		}
+	}
+
+	@Override
+	public String getProjection()
+	{
+		return "GEOGCS[\"wgs84\",DATUM[\"WGS_1984\",SPHEROID[\"wgs84\",6378137,298.257223563],TOWGS84[0.000,0.000,0.000]],PRIMEM[\"Greenwich\",0],UNIT[\"degree\",0.0174532925199433]]";
+	}
+
+	@Override
+	public Hashtable<String, String> getMetadata()
+	{
+		Hashtable<String, String> retval = new Hashtable<String, String>();
+		retval.put("version", "0.6");
+		retval.put("generator", m_OSMGenerator);
+		return retval;
+	}
+
+	@Override
+	public String[] getFieldNames()
+	{
+		return(OpenStreetMapDataset.FIELD_NAMES);
+	}
+
+	@Override
+	public Rectangle2D.Double getWorlds()
+	{
+		Rectangle2D.Double retval;
+
+		/*
+		 * Use bounding box from file header, or bounding rectangle of
+		 * data being fetched, or else the whole world.
+		 */
+		if (m_bounds != null)
+			retval = m_bounds;
+		else if (m_queryExtents.getMinX() > -Double.MAX_VALUE &&
+			m_queryExtents.getMinY() > -Double.MAX_VALUE &&
+			m_queryExtents.getMaxX() < Double.MAX_VALUE &&
+			m_queryExtents.getMaxY() < Double.MAX_VALUE)
+		{
+			retval = m_queryExtents;
+		}
+		else
+		{
+			retval = new Rectangle2D.Double(-180, -90, 360, 180);
+		}
+		return(retval);
+	}
+
+	@Override
+	public Row fetch() throws MapyrusException
+	{
+		Row retval;
+
+		try
+		{
+			if (m_data != null)
+				fetchBlocks();
+		}
+		catch (IOException e)
+		{
+			throw new MapyrusException(e.getMessage() + ": " + m_filename);
+		}
+		catch (MapyrusException e)
+		{
+			throw new MapyrusException(e.getMessage() + ": " + m_filename);
+		}
+
+		if (m_data == null || m_data.isEmpty())
+			retval = null;
+		else
+			retval = m_data.removeFirst();
+		return(retval);
+	}
+
+	@Override
+	public void close() throws MapyrusException
+	{
+		m_data = null;
+		m_allNodes.close();
+		if (m_forkJoinPool != null)
+			m_forkJoinPool.shutdownNow();
+		m_blocks = null;
+		try
+		{
+			if (m_inStream != null)
+				m_inStream.close();
+		}
+		catch (IOException e)
+		{
+		}
+		m_inStream = null;
+	}
+}
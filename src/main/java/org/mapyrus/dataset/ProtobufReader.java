@@ -0,0 +1,208 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.nio.charset.StandardCharsets;
+
+import org.mapyrus.MapyrusException;
+import org.mapyrus.MapyrusMessages;
+
+/**
+ * Reads fields from a message encoded in Google Protocol Buffers format,
+ * as used in OpenStreetMap .osm.pbf files.
+ * Each field is read by calling {@link #nextField()}, then reading the
+ * field value with the method matching its type, or calling
+ * {@link #skipField()} to ignore it.
+ */
+class ProtobufReader
+{
+	/*
+	 * Protocol Buffer wire types.
+	 */
+	public static final int VARINT = 0;
+	public static final int FIXED64 = 1;
+	public static final int LENGTH_DELIMITED = 2;
+	public static final int FIXED32 = 5;
+
+	private byte []m_buf;
+	private int m_pos;
+	private int m_limit;
+	private int m_fieldNumber;
+	private int m_wireType;
+
+	/**
+	 * Create reader for message in a buffer.
+	 * @param buf buffer containing message.
+	 * @param offset offset of message in buffer.
+	 * @param length length of message in bytes.
+	 */
+	public ProtobufReader(byte []buf, int offset, int length)
+	{
+		m_buf = buf;
+		m_pos = offset;
+		m_limit = offset + length;
+	}
+
+	/**
+	 * Create reader for embedded message or packed field that
+	 * is the current field.
+	 * @return reader for current field.
+	 * @throws MapyrusException if message is truncated.
+	 */
+	public ProtobufReader readMessage() throws MapyrusException
+	{
+		int length = readLength();
+		ProtobufReader retval = new ProtobufReader(m_buf, m_pos, length);
+		m_pos += length;
+		return(retval);
+	}
+
+	/**
+	 * Move to next field in message.
+	 * @return true if there is another field, false at end of message.
+	 * @throws MapyrusException if message is truncated.
+	 */
+	public boolean nextField() throws MapyrusException
+	{
+		boolean retval = false;
+		if (m_pos < m_limit)
+		{
+			long key = readVarint();
+			m_fieldNumber = (int)(key >>> 3);
+			m_wireType = (int)(key & 7);
+			retval = true;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get field number of current field.
+	 * @return field number.
+	 */
+	public int getFieldNumber()
+	{
+		return(m_fieldNumber);
+	}
+
+	/**
+	 * Check if there are any more values in a packed field.
+	 * @return true if more values are available.
+	 */
+	public boolean hasMoreValues()
+	{
+		return(m_pos < m_limit);
+	}
+
+	/**
+	 * Read variable length integer value.
+	 * @return value.
+	 * @throws MapyrusException if message is truncated.
+	 */
+	public long readVarint() throws MapyrusException
+	{
+		long retval = 0;
+		int shift = 0;
+		int b = 0x80;
+		while ((b & 0x80) != 0)
+		{
+			if (m_pos >= m_limit || shift >= 64)
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+			b = m_buf[m_pos++];
+			retval |= (long)(b & 0x7f) << shift;
+			shift += 7;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read variable length integer value with zig-zag encoding of negative values.
+	 * @return value.
+	 * @throws MapyrusException if message is truncated.
+	 */
+	public long readSignedVarint() throws MapyrusException
+	{
+		long n = readVarint();
+		return((n >>> 1) ^ -(n & 1));
+	}
+
+	/**
+	 * Read field containing a string.
+	 * @return string value.
+	 * @throws MapyrusException if message is truncated.
+	 */
+	public String readString() throws MapyrusException
+	{
+		int length = readLength();
+		String retval = new String(m_buf, m_pos, length, StandardCharsets.UTF_8);
+		m_pos += length;
+		return(retval);
+	}
+
+	/**
+	 * Read field containing bytes.
+	 * @return byte array.
+	 * @throws MapyrusException if message is truncated.
+	 */
+	public byte []readBytes() throws MapyrusException
+	{
+		int length = readLength();
+		byte []retval = new byte[length];
+		System.arraycopy(m_buf, m_pos, retval, 0, length);
+		m_pos += length;
+		return(retval);
+	}
+
+	/**
+	 * Read length of a length-delimited field.
+	 * @return length of field in bytes.
+	 * @throws MapyrusException if message is truncated.
+	 */
+	private int readLength() throws MapyrusException
+	{
+		long length = readVarint();
+		if (m_wireType != LENGTH_DELIMITED || length < 0 || length > m_limit - m_pos)
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+		return((int)length);
+	}
+
+	/**
+	 * Skip over value of current field.
+	 * @throws MapyrusException if message is truncated or has unknown wire type.
+	 */
+	public void skipField() throws MapyrusException
+	{
+		if (m_wireType == VARINT)
+			readVarint();
+		else if (m_wireType == FIXED64)
+			m_pos += 8;
+		else if (m_wireType == LENGTH_DELIMITED)
+		{
+			int length = readLength();
+			m_pos += length;
+		}
+		else if (m_wireType == FIXED32)
+			m_pos += 4;
+		else
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+
+		if (m_pos > m_limit)
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_PBF_FILE));
+	}
+}
@@ -22,9 +22,13 @@ package org.mapyrus.dataset;
 import java.awt.geom.Rectangle2D;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -87,8 +91,18 @@ public class ShapefileDataset implements GeographicDataset
 	private DataInputStream m_shapeStream;
 	private DataInputStream m_DBFStream;
 	private String m_filename;
-	private int m_shapeFileLength, m_shapeFileType, m_geometryType;
+	private long m_shapeFileLength;
+	private int m_shapeFileType, m_geometryType;
 	private int m_DBFRecordLength;
+	private int m_DBFHeaderLength;
+	private int m_nDBFRecords;
+
+	/*
+	 * Local .shp and .dbf files mapped into memory for reading,
+	 * or null if files are read from streams.
+	 */
+	private MappedFile m_shapeMappedFile;
+	private MappedFile m_DBFMappedFile;
 	private String m_projection;
 
 	/*
@@ -116,11 +130,39 @@ public class ShapefileDataset implements GeographicDataset
 	 * Number of bytes already read for query.
 	 * A record read from DBF file for query.
 	 */
-	private int m_BytesRead;
+	private long m_BytesRead;
 	private byte []m_DBFRecord;
 
+	/*
+	 * Buffer containing shape record currently being read, with index
+	 * and length of record contents.  Record read from stream when
+	 * shape file is not mapped into memory.
+	 * Coordinates unpacked from record.
+	 */
+	private ByteBuffer m_recordBuffer;
+	private int m_recordIndex;
+	private int m_recordLength;
+	private byte []m_shapeRecord;
+	private double []m_coords;
+
+	/*
+	 * Number of next record in DBF file to read, and number of record
+	 * in DBF file for shape currently being read.
+	 */
+	private int m_DBFRecordCounter;
+	private int m_currentDBFRecord;
+
 	private String m_encoding;
 
+	/*
+	 * Spatial index of shape file and positions in index of shapes
+	 * overlapping query extents, when index is used for query.
+	 * Shape file and DBF file opened for random access to read these shapes.
+	 */
+	private ShapefileIndex m_index;
+	private int []m_indexHits;
+	private int m_indexHitCounter;
+
 	/**
 	 * Open ESRI shape file containing geographic data for querying.
 	 * @param filename name of shape file to open, with or without shp suffix.
@@ -137,6 +179,7 @@ public class ShapefileDataset implements GeographicDataset
 		String token, s;
 		HashSet<String> extrasDBFFields;
 		double d, xMin, yMin, xMax, yMax;
+		boolean buildIndex;
 
 		/*
 		 * Set default options.  Then see if user wants to override any of them.
@@ -145,6 +188,7 @@ public class ShapefileDataset implements GeographicDataset
 		xMin = yMin = -Float.MAX_VALUE;
 		xMax = yMax = Float.MAX_VALUE;
 		m_encoding = null;
+		buildIndex = false;
 
 		st = new StringTokenizer(extras);
 		while (st.hasMoreTokens())
@@ -190,6 +234,10 @@ public class ShapefileDataset implements GeographicDataset
 			{
 				m_encoding = token.substring(9);
 			}
+			else if (token.startsWith("buildindex="))
+			{
+				buildIndex = token.substring(11).equalsIgnoreCase("true");
+			}
 		}
 
 		if (xMin > xMax)
@@ -293,11 +341,28 @@ public class ShapefileDataset implements GeographicDataset
 			 */
 			readDBFHeader(extrasDBFFields);
 
+			m_shapeRecord = new byte[1024];
+			m_coords = new double[256];
+			m_recordBuffer = ByteBuffer.wrap(m_shapeRecord).order(ByteOrder.LITTLE_ENDIAN);
+
+			/*
+			 * Read local files through memory instead of from streams.
+			 */
+			if (new File(shapeFilename).isFile())
+				openMappedFiles(shapeFilename, dbfFilename);
+
 			if (Geometry.overlaps(m_queryExtents, m_extents.getMinX(), m_extents.getMinY(),
 				m_extents.getMaxX(), m_extents.getMaxY()))
 			{
 				m_BytesRead = 0;
 				m_DBFRecord = new byte[m_DBFRecordLength];
+
+				/*
+				 * Use spatial index to find shapes when only part of
+				 * a local shape file is being queried.
+				 */
+				if (!m_queryExtents.contains(m_extents))
+					openIndex(shapeFilename, dbfFilename, buildIndex);
 			}
 			else
 			{
@@ -319,6 +384,157 @@ public class ShapefileDataset implements GeographicDataset
 		}
 	}
 
+	/**
+	 * Map .shp and .dbf files into memory.  Streams used for
+	 * reading file headers are no longer needed and are closed.
+	 * @param shapeFilename name of .shp file.
+	 * @param dbfFilename name of .dbf file.
+	 * @throws IOException if mapping files fails.
+	 */
+	private void openMappedFiles(String shapeFilename, String dbfFilename)
+		throws IOException
+	{
+		m_shapeMappedFile = new MappedFile(new File(shapeFilename));
+		m_shapeStream.close();
+		m_shapeStream = null;
+
+		if (m_DBFStream != null)
+		{
+			if (m_nDBFFieldsToFetch > 0)
+				m_DBFMappedFile = new MappedFile(new File(dbfFilename));
+			m_DBFStream.close();
+			m_DBFStream = null;
+		}
+	}
+
+	/**
+	 * Open spatial index for shape file and find shapes overlapping
+	 * query extents.
+	 * @param shapeFilename name of .shp file.
+	 * @param dbfFilename name of .dbf file.
+	 * @param buildIndex if true, build index if it does not exist or is out of date.
+	 * @throws IOException if reading index fails.
+	 * @throws MapyrusException if shape file cannot be indexed.
+	 */
+	private void openIndex(String shapeFilename, String dbfFilename, boolean buildIndex)
+		throws IOException, MapyrusException
+	{
+		if (m_shapeMappedFile == null)
+			return;
+
+		m_index = ShapefileIndex.open(shapeFilename);
+		if (m_index == null && buildIndex)
+		{
+			try
+			{
+				ShapefileIndex.build(shapeFilename);
+				m_index = ShapefileIndex.open(shapeFilename);
+			}
+			catch (IOException e)
+			{
+				/*
+				 * Cannot write index alongside shape file.
+				 * Continue by reading whole shape file.
+				 */
+			}
+		}
+
+		if (m_index != null)
+		{
+			m_indexHits = m_index.query(m_queryExtents);
+			m_indexHitCounter = 0;
+		}
+	}
+
+	/**
+	 * Read next record from shape file into m_recordBuffer,
+	 * setting m_recordIndex and m_recordLength to position of record contents
+	 * and m_currentDBFRecord to matching record in DBF file.
+	 * @throws IOException if reading shape file fails.
+	 */
+	private void readShapeRecord() throws IOException
+	{
+		if (m_shapeMappedFile != null)
+		{
+			long offset;
+			if (m_indexHits != null)
+			{
+				/*
+				 * Read next shape found in spatial index.
+				 */
+				int position = m_indexHits[m_indexHitCounter++];
+				offset = m_index.getShapeOffset(position);
+				m_currentDBFRecord = m_index.getDBFRecordNumber(position);
+			}
+			else
+			{
+				/*
+				 * Read next shape in file, and find next record
+				 * in DBF file that is not deleted.
+				 */
+				offset = 100 + m_BytesRead;
+				if (m_DBFMappedFile != null)
+				{
+					while (m_DBFRecordCounter < m_nDBFRecords &&
+						m_DBFMappedFile.getByte(m_DBFHeaderLength +
+						(long)m_DBFRecordCounter * m_DBFRecordLength) == DBF_DELETED_RECORD)
+					{
+						m_DBFRecordCounter++;
+					}
+				}
+				m_currentDBFRecord = m_DBFRecordCounter++;
+			}
+
+			/*
+			 * Record length in header is big endian and
+			 * a count of 16 bit words.
+			 */
+			int index = m_shapeMappedFile.locate(offset, 8);
+			m_recordLength = Integer.reverseBytes(m_shapeMappedFile.getBuffer().getInt(index + 4)) * 2;
+			m_recordIndex = m_shapeMappedFile.locate(offset + 8, m_recordLength);
+			m_recordBuffer = m_shapeMappedFile.getBuffer();
+		}
+		else
+		{
+			m_shapeStream.readInt();	/* record number */
+			m_recordLength = m_shapeStream.readInt() * 2;
+			if (m_recordLength > m_shapeRecord.length)
+			{
+				m_shapeRecord = new byte[m_recordLength];
+				m_recordBuffer = ByteBuffer.wrap(m_shapeRecord).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			m_shapeStream.readFully(m_shapeRecord, 0, m_recordLength);
+			m_recordIndex = 0;
+
+			/*
+			 * If user wants any attribute fields then read them for this shape,
+			 * skipping deleted records.
+			 */
+			if (m_nDBFFieldsToFetch > 0)
+			{
+				m_DBFStream.readFully(m_DBFRecord);
+				while (m_DBFRecord[0] == DBF_DELETED_RECORD)
+					m_DBFStream.readFully(m_DBFRecord);
+			}
+		}
+		m_BytesRead += m_recordLength + 8;
+	}
+
+	/**
+	 * Unpack X and Y coordinates from shape record into m_coords array.
+	 * @param index index in m_recordBuffer of first coordinate.
+	 * @param nPoints number of points to unpack.
+	 */
+	private void unpackCoordinates(int index, int nPoints)
+	{
+		if (m_coords.length < nPoints * 2)
+			m_coords = new double[nPoints * 2];
+
+		ByteBuffer buffer = m_recordBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		((Buffer)buffer).position(index);
+		buffer.asDoubleBuffer().get(m_coords, 0, nPoints * 2);
+	}
+
 	/**
 	 * Reads 8 byte little endian long integer value.
 	 * @param f input stream to read from.
@@ -410,7 +626,7 @@ public class ShapefileDataset implements GeographicDataset
 		m_shapeStream.readInt();
 		m_shapeStream.readInt();
 		m_shapeStream.readInt();
-		m_shapeFileLength = m_shapeStream.readInt() * 2 - 100;
+		m_shapeFileLength = (m_shapeStream.readInt() & 0xffffffffL) * 2 - 100;
 		readLittleEndianInt(m_shapeStream);	/* version */
 		m_shapeFileType = readLittleEndianInt(m_shapeStream);
 		xMin = readLittleEndianDouble(m_shapeStream);
@@ -513,7 +729,7 @@ public class ShapefileDataset implements GeographicDataset
 		if (m_DBFStream != null)
 		{
 			m_DBFStream.skipBytes(4);
-			readLittleEndianInt(m_DBFStream);	/* number of DBF records */
+			m_nDBFRecords = readLittleEndianInt(m_DBFStream);
 			headerLength = readLittleEndianShort(m_DBFStream);
 			m_DBFRecordLength = readLittleEndianShort(m_DBFStream);
 			m_DBFStream.skipBytes(20);
@@ -607,6 +823,8 @@ public class ShapefileDataset implements GeographicDataset
 			}
 		}
 
+		m_DBFHeaderLength = headerLength;
+
 		/*
 		 * Leave DBF file at position of first record.
 		 */
@@ -652,313 +870,322 @@ public class ShapefileDataset implements GeographicDataset
 	}
 
 	/**
-	 * Read next shape from shapefile that is inside or crossing the query extents.
-	 * @return true if a row was read.
+	 * Check whether there are more shapes to read for query.
+	 * @return true if there are more shapes to read.
 	 */
-	@Override
-	public Row fetch() throws MapyrusException
+	private boolean hasMoreShapes()
+	{
+		if (m_indexHits != null)
+			return(m_indexHitCounter < m_indexHits.length);
+		return(m_BytesRead < m_shapeFileLength);
+	}
+
+	/**
+	 * Unpack geometry from shape record in m_recordBuffer.
+	 * @return geometry, or null if shape is outside query extents.
+	 * @throws MapyrusException if geometry cannot be unpacked.
+	 */
+	private double []unpackShape() throws MapyrusException
 	{
-		int recordLength;
 		double x, y, lastX, lastY, xMin, yMin, xMax, yMax;
-		double fieldValue;
-		int i, shapeType;
-		int nBytes, nParts, nPoints, partIndex, pathIndex;
-		boolean shapeInExtents = false;
-		Row row;
+		int i, nParts, nPoints, partIndex, pathIndex;
 		double path[] = null;
+		ByteBuffer buffer = m_recordBuffer;
+		int index = m_recordIndex;
 
-		try
+		int shapeType = buffer.getInt(index);
+		index += 4;
+
+		if (shapeType == 0)
 		{
 			/*
-			 * Keep reading until we get a shape inside the extents or we reach
-			 * the end of the file.
+			 * A null shape.
 			 */
-			row = new Row();
-			while (!shapeInExtents && m_BytesRead < m_shapeFileLength)
+			path = Argument.emptyGeometry.getGeometryValue();
+		}
+		else if (m_shapeFileType == POINT || m_shapeFileType == POINT_Z ||
+			m_shapeFileType == POINT_M)
+		{
+			/*
+			 * Read point coordinates, see if they are inside
+			 * query extents.  Skip Z and Measure values for 3D shapes.
+			 */
+			x = buffer.getDouble(index);
+			y = buffer.getDouble(index + 8);
+
+			/*
+			 * Accept points on query boundary rectangle, reject anything outside.
+			 */
+			if (m_queryExtents.outcode(x, y) == 0)
+			{
+				path = new double[5];
+				path[0] = Argument.GEOMETRY_POINT;
+				path[1] = 1;
+				path[2] = Argument.MOVETO;
+				path[3] = x;
+				path[4] = y;
+			}
+		}
+		else if (m_shapeFileType == POLYLINE || m_shapeFileType == POLYGON ||
+			m_shapeFileType == POLYLINE_Z || m_shapeFileType == POLYGON_Z ||
+			m_shapeFileType == POLYLINE_M || m_shapeFileType == POLYGON_M ||
+			m_shapeFileType == MULTIPATCH)
+		{
+			/*
+			 * Read bounding box of polyline or polygon.
+			 * Find if it intersects with query extents.
+			 */
+			xMin = buffer.getDouble(index);
+			yMin = buffer.getDouble(index + 8);
+			xMax = buffer.getDouble(index + 16);
+			yMax = buffer.getDouble(index + 24);
+			index += 4 * 8;
+			if (Geometry.overlaps(m_queryExtents, xMin, yMin, xMax, yMax))
 			{
 				/*
-				 * Read header for next shape.  Convert record length to byte length.
+				 * Read polyline or polygon coordinates.
+				 */
+				nParts = buffer.getInt(index);
+				nPoints = buffer.getInt(index + 4);
+				index += 2 * 4;
+
+				int []parts = new int[nParts];
+				for (i = 0; i < nParts; i++)
+					parts[i] = buffer.getInt(index + i * 4);
+				index += nParts * 4;
+
+				/*
+				 * Skip part type information in multi-patch files.
 				 */
-				m_shapeStream.readInt();	/* record number */
-				recordLength = m_shapeStream.readInt() * 2;
+				if (m_shapeFileType == MULTIPATCH)
+					index += nParts * 4;
 
-				shapeType = readLittleEndianInt(m_shapeStream);
-				nBytes = 4;
+				unpackCoordinates(index, nPoints);
 
-				if (shapeType == 0)
+				path = new double[2 + nParts * 2 + nPoints * 3];
+				int counter = 0;
+				int counterIndex = 0;
+				boolean isPolyline = (m_shapeFileType == POLYLINE ||
+					m_shapeFileType == POLYLINE_M || m_shapeFileType == POLYLINE_Z);
+
+				/*
+				 * Polylines in shape file may be separate LINESTRING geometries.
+				 * Always return a MULTILINESTRING for polylines (even if it is
+				 * only one segment) so geometry type remains consistent.
+				 */
+				if (isPolyline)
 				{
-					/*
-					 * A null shape.
-					 */
-					path = Argument.emptyGeometry.getGeometryValue();
-					shapeInExtents = true;
+					path[0] = Argument.GEOMETRY_MULTILINESTRING;
+					path[1] = nParts;
 				}
-				else if (m_shapeFileType == POINT || m_shapeFileType == POINT_Z ||
-					m_shapeFileType == POINT_M)
+				else
 				{
-					/*
-					 * Read point coordinates, see if they are inside
-					 * query extents.  Skip Z and Measure values for 3D shapes.
-					 */
-					path = new double[5];
-					path[0] = Argument.GEOMETRY_POINT;
-					path[1] = 1;
-					path[2] = Argument.MOVETO;
-					path[3] = readLittleEndianDouble(m_shapeStream);
-					path[4] = readLittleEndianDouble(m_shapeStream);
-					nBytes += 16;
-
-					/*
-					 * Accept points on query boundary rectangle, reject anything outside.
-					 */
-					shapeInExtents = (m_queryExtents.outcode(path[3], path[4]) == 0);
+					path[0] = Argument.GEOMETRY_POLYGON;
 				}
-				else if (m_shapeFileType == POLYLINE || m_shapeFileType == POLYGON ||
-					m_shapeFileType == POLYLINE_Z || m_shapeFileType == POLYGON_Z ||
-					m_shapeFileType == POLYLINE_M || m_shapeFileType == POLYGON_M ||
-					m_shapeFileType == MULTIPATCH)
+
+				partIndex = 0;
+				pathIndex = 2;
+				lastX = lastY = Double.MAX_VALUE;
+				for (i = 0; i < nPoints; i++)
 				{
 					/*
-					 * Read bounding box of polyline or polygon.
-					 * Find if it intersects with query extents.
+					 * Add next coordinates, as either a moveto or lineto.
 					 */
-					xMin = readLittleEndianDouble(m_shapeStream);
-					yMin = readLittleEndianDouble(m_shapeStream);
-					xMax = readLittleEndianDouble(m_shapeStream);
-					yMax = readLittleEndianDouble(m_shapeStream);
-					nBytes += 4 * 8;
-					shapeInExtents = Geometry.overlaps(m_queryExtents, xMin, yMin, xMax, yMax);
-					if (shapeInExtents)
+					x = m_coords[i * 2];
+					y = m_coords[i * 2 + 1];
+					if (partIndex < nParts && parts[partIndex] == i)
 					{
-						/*
-						 * Read polyline or polygon coordinates.
-						 */
-						nParts = readLittleEndianInt(m_shapeStream);
-						nPoints = readLittleEndianInt(m_shapeStream);
-						nBytes += 2 * 4;
-
-						int []parts = new int[nParts];
-						for (i = 0; i < nParts; i++)
-							parts[i] = readLittleEndianInt(m_shapeStream);
-						nBytes += nParts * 4;
-
-						/*
-						 * Skip part type information in multi-patch files.
-						 */
-						if (m_shapeFileType == MULTIPATCH)
-						{
-							m_shapeStream.skipBytes(nParts * 4);
-							nBytes += nParts * 4;
-						}
-						path = new double[2 + nParts * 2 + nPoints * 3];
-						int counter = 0;
-						int counterIndex = 0;
-						boolean isPolyline = (m_shapeFileType == POLYLINE ||
-							m_shapeFileType == POLYLINE_M || m_shapeFileType == POLYLINE_Z);
-
-						/*
-						 * Polylines in shape file may be separate LINESTRING geometries.
-						 * Always return a MULTILINESTRING for polylines (even if it is
-						 * only one segment) so geometry type remains consistent.
-						 */
 						if (isPolyline)
 						{
-							path[0] = Argument.GEOMETRY_MULTILINESTRING;
-							path[1] = nParts;
-						}
-						else
-						{
-							path[0] = Argument.GEOMETRY_POLYGON;
-						}
-
-						partIndex = 0;
-						pathIndex = 2;
-						lastX = lastY = Double.MAX_VALUE;
-						for (i = 0; i < nPoints; i++)
-						{
-							/*
-							 * Add next coordinates, as either a moveto or lineto.
-							 */
-							x = readLittleEndianDouble(m_shapeStream);
-							y = readLittleEndianDouble(m_shapeStream);
-							nBytes += 2 * 8;
-							if (partIndex < nParts && parts[partIndex] == i)
-							{
-								if (isPolyline)
-								{
-									if (partIndex > 0)
-									{
-										/*
-										 * Set number of points in last part, allowing for duplicate
-										 * points that were skipped.
-										 */
-										path[counterIndex] = counter;
-									}
-									counter = 0;
-
-									path[pathIndex] = Argument.GEOMETRY_LINESTRING;
-									counterIndex = pathIndex + 1;
-									pathIndex += 2;
-								}
-								path[pathIndex] = Argument.MOVETO;
-								pathIndex++;
-								partIndex++;
-							}
-							else if (x == lastX && y == lastY)
+							if (partIndex > 0)
 							{
 								/*
-								 * Skip duplicate points.
+								 * Set number of points in last part, allowing for duplicate
+								 * points that were skipped.
 								 */
-								continue;
-							}
-							else
-							{
-								path[pathIndex] = Argument.LINETO;
-								pathIndex++;
+								path[counterIndex] = counter;
 							}
+							counter = 0;
 
-							path[pathIndex] = lastX = x;
-							path[pathIndex + 1] = lastY = y;
+							path[pathIndex] = Argument.GEOMETRY_LINESTRING;
+							counterIndex = pathIndex + 1;
 							pathIndex += 2;
-							counter++;
 						}
-
-						/*
-						 * Finally set number of points polygon or polyline, allowing
-						 * for duplicate points that were skipped.
-						 */
-						if (isPolyline)
-							path[counterIndex] = counter;
-						else
-							path[1] = counter;
+						path[pathIndex] = Argument.MOVETO;
+						pathIndex++;
+						partIndex++;
 					}
-					else
+					else if (x == lastX && y == lastY)
 					{
 						/*
-						 * Shape is outside query extents, skip it.
+						 * Skip duplicate points.
 						 */
+						continue;
 					}
-				}
-				else if (m_shapeFileType == MULTIPOINT || m_shapeFileType == MULTIPOINT_Z ||
-					m_shapeFileType == MULTIPOINT_M)
-				{
-					/*
-					 * Read bounding box of points.
-					 * Find if it intersects with query extents.
-					 */
-					xMin = readLittleEndianDouble(m_shapeStream);
-					yMin = readLittleEndianDouble(m_shapeStream);
-					xMax = readLittleEndianDouble(m_shapeStream);
-					yMax = readLittleEndianDouble(m_shapeStream);
-					nBytes += 4 * 8;
-					shapeInExtents = Geometry.overlaps(m_queryExtents, xMin, yMin, xMax, yMax);
-					if (shapeInExtents)
+					else
 					{
-						nPoints = readLittleEndianInt(m_shapeStream);
-						nBytes += 4;
-
-						/*
-						 * Read each of the points and add them to the path.
-						 */
-						path = new double[nPoints * 5 + 2];
-						path[0] = Argument.GEOMETRY_MULTIPOINT;
-						path[1] = nPoints;
-
-						pathIndex = 2;
-						for (i = 0; i < nPoints; i++)
-						{
-							path[pathIndex] = Argument.GEOMETRY_POINT;
-							path[pathIndex + 1] = 1;
-							path[pathIndex + 2] = Argument.MOVETO;
-							path[pathIndex + 3] = readLittleEndianDouble(m_shapeStream);
-							path[pathIndex + 4] = readLittleEndianDouble(m_shapeStream);
-							pathIndex += 5;
-							nBytes += 16;
-						}
+						path[pathIndex] = Argument.LINETO;
+						pathIndex++;
 					}
+
+					path[pathIndex] = lastX = x;
+					path[pathIndex + 1] = lastY = y;
+					pathIndex += 2;
+					counter++;
 				}
 
 				/*
-				 * Skip until end of this record in shape file.
+				 * Finally set number of points polygon or polyline, allowing
+				 * for duplicate points that were skipped.
 				 */
-				if (nBytes < recordLength)
-					m_shapeStream.skipBytes(recordLength - nBytes);
+				if (isPolyline)
+					path[counterIndex] = counter;
+				else
+					path[1] = counter;
+			}
+		}
+		else if (m_shapeFileType == MULTIPOINT || m_shapeFileType == MULTIPOINT_Z ||
+			m_shapeFileType == MULTIPOINT_M)
+		{
+			/*
+			 * Read bounding box of points.
+			 * Find if it intersects with query extents.
+			 */
+			xMin = buffer.getDouble(index);
+			yMin = buffer.getDouble(index + 8);
+			xMax = buffer.getDouble(index + 16);
+			yMax = buffer.getDouble(index + 24);
+			index += 4 * 8;
+			if (Geometry.overlaps(m_queryExtents, xMin, yMin, xMax, yMax))
+			{
+				nPoints = buffer.getInt(index);
+				index += 4;
+				unpackCoordinates(index, nPoints);
 
-				m_BytesRead += recordLength + 8;
+				/*
+				 * Add each of the points to the path.
+				 */
+				path = new double[nPoints * 5 + 2];
+				path[0] = Argument.GEOMETRY_MULTIPOINT;
+				path[1] = nPoints;
 
+				pathIndex = 2;
+				for (i = 0; i < nPoints; i++)
+				{
+					path[pathIndex] = Argument.GEOMETRY_POINT;
+					path[pathIndex + 1] = 1;
+					path[pathIndex + 2] = Argument.MOVETO;
+					path[pathIndex + 3] = m_coords[i * 2];
+					path[pathIndex + 4] = m_coords[i * 2 + 1];
+					pathIndex += 5;
+				}
+			}
+		}
+		return(path);
+	}
+
+	/**
+	 * Unpack attribute fields that user asked for from DBF record for current shape.
+	 * @param row row to add fields to.
+	 * @throws IOException if reading DBF file fails.
+	 * @throws MapyrusException if a field cannot be unpacked.
+	 */
+	private void unpackDBFFields(Row row) throws IOException, MapyrusException
+	{
+		double fieldValue;
+		long DBFOffset = m_DBFHeaderLength + (long)m_currentDBFRecord * m_DBFRecordLength;
+		int recordOffset = 1;
+
+		for (int i = 0; i < m_DBFFieldTypes.length; i++)
+		{
+			Argument arg = null;
+
+			/*
+			 * Only unpack fields that user asked for.
+			 */
+			if (m_DBFFieldsToFetch.get(i).booleanValue())
+			{
 				/*
-				 * If user wants any attribute fields then read them for this shape.
-				 * Don't bother unpacking them if we are skipping this shape.
+				 * Read only this field from memory mapped DBF file.
 				 */
-				if (m_nDBFFieldsToFetch > 0)
+				if (m_DBFMappedFile != null)
+				{
+					m_DBFMappedFile.get(DBFOffset + recordOffset, m_DBFRecord,
+						recordOffset, m_DBFFieldLengths[i]);
+				}
+
+				if (m_DBFFieldTypes[i] == DBF_CHARACTER ||
+					m_DBFFieldTypes[i] == DBF_DATE)
+				{
+					arg = new Argument(Argument.STRING,
+						unpackString(m_DBFRecord, recordOffset,
+						m_DBFFieldLengths[i]));
+				}
+				else if (m_DBFFieldTypes[i] == DBF_NUMBER ||
+					m_DBFFieldTypes[i] == DBF_FLOATING)
 				{
-					m_DBFStream.read(m_DBFRecord);
-					while (m_DBFRecord[0] == DBF_DELETED_RECORD)
+					String s = unpackString(m_DBFRecord,
+						recordOffset, m_DBFFieldLengths[i]);
+					try
 					{
-						/*
-						 * Skip deleted records.
-						 */
-						m_DBFStream.read(m_DBFRecord);
+						fieldValue = Double.parseDouble(s);
+					}
+					catch (NumberFormatException e)
+					{
+						fieldValue = 0.0;
 					}
+					arg = new Argument(fieldValue);
 				}
-
-				if (shapeInExtents)
+				else if (m_DBFFieldTypes[i] == DBF_LOGICAL)
 				{
-					if (m_nDBFFieldsToFetch > 0)
+					switch ((char)m_DBFRecord[recordOffset])
 					{
-						int recordOffset = 1;
-						for (i = 0; i < m_DBFFieldTypes.length; i++)
-						{
-							Argument arg = null;
+						case 'y':
+						case 'Y':
+						case 'T':
+						case 't':
+							arg = Argument.numericOne;
+							break;
+						default:
+							arg = Argument.numericZero;
+							break;
+					}
+				}
+				row.add(arg);
+			}
 
-							/*
-							 * Only unpack fields that user asked for.
-							 */
-							if (m_DBFFieldsToFetch.get(i).booleanValue())
-							{
-								if (m_DBFFieldTypes[i] == DBF_CHARACTER ||
-									m_DBFFieldTypes[i] == DBF_DATE)
-								{
-									arg = new Argument(Argument.STRING,
-										unpackString(m_DBFRecord, recordOffset,
-										m_DBFFieldLengths[i]));
-								}
-								else if (m_DBFFieldTypes[i] == DBF_NUMBER ||
-									m_DBFFieldTypes[i] == DBF_FLOATING)
-								{
-									String s = unpackString(m_DBFRecord,
-										recordOffset, m_DBFFieldLengths[i]);
-									try
-									{
-										fieldValue = Double.parseDouble(s);
-									}
-									catch (NumberFormatException e)
-									{
-										fieldValue = 0.0;
-									}
-									arg = new Argument(fieldValue);
-								}
-								else if (m_DBFFieldTypes[i] == DBF_LOGICAL)
-								{
-									switch ((char)m_DBFRecord[recordOffset])
-									{
-										case 'y':
-										case 'Y':
-										case 'T':
-										case 't':
-											arg = Argument.numericOne;
-											break;
-										default:
-											arg = Argument.numericZero;
-											break;
-									}
-								}
-								row.add(arg);
-							}
+			recordOffset += m_DBFFieldLengths[i];
+		}
+	}
 
-							recordOffset += m_DBFFieldLengths[i];
-						}
-					}
+	/**
+	 * Read next shape from shapefile that is inside or crossing the query extents.
+	 * @return true if a row was read.
+	 */
+	@Override
+	public Row fetch() throws MapyrusException
+	{
+		Row row = null;
+
+		try
+		{
+			/*
+			 * Keep reading until we get a shape inside the extents or we reach
+			 * the end of the file.
+			 */
+			while (row == null && hasMoreShapes())
+			{
+				readShapeRecord();
+				double []path = unpackShape();
+
+				/*
+				 * Don't bother unpacking attribute fields if we are skipping this shape.
+				 */
+				if (path != null)
+				{
+					row = new Row();
+					if (m_nDBFFieldsToFetch > 0)
+						unpackDBFFields(row);
 
 					/*
 					 * Add geometry as final field.
@@ -975,10 +1202,7 @@ public class ShapefileDataset implements GeographicDataset
 		/*
 		 * Return next row, or null if we did not find one.
 		 */
-		if (shapeInExtents)
-			return(row);
-		else
-			return(null);
+		return(row);
 	}
 
 	/**
@@ -992,7 +1216,10 @@ public class ShapefileDataset implements GeographicDataset
 		 */
 		try
 		{
-			m_shapeStream.close();
+			if (m_shapeStream != null)
+				m_shapeStream.close();
+			if (m_shapeMappedFile != null)
+				m_shapeMappedFile.close();
 		}
 		catch (IOException e)
 		{
@@ -1004,6 +1231,8 @@ public class ShapefileDataset implements GeographicDataset
 			{
 				if (m_DBFStream != null)
 					m_DBFStream.close();
+				if (m_DBFMappedFile != null)
+					m_DBFMappedFile.close();
 			}
 			catch (IOException e)
 			{
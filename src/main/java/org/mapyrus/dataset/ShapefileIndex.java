@@ -0,0 +1,674 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.mapyrus.MapyrusException;
+import org.mapyrus.MapyrusMessages;
+
+/**
+ * Spatial index for an ESRI shape file, stored in a file alongside the
+ * shape file.  Index is a packed R-tree, with shapes sorted by the
+ * Hilbert curve value of the centre of their bounding box so that
+ * shapes that are close together are in the same leaf nodes.
+ *
+ * Each leaf entry holds the record number and byte offset of the shape
+ * in the .shp file (read from the .shx file, if available) and the
+ * matching record number in the .dbf file.
+ */
+public class ShapefileIndex
+{
+	/*
+	 * Magic number and version at start of index file.
+	 */
+	private static final int MAGIC_NUMBER = 0x4D525432;	/* "MRT2" */
+
+	/*
+	 * Maximum number of children of each node in tree.
+	 */
+	private static final int NODE_SIZE = 16;
+
+	/*
+	 * Size of fixed header at start of index file and size of each entry.
+	 */
+	private static final int HEADER_LENGTH = 4 + 8 + 8 + 8 + 4 + 4;
+	private static final int BOX_LENGTH = 4 * 8;
+	private static final int LEAF_LENGTH = 4 + 8 + 4;
+
+	/*
+	 * Order of Hilbert curve used for sorting shapes.  Curve values
+	 * are less than 2^(2 * HILBERT_ORDER) and are combined with a
+	 * shape number in the lower 32 bits of a long sort key, so order
+	 * must be small enough that the sort key is never negative.
+	 */
+	private static final int HILBERT_ORDER = 15;
+
+	/*
+	 * Index file mapped into memory, number of shapes in index,
+	 * number of nodes at each level of tree (root level first) and
+	 * offset in file of bounding boxes at each level.
+	 */
+	private ByteBuffer m_buffer;
+	private int m_nEntries;
+	private int []m_levelCounts;
+	private int []m_levelOffsets;
+	private int m_leafOffset;
+
+	/**
+	 * Get filename of index for a shape file.
+	 * @param shapeFilename name of .shp file.
+	 * @return name of index file.
+	 */
+	public static String getIndexFilename(String shapeFilename)
+	{
+		String base = shapeFilename.substring(0, shapeFilename.length() - 4);
+		if (shapeFilename.endsWith(".SHP"))
+			return(base + ".MRT");
+		return(base + ".mrt");
+	}
+
+	/**
+	 * Get .dbf file for a shape file.
+	 * @param shapeFilename name of .shp file.
+	 * @return .dbf file.
+	 */
+	private static File getDBFFile(String shapeFilename)
+	{
+		String base = shapeFilename.substring(0, shapeFilename.length() - 4);
+		if (shapeFilename.endsWith(".SHP"))
+			return(new File(base + ".DBF"));
+		return(new File(base + ".dbf"));
+	}
+
+	/**
+	 * Open index for a shape file, if one exists and is up to date.
+	 * @param shapeFilename name of .shp file.
+	 * @return index, or null if there is no index or it is older than
+	 * shape file or .dbf file.
+	 * @throws IOException if reading index fails or index file is truncated.
+	 */
+	public static ShapefileIndex open(String shapeFilename) throws IOException
+	{
+		File shapeFile = new File(shapeFilename);
+		File dbfFile = getDBFFile(shapeFilename);
+		File indexFile = new File(getIndexFilename(shapeFilename));
+		if (!(shapeFile.isFile() && indexFile.isFile()))
+			return(null);
+
+		/*
+		 * Index is stale if either the shapes or the records
+		 * in the .dbf file have changed since it was built.
+		 */
+		long indexModified = indexFile.lastModified();
+		if (indexModified < shapeFile.lastModified() || indexModified < dbfFile.lastModified())
+			return(null);
+
+		ShapefileIndex retval = null;
+		try (RandomAccessFile f = new RandomAccessFile(indexFile, "r");
+			FileChannel channel = f.getChannel())
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.capacity() >= HEADER_LENGTH && buffer.getInt(0) == MAGIC_NUMBER &&
+				buffer.getLong(4) == shapeFile.length() &&
+				buffer.getLong(4 + 8 + 8) == dbfFile.length())
+			{
+				retval = new ShapefileIndex(buffer, indexFile);
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Create index from index file mapped into memory.
+	 * @param buffer contents of index file.
+	 * @param indexFile index file, for error messages.
+	 * @throws IOException if length of index file does not match its header.
+	 */
+	private ShapefileIndex(ByteBuffer buffer, File indexFile) throws IOException
+	{
+		m_buffer = buffer;
+		m_nEntries = buffer.getInt(4 + 8 + 8 + 8);
+		int nLevels = buffer.getInt(4 + 8 + 8 + 8 + 4);
+		long capacity = buffer.capacity();
+		if (m_nEntries < 0 || nLevels < 0 || HEADER_LENGTH + nLevels * 4L > capacity)
+			throwInvalidIndex(indexFile);
+
+		m_levelCounts = new int[nLevels];
+		m_levelOffsets = new int[nLevels];
+
+		long offset = HEADER_LENGTH + nLevels * 4L;
+		for (int i = 0; i < nLevels; i++)
+		{
+			m_levelCounts[i] = buffer.getInt(HEADER_LENGTH + i * 4);
+			if (m_levelCounts[i] < 0)
+				throwInvalidIndex(indexFile);
+			m_levelOffsets[i] = (int)Math.min(offset, Integer.MAX_VALUE);
+			offset += (long)m_levelCounts[i] * BOX_LENGTH;
+		}
+		m_leafOffset = (int)Math.min(offset, Integer.MAX_VALUE);
+
+		/*
+		 * Check that file contains exactly the number of bytes
+		 * given in header, so a truncated file is not misread.
+		 */
+		offset += (long)m_nEntries * LEAF_LENGTH;
+		if (offset != capacity)
+			throwInvalidIndex(indexFile);
+	}
+
+	/**
+	 * Throw exception for an index file that cannot be read.
+	 * @param indexFile index file.
+	 * @throws IOException always.
+	 */
+	private static void throwInvalidIndex(File indexFile) throws IOException
+	{
+		throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_SHAPE_INDEX) +
+			": " + indexFile.getPath());
+	}
+
+	/**
+	 * Find all shapes with bounding box overlapping an area.
+	 * @param extents area to search.
+	 * @return positions in index of matching shapes, sorted by record number.
+	 */
+	public int []query(Rectangle2D.Double extents)
+	{
+		int []hits = new int[64];
+		int nHits = 0;
+
+		if (m_nEntries > 0)
+		{
+			/*
+			 * Walk down tree, one level at a time, keeping
+			 * list of nodes at the current level that overlap.
+			 */
+			int []nodes = new int[]{0};
+			int nNodes = 1;
+			for (int level = 0; level < m_levelCounts.length; level++)
+			{
+				int []nextNodes = new int[64];
+				int nNextNodes = 0;
+				boolean isLeafLevel = (level == m_levelCounts.length - 1);
+
+				for (int i = 0; i < nNodes; i++)
+				{
+					int node = nodes[i];
+					if (overlaps(level, node, extents))
+					{
+						if (isLeafLevel)
+						{
+							if (nHits == hits.length)
+								hits = Arrays.copyOf(hits, nHits * 2);
+							hits[nHits++] = node;
+						}
+						else
+						{
+							int firstChild = node * NODE_SIZE;
+							int lastChild = Math.min(firstChild + NODE_SIZE,
+								m_levelCounts[level + 1]);
+							for (int child = firstChild; child < lastChild; child++)
+							{
+								if (nNextNodes == nextNodes.length)
+									nextNodes = Arrays.copyOf(nextNodes, nNextNodes * 2);
+								nextNodes[nNextNodes++] = child;
+							}
+						}
+					}
+				}
+				nodes = nextNodes;
+				nNodes = nNextNodes;
+			}
+		}
+
+		/*
+		 * Return shapes in the same order that they appear in shape file.
+		 */
+		long []sortKeys = new long[nHits];
+		for (int i = 0; i < nHits; i++)
+			sortKeys[i] = ((long)getRecordNumber(hits[i]) << 32) | hits[i];
+		Arrays.sort(sortKeys);
+		int []retval = new int[nHits];
+		for (int i = 0; i < nHits; i++)
+			retval[i] = (int)(sortKeys[i] & 0xffffffffL);
+		return(retval);
+	}
+
+	/**
+	 * Check whether bounding box of a node overlaps an area.
+	 * @param level level in tree.
+	 * @param node node within level.
+	 * @param extents area to check.
+	 * @return true if bounding box overlaps, including touching at boundary.
+	 */
+	private boolean overlaps(int level, int node, Rectangle2D.Double extents)
+	{
+		int offset = m_levelOffsets[level] + node * BOX_LENGTH;
+		double xMin = m_buffer.getDouble(offset);
+		double yMin = m_buffer.getDouble(offset + 8);
+		double xMax = m_buffer.getDouble(offset + 16);
+		double yMax = m_buffer.getDouble(offset + 24);
+		return(xMin <= extents.getMaxX() && xMax >= extents.getMinX() &&
+			yMin <= extents.getMaxY() && yMax >= extents.getMinY());
+	}
+
+	/**
+	 * Get record number of shape in shape file.
+	 * @param position position of shape in index.
+	 * @return record number, with first record numbered zero.
+	 */
+	public int getRecordNumber(int position)
+	{
+		return(m_buffer.getInt(m_leafOffset + position * LEAF_LENGTH));
+	}
+
+	/**
+	 * Get offset of shape in .shp file.
+	 * @param position position of shape in index.
+	 * @return byte offset of start of shape record.
+	 */
+	public long getShapeOffset(int position)
+	{
+		return(m_buffer.getLong(m_leafOffset + position * LEAF_LENGTH + 4));
+	}
+
+	/**
+	 * Get record number of attributes for shape in .dbf file.
+	 * @param position position of shape in index.
+	 * @return record number, with first record numbered zero.
+	 */
+	public int getDBFRecordNumber(int position)
+	{
+		return(m_buffer.getInt(m_leafOffset + position * LEAF_LENGTH + 4 + 8));
+	}
+
+	/**
+	 * Read a little endian int from a buffer.
+	 * @param buf buffer to read from.
+	 * @param offset offset in buffer.
+	 * @return int value.
+	 */
+	private static int getLittleEndianInt(byte []buf, int offset)
+	{
+		return((buf[offset] & 0xff) | ((buf[offset + 1] & 0xff) << 8) |
+			((buf[offset + 2] & 0xff) << 16) | ((buf[offset + 3] & 0xff) << 24));
+	}
+
+	/**
+	 * Read a big endian int from a buffer.
+	 * @param buf buffer to read from.
+	 * @param offset offset in buffer.
+	 * @return int value.
+	 */
+	private static int getBigEndianInt(byte []buf, int offset)
+	{
+		return(((buf[offset] & 0xff) << 24) | ((buf[offset + 1] & 0xff) << 16) |
+			((buf[offset + 2] & 0xff) << 8) | (buf[offset + 3] & 0xff));
+	}
+
+	/**
+	 * Read a little endian double from a buffer.
+	 * @param buf buffer to read from.
+	 * @param offset offset in buffer.
+	 * @return double value.
+	 */
+	private static double getLittleEndianDouble(byte []buf, int offset)
+	{
+		long lo = getLittleEndianInt(buf, offset) & 0xffffffffL;
+		long hi = getLittleEndianInt(buf, offset + 4) & 0xffffffffL;
+		return(Double.longBitsToDouble((hi << 32) | lo));
+	}
+
+	/**
+	 * Calculate position of a point along a Hilbert curve.
+	 * @param x X coordinate in range 0 to (2^HILBERT_ORDER - 1).
+	 * @param y Y coordinate in range 0 to (2^HILBERT_ORDER - 1).
+	 * @return distance along curve.
+	 */
+	private static long hilbertValue(int x, int y)
+	{
+		long d = 0;
+		for (int s = 1 << (HILBERT_ORDER - 1); s > 0; s >>= 1)
+		{
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long)s * s * ((3 * rx) ^ ry);
+
+			/*
+			 * Rotate quadrant.
+			 */
+			if (ry == 0)
+			{
+				if (rx == 1)
+				{
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return(d);
+	}
+
+	/**
+	 * Scale a coordinate into range used for Hilbert curve.
+	 * @param d coordinate.
+	 * @param min minimum coordinate of shape file.
+	 * @param range range of coordinates in shape file.
+	 * @return scaled value.
+	 */
+	private static int scaleToHilbert(double d, double min, double range)
+	{
+		int max = (1 << HILBERT_ORDER) - 1;
+		if (range <= 0 || Double.isNaN(d) || Double.isInfinite(d))
+			return(0);
+		int retval = (int)((d - min) / range * max);
+		return(Math.max(0, Math.min(retval, max)));
+	}
+
+	/**
+	 * Build index for a shape file and write it to a file alongside shape file.
+	 * @param shapeFilename name of .shp file.
+	 * @throws IOException if reading shape file or writing index fails.
+	 * @throws MapyrusException if file is not an ESRI shape file.
+	 */
+	public static void build(String shapeFilename) throws IOException, MapyrusException
+	{
+		String base = shapeFilename.substring(0, shapeFilename.length() - 4);
+		boolean isUpperCase = shapeFilename.endsWith(".SHP");
+		File shapeFile = new File(shapeFilename);
+		File shxFile = new File(base + (isUpperCase ? ".SHX" : ".shx"));
+		File dbfFile = getDBFFile(shapeFilename);
+
+		long shapeFileLength = shapeFile.length();
+		long []offsets = readRecordOffsets(shapeFile, shxFile);
+		int nEntries = offsets.length;
+		int []dbfRecords = readDBFRecordNumbers(dbfFile, nEntries);
+
+		/*
+		 * Read bounding box of each shape.
+		 */
+		double []boxes = new double[nEntries * 4];
+		double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE;
+		double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+		byte []buf = new byte[8 + 4 + BOX_LENGTH];
+		try (RandomAccessFile f = new RandomAccessFile(shapeFile, "r"))
+		{
+			for (int i = 0; i < nEntries; i++)
+			{
+				f.seek(offsets[i]);
+				int nBytes = (int)Math.min(buf.length, shapeFileLength - offsets[i]);
+				f.readFully(buf, 0, nBytes);
+				int shapeType = (nBytes >= 12) ? getLittleEndianInt(buf, 8) : 0;
+				double x1, y1, x2, y2;
+				if (shapeType == 0)
+				{
+					/*
+					 * Null shapes are always fetched, so make them overlap everything.
+					 */
+					x1 = y1 = Double.NEGATIVE_INFINITY;
+					x2 = y2 = Double.POSITIVE_INFINITY;
+				}
+				else if (shapeType == 1 || shapeType == 11 || shapeType == 21)
+				{
+					x1 = x2 = getLittleEndianDouble(buf, 12);
+					y1 = y2 = getLittleEndianDouble(buf, 20);
+				}
+				else
+				{
+					x1 = getLittleEndianDouble(buf, 12);
+					y1 = getLittleEndianDouble(buf, 20);
+					x2 = getLittleEndianDouble(buf, 28);
+					y2 = getLittleEndianDouble(buf, 36);
+				}
+				boxes[i * 4] = x1;
+				boxes[i * 4 + 1] = y1;
+				boxes[i * 4 + 2] = x2;
+				boxes[i * 4 + 3] = y2;
+				if (shapeType != 0)
+				{
+					xMin = Math.min(xMin, x1);
+					yMin = Math.min(yMin, y1);
+					xMax = Math.max(xMax, x2);
+					yMax = Math.max(yMax, y2);
+				}
+			}
+		}
+
+		/*
+		 * Sort shapes by Hilbert value of centre of bounding box.
+		 */
+		long []sortKeys = new long[nEntries];
+		for (int i = 0; i < nEntries; i++)
+		{
+			int hx = scaleToHilbert((boxes[i * 4] + boxes[i * 4 + 2]) / 2, xMin, xMax - xMin);
+			int hy = scaleToHilbert((boxes[i * 4 + 1] + boxes[i * 4 + 3]) / 2, yMin, yMax - yMin);
+			sortKeys[i] = (hilbertValue(hx, hy) << 32) | i;
+		}
+		Arrays.sort(sortKeys);
+		int []order = new int[nEntries];
+		for (int i = 0; i < nEntries; i++)
+			order[i] = (int)(sortKeys[i] & 0xffffffffL);
+
+		/*
+		 * Build tree from the leaves upwards.
+		 */
+		ArrayList<double []> levels = new ArrayList<double []>();
+		double []leafBoxes = new double[nEntries * 4];
+		for (int i = 0; i < nEntries; i++)
+			System.arraycopy(boxes, order[i] * 4, leafBoxes, i * 4, 4);
+		levels.add(0, leafBoxes);
+		double []childBoxes = leafBoxes;
+		while (childBoxes.length > 4)
+		{
+			int nChildren = childBoxes.length / 4;
+			int nNodes = (nChildren + NODE_SIZE - 1) / NODE_SIZE;
+			double []nodeBoxes = new double[nNodes * 4];
+			for (int node = 0; node < nNodes; node++)
+			{
+				double x1 = Double.MAX_VALUE, y1 = Double.MAX_VALUE;
+				double x2 = -Double.MAX_VALUE, y2 = -Double.MAX_VALUE;
+				int lastChild = Math.min((node + 1) * NODE_SIZE, nChildren);
+				for (int child = node * NODE_SIZE; child < lastChild; child++)
+				{
+					x1 = Math.min(x1, childBoxes[child * 4]);
+					y1 = Math.min(y1, childBoxes[child * 4 + 1]);
+					x2 = Math.max(x2, childBoxes[child * 4 + 2]);
+					y2 = Math.max(y2, childBoxes[child * 4 + 3]);
+				}
+				nodeBoxes[node * 4] = x1;
+				nodeBoxes[node * 4 + 1] = y1;
+				nodeBoxes[node * 4 + 2] = x2;
+				nodeBoxes[node * 4 + 3] = y2;
+			}
+			levels.add(0, nodeBoxes);
+			childBoxes = nodeBoxes;
+		}
+
+		/*
+		 * Write index to temporary file, then rename it so that
+		 * other threads or processes never see a partially written index.
+		 */
+		File indexFile = new File(getIndexFilename(shapeFilename));
+		File tempFile = File.createTempFile("mapyrus", ".tmp", indexFile.getAbsoluteFile().getParentFile());
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))))
+			{
+				out.writeInt(MAGIC_NUMBER);
+				out.writeLong(shapeFileLength);
+				out.writeLong(shapeFile.lastModified());
+				out.writeLong(dbfFile.length());
+				out.writeInt(nEntries);
+				out.writeInt(levels.size());
+				for (double []level : levels)
+					out.writeInt(level.length / 4);
+				for (double []level : levels)
+				{
+					for (double d : level)
+						out.writeDouble(d);
+				}
+				for (int i = 0; i < nEntries; i++)
+				{
+					out.writeInt(order[i]);
+					out.writeLong(offsets[order[i]]);
+					out.writeInt(dbfRecords[order[i]]);
+				}
+			}
+			indexFile.delete();
+			if (!tempFile.renameTo(indexFile))
+			{
+				throw new IOException(MapyrusMessages.get(MapyrusMessages.ERROR_FILE) +
+					": " + indexFile.getPath());
+			}
+		}
+		finally
+		{
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Read offset of each record in shape file, from .shx file if
+	 * it exists, or otherwise by scanning record headers in shape file.
+	 * @param shapeFile .shp file.
+	 * @param shxFile .shx file.
+	 * @return byte offset of each record.
+	 * @throws IOException if reading files fails.
+	 * @throws MapyrusException if file is not an ESRI shape file.
+	 */
+	private static long []readRecordOffsets(File shapeFile, File shxFile)
+		throws IOException, MapyrusException
+	{
+		long []offsets;
+		byte []header = new byte[100];
+		if (shxFile.isFile())
+		{
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(shxFile))))
+			{
+				in.readFully(header);
+				checkMagicNumber(header, shxFile);
+				long fileLength = (getBigEndianInt(header, 24) & 0xffffffffL) * 2;
+				int nRecords = (int)((fileLength - header.length) / 8);
+				offsets = new long[nRecords];
+				for (int i = 0; i < nRecords; i++)
+				{
+					offsets[i] = (in.readInt() & 0xffffffffL) * 2;
+					in.readInt();	/* content length */
+				}
+			}
+		}
+		else
+		{
+			offsets = new long[1024];
+			int nRecords = 0;
+			long shapeFileLength = shapeFile.length();
+			try (RandomAccessFile f = new RandomAccessFile(shapeFile, "r"))
+			{
+				f.readFully(header);
+				checkMagicNumber(header, shapeFile);
+				long offset = header.length;
+				while (offset + 8 <= shapeFileLength)
+				{
+					if (nRecords == offsets.length)
+						offsets = Arrays.copyOf(offsets, nRecords * 2);
+					offsets[nRecords++] = offset;
+					f.seek(offset + 4);
+					offset += 8 + (f.readInt() & 0xffffffffL) * 2;
+				}
+			}
+			offsets = Arrays.copyOf(offsets, nRecords);
+		}
+		return(offsets);
+	}
+
+	/**
+	 * Check that header of file has magic number of a shape file.
+	 * @param header first bytes of file.
+	 * @param file file being read.
+	 * @throws MapyrusException if magic number is wrong.
+	 */
+	private static void checkMagicNumber(byte []header, File file) throws MapyrusException
+	{
+		if (getBigEndianInt(header, 0) != 9994)
+		{
+			throw new MapyrusException(file.getPath() + ": " +
+				MapyrusMessages.get(MapyrusMessages.NOT_SHAPE_FILE));
+		}
+	}
+
+	/**
+	 * Find record in .dbf file matching each shape, skipping deleted records.
+	 * @param dbfFile .dbf file.
+	 * @param nShapes number of shapes in shape file.
+	 * @return record number in .dbf file for each shape.
+	 * @throws IOException if reading file fails.
+	 */
+	private static int []readDBFRecordNumbers(File dbfFile, int nShapes) throws IOException
+	{
+		int []retval = new int[nShapes];
+		for (int i = 0; i < nShapes; i++)
+			retval[i] = i;
+
+		if (dbfFile.isFile())
+		{
+			try (RandomAccessFile f = new RandomAccessFile(dbfFile, "r"))
+			{
+				byte []header = new byte[12];
+				f.readFully(header);
+				int nRecords = getLittleEndianInt(header, 4);
+				int headerLength = (header[8] & 0xff) | ((header[9] & 0xff) << 8);
+				int recordLength = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+
+				/*
+				 * Only need to check each record when there are deleted records.
+				 */
+				if (nRecords > nShapes)
+				{
+					int shapeIndex = 0;
+					for (int i = 0; i < nRecords && shapeIndex < nShapes; i++)
+					{
+						f.seek(headerLength + (long)i * recordLength);
+						if (f.read() != '*')
+							retval[shapeIndex++] = i;
+					}
+				}
+			}
+		}
+		return(retval);
+	}
+}
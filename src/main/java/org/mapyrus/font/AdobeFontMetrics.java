@@ -454,6 +454,15 @@ public class AdobeFontMetrics
 		return(m_fontName);
 	}
 
+	/**
+	 * Returns number of characters with metrics in font.
+	 * @return number of characters.
+	 */
+	int getCharacterCount()
+	{
+		return(m_charMetrics.size());
+	}
+
 	/**
 	 * Returns index of first character in font.
 	 * @return index.
@@ -19,11 +19,7 @@
 
 package org.mapyrus.font;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -116,14 +112,9 @@ public class AdobeFontMetricsManager
 		for (int i = 0; i < m_stdFontMetricResources.length; i++)
 		{
 			String res = "org/mapyrus/font/" + m_stdFontMetricResources[i];
-			InputStream inStream =
-				this.getClass().getClassLoader().getResourceAsStream(res);
-
-			try (BufferedReader r = new BufferedReader(new InputStreamReader(inStream)))
-			{
-				AdobeFontMetrics afm = new AdobeFontMetrics(r, res, ISOLatin1EncodedFonts, glyphFilename);
-				m_fontMetrics.put(afm.getFontName(), afm);
-			}
+			AdobeFontMetrics afm = FontFileCache.getAdobeFontMetricsResource(res,
+				ISOLatin1EncodedFonts, glyphFilename);
+			m_fontMetrics.put(afm.getFontName(), afm);
 		}
 
 		/*
@@ -133,12 +124,9 @@ public class AdobeFontMetricsManager
 		while (it.hasNext())
 		{
 			String filename = it.next();
-
-			try (BufferedReader r = new BufferedReader(new FileReader(filename)))
-			{
-				AdobeFontMetrics afm = new AdobeFontMetrics(r, filename, ISOLatin1EncodedFonts, glyphFilename);
-				m_fontMetrics.put(afm.getFontName(), afm);
-			}
+			AdobeFontMetrics afm = FontFileCache.getAdobeFontMetrics(filename,
+				ISOLatin1EncodedFonts, glyphFilename);
+			m_fontMetrics.put(afm.getFontName(), afm);
 		}
 
 		/*
@@ -148,7 +136,7 @@ public class AdobeFontMetricsManager
 		while (it.hasNext())
 		{
 			String filename = it.next();
-			OpenTypeFont otf = new OpenTypeFont(filename);
+			OpenTypeFont otf = FontFileCache.getOpenTypeFont(filename);
 
 			m_otfFontMetrics.put(otf.getPostScriptFontName(), otf);
 			m_otfFontMetrics.put(otf.getFullFontName(), otf);
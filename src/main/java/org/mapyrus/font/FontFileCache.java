@@ -0,0 +1,339 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.font;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.mapyrus.Constants;
+import org.mapyrus.MapyrusException;
+
+/**
+ * Cache of font files that have been read and parsed, shared by all pages
+ * being created.  Font metrics and font definitions are then read only once,
+ * instead of for each page, which is important when running as an HTTP server.
+ * A font file is read again if it is modified.
+ */
+public class FontFileCache
+{
+	/*
+	 * Estimated number of bytes used by each parsed font, in addition
+	 * to the font definitions and character metrics it holds.
+	 */
+	private static final long FONT_OVERHEAD_BYTES = 1024;
+
+	/*
+	 * Estimated number of bytes used by metrics for one character in an AFM file.
+	 */
+	private static final long CHARACTER_METRICS_BYTES = 128;
+
+	/*
+	 * Parsed font, with its estimated size in bytes and the
+	 * modification time and size of the file it was read from.
+	 */
+	private static class CacheEntry
+	{
+		Object m_font;
+		long m_nBytes;
+		String m_filename;
+		long m_lastModified;
+		long m_length;
+		String m_glyphFilename;
+		long m_glyphLastModified;
+
+		CacheEntry(Object font, long nBytes, String filename, String glyphFilename)
+		{
+			m_font = font;
+			m_nBytes = nBytes;
+			m_filename = filename;
+			if (filename != null)
+			{
+				File f = new File(filename);
+				m_lastModified = f.lastModified();
+				m_length = f.length();
+			}
+			m_glyphFilename = glyphFilename;
+			if (glyphFilename != null)
+				m_glyphLastModified = new File(glyphFilename).lastModified();
+		}
+
+		/*
+		 * Check whether files that font was read from have been modified.
+		 */
+		boolean isModified()
+		{
+			boolean retval = false;
+			if (m_filename != null)
+			{
+				File f = new File(m_filename);
+				retval = (f.lastModified() != m_lastModified || f.length() != m_length);
+			}
+			if (m_glyphFilename != null && !retval)
+				retval = (new File(m_glyphFilename).lastModified() != m_glyphLastModified);
+			return(retval);
+		}
+	}
+
+	private static LinkedHashMap<String, CacheEntry> m_cache =
+		new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private static long m_maxBytes = getDefaultMaxBytes();
+	private static long m_nBytes = 0;
+
+	/**
+	 * Get maximum size of cache, set by a Java property in megabytes,
+	 * or default size of one sixteenth of the Java heap.
+	 * @return maximum size in bytes.
+	 */
+	private static long getDefaultMaxBytes()
+	{
+		long retval = Runtime.getRuntime().maxMemory() / 16;
+		String property = System.getProperty(Constants.PROGRAM_NAME + ".fontcache.size");
+		if (property != null)
+		{
+			try
+			{
+				retval = Long.parseLong(property) * 1024 * 1024;
+			}
+			catch (NumberFormatException e)
+			{
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Estimate number of bytes of memory used by a parsed font.
+	 * @param font parsed font.
+	 * @param filename file font was read from, or null for a Java resource.
+	 * @return estimated size in bytes.
+	 */
+	private static long getFontSize(Object font, String filename)
+	{
+		long retval = FONT_OVERHEAD_BYTES;
+		if (font instanceof PostScriptFont)
+		{
+			/*
+			 * Each character of a Java string is two bytes.
+			 */
+			retval += ((PostScriptFont)font).getFontDefinitionLength() * 2;
+		}
+		else if (font instanceof OpenTypeFont)
+		{
+			retval += ((OpenTypeFont)font).getFontDefinitionLength() * 2;
+		}
+		else if (font instanceof AdobeFontMetrics)
+		{
+			retval += ((AdobeFontMetrics)font).getCharacterCount() * CHARACTER_METRICS_BYTES;
+		}
+		else if (filename != null)
+		{
+			retval += new File(filename).length();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get parsed font from cache.
+	 * @param key key for font.
+	 * @return font, or null if font is not in cache or has been modified since it was read.
+	 */
+	private static synchronized Object get(String key)
+	{
+		Object retval = null;
+		CacheEntry entry = m_cache.get(key);
+		if (entry != null)
+		{
+			if (entry.isModified())
+			{
+				m_cache.remove(key);
+				m_nBytes -= entry.m_nBytes;
+			}
+			else
+				retval = entry.m_font;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Add parsed font to cache, removing least recently used fonts
+	 * if cache becomes too large.  Fonts larger than a quarter of the
+	 * cache size are not added.
+	 * @param key key for font.
+	 * @param font parsed font.
+	 * @param filename file font was read from, or null for a Java resource.
+	 * @param glyphFilename glyph file used when reading font, or null.
+	 */
+	private static synchronized void put(String key, Object font,
+		String filename, String glyphFilename)
+	{
+		long nBytes = getFontSize(font, filename);
+		if (nBytes <= m_maxBytes / 4)
+		{
+			CacheEntry entry = m_cache.put(key, new CacheEntry(font, nBytes, filename, glyphFilename));
+			if (entry != null)
+				m_nBytes -= entry.m_nBytes;
+			m_nBytes += nBytes;
+
+			Iterator<Map.Entry<String, CacheEntry>> it = m_cache.entrySet().iterator();
+			while (m_nBytes > m_maxBytes && it.hasNext())
+			{
+				entry = it.next().getValue();
+				it.remove();
+				m_nBytes -= entry.m_nBytes;
+			}
+		}
+	}
+
+	/*
+	 * Create part of key for font metrics from the fonts using ISO Latin1 encoding.
+	 */
+	private static String getEncodingKey(HashSet<String> ISOLatin1EncodedFonts,
+		String glyphFilename)
+	{
+		return(new TreeSet<String>(ISOLatin1EncodedFonts).toString() + "|" + glyphFilename);
+	}
+
+	/**
+	 * Get font metrics for a font from an AFM file.
+	 * @param afmFilename name of AFM file.
+	 * @param ISOLatin1EncodedFonts names of fonts for which to use ISO Latin1 encoding.
+	 * @param glyphFilename optional Adobe Glyph List filename.
+	 * @return font metrics.
+	 * @throws IOException if AFM file or glyph file cannot be read.
+	 * @throws MapyrusException if AFM file or glyph file have wrong format.
+	 */
+	public static AdobeFontMetrics getAdobeFontMetrics(String afmFilename,
+		HashSet<String> ISOLatin1EncodedFonts, String glyphFilename)
+		throws IOException, MapyrusException
+	{
+		String key = "afm|" + afmFilename + "|" +
+			getEncodingKey(ISOLatin1EncodedFonts, glyphFilename);
+		AdobeFontMetrics retval = (AdobeFontMetrics)get(key);
+		if (retval == null)
+		{
+			try (BufferedReader r = new BufferedReader(new FileReader(afmFilename)))
+			{
+				retval = new AdobeFontMetrics(r, afmFilename, ISOLatin1EncodedFonts, glyphFilename);
+			}
+			put(key, retval, afmFilename, glyphFilename);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get font metrics for a font from an AFM file included as a Java resource.
+	 * @param resourceName name of AFM resource.
+	 * @param ISOLatin1EncodedFonts names of fonts for which to use ISO Latin1 encoding.
+	 * @param glyphFilename optional Adobe Glyph List filename.
+	 * @return font metrics.
+	 * @throws IOException if AFM resource or glyph file cannot be read.
+	 * @throws MapyrusException if AFM resource or glyph file have wrong format.
+	 */
+	public static AdobeFontMetrics getAdobeFontMetricsResource(String resourceName,
+		HashSet<String> ISOLatin1EncodedFonts, String glyphFilename)
+		throws IOException, MapyrusException
+	{
+		String key = "res|" + resourceName + "|" +
+			getEncodingKey(ISOLatin1EncodedFonts, glyphFilename);
+		AdobeFontMetrics retval = (AdobeFontMetrics)get(key);
+		if (retval == null)
+		{
+			InputStream inStream =
+				FontFileCache.class.getClassLoader().getResourceAsStream(resourceName);
+
+			try (BufferedReader r = new BufferedReader(new InputStreamReader(inStream)))
+			{
+				retval = new AdobeFontMetrics(r, resourceName, ISOLatin1EncodedFonts, glyphFilename);
+			}
+			put(key, retval, null, glyphFilename);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get OpenType font from an .otf file.
+	 * @param otfFilename name of .otf file.
+	 * @return OpenType font.
+	 * @throws IOException if font file cannot be read.
+	 * @throws MapyrusException if font file has wrong format.
+	 */
+	public static OpenTypeFont getOpenTypeFont(String otfFilename)
+		throws IOException, MapyrusException
+	{
+		String key = "otf|" + otfFilename;
+		OpenTypeFont retval = (OpenTypeFont)get(key);
+		if (retval == null)
+		{
+			retval = new OpenTypeFont(otfFilename);
+			put(key, retval, otfFilename, null);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get TrueType font from a .ttf file.
+	 * @param ttfFilename name of .ttf file.
+	 * @return TrueType font.
+	 * @throws IOException if font file cannot be read.
+	 * @throws MapyrusException if font file has wrong format.
+	 */
+	public static TrueTypeFont getTrueTypeFont(String ttfFilename)
+		throws IOException, MapyrusException
+	{
+		String key = "ttf|" + ttfFilename;
+		TrueTypeFont retval = (TrueTypeFont)get(key);
+		if (retval == null)
+		{
+			retval = new TrueTypeFont(ttfFilename);
+			put(key, retval, ttfFilename, null);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get PostScript Type 1 font from a .pfa or .pfb file.
+	 * @param filename name of .pfa or .pfb file.
+	 * @param isBinary true if file is to be parsed as binary file.
+	 * @return PostScript font.
+	 * @throws IOException if font file cannot be read.
+	 * @throws MapyrusException if font file has wrong format.
+	 */
+	public static PostScriptFont getPostScriptFont(String filename, boolean isBinary)
+		throws IOException, MapyrusException
+	{
+		String key = (isBinary ? "pfb|" : "pfa|") + filename;
+		PostScriptFont retval = (PostScriptFont)get(key);
+		if (retval == null)
+		{
+			retval = new PostScriptFont(filename, isBinary);
+			put(key, retval, filename, null);
+		}
+		return(retval);
+	}
+}
@@ -86,6 +86,11 @@ public class OpenTypeFont
 	private int []m_hMetrics;
 	private HashMap<Integer, Integer> m_glyphIndexes;
 
+	/*
+	 * Definition of font for inclusion in PDF file, created when first needed.
+	 */
+	private String m_fontDefinition;
+
 	/**
 	 * Pointer to a table in the OpenType file from the header at the start of the file.
 	 */
@@ -677,8 +682,14 @@ public class OpenTypeFont
 	 * @return font definition.
 	 * @throws IOException if font file cannot be read.
 	 */
-	public String getFontDefinition() throws IOException
+	public synchronized String getFontDefinition() throws IOException
 	{
+		/*
+		 * Font definition is the same each time, so only create it once.
+		 */
+		if (m_fontDefinition != null)
+			return(m_fontDefinition);
+
 		StringBuffer sb = new StringBuffer();
 
 		TableRecord tableRecord;
@@ -727,7 +738,31 @@ public class OpenTypeFont
 			sb.append("endstream");
 		}
 
-		return sb.toString();
+		m_fontDefinition = sb.toString();
+		return(m_fontDefinition);
+	}
+
+	/**
+	 * Return length of definition of font, estimated from the size of
+	 * the font table if the definition has not been created yet.
+	 * @return number of characters in font definition.
+	 */
+	synchronized long getFontDefinitionLength()
+	{
+		long retval;
+		if (m_fontDefinition != null)
+		{
+			retval = m_fontDefinition.length();
+		}
+		else
+		{
+			/*
+			 * ASCII85 encoding writes 5 characters for every 4 bytes.
+			 */
+			TableRecord tableRecord = (m_CIDFontType == 2) ? m_glyfTableRecord : m_CFFTableRecord;
+			retval = (tableRecord != null) ? tableRecord.length * 5 / 4 + 200 : 0;
+		}
+		return(retval);
 	}
 
 	/**
@@ -293,4 +293,13 @@ public class PostScriptFont
 	{
 		return(m_fileContents.toString());
 	}
+
+	/**
+	 * Return length of definition of font.
+	 * @return number of characters in font definition.
+	 */
+	int getFontDefinitionLength()
+	{
+		return(m_fileContents.length());
+	}
 }
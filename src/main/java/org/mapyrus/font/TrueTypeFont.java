@@ -42,6 +42,11 @@ public class TrueTypeFont
 	 */
 	private String m_filename;
 
+	/*
+	 * Font read from file.
+	 */
+	private Font m_font;
+
 	/**
 	 * Create TrueType 1 font from a .ttf file.
 	 * @param filename name of .ttf file.
@@ -58,12 +63,20 @@ public class TrueTypeFont
 				": " + filename);
 
 		m_filename = filename;
-		Font f = getFont();
+		try (FileInputStream f = new FileInputStream(m_filename))
+		{
+			m_font = Font.createFont(Font.TRUETYPE_FONT, f);
+		}
+		catch (FontFormatException e)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_TTF_FILE) +
+				": " + m_filename);
+		}
 
 		/*
 		 * Use PostScript name for this font so we have a name without spaces.
 		 */
-		m_fontName = f.getPSName();
+		m_fontName = m_font.getPSName();
 	}
 
 	/**
@@ -89,19 +102,9 @@ public class TrueTypeFont
 	 * Return definition of font read from .ttf file that can be used
 	 * to derive font of any size.
 	 * @return font definition.
-	 * @throws IOException if font file cannot be read.
-	 * @throws MapyrusException if font file has wrong format.
 	 */
-	public Font getFont() throws IOException, MapyrusException
+	public Font getFont()
 	{
-		try (FileInputStream f = new FileInputStream(m_filename))
-		{
-			return Font.createFont(Font.TRUETYPE_FONT, f);
-		}
-		catch (FontFormatException e)
-		{
-			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_TTF_FILE) +
-				": " + m_filename);
-		}
+		return(m_font);
 	}
 }
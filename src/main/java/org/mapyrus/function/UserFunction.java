@@ -27,6 +27,7 @@ import org.mapyrus.ContextStack;
 import org.mapyrus.Interpreter;
 import org.mapyrus.MapyrusException;
 import org.mapyrus.Statement;
+import org.mapyrus.VariableSlots;
 
 /**
  * A function defined by the user to do whatever they want.
@@ -36,6 +37,7 @@ public class UserFunction implements Function
 	private String m_funcName;
 	private ArrayList<String> m_formalParameters;
 	private ArrayList<Statement> m_statements;
+	private VariableSlots m_variableSlots;
 	private Interpreter m_interpreter;
 
 	/**
@@ -63,14 +65,13 @@ public class UserFunction implements Function
 
 		try
 		{
-			context.saveState(m_funcName);
+			context.saveState(m_funcName, m_variableSlots);
 			savedState = true;
 			for (int i = 0; i < args.size(); i++)
 			{
 				String parameterName = m_formalParameters.get(i);
-				context.setLocalScope(parameterName);
 				Argument arg = args.get(i);
-				context.defineVariable(parameterName, arg);
+				context.defineParameter(i, parameterName, arg);
 			}
 		
 			/*
@@ -145,10 +146,12 @@ public class UserFunction implements Function
 	/**
 	 * Set statements to execute for this function.
 	 * @param statements statements to execute.
+	 * @param variableSlots slots for parameters and local variables of function.
 	 */
-	public void setStatements(ArrayList<Statement> statements)
+	public void setStatements(ArrayList<Statement> statements, VariableSlots variableSlots)
 	{
 		m_statements = statements;
+		m_variableSlots = variableSlots;
 	}
 
 	/**
@@ -160,6 +163,7 @@ public class UserFunction implements Function
 	{
 		UserFunction retval = new UserFunction(m_funcName, m_formalParameters,
 			m_statements, interpreter);
+		retval.m_variableSlots = m_variableSlots;
 		return(retval);
 	}
 }
@@ -0,0 +1,296 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.geom;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+import org.mapyrus.Argument;
+
+/**
+ * Implements the well-known Douglas-Peucker algorithm for simplifying
+ * lines and polygons by removing points that are closer than a tolerance
+ * distance to the simplified line.  Lines and polygon rings lying
+ * completely outside a rectangle are removed too.
+ */
+public class DouglasPeucker
+{
+	private double []m_coords;
+	private int m_index;
+	private double []m_simplified;
+	private int m_simplifiedIndex;
+	private double m_toleranceSquared;
+	private Rectangle2D m_bounds;
+
+	/**
+	 * Create new simplification of geometry.
+	 * @param coords geometry array to simplify.
+	 * @param tolerance tolerance distance.
+	 * @param bounds rectangle to keep lines and polygons inside, or null.
+	 */
+	private DouglasPeucker(double []coords, double tolerance, Rectangle2D bounds)
+	{
+		m_coords = coords;
+		m_index = 0;
+		m_simplified = new double[coords.length];
+		m_simplifiedIndex = 0;
+		m_toleranceSquared = tolerance * tolerance;
+		m_bounds = bounds;
+	}
+
+	/**
+	 * Simplify a geometry.
+	 * @param coords geometry array to simplify.
+	 * @param tolerance points closer than this distance to simplified line are removed.
+	 * @param bounds lines and polygon rings completely outside this rectangle
+	 * are removed, or null to keep all lines and polygon rings.
+	 * @return simplified geometry array.
+	 */
+	public static double []simplify(double []coords, double tolerance, Rectangle2D bounds)
+	{
+		DouglasPeucker dp = new DouglasPeucker(coords, tolerance, bounds);
+		dp.simplifyGeometry();
+		return(Arrays.copyOf(dp.m_simplified, dp.m_simplifiedIndex));
+	}
+
+	/**
+	 * Walk through geometry, simplifying each part of it.
+	 * @return number of points or geometries in simplified geometry.
+	 */
+	private int simplifyGeometry()
+	{
+		int geometryType = (int)m_coords[m_index];
+		int nCoords = (int)m_coords[m_index + 1];
+		int nSimplified = 0;
+		int headerIndex = m_simplifiedIndex;
+
+		m_simplified[m_simplifiedIndex] = geometryType;
+		m_index += 2;
+		m_simplifiedIndex += 2;
+
+		switch (geometryType)
+		{
+			case Argument.GEOMETRY_POINT:
+				/*
+				 * Keep points, a symbol drawn at a point may extend
+				 * into the rectangle.
+				 */
+				System.arraycopy(m_coords, m_index, m_simplified, m_simplifiedIndex, nCoords * 3);
+				m_index += nCoords * 3;
+				m_simplifiedIndex += nCoords * 3;
+				nSimplified = nCoords;
+				break;
+			case Argument.GEOMETRY_LINESTRING:
+			case Argument.GEOMETRY_POLYGON:
+				/*
+				 * Simplify each line or polygon ring separately.
+				 */
+				int i = 0;
+				while (i < nCoords)
+				{
+					int nPts = 1;
+					while (i + nPts < nCoords && m_coords[m_index + nPts * 3] != Argument.MOVETO)
+						nPts++;
+					nSimplified += simplifyPart(nPts, geometryType == Argument.GEOMETRY_POLYGON);
+					m_index += nPts * 3;
+					i += nPts;
+				}
+				break;
+			case Argument.GEOMETRY_MULTIPOINT:
+			case Argument.GEOMETRY_MULTILINESTRING:
+			case Argument.GEOMETRY_MULTIPOLYGON:
+			case Argument.GEOMETRY_COLLECTION:
+				for (int j = 0; j < nCoords; j++)
+				{
+					/*
+					 * Drop any geometries that were removed completely.
+					 */
+					int geometryIndex = m_simplifiedIndex;
+					if (simplifyGeometry() > 0)
+						nSimplified++;
+					else
+						m_simplifiedIndex = geometryIndex;
+				}
+				break;
+		}
+		m_simplified[headerIndex + 1] = nSimplified;
+		return(nSimplified);
+	}
+
+	/**
+	 * Simplify a single line or polygon ring.
+	 * @param nPts number of points in line or ring.
+	 * @param isRing true if points are a polygon ring.
+	 * @return number of points in simplified line or ring.
+	 */
+	private int simplifyPart(int nPts, boolean isRing)
+	{
+		int nKept = 0;
+
+		if (isInsideBounds(nPts))
+		{
+			boolean []keep = new boolean[nPts];
+			keep[0] = keep[nPts - 1] = true;
+
+			/*
+			 * Keep the point furthest from the line joining the
+			 * first and last points, then repeat for the two halves
+			 * either side of that point, until all remaining points
+			 * are within tolerance.
+			 */
+			int []stack = new int[nPts * 2];
+			int stackSize = 0;
+			if (nPts > 2)
+			{
+				stack[stackSize++] = 0;
+				stack[stackSize++] = nPts - 1;
+			}
+			while (stackSize > 0)
+			{
+				int last = stack[--stackSize];
+				int first = stack[--stackSize];
+				int furthest = -1;
+				double furthestDistance = m_toleranceSquared;
+				for (int i = first + 1; i < last; i++)
+				{
+					double d = distanceSquared(i, first, last);
+					if (d > furthestDistance)
+					{
+						furthest = i;
+						furthestDistance = d;
+					}
+				}
+				if (furthest >= 0)
+				{
+					keep[furthest] = true;
+					if (furthest - first > 1)
+					{
+						stack[stackSize++] = first;
+						stack[stackSize++] = furthest;
+					}
+					if (last - furthest > 1)
+					{
+						stack[stackSize++] = furthest;
+						stack[stackSize++] = last;
+					}
+				}
+			}
+
+			for (int i = 0; i < nPts; i++)
+			{
+				if (keep[i])
+					nKept++;
+			}
+
+			/*
+			 * A polygon ring that collapses to a line is too small to see.
+			 */
+			if (isRing && nKept < 4 && nPts >= 4)
+				nKept = 0;
+
+			int j = m_simplifiedIndex;
+			for (int i = 0; i < nPts && nKept > 0; i++)
+			{
+				if (keep[i])
+				{
+					m_simplified[j] = (i == 0) ? m_coords[m_index] : Argument.LINETO;
+					m_simplified[j + 1] = m_coords[m_index + i * 3 + 1];
+					m_simplified[j + 2] = m_coords[m_index + i * 3 + 2];
+					j += 3;
+				}
+			}
+			m_simplifiedIndex = j;
+		}
+		return(nKept);
+	}
+
+	/**
+	 * Check whether a line or polygon ring overlaps bounding rectangle.
+	 * @param nPts number of points in line or ring.
+	 * @return true if line or ring is not completely outside bounding rectangle.
+	 */
+	private boolean isInsideBounds(int nPts)
+	{
+		boolean retval = true;
+
+		if (m_bounds != null && nPts > 1)
+		{
+			double xMin = m_coords[m_index + 1];
+			double yMin = m_coords[m_index + 2];
+			double xMax = xMin;
+			double yMax = yMin;
+			for (int i = 1; i < nPts; i++)
+			{
+				double x = m_coords[m_index + i * 3 + 1];
+				double y = m_coords[m_index + i * 3 + 2];
+				if (x < xMin)
+					xMin = x;
+				else if (x > xMax)
+					xMax = x;
+				if (y < yMin)
+					yMin = y;
+				else if (y > yMax)
+					yMax = y;
+			}
+			retval = (xMax >= m_bounds.getMinX() && xMin <= m_bounds.getMaxX() &&
+				yMax >= m_bounds.getMinY() && yMin <= m_bounds.getMaxY());
+		}
+		return(retval);
+	}
+
+	/**
+	 * Calculate squared distance from a point to a line segment.
+	 * @param i index of point in current line or ring.
+	 * @param first index of start point of line segment.
+	 * @param last index of end point of line segment.
+	 * @return squared distance.
+	 */
+	private double distanceSquared(int i, int first, int last)
+	{
+		double x = m_coords[m_index + i * 3 + 1];
+		double y = m_coords[m_index + i * 3 + 2];
+		double x1 = m_coords[m_index + first * 3 + 1];
+		double y1 = m_coords[m_index + first * 3 + 2];
+		double x2 = m_coords[m_index + last * 3 + 1];
+		double y2 = m_coords[m_index + last * 3 + 2];
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double lengthSquared = dx * dx + dy * dy;
+
+		/*
+		 * Find nearest point on line segment.
+		 */
+		if (lengthSquared > 0)
+		{
+			double t = ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+			if (t > 1)
+			{
+				x1 = x2;
+				y1 = y2;
+			}
+			else if (t > 0)
+			{
+				x1 += t * dx;
+				y1 += t * dy;
+			}
+		}
+		return((x - x1) * (x - x1) + (y - y1) * (y - y1));
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.geom;
+
+import java.awt.Shape;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.PriorityQueue;
+
+/**
+ * Calculates the pole of inaccessibility of a polygon: the point inside
+ * the polygon that is furthest from the polygon perimeter.
+ *
+ * The polygon is covered with square cells that are subdivided, best cells
+ * first, until no cell can contain a point more than a given precision
+ * further from the perimeter than the best point found so far.
+ * The polygon segments are held in flat arrays so that distance
+ * calculations run in a tight loop.
+ */
+public class PoleOfInaccessibility
+{
+	/*
+	 * Largest number of cells to check, limiting time spent on very complex polygons.
+	 */
+	private static final int MAX_CELLS = 100000;
+
+	/*
+	 * Start and end points of each polygon segment.
+	 */
+	private double []m_x1;
+	private double []m_y1;
+	private double []m_x2;
+	private double []m_y2;
+	private int m_nSegments;
+	private boolean m_isEvenOdd;
+
+	/*
+	 * Square cell covering part of polygon.
+	 */
+	private static class Cell implements Comparable<Cell>
+	{
+		double m_x;
+		double m_y;
+		double m_halfSize;
+		double m_distance;
+		double m_maxDistance;
+
+		/**
+		 * Create new cell.
+		 * @param x X coordinate of cell centre.
+		 * @param y Y coordinate of cell centre.
+		 * @param halfSize half of cell width.
+		 * @param distance signed distance from cell centre to polygon perimeter.
+		 */
+		Cell(double x, double y, double halfSize, double distance)
+		{
+			m_x = x;
+			m_y = y;
+			m_halfSize = halfSize;
+			m_distance = distance;
+			m_maxDistance = distance + halfSize * Math.sqrt(2);
+		}
+
+		/**
+		 * Order cells so that cell that could contain furthest point is first.
+		 */
+		@Override
+		public int compareTo(Cell c)
+		{
+			return(Double.compare(c.m_maxDistance, m_maxDistance));
+		}
+	}
+
+	/**
+	 * Create polygon segments for a shape.
+	 * @param s polygon.
+	 */
+	private PoleOfInaccessibility(Shape s)
+	{
+		m_x1 = new double[64];
+		m_y1 = new double[64];
+		m_x2 = new double[64];
+		m_y2 = new double[64];
+		m_nSegments = 0;
+
+		PathIterator pi = new FlatteningPathIterator(s.getPathIterator(null), 0.1);
+		m_isEvenOdd = (pi.getWindingRule() == PathIterator.WIND_EVEN_ODD);
+		double coords[] = new double[6];
+		double moveX = 0, moveY = 0, lastX = 0, lastY = 0;
+		while (!pi.isDone())
+		{
+			int segmentType = pi.currentSegment(coords);
+			if (segmentType == PathIterator.SEG_MOVETO)
+			{
+				if (lastX != moveX || lastY != moveY)
+					addSegment(lastX, lastY, moveX, moveY);
+				moveX = lastX = coords[0];
+				moveY = lastY = coords[1];
+			}
+			else if (segmentType == PathIterator.SEG_LINETO)
+			{
+				addSegment(lastX, lastY, coords[0], coords[1]);
+				lastX = coords[0];
+				lastY = coords[1];
+			}
+			else if (segmentType == PathIterator.SEG_CLOSE)
+			{
+				if (lastX != moveX || lastY != moveY)
+					addSegment(lastX, lastY, moveX, moveY);
+				lastX = moveX;
+				lastY = moveY;
+			}
+			pi.next();
+		}
+
+		/*
+		 * Polygons are always closed, even without a closing segment.
+		 */
+		if (lastX != moveX || lastY != moveY)
+			addSegment(lastX, lastY, moveX, moveY);
+	}
+
+	/**
+	 * Add segment to polygon.
+	 * @param x1 X coordinate of segment start.
+	 * @param y1 Y coordinate of segment start.
+	 * @param x2 X coordinate of segment end.
+	 * @param y2 Y coordinate of segment end.
+	 */
+	private void addSegment(double x1, double y1, double x2, double y2)
+	{
+		if (m_nSegments == m_x1.length)
+		{
+			int newLength = m_nSegments * 2;
+			double []newX1 = new double[newLength];
+			double []newY1 = new double[newLength];
+			double []newX2 = new double[newLength];
+			double []newY2 = new double[newLength];
+			System.arraycopy(m_x1, 0, newX1, 0, m_nSegments);
+			System.arraycopy(m_y1, 0, newY1, 0, m_nSegments);
+			System.arraycopy(m_x2, 0, newX2, 0, m_nSegments);
+			System.arraycopy(m_y2, 0, newY2, 0, m_nSegments);
+			m_x1 = newX1;
+			m_y1 = newY1;
+			m_x2 = newX2;
+			m_y2 = newY2;
+		}
+		m_x1[m_nSegments] = x1;
+		m_y1[m_nSegments] = y1;
+		m_x2[m_nSegments] = x2;
+		m_y2[m_nSegments] = y2;
+		m_nSegments++;
+	}
+
+	/**
+	 * Calculate signed distance from a point to polygon perimeter.
+	 * @param px X coordinate of point.
+	 * @param py Y coordinate of point.
+	 * @return distance to perimeter, positive if point is inside polygon,
+	 * negative if point is outside polygon.
+	 */
+	private double getSignedDistance(double px, double py)
+	{
+		double []x1 = m_x1, y1 = m_y1, x2 = m_x2, y2 = m_y2;
+		double minDistSquared = Double.MAX_VALUE;
+		int winding = 0;
+		int nSegments = m_nSegments;
+
+		for (int i = 0; i < nSegments; i++)
+		{
+			double ax = x1[i], ay = y1[i], bx = x2[i], by = y2[i];
+
+			/*
+			 * Count crossings of ray from point in positive X direction.
+			 */
+			if ((ay > py) != (by > py))
+			{
+				double crossX = ax + (py - ay) * (bx - ax) / (by - ay);
+				if (crossX > px)
+					winding += (by > ay) ? 1 : -1;
+			}
+
+			/*
+			 * Find squared distance to closest point on segment.
+			 */
+			double dx = bx - ax, dy = by - ay;
+			double ex = px - ax, ey = py - ay;
+			double lenSquared = dx * dx + dy * dy;
+			if (lenSquared > 0)
+			{
+				double t = (ex * dx + ey * dy) / lenSquared;
+				if (t > 1)
+				{
+					ex = px - bx;
+					ey = py - by;
+				}
+				else if (t > 0)
+				{
+					ex -= t * dx;
+					ey -= t * dy;
+				}
+			}
+			double distSquared = ex * ex + ey * ey;
+			if (distSquared < minDistSquared)
+				minDistSquared = distSquared;
+		}
+
+		boolean isInside = m_isEvenOdd ? ((winding & 1) != 0) : (winding != 0);
+		double distance = Math.sqrt(minDistSquared);
+		return(isInside ? distance : -distance);
+	}
+
+	/**
+	 * Calculate centroid of polygon segments.
+	 * @return centroid, or null if polygon has no area.
+	 */
+	private Point2D getCentroid()
+	{
+		double area = 0, cx = 0, cy = 0;
+		for (int i = 0; i < m_nSegments; i++)
+		{
+			double f = m_x1[i] * m_y2[i] - m_x2[i] * m_y1[i];
+			cx += (m_x1[i] + m_x2[i]) * f;
+			cy += (m_y1[i] + m_y2[i]) * f;
+			area += f;
+		}
+		Point2D retval = null;
+		if (area != 0)
+			retval = new Point2D.Double(cx / (area * 3), cy / (area * 3));
+		return(retval);
+	}
+
+	/**
+	 * Calculate pole of inaccessibility of a polygon.
+	 * @param s polygon.
+	 * @param precision precision of point to find.
+	 * @return point inside polygon furthest from polygon perimeter.
+	 */
+	public static Point2D calculate(Shape s, double precision)
+	{
+		Rectangle2D bounds = s.getBounds2D();
+		double width = bounds.getWidth();
+		double height = bounds.getHeight();
+		double cellSize = Math.min(width, height);
+		Point2D retval = new Point2D.Double(bounds.getCenterX(), bounds.getCenterY());
+
+		PoleOfInaccessibility pole = new PoleOfInaccessibility(s);
+		if (cellSize <= 0 || pole.m_nSegments == 0)
+			return(retval);
+
+		if (precision <= 0)
+			precision = cellSize / 1000;
+
+		/*
+		 * Cover polygon with initial cells.
+		 */
+		PriorityQueue<Cell> queue = new PriorityQueue<Cell>();
+		double halfSize = cellSize / 2;
+		for (double x = bounds.getMinX(); x < bounds.getMaxX(); x += cellSize)
+		{
+			for (double y = bounds.getMinY(); y < bounds.getMaxY(); y += cellSize)
+			{
+				double cx = x + halfSize, cy = y + halfSize;
+				queue.add(new Cell(cx, cy, halfSize, pole.getSignedDistance(cx, cy)));
+			}
+		}
+
+		/*
+		 * Start with best of centroid and middle of bounding box.
+		 */
+		Cell best = new Cell(retval.getX(), retval.getY(), 0,
+			pole.getSignedDistance(retval.getX(), retval.getY()));
+		Point2D centroid = pole.getCentroid();
+		if (centroid != null)
+		{
+			Cell centroidCell = new Cell(centroid.getX(), centroid.getY(), 0,
+				pole.getSignedDistance(centroid.getX(), centroid.getY()));
+			if (centroidCell.m_distance > best.m_distance)
+				best = centroidCell;
+		}
+
+		int nCells = queue.size();
+		while (!queue.isEmpty())
+		{
+			Cell cell = queue.poll();
+			if (cell.m_distance > best.m_distance)
+				best = cell;
+
+			/*
+			 * Split cell into four if it could contain a better point.
+			 */
+			if (cell.m_maxDistance - best.m_distance > precision && nCells < MAX_CELLS)
+			{
+				halfSize = cell.m_halfSize / 2;
+				for (int i = 0; i < 4; i++)
+				{
+					double cx = cell.m_x + ((i & 1) == 0 ? -halfSize : halfSize);
+					double cy = cell.m_y + ((i & 2) == 0 ? -halfSize : halfSize);
+					queue.add(new Cell(cx, cy, halfSize, pole.getSignedDistance(cx, cy)));
+				}
+				nCells += 4;
+			}
+		}
+
+		retval.setLocation(best.m_x, best.m_y);
+		return(retval);
+	}
+}
@@ -27,6 +27,7 @@ import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 
 import org.mapyrus.Constants;
 
@@ -35,24 +36,22 @@ import org.mapyrus.Constants;
  * containing a polygon.  A sinkhole is a point inside
  * the polygon, furthest from the polygon perimeter.  A sinkhole
  * point can be thought of as the middle of the polygon.
+ *
+ * Each thread uses its own bitmap buffers, so sinkholes
+ * can be calculated by several threads at the same time.
  */
 public class Sinkhole
 {
 	/*
-	 * Size of bitmap to use for sinkhole search.  A larger bitmap
+	 * Default size of bitmap to use for sinkhole search.  A larger bitmap
 	 * will produce better results (but more slowly).
 	 */
-	private static final int BITMAP_SIZE = 64;
+	public static final int DEFAULT_BITMAP_SIZE = 64;
 
 	/*
-	 * Single bitmap to draw polygon into and pixel buffers to use for
-	 * shrinking the polygon one pixel at a time.
+	 * Largest bitmap size that can be used.
 	 */
-	private static byte []m_pixelBuffer1 = new byte[BITMAP_SIZE * BITMAP_SIZE];
-	private static byte []m_pixelBuffer2 = new byte[BITMAP_SIZE * BITMAP_SIZE];
-	private static BufferedImage m_bufferedImage = new BufferedImage(BITMAP_SIZE, BITMAP_SIZE,
-		BufferedImage.TYPE_BYTE_BINARY);
-	private static Graphics2D m_g2 = (Graphics2D)m_bufferedImage.getGraphics();
+	public static final int MAX_BITMAP_SIZE = 1024;
 
 	/*
 	 * Nth last pixel to choose.  Last pixel can be at the end of a long
@@ -62,32 +61,118 @@ public class Sinkhole
 	private static final int NTH_LAST_PIXEL = 10;
 
 	/*
-	 * Buffer of last cleared pixels.
+	 * Bitmap buffers for each thread.
+	 */
+	private static ThreadLocal<Sinkhole> m_threadSinkholes = new ThreadLocal<Sinkhole>()
+	{
+		@Override
+		protected Sinkhole initialValue()
+		{
+			return(new Sinkhole());
+		}
+	};
+
+	/*
+	 * Bitmap to draw polygon into and packed bitmaps, with one bit per pixel
+	 * and 64 pixels in each long value, to use for shrinking the
+	 * polygon one pixel at a time.
+	 */
+	private int m_bitmapSize;
+	private int m_wordsPerRow;
+	private BufferedImage m_bufferedImage;
+	private Graphics2D m_g2;
+	private long []m_bits1;
+	private long []m_bits2;
+
+	/**
+	 * Create new buffers for calculating sinkholes.
 	 */
-	private static int []m_lastClearedX = new int[NTH_LAST_PIXEL];
-	private static int []m_lastClearedY = new int[NTH_LAST_PIXEL];
-		
+	private Sinkhole()
+	{
+		m_bitmapSize = 0;
+	}
+
+	/**
+	 * Calculate a sinkhole point inside a polygon, using the default bitmap size.
+	 * @param s polygon to calculate sinkhole for.
+	 * @return sinkhole point.
+	 */
+	public static Point2D calculate(Shape s)
+	{
+		return(calculate(s, DEFAULT_BITMAP_SIZE));
+	}
+
 	/**
 	 * Calculate a sinkhole point inside a polygon.
 	 * Uses an iterative raster algorithm to reduce the polygon
 	 * one pixel at a time around boundary until only a single pixel remains.
 	 * @param s polygon to calculate sinkhole for.
-	 * @return sinkhole points.
+	 * @param bitmapSize width and height of bitmap to use, rounded up to a multiple of 64.
+	 * @return sinkhole point.
 	 */
-	public static synchronized Point2D calculate(Shape s)
+	public static Point2D calculate(Shape s, int bitmapSize)
 	{
-		int x, y;
-		int xMin, yMin, xMax, yMax;
-		int lastXMin, lastYMin, lastXMax, lastYMax;
+		return(m_threadSinkholes.get().getSinkhole(s, bitmapSize));
+	}
+
+	/**
+	 * Calculate bitmap size that gives the same resolution as the page.
+	 * @param s polygon to calculate sinkhole for.
+	 * @param resolution size of a pixel on the page.
+	 * @return bitmap size.
+	 */
+	public static int getAdaptiveBitmapSize(Shape s, double resolution)
+	{
+		Rectangle2D bounds = s.getBounds2D();
+		double maxBounds = Math.max(bounds.getWidth(), bounds.getHeight());
+		double nPixels = maxBounds / resolution;
+		int retval;
+		if (nPixels >= MAX_BITMAP_SIZE)
+			retval = MAX_BITMAP_SIZE;
+		else
+			retval = Math.max((int)Math.ceil(nPixels), DEFAULT_BITMAP_SIZE);
+		return(retval);
+	}
+
+	/*
+	 * Allocate bitmaps for a bitmap size.
+	 */
+	private void allocate(int bitmapSize)
+	{
+		bitmapSize = (bitmapSize + 63) / 64 * 64;
+		bitmapSize = Math.max(DEFAULT_BITMAP_SIZE, Math.min(bitmapSize, MAX_BITMAP_SIZE));
+		if (bitmapSize != m_bitmapSize)
+		{
+			if (m_g2 != null)
+				m_g2.dispose();
+			m_bitmapSize = bitmapSize;
+			m_wordsPerRow = bitmapSize / 64;
+			m_bufferedImage = new BufferedImage(bitmapSize, bitmapSize,
+				BufferedImage.TYPE_BYTE_BINARY);
+			m_g2 = (Graphics2D)m_bufferedImage.getGraphics();
+			m_bits1 = new long[bitmapSize * m_wordsPerRow];
+			m_bits2 = new long[bitmapSize * m_wordsPerRow];
+		}
+	}
+
+	/**
+	 * Calculate a sinkhole point inside a polygon.
+	 * @param s polygon to calculate sinkhole for.
+	 * @param bitmapSize width and height of bitmap to use.
+	 * @return sinkhole point.
+	 */
+	private Point2D getSinkhole(Shape s, int bitmapSize)
+	{
+		allocate(bitmapSize);
+		int size = m_bitmapSize;
+		int wordsPerRow = m_wordsPerRow;
 
-		int lastClearedIndex = 0;
-		int nPixelsSet, nPixelsCleared;
 		Point2D.Double retval;
 		Rectangle2D bounds = s.getBounds2D();
 		double maxBounds = Math.max(bounds.getWidth(), bounds.getHeight());
 		maxBounds += 0.0001;		/* protect against divide by zero */
 		AffineTransform affine =
-			AffineTransform.getScaleInstance(BITMAP_SIZE / maxBounds, BITMAP_SIZE / maxBounds);		
+			AffineTransform.getScaleInstance(size / maxBounds, size / maxBounds);
 		affine.translate(-bounds.getMinX(), -bounds.getMinY());
 
 		/*
@@ -95,126 +180,94 @@ public class Sinkhole
 		 */
 		m_g2.setTransform(Constants.IDENTITY_MATRIX);
 		m_g2.setColor(Color.BLACK);
-		m_g2.fillRect(0, 0, BITMAP_SIZE, BITMAP_SIZE);
+		m_g2.fillRect(0, 0, size, size);
 		m_g2.setColor(Color.WHITE);
 		m_g2.setTransform(affine);
 		m_g2.fill(s);
 
 		/*
-		 * Create a 0/1 bitmap from the image.
+		 * Create packed bitmap from the image, with bit n of each
+		 * long value set for the nth pixel.
 		 */
-		for (y = 0; y < BITMAP_SIZE; y++)
+		byte []pixels = ((DataBufferByte)m_bufferedImage.getRaster().getDataBuffer()).getData();
+		long []bits = m_bits1;
+		long []nextBits = m_bits2;
+		int rowStride = size / 8;
+		int yMin = size, yMax = -1;
+		int nPixelsSet = 0;
+		for (int y = 0; y < size; y++)
 		{
-			for (x = 0; x < BITMAP_SIZE; x++)
+			for (int w = 0; w < wordsPerRow; w++)
 			{
-				int pixval = (m_bufferedImage.getRGB(x, y) & 0xffffff);
-				if (pixval != 0)
-					m_pixelBuffer1[y * BITMAP_SIZE + x] = 1;
-				else
-					m_pixelBuffer1[y * BITMAP_SIZE + x] = 0;
+				int offset = y * rowStride + w * 8;
+				long word = 0;
+				for (int i = 0; i < 8; i++)
+					word = (word << 8) | (pixels[offset + i] & 0xff);
+				word = Long.reverse(word);
+				bits[y * wordsPerRow + w] = word;
+				if (word != 0)
+				{
+					nPixelsSet += Long.bitCount(word);
+					if (y < yMin)
+						yMin = y;
+					yMax = y;
+				}
 			}
 		}
 
-		lastXMin = lastYMin = 0;
-		lastXMax = lastYMax = BITMAP_SIZE - 1;
-		
 		/*
-		 * Search through bitmap and clear pixels that are on the boundary
-		 * of the shape.  Continue doing this until all pixels are cleared from
-		 * the bitmap.
+		 * Clear pixels that are on the boundary of the shape, with
+		 * less than 4 neighbouring pixels set.  Continue doing this
+		 * until all pixels are cleared from the bitmap, keeping the
+		 * pixels remaining before the final step.
 		 */
-		do
+		int lastYMin = yMin, lastYMax = yMax;
+		int nPixelsCleared = nPixelsSet;
+		while (nPixelsSet > 0)
 		{
-			/*
-			 * Walk through bitmap, copying pixel values to a second bitmap.
-			 * Pixels on the boundary of the shape are set to 0 in second bitmap.
-			 */
-			xMin = yMin = BITMAP_SIZE;
-			xMax = yMax = -1;
-			nPixelsSet = nPixelsCleared = 0;
-			lastClearedIndex = 0;
-			for (y = lastYMin; y <= lastYMax; y++)
+			nPixelsCleared = nPixelsSet;
+			lastYMin = yMin;
+			lastYMax = yMax;
+			nPixelsSet = 0;
+			yMin = size;
+			yMax = -1;
+			for (int y = lastYMin; y <= lastYMax; y++)
 			{
-				for (x = lastXMin; x <= lastXMax; x++)
+				int rowIndex = y * wordsPerRow;
+				for (int w = 0; w < wordsPerRow; w++)
 				{
-					int index = y * BITMAP_SIZE + x;
-					if (m_pixelBuffer1[index] != 0)
+					int index = rowIndex + w;
+					long word = bits[index];
+					long eroded = 0;
+					if (word != 0 && y > lastYMin && y < lastYMax)
 					{
-						/*
-						 * Count how many neighbouring pixels are set.
-						 */
-						int nNeighboursSet = 0;
-						if (y > lastYMin && m_pixelBuffer1[index - BITMAP_SIZE] != 0)
-							nNeighboursSet++;
-						if (y < lastYMax && m_pixelBuffer1[index + BITMAP_SIZE] != 0)
-							nNeighboursSet++;
-						if (x > lastXMin && m_pixelBuffer1[index - 1] != 0)
-							nNeighboursSet++;
-						if (x < lastXMax && m_pixelBuffer1[index + 1] != 0)
-							nNeighboursSet++;
-
-						/*
-						 * If pixel is surrounded by 4 set pixels
-						 * then leave it set.
-						 */
-						if (nNeighboursSet == 4)
-						{
-							m_pixelBuffer2[index] = 1;
-							nPixelsSet++;
-
-							/*
-							 * Keep track of area still containing set pixels so we
-							 * can reduce next loop through bitmap to only area where
-							 * some pixels are set.
-							 */
-							if (x < xMin)
-								xMin = x;
-							if (x > xMax)
-								xMax = x;
-							if (y < yMin)
-								yMin = y;
-							if (y > yMax)
-								yMax = y;
-						}
-						else
-						{
-							m_pixelBuffer2[index] = 0;
-							nPixelsCleared++;
-
-							/*
-							 * Save pixel position we've just cleared to circular
-							 * queue of N last points.
-							 */
-							lastClearedIndex++;
-							if (lastClearedIndex == NTH_LAST_PIXEL)
-								lastClearedIndex = 0;
-
-							m_lastClearedX[lastClearedIndex] = x;
-							m_lastClearedY[lastClearedIndex] = y;
-						}
+						long left = word << 1;
+						if (w > 0)
+							left |= bits[index - 1] >>> 63;
+						long right = word >>> 1;
+						if (w < wordsPerRow - 1)
+							right |= bits[index + 1] << 63;
+						eroded = word & left & right &
+							bits[index - wordsPerRow] & bits[index + wordsPerRow];
 					}
-					else
+					nextBits[index] = eroded;
+					if (eroded != 0)
 					{
-						m_pixelBuffer2[index] = 0;
+						nPixelsSet += Long.bitCount(eroded);
+						if (y < yMin)
+							yMin = y;
+						yMax = y;
 					}
 				}
 			}
 
-			/*
-			 * Move second buffer to first buffer and repeat process if some
-			 * pixels are still set.
-			 */
-			System.arraycopy(m_pixelBuffer2, 0, m_pixelBuffer1, 0, m_pixelBuffer2.length);
-
-			/*
-			 * Shrink area of bitmap to loop through for next iteration.
-			 */
-			lastXMin = xMin;
-			lastYMin = yMin;
-			lastXMax = xMax;
-			lastYMax = yMax;
+			if (nPixelsSet > 0)
+			{
+				long []swap = bits;
+				bits = nextBits;
+				nextBits = swap;
+			}
 		}
-		while (nPixelsSet > 0);
 
 		if (nPixelsCleared == 0)
 		{
@@ -230,20 +283,42 @@ public class Sinkhole
 			/*
 			 * Last cleared point in bitmap is closest to the middle of the polygon.
 			 * Return it.  Choose Nth last point to reduce chances of getting point
-			 * that is at end of a thin line of pixels. 
+			 * that is at end of a thin line of pixels.
 			 */
+			int pixelIndex;
 			if (nPixelsCleared > NTH_LAST_PIXEL)
+				pixelIndex = nPixelsCleared - NTH_LAST_PIXEL;
+			else
+				pixelIndex = nPixelsCleared - 1;
+
+			/*
+			 * Find pixel, counting pixels row by row.
+			 */
+			int pixelX = 0, pixelY = 0;
+			int counter = 0;
+			for (int y = lastYMin; y <= lastYMax; y++)
 			{
-				/*
-				 * Take Nth last value from circular queue.
-				 */
-				lastClearedIndex++;
-				if (lastClearedIndex == NTH_LAST_PIXEL)
-					lastClearedIndex = 0;
+				for (int w = 0; w < wordsPerRow; w++)
+				{
+					long word = bits[y * wordsPerRow + w];
+					int nBits = Long.bitCount(word);
+					if (counter + nBits > pixelIndex)
+					{
+						while (counter < pixelIndex)
+						{
+							word &= (word - 1);
+							counter++;
+						}
+						pixelX = w * 64 + Long.numberOfTrailingZeros(word);
+						pixelY = y;
+						y = lastYMax;
+						break;
+					}
+					counter += nBits;
+				}
 			}
 
-			retval = new Point2D.Double(m_lastClearedX[lastClearedIndex],
-				m_lastClearedY[lastClearedIndex]);
+			retval = new Point2D.Double(pixelX, pixelY);
 			try
 			{
 				affine.inverseTransform(retval, retval);
@@ -0,0 +1,263 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.image;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+/**
+ * An image too large to hold in memory, drawn as a series of horizontal bands.
+ * Drawing operations are recorded, then replayed into each band
+ * as it is requested.  Only one band is held in memory at a time.
+ *
+ * Image writers that request the image a row or strip at a time,
+ * such as PNG and TIFF writers, then need only memory for a single band.
+ *
+ * Java2D chooses different pixels for some shapes, such as polygons used
+ * as a clip region, when they are clipped close to where they are drawn.
+ * So each band is drawn with a few extra rows above and below it that are
+ * then discarded.  Curves, and lines drawn without anti-aliasing, may still
+ * be drawn up to a pixel away from where they are drawn in a single image
+ * because Java2D splits them where they cross the edge of the area being drawn.
+ */
+public class BandedImage implements RenderedImage
+{
+	/*
+	 * Number of rows drawn above and below each band, and then discarded,
+	 * so that shapes are not clipped right at the edge of a band.
+	 */
+	static final int BAND_OVERLAP = 8;
+
+	private int m_width;
+	private int m_height;
+	private int m_bandHeight;
+	private int m_imageType;
+	private ColorModel m_colorModel;
+	private SampleModel m_sampleModel;
+	private RecordingGraphics2D m_graphics;
+
+	/*
+	 * Band most recently drawn.
+	 */
+	private int m_bandIndex;
+	private Raster m_band;
+
+	/**
+	 * Create new banded image.
+	 * @param width width of image in pixels.
+	 * @param height height of image in pixels.
+	 * @param imageType type of image, one of the BufferedImage.TYPE_* values.
+	 * @param bandHeight height of each band in pixels.
+	 */
+	public BandedImage(int width, int height, int imageType, int bandHeight)
+	{
+		m_width = width;
+		m_height = height;
+		m_imageType = imageType;
+		m_bandHeight = Math.max(1, Math.min(bandHeight, height));
+		BufferedImage anyImage = new BufferedImage(1, 1, imageType);
+		m_colorModel = anyImage.getColorModel();
+		m_sampleModel = anyImage.getSampleModel().createCompatibleSampleModel(width, m_bandHeight);
+		m_graphics = new RecordingGraphics2D(imageType);
+		m_bandIndex = -1;
+		m_band = null;
+	}
+
+	/**
+	 * Get graphics context for drawing to image.
+	 * @return graphics context.
+	 */
+	public Graphics2D createGraphics()
+	{
+		return(m_graphics);
+	}
+
+	/**
+	 * Draw a band of image by replaying drawing operations, with
+	 * BAND_OVERLAP extra rows drawn above and below the band.
+	 * @param bandIndex index of band, with band 0 at top of image.
+	 * @return raster containing band.
+	 */
+	private Raster getBand(int bandIndex)
+	{
+		if (bandIndex != m_bandIndex)
+		{
+			/*
+			 * Release previous band before drawing next one.
+			 */
+			m_band = null;
+			int y = bandIndex * m_bandHeight;
+			int y1 = Math.max(y - BAND_OVERLAP, 0);
+			int y2 = Math.max(Math.min(y + m_bandHeight + BAND_OVERLAP, m_height), y + m_bandHeight);
+			BufferedImage band = new BufferedImage(m_width, y2 - y1, m_imageType);
+			m_graphics.replay(band, y1);
+			m_band = band.getRaster().createChild(0, y - y1, m_width, m_bandHeight, 0, y, null);
+			m_bandIndex = bandIndex;
+		}
+		return(m_band);
+	}
+
+	@Override
+	public Vector<RenderedImage> getSources()
+	{
+		return(null);
+	}
+
+	@Override
+	public Object getProperty(String name)
+	{
+		return(Image.UndefinedProperty);
+	}
+
+	@Override
+	public String[] getPropertyNames()
+	{
+		return(null);
+	}
+
+	@Override
+	public ColorModel getColorModel()
+	{
+		return(m_colorModel);
+	}
+
+	@Override
+	public SampleModel getSampleModel()
+	{
+		return(m_sampleModel);
+	}
+
+	@Override
+	public int getWidth()
+	{
+		return(m_width);
+	}
+
+	@Override
+	public int getHeight()
+	{
+		return(m_height);
+	}
+
+	@Override
+	public int getMinX()
+	{
+		return(0);
+	}
+
+	@Override
+	public int getMinY()
+	{
+		return(0);
+	}
+
+	@Override
+	public int getNumXTiles()
+	{
+		return(1);
+	}
+
+	@Override
+	public int getNumYTiles()
+	{
+		return((m_height + m_bandHeight - 1) / m_bandHeight);
+	}
+
+	@Override
+	public int getMinTileX()
+	{
+		return(0);
+	}
+
+	@Override
+	public int getMinTileY()
+	{
+		return(0);
+	}
+
+	@Override
+	public int getTileWidth()
+	{
+		return(m_width);
+	}
+
+	@Override
+	public int getTileHeight()
+	{
+		return(m_bandHeight);
+	}
+
+	@Override
+	public int getTileGridXOffset()
+	{
+		return(0);
+	}
+
+	@Override
+	public int getTileGridYOffset()
+	{
+		return(0);
+	}
+
+	@Override
+	public Raster getTile(int tileX, int tileY)
+	{
+		return(getBand(tileY));
+	}
+
+	@Override
+	public Raster getData()
+	{
+		return(getData(new Rectangle(0, 0, m_width, m_height)));
+	}
+
+	@Override
+	public Raster getData(Rectangle rect)
+	{
+		SampleModel sampleModel = m_sampleModel.createCompatibleSampleModel(rect.width, rect.height);
+		WritableRaster raster = Raster.createWritableRaster(sampleModel, new Point(rect.x, rect.y));
+		return(copyData(raster));
+	}
+
+	@Override
+	public WritableRaster copyData(WritableRaster raster)
+	{
+		if (raster == null)
+			raster = m_colorModel.createCompatibleWritableRaster(m_width, m_height);
+
+		/*
+		 * Copy each band overlapping area being requested.
+		 */
+		int minY = Math.max(raster.getMinY(), 0);
+		int maxY = Math.min(raster.getMinY() + raster.getHeight(), m_height);
+		for (int y = minY; y < maxY; y += m_bandHeight - (y % m_bandHeight))
+			raster.setRect(getBand(y / m_bandHeight));
+		return(raster);
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.image;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mapyrus.Constants;
+
+/**
+ * Least recently used cache of decoded images and icons, shared by all
+ * interpreters.  Images that are used repeatedly, such as icons and
+ * background images used for every page created by the HTTP server,
+ * are decoded once and the decoded images are reused.
+ * The cache is limited to a total size in bytes of the decoded images.
+ * Images read from files are identified by the modification time of
+ * the file so that an image is read again if the file is modified.
+ */
+public class ImageCache
+{
+	/*
+	 * Decoded image, with its size in bytes.
+	 */
+	private static class CacheEntry
+	{
+		ColorIcon m_icon;
+		long m_nBytes;
+
+		CacheEntry(ColorIcon icon, long nBytes)
+		{
+			m_icon = icon;
+			m_nBytes = nBytes;
+		}
+	}
+
+	private static LinkedHashMap<String, CacheEntry> m_cache =
+		new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private static long m_maxBytes = getDefaultMaxBytes();
+	private static long m_nBytes = 0;
+	private static long m_hitCount = 0;
+	private static long m_missCount = 0;
+	private static long m_evictionCount = 0;
+
+	/**
+	 * Get maximum size of cache, set by a Java property in megabytes,
+	 * or default size of one eighth of the Java heap.
+	 * @return maximum size in bytes.
+	 */
+	private static long getDefaultMaxBytes()
+	{
+		long retval = Runtime.getRuntime().maxMemory() / 8;
+		String property = System.getProperty(Constants.PROGRAM_NAME + ".imagecache.size");
+		if (property != null)
+		{
+			try
+			{
+				retval = Long.parseLong(property) * 1024 * 1024;
+			}
+			catch (NumberFormatException e)
+			{
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Create key for an image read from a file.
+	 * @param f image file.
+	 * @param color color for monochrome images, or null.
+	 * @param options any further options used when reading image.
+	 * @return key for image.
+	 */
+	public static String getKey(File f, Color color, String options)
+	{
+		StringBuilder sb = new StringBuilder(f.getAbsolutePath());
+		sb.append('|').append(f.lastModified());
+		sb.append('|').append(f.length());
+		appendColor(sb, color);
+		if (options != null)
+			sb.append('|').append(options);
+		return(sb.toString());
+	}
+
+	/**
+	 * Create key for an image included as a Java resource.
+	 * @param resourceName name of image resource.
+	 * @param color color for monochrome images, or null.
+	 * @return key for image.
+	 */
+	public static String getResourceKey(String resourceName, Color color)
+	{
+		StringBuilder sb = new StringBuilder("resource:");
+		sb.append(resourceName);
+		appendColor(sb, color);
+		return(sb.toString());
+	}
+
+	/*
+	 * Add color components to key.  Color may be RGB or CMYK.
+	 */
+	private static void appendColor(StringBuilder sb, Color color)
+	{
+		sb.append('|');
+		if (color != null)
+		{
+			sb.append(color.getColorSpace().getType());
+			float []components = color.getComponents(null);
+			for (int i = 0; i < components.length; i++)
+				sb.append(',').append(components[i]);
+		}
+	}
+
+	/**
+	 * Calculate number of bytes of memory used by an image.
+	 * @param image image.
+	 * @return size of image in bytes.
+	 */
+	public static long getImageSize(BufferedImage image)
+	{
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		long nBytes = (long)buffer.getSize() * buffer.getNumBanks() *
+			DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		return(nBytes);
+	}
+
+	/**
+	 * Get decoded image from cache.
+	 * @param key key for image.
+	 * @return image, or null if image is not in cache.
+	 */
+	public static synchronized ColorIcon get(String key)
+	{
+		ColorIcon retval = null;
+		CacheEntry entry = m_cache.get(key);
+		if (entry != null)
+		{
+			retval = entry.m_icon;
+			m_hitCount++;
+		}
+		else
+		{
+			m_missCount++;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Add decoded image to cache, removing least recently used images
+	 * if cache becomes too large.  Images larger than a quarter of the
+	 * cache size are not added.
+	 * @param key key for image.
+	 * @param icon image to add.
+	 */
+	public static synchronized void put(String key, ColorIcon icon)
+	{
+		long nBytes = getImageSize(icon.getImage());
+		if (nBytes <= m_maxBytes / 4)
+		{
+			CacheEntry entry = m_cache.put(key, new CacheEntry(icon, nBytes));
+			if (entry != null)
+				m_nBytes -= entry.m_nBytes;
+			m_nBytes += nBytes;
+
+			Iterator<Map.Entry<String, CacheEntry>> it = m_cache.entrySet().iterator();
+			while (m_nBytes > m_maxBytes && it.hasNext())
+			{
+				entry = it.next().getValue();
+				it.remove();
+				m_nBytes -= entry.m_nBytes;
+				m_evictionCount++;
+			}
+		}
+	}
+
+	/**
+	 * Get number of times that images were found in the cache.
+	 * @return number of cache hits.
+	 */
+	public static synchronized long getHitCount()
+	{
+		return(m_hitCount);
+	}
+
+	/**
+	 * Get number of times that images were not found in the cache.
+	 * @return number of cache misses.
+	 */
+	public static synchronized long getMissCount()
+	{
+		return(m_missCount);
+	}
+
+	/**
+	 * Get number of images removed from the cache to make space for other images.
+	 * @return number of images removed.
+	 */
+	public static synchronized long getEvictionCount()
+	{
+		return(m_evictionCount);
+	}
+
+	/**
+	 * Get total size of images in the cache.
+	 * @return size in bytes.
+	 */
+	public static synchronized long getSize()
+	{
+		return(m_nBytes);
+	}
+}
@@ -20,17 +20,25 @@
 package org.mapyrus.image;
 
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.mapyrus.Constants;
 import org.mapyrus.MapyrusException;
@@ -136,6 +144,128 @@ public class ImageIOWrapper
 		return(retval);
 	}
 
+	/**
+	 * Open reader for an image file.
+	 * @param f file to read.
+	 * @return image reader with file set as input, or null if file
+	 * cannot be read with ImageIO.
+	 * @throws IOException if file cannot be opened.
+	 */
+	private static ImageReader openReader(File f) throws IOException
+	{
+		ImageReader retval = null;
+
+		/*
+		 * Formats that we read ourselves cannot be read in parts.
+		 */
+		String filename = f.getName().toLowerCase();
+		if (filename.endsWith(".ppm") || filename.endsWith(".pgm") ||
+			filename.endsWith(".pbm") || filename.endsWith(".pat") ||
+			filename.endsWith(".xbm"))
+		{
+			return(null);
+		}
+
+		ImageInputStream stream = ImageIO.createImageInputStream(f);
+		if (stream == null)
+			throw new FileNotFoundException(f.getPath());
+
+		Iterator<ImageReader> it = ImageIO.getImageReaders(stream);
+		if (it.hasNext())
+		{
+			retval = it.next();
+			retval.setInput(stream, false, true);
+		}
+		else
+		{
+			stream.close();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Close image reader and file it is reading.
+	 * @param reader image reader to close.
+	 * @throws IOException if closing file fails.
+	 */
+	private static void closeReader(ImageReader reader) throws IOException
+	{
+		Object input = reader.getInput();
+		reader.dispose();
+		if (input instanceof ImageInputStream)
+			((ImageInputStream)input).close();
+	}
+
+	/**
+	 * Get width and height of each image in a file, without reading any
+	 * image data.
+	 * @param f file containing one or more images.
+	 * @param allImages true to get size of all images in file, false
+	 * to get size of only the first image.
+	 * @return width and height of images, or null if file cannot be read in parts.
+	 * @throws IOException if file cannot be opened or read.
+	 */
+	public static Dimension []getImageSizes(File f, boolean allImages) throws IOException
+	{
+		Dimension []retval = null;
+		ImageReader reader = openReader(f);
+		if (reader != null)
+		{
+			try
+			{
+				int nImages = allImages ? reader.getNumImages(true) : 1;
+				retval = new Dimension[nImages];
+				for (int i = 0; i < nImages; i++)
+					retval[i] = new Dimension(reader.getWidth(i), reader.getHeight(i));
+			}
+			catch (SecurityException e)
+			{
+				throw new IOException(e.getClass().getName() + ": " + e.getMessage() + ": " + f.getPath());
+			}
+			finally
+			{
+				closeReader(reader);
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read part of an image from a file, decoding only the pixels in that part.
+	 * @param f file to read image from.
+	 * @param imageIndex index of image in file.
+	 * @param region rectangular area of image to read.
+	 * @param subsampling read only every Nth row and column of pixels.
+	 * @return image read from file, or null if file cannot be read in parts.
+	 * @throws IOException if file cannot be opened or read.
+	 */
+	public static BufferedImage read(File f, int imageIndex, Rectangle region,
+		int subsampling) throws IOException
+	{
+		BufferedImage retval = null;
+		ImageReader reader = openReader(f);
+		if (reader != null)
+		{
+			try
+			{
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(region);
+				if (subsampling > 1)
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				retval = reader.read(imageIndex, param);
+			}
+			catch (SecurityException e)
+			{
+				throw new IOException(e.getClass().getName() + ": " + e.getMessage() + ": " + f.getPath());
+			}
+			finally
+			{
+				closeReader(reader);
+			}
+		}
+		return(retval);
+	}
+
 	/**
 	 * Read an image from URL. 
 	 * @param url URL to read image from.
@@ -229,10 +359,12 @@ public class ImageIOWrapper
 	 * @param stream stream to write image to.
 	 * @throws IOException if writing image to stream fails.
 	 */
-	public static void write(BufferedImage image, String format, OutputStream stream)
+	public static void write(RenderedImage image, String format, OutputStream stream)
 		throws IOException
 	{
-		if (format.equalsIgnoreCase("ppm"))
+		if (format.equalsIgnoreCase("ppm") && image instanceof BufferedImage)
+			PNMImage.write((BufferedImage)image, stream);
+		else if (format.equalsIgnoreCase("ppm"))
 			PNMImage.write(image, stream);
 		else
 			ImageIO.write(image, format, stream);
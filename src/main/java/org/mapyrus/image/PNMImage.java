@@ -19,7 +19,11 @@
 
 package org.mapyrus.image;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
@@ -250,4 +254,49 @@ public class PNMImage
 		}
 		stream.flush();
 	}
+
+	/**
+	 * Write an image to a Netpbm PPM format file, reading
+	 * the image one row at a time.
+	 * @param image image to write
+	 * @param stream output stream to write image to.
+	 * @throws IOException if writing image to stream fails.
+	 */
+	public static void write(RenderedImage image, OutputStream stream) throws IOException
+	{
+		/*
+		 * Write file header.
+		 */
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		stream.write('P');
+		stream.write('6');
+		stream.write('\n');
+		stream.write(Integer.toString(imageWidth).getBytes());
+		stream.write(' ');
+		stream.write(Integer.toString(imageHeight).getBytes());
+		stream.write('\n');
+		stream.write(Integer.toString(255).getBytes());
+		stream.write('\n');
+
+		/*
+		 * Write each row of pixels.
+		 */
+		ColorModel colorModel = image.getColorModel();
+		Object pixel = null;
+		int minX = image.getMinX();
+		int minY = image.getMinY();
+		for (int y = 0; y < imageHeight; y++)
+		{
+			Raster row = image.getData(new Rectangle(minX, minY + y, imageWidth, 1));
+			for (int x = 0; x < imageWidth; x++)
+			{
+				pixel = row.getDataElements(minX + x, minY + y, pixel);
+				stream.write(colorModel.getRed(pixel));
+				stream.write(colorModel.getGreen(pixel));
+				stream.write(colorModel.getBlue(pixel));
+			}
+		}
+		stream.flush();
+	}
 }
@@ -0,0 +1,1009 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.image;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RectangularShape;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A Graphics2D context that records drawing operations instead of drawing them,
+ * so that they can be replayed later into another Graphics2D context.
+ * Used to draw a large image in bands, replaying the operations into each band.
+ *
+ * The bounding rows of each drawing operation are recorded too so
+ * that operations not touching a band are skipped when replaying.
+ */
+public class RecordingGraphics2D extends Graphics2D
+{
+	/*
+	 * Types of operations that are recorded.
+	 */
+	private static final int CREATE = 0;
+	private static final int DISPOSE = 1;
+	private static final int SET_COLOR = 2;
+	private static final int SET_PAINT = 3;
+	private static final int SET_PAINT_MODE = 4;
+	private static final int SET_XOR_MODE = 5;
+	private static final int SET_FONT = 6;
+	private static final int SET_COMPOSITE = 7;
+	private static final int SET_STROKE = 8;
+	private static final int SET_BACKGROUND = 9;
+	private static final int SET_RENDERING_HINT = 10;
+	private static final int SET_RENDERING_HINTS = 11;
+	private static final int ADD_RENDERING_HINTS = 12;
+	private static final int TRANSFORM = 13;
+	private static final int SET_TRANSFORM = 14;
+	private static final int CLIP = 15;
+	private static final int SET_CLIP = 16;
+	private static final int CLIP_RECT = 17;
+	private static final int SET_CLIP_RECT = 18;
+	private static final int DRAW = 19;
+	private static final int FILL = 20;
+	private static final int DRAW_STRING = 21;
+	private static final int DRAW_TEXT_LAYOUT = 22;
+	private static final int DRAW_GLYPH_VECTOR = 23;
+	private static final int DRAW_IMAGE_TRANSFORM = 24;
+	private static final int DRAW_IMAGE_OP = 25;
+	private static final int DRAW_RENDERED_IMAGE = 26;
+	private static final int DRAW_RENDERABLE_IMAGE = 27;
+	private static final int DRAW_IMAGE = 28;
+	private static final int DRAW_IMAGE_SCALED = 29;
+	private static final int DRAW_IMAGE_BG = 30;
+	private static final int DRAW_IMAGE_SCALED_BG = 31;
+	private static final int DRAW_IMAGE_AREA = 32;
+	private static final int DRAW_IMAGE_AREA_BG = 33;
+	private static final int COPY_AREA = 34;
+	private static final int DRAW_LINE = 35;
+	private static final int FILL_RECT = 36;
+	private static final int CLEAR_RECT = 37;
+	private static final int DRAW_ROUND_RECT = 38;
+	private static final int FILL_ROUND_RECT = 39;
+	private static final int DRAW_OVAL = 40;
+	private static final int FILL_OVAL = 41;
+	private static final int DRAW_ARC = 42;
+	private static final int FILL_ARC = 43;
+	private static final int DRAW_POLYLINE = 44;
+	private static final int DRAW_POLYGON = 45;
+	private static final int FILL_POLYGON = 46;
+	private static final int TRANSLATE = 47;
+	private static final int SCALE = 48;
+
+	/**
+	 * Operations recorded by a context and all contexts created from it.
+	 */
+	private static class Recording
+	{
+		ArrayList<Object []> m_operations = new ArrayList<Object []>();
+		float []m_minY = new float[1024];
+		float []m_maxY = new float[1024];
+		int m_nContexts = 0;
+	}
+
+	private Recording m_recording;
+	private Integer m_contextId;
+
+	/*
+	 * Context holding current graphics state, used to answer queries
+	 * about graphics state.  Nothing is drawn into it.
+	 */
+	private Graphics2D m_state;
+
+	/**
+	 * Create new context to record drawing operations for an image.
+	 * @param imageType type of image that operations will be replayed into,
+	 * one of the BufferedImage.TYPE_* values.
+	 */
+	public RecordingGraphics2D(int imageType)
+	{
+		m_recording = new Recording();
+		m_contextId = Integer.valueOf(m_recording.m_nContexts++);
+		BufferedImage anyImage = new BufferedImage(1, 1, imageType);
+		m_state = anyImage.createGraphics();
+	}
+
+	/**
+	 * Create new context sharing recording with another context.
+	 * @param recording recording to add operations to.
+	 * @param state graphics state for new context.
+	 */
+	private RecordingGraphics2D(Recording recording, Graphics2D state)
+	{
+		m_recording = recording;
+		m_contextId = Integer.valueOf(m_recording.m_nContexts++);
+		m_state = state;
+	}
+
+	/**
+	 * Record an operation that changes graphics state.
+	 * @param operation type of operation.
+	 * @param args arguments for operation.
+	 */
+	private void record(int operation, Object ...args)
+	{
+		recordDrawing(null, 0, operation, args);
+	}
+
+	/**
+	 * Record a drawing operation.
+	 * @param bounds bounding rectangle of operation in user space, or null if not known.
+	 * @param margin distance to add around bounding rectangle in user space.
+	 * @param operation type of operation.
+	 * @param args arguments for operation.
+	 */
+	private void recordDrawing(Rectangle2D bounds, double margin, int operation, Object ...args)
+	{
+		Object []op = new Object[args.length + 2];
+		op[0] = Integer.valueOf(operation);
+		op[1] = m_contextId;
+		System.arraycopy(args, 0, op, 2, args.length);
+
+		int index = m_recording.m_operations.size();
+		if (index == m_recording.m_minY.length)
+		{
+			m_recording.m_minY = Arrays.copyOf(m_recording.m_minY, index * 2);
+			m_recording.m_maxY = Arrays.copyOf(m_recording.m_maxY, index * 2);
+		}
+
+		float minY = Float.NEGATIVE_INFINITY;
+		float maxY = Float.POSITIVE_INFINITY;
+		if (bounds != null)
+		{
+			/*
+			 * Find rows of image that operation draws into,
+			 * allowing an extra pixel for anti-aliasing.
+			 */
+			Rectangle2D.Double r = new Rectangle2D.Double(bounds.getX() - margin,
+				bounds.getY() - margin, bounds.getWidth() + margin * 2,
+				bounds.getHeight() + margin * 2);
+			Rectangle2D deviceBounds = m_state.getTransform().createTransformedShape(r).getBounds2D();
+			minY = (float)Math.floor(deviceBounds.getMinY() - 1);
+			maxY = (float)Math.ceil(deviceBounds.getMaxY() + 1);
+		}
+		m_recording.m_minY[index] = minY;
+		m_recording.m_maxY[index] = maxY;
+		m_recording.m_operations.add(op);
+	}
+
+	/**
+	 * Calculate distance that a line drawn with a stroke extends
+	 * beyond the line.
+	 * @param stroke stroke used to draw line.
+	 * @return distance, or -1 if it cannot be calculated.
+	 */
+	private static double getStrokeMargin(Stroke stroke)
+	{
+		double margin = -1;
+		if (stroke instanceof BasicStroke)
+		{
+			BasicStroke basicStroke = (BasicStroke)stroke;
+			double halfWidth = Math.max(basicStroke.getLineWidth() / 2, 1);
+			if (basicStroke.getLineJoin() == BasicStroke.JOIN_MITER)
+				margin = halfWidth * Math.max(basicStroke.getMiterLimit(), Math.sqrt(2));
+			else
+				margin = halfWidth * Math.sqrt(2);
+		}
+		return(margin);
+	}
+
+	/**
+	 * Replay recorded operations into a band of an image.
+	 * @param band image to replay operations into, the full width of
+	 * the image and with row minY of image at top of band.
+	 * @param minY row of image at top of band.
+	 */
+	public void replay(BufferedImage band, int minY)
+	{
+		int maxY = minY + band.getHeight();
+		Graphics2D g = band.createGraphics();
+		g.translate(0, -minY);
+		AffineTransform baseTransform = g.getTransform();
+		ArrayList<Graphics2D> contexts = new ArrayList<Graphics2D>();
+		contexts.add(g);
+
+		for (int i = 0; i < m_recording.m_operations.size(); i++)
+		{
+			/*
+			 * Skip drawing operations that are outside rows being drawn.
+			 */
+			if (m_recording.m_maxY[i] < minY || m_recording.m_minY[i] > maxY)
+				continue;
+
+			Object []op = m_recording.m_operations.get(i);
+			int operation = ((Integer)op[0]).intValue();
+			Graphics2D g2 = contexts.get(((Integer)op[1]).intValue());
+
+			switch (operation)
+			{
+				case CREATE:
+					contexts.add((Graphics2D)g2.create());
+					break;
+				case DISPOSE:
+					if (g2 != g)
+						g2.dispose();
+					break;
+				case SET_COLOR:
+					g2.setColor((Color)op[2]);
+					break;
+				case SET_PAINT:
+					g2.setPaint((Paint)op[2]);
+					break;
+				case SET_PAINT_MODE:
+					g2.setPaintMode();
+					break;
+				case SET_XOR_MODE:
+					g2.setXORMode((Color)op[2]);
+					break;
+				case SET_FONT:
+					g2.setFont((Font)op[2]);
+					break;
+				case SET_COMPOSITE:
+					g2.setComposite((Composite)op[2]);
+					break;
+				case SET_STROKE:
+					g2.setStroke((Stroke)op[2]);
+					break;
+				case SET_BACKGROUND:
+					g2.setBackground((Color)op[2]);
+					break;
+				case SET_RENDERING_HINT:
+					g2.setRenderingHint((RenderingHints.Key)op[2], op[3]);
+					break;
+				case SET_RENDERING_HINTS:
+					g2.setRenderingHints((Map<?, ?>)op[2]);
+					break;
+				case ADD_RENDERING_HINTS:
+					g2.addRenderingHints((Map<?, ?>)op[2]);
+					break;
+				case TRANSLATE:
+					g2.translate(doubleArg(op, 2), doubleArg(op, 3));
+					break;
+				case SCALE:
+					g2.scale(doubleArg(op, 2), doubleArg(op, 3));
+					break;
+				case TRANSFORM:
+					g2.transform((AffineTransform)op[2]);
+					break;
+				case SET_TRANSFORM:
+					AffineTransform affine = new AffineTransform(baseTransform);
+					affine.concatenate((AffineTransform)op[2]);
+					g2.setTransform(affine);
+					break;
+				case CLIP:
+					g2.clip((Shape)op[2]);
+					break;
+				case SET_CLIP:
+					g2.setClip((Shape)op[2]);
+					break;
+				case CLIP_RECT:
+					g2.clipRect(intArg(op, 2), intArg(op, 3), intArg(op, 4), intArg(op, 5));
+					break;
+				case SET_CLIP_RECT:
+					g2.setClip(intArg(op, 2), intArg(op, 3), intArg(op, 4), intArg(op, 5));
+					break;
+				case DRAW:
+					g2.draw((Shape)op[2]);
+					break;
+				case FILL:
+					g2.fill((Shape)op[2]);
+					break;
+				case DRAW_STRING:
+					g2.drawString((String)op[2], floatArg(op, 3), floatArg(op, 4));
+					break;
+				case DRAW_TEXT_LAYOUT:
+					((TextLayout)op[2]).draw(g2, floatArg(op, 3), floatArg(op, 4));
+					break;
+				case DRAW_GLYPH_VECTOR:
+					g2.drawGlyphVector((GlyphVector)op[2], floatArg(op, 3), floatArg(op, 4));
+					break;
+				case DRAW_IMAGE_TRANSFORM:
+					g2.drawImage((Image)op[2], (AffineTransform)op[3], null);
+					break;
+				case DRAW_IMAGE_OP:
+					g2.drawImage((BufferedImage)op[2], (BufferedImageOp)op[3], intArg(op, 4), intArg(op, 5));
+					break;
+				case DRAW_RENDERED_IMAGE:
+					g2.drawRenderedImage((RenderedImage)op[2], (AffineTransform)op[3]);
+					break;
+				case DRAW_RENDERABLE_IMAGE:
+					g2.drawRenderableImage((RenderableImage)op[2], (AffineTransform)op[3]);
+					break;
+				case DRAW_IMAGE:
+					g2.drawImage((Image)op[2], intArg(op, 3), intArg(op, 4), null);
+					break;
+				case DRAW_IMAGE_SCALED:
+					g2.drawImage((Image)op[2], intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), null);
+					break;
+				case DRAW_IMAGE_BG:
+					g2.drawImage((Image)op[2], intArg(op, 3), intArg(op, 4), (Color)op[5], null);
+					break;
+				case DRAW_IMAGE_SCALED_BG:
+					g2.drawImage((Image)op[2], intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), (Color)op[7], null);
+					break;
+				case DRAW_IMAGE_AREA:
+					g2.drawImage((Image)op[2], intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), intArg(op, 7), intArg(op, 8),
+						intArg(op, 9), intArg(op, 10), null);
+					break;
+				case DRAW_IMAGE_AREA_BG:
+					g2.drawImage((Image)op[2], intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), intArg(op, 7), intArg(op, 8),
+						intArg(op, 9), intArg(op, 10), (Color)op[11], null);
+					break;
+				case COPY_AREA:
+					g2.copyArea(intArg(op, 2), intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), intArg(op, 7));
+					break;
+				case DRAW_LINE:
+					g2.drawLine(intArg(op, 2), intArg(op, 3), intArg(op, 4), intArg(op, 5));
+					break;
+				case FILL_RECT:
+					g2.fillRect(intArg(op, 2), intArg(op, 3), intArg(op, 4), intArg(op, 5));
+					break;
+				case CLEAR_RECT:
+					g2.clearRect(intArg(op, 2), intArg(op, 3), intArg(op, 4), intArg(op, 5));
+					break;
+				case DRAW_ROUND_RECT:
+					g2.drawRoundRect(intArg(op, 2), intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), intArg(op, 7));
+					break;
+				case FILL_ROUND_RECT:
+					g2.fillRoundRect(intArg(op, 2), intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), intArg(op, 7));
+					break;
+				case DRAW_OVAL:
+					g2.drawOval(intArg(op, 2), intArg(op, 3), intArg(op, 4), intArg(op, 5));
+					break;
+				case FILL_OVAL:
+					g2.fillOval(intArg(op, 2), intArg(op, 3), intArg(op, 4), intArg(op, 5));
+					break;
+				case DRAW_ARC:
+					g2.drawArc(intArg(op, 2), intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), intArg(op, 7));
+					break;
+				case FILL_ARC:
+					g2.fillArc(intArg(op, 2), intArg(op, 3), intArg(op, 4),
+						intArg(op, 5), intArg(op, 6), intArg(op, 7));
+					break;
+				case DRAW_POLYLINE:
+					g2.drawPolyline((int [])op[2], (int [])op[3], intArg(op, 4));
+					break;
+				case DRAW_POLYGON:
+					g2.drawPolygon((int [])op[2], (int [])op[3], intArg(op, 4));
+					break;
+				case FILL_POLYGON:
+					g2.fillPolygon((int [])op[2], (int [])op[3], intArg(op, 4));
+					break;
+			}
+		}
+
+		for (int i = 0; i < contexts.size(); i++)
+			contexts.get(i).dispose();
+	}
+
+	/**
+	 * Get integer argument of recorded operation.
+	 * @param op operation.
+	 * @param index index of argument.
+	 * @return argument value.
+	 */
+	private static int intArg(Object []op, int index)
+	{
+		return(((Integer)op[index]).intValue());
+	}
+
+	/**
+	 * Get floating point argument of recorded operation.
+	 * @param op operation.
+	 * @param index index of argument.
+	 * @return argument value.
+	 */
+	private static float floatArg(Object []op, int index)
+	{
+		return(((Float)op[index]).floatValue());
+	}
+
+	/**
+	 * Get double precision argument of recorded operation.
+	 * @param op operation.
+	 * @param index index of argument.
+	 * @return argument value.
+	 */
+	private static double doubleArg(Object []op, int index)
+	{
+		return(((Double)op[index]).doubleValue());
+	}
+
+	/**
+	 * Get number of operations recorded.
+	 * @return number of operations.
+	 */
+	public int getOperationCount()
+	{
+		return(m_recording.m_operations.size());
+	}
+
+	@Override
+	public Graphics create()
+	{
+		RecordingGraphics2D retval = new RecordingGraphics2D(m_recording, (Graphics2D)m_state.create());
+		record(CREATE);
+		return(retval);
+	}
+
+	@Override
+	public void dispose()
+	{
+		record(DISPOSE);
+		m_state.dispose();
+	}
+
+	@Override
+	public void setColor(Color c)
+	{
+		m_state.setColor(c);
+		record(SET_COLOR, c);
+	}
+
+	@Override
+	public Color getColor()
+	{
+		return(m_state.getColor());
+	}
+
+	@Override
+	public void setPaint(Paint paint)
+	{
+		m_state.setPaint(paint);
+		record(SET_PAINT, paint);
+	}
+
+	@Override
+	public Paint getPaint()
+	{
+		return(m_state.getPaint());
+	}
+
+	@Override
+	public void setPaintMode()
+	{
+		m_state.setPaintMode();
+		record(SET_PAINT_MODE);
+	}
+
+	@Override
+	public void setXORMode(Color c1)
+	{
+		m_state.setXORMode(c1);
+		record(SET_XOR_MODE, c1);
+	}
+
+	@Override
+	public void setFont(Font font)
+	{
+		m_state.setFont(font);
+		record(SET_FONT, font);
+	}
+
+	@Override
+	public Font getFont()
+	{
+		return(m_state.getFont());
+	}
+
+	@Override
+	public FontMetrics getFontMetrics(Font f)
+	{
+		return(m_state.getFontMetrics(f));
+	}
+
+	@Override
+	public FontRenderContext getFontRenderContext()
+	{
+		return(m_state.getFontRenderContext());
+	}
+
+	@Override
+	public void setComposite(Composite comp)
+	{
+		m_state.setComposite(comp);
+		record(SET_COMPOSITE, comp);
+	}
+
+	@Override
+	public Composite getComposite()
+	{
+		return(m_state.getComposite());
+	}
+
+	@Override
+	public void setStroke(Stroke s)
+	{
+		m_state.setStroke(s);
+		record(SET_STROKE, s);
+	}
+
+	@Override
+	public Stroke getStroke()
+	{
+		return(m_state.getStroke());
+	}
+
+	@Override
+	public void setBackground(Color color)
+	{
+		m_state.setBackground(color);
+		record(SET_BACKGROUND, color);
+	}
+
+	@Override
+	public Color getBackground()
+	{
+		return(m_state.getBackground());
+	}
+
+	@Override
+	public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue)
+	{
+		m_state.setRenderingHint(hintKey, hintValue);
+		record(SET_RENDERING_HINT, hintKey, hintValue);
+	}
+
+	@Override
+	public Object getRenderingHint(RenderingHints.Key hintKey)
+	{
+		return(m_state.getRenderingHint(hintKey));
+	}
+
+	@Override
+	public void setRenderingHints(Map<?, ?> hints)
+	{
+		m_state.setRenderingHints(hints);
+		record(SET_RENDERING_HINTS, new RenderingHints(castHints(hints)));
+	}
+
+	@Override
+	public void addRenderingHints(Map<?, ?> hints)
+	{
+		m_state.addRenderingHints(hints);
+		record(ADD_RENDERING_HINTS, new RenderingHints(castHints(hints)));
+	}
+
+	/**
+	 * Cast rendering hints to type needed to copy them.
+	 * @param hints rendering hints.
+	 * @return rendering hints.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<RenderingHints.Key, ?> castHints(Map<?, ?> hints)
+	{
+		return((Map<RenderingHints.Key, ?>)hints);
+	}
+
+	@Override
+	public RenderingHints getRenderingHints()
+	{
+		return(m_state.getRenderingHints());
+	}
+
+	@Override
+	public void translate(int x, int y)
+	{
+		translate((double)x, (double)y);
+	}
+
+	@Override
+	public void translate(double tx, double ty)
+	{
+		m_state.translate(tx, ty);
+		record(TRANSLATE, Double.valueOf(tx), Double.valueOf(ty));
+	}
+
+	@Override
+	public void rotate(double theta)
+	{
+		transform(AffineTransform.getRotateInstance(theta));
+	}
+
+	@Override
+	public void rotate(double theta, double x, double y)
+	{
+		transform(AffineTransform.getRotateInstance(theta, x, y));
+	}
+
+	@Override
+	public void scale(double sx, double sy)
+	{
+		m_state.scale(sx, sy);
+		record(SCALE, Double.valueOf(sx), Double.valueOf(sy));
+	}
+
+	@Override
+	public void shear(double shx, double shy)
+	{
+		transform(AffineTransform.getShearInstance(shx, shy));
+	}
+
+	@Override
+	public void transform(AffineTransform tx)
+	{
+		m_state.transform(tx);
+		record(TRANSFORM, new AffineTransform(tx));
+	}
+
+	@Override
+	public void setTransform(AffineTransform tx)
+	{
+		m_state.setTransform(tx);
+		record(SET_TRANSFORM, new AffineTransform(tx));
+	}
+
+	@Override
+	public AffineTransform getTransform()
+	{
+		return(m_state.getTransform());
+	}
+
+	@Override
+	public void clip(Shape s)
+	{
+		if (s != null)
+			s = copyShape(s);
+		m_state.clip(s);
+		record(CLIP, s);
+	}
+
+	@Override
+	public void setClip(Shape clip)
+	{
+		if (clip != null)
+			clip = copyShape(clip);
+		m_state.setClip(clip);
+		record(SET_CLIP, clip);
+	}
+
+	@Override
+	public void clipRect(int x, int y, int width, int height)
+	{
+		m_state.clipRect(x, y, width, height);
+		record(CLIP_RECT, Integer.valueOf(x), Integer.valueOf(y),
+			Integer.valueOf(width), Integer.valueOf(height));
+	}
+
+	@Override
+	public void setClip(int x, int y, int width, int height)
+	{
+		m_state.setClip(x, y, width, height);
+		record(SET_CLIP_RECT, Integer.valueOf(x), Integer.valueOf(y),
+			Integer.valueOf(width), Integer.valueOf(height));
+	}
+
+	@Override
+	public Shape getClip()
+	{
+		return(m_state.getClip());
+	}
+
+	@Override
+	public Rectangle getClipBounds()
+	{
+		return(m_state.getClipBounds());
+	}
+
+	@Override
+	public boolean hit(Rectangle rect, Shape s, boolean onStroke)
+	{
+		return(m_state.hit(rect, s, onStroke));
+	}
+
+	@Override
+	public GraphicsConfiguration getDeviceConfiguration()
+	{
+		return(m_state.getDeviceConfiguration());
+	}
+
+	/**
+	 * Copy a shape, so that later changes to the shape by the caller
+	 * do not change the recorded operation.
+	 * @param s shape to copy.
+	 * @return copy of shape, of the same class as the shape where possible
+	 * so that it is drawn in the same way when replayed.
+	 */
+	private static Shape copyShape(Shape s)
+	{
+		Shape retval;
+		if (s instanceof Path2D)
+			retval = (Shape)((Path2D)s).clone();
+		else if (s instanceof RectangularShape)
+			retval = (Shape)((RectangularShape)s).clone();
+		else if (s instanceof Line2D)
+			retval = (Shape)((Line2D)s).clone();
+		else if (s instanceof Area)
+			retval = (Shape)((Area)s).clone();
+		else
+			retval = new Path2D.Double(s);
+		return(retval);
+	}
+
+	@Override
+	public void draw(Shape s)
+	{
+		Shape copy = copyShape(s);
+		double margin = getStrokeMargin(m_state.getStroke());
+		recordDrawing((margin >= 0) ? copy.getBounds2D() : null, margin, DRAW, copy);
+	}
+
+	@Override
+	public void fill(Shape s)
+	{
+		Shape copy = copyShape(s);
+		recordDrawing(copy.getBounds2D(), 0, FILL, copy);
+	}
+
+	@Override
+	public void drawString(String str, int x, int y)
+	{
+		drawString(str, (float)x, (float)y);
+	}
+
+	@Override
+	public void drawString(String str, float x, float y)
+	{
+		/*
+		 * Use bounds of glyphs, which include any rotation in the
+		 * transform of the font, and allow for anti-aliasing and hinting
+		 * of characters extending outside their bounds.
+		 */
+		Font font = m_state.getFont();
+		GlyphVector glyphs = font.createGlyphVector(m_state.getFontRenderContext(), str);
+		Rectangle2D bounds = glyphs.getVisualBounds();
+		bounds.setRect(bounds.getX() + x, bounds.getY() + y, bounds.getWidth(), bounds.getHeight());
+		recordDrawing(bounds, font.getSize2D(), DRAW_STRING, str, Float.valueOf(x), Float.valueOf(y));
+	}
+
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, int x, int y)
+	{
+		drawString(iterator, (float)x, (float)y);
+	}
+
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, float x, float y)
+	{
+		/*
+		 * Iterator cannot be reused so draw it later as a layout.
+		 */
+		TextLayout layout = new TextLayout(iterator, m_state.getFontRenderContext());
+		Rectangle2D bounds = layout.getBounds();
+		bounds.setRect(bounds.getX() + x, bounds.getY() + y, bounds.getWidth(), bounds.getHeight());
+		recordDrawing(bounds, m_state.getFont().getSize2D(), DRAW_TEXT_LAYOUT,
+			layout, Float.valueOf(x), Float.valueOf(y));
+	}
+
+	@Override
+	public void drawGlyphVector(GlyphVector g, float x, float y)
+	{
+		Rectangle2D bounds = g.getVisualBounds();
+		bounds.setRect(bounds.getX() + x, bounds.getY() + y, bounds.getWidth(), bounds.getHeight());
+		recordDrawing(bounds, g.getFont().getSize2D(), DRAW_GLYPH_VECTOR,
+			g, Float.valueOf(x), Float.valueOf(y));
+	}
+
+	@Override
+	public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs)
+	{
+		AffineTransform affine = (xform != null) ? new AffineTransform(xform) : new AffineTransform();
+		Rectangle2D bounds = null;
+		int width = img.getWidth(null);
+		int height = img.getHeight(null);
+		if (width >= 0 && height >= 0)
+			bounds = affine.createTransformedShape(new Rectangle(0, 0, width, height)).getBounds2D();
+		recordDrawing(bounds, 0, DRAW_IMAGE_TRANSFORM, img, affine);
+		return(true);
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y)
+	{
+		record(DRAW_IMAGE_OP, img, op, Integer.valueOf(x), Integer.valueOf(y));
+	}
+
+	@Override
+	public void drawRenderedImage(RenderedImage img, AffineTransform xform)
+	{
+		record(DRAW_RENDERED_IMAGE, img, new AffineTransform(xform));
+	}
+
+	@Override
+	public void drawRenderableImage(RenderableImage img, AffineTransform xform)
+	{
+		record(DRAW_RENDERABLE_IMAGE, img, new AffineTransform(xform));
+	}
+
+	@Override
+	public boolean drawImage(Image img, int x, int y, ImageObserver observer)
+	{
+		record(DRAW_IMAGE, img, Integer.valueOf(x), Integer.valueOf(y));
+		return(true);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer)
+	{
+		record(DRAW_IMAGE_SCALED, img, Integer.valueOf(x), Integer.valueOf(y),
+			Integer.valueOf(width), Integer.valueOf(height));
+		return(true);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer)
+	{
+		record(DRAW_IMAGE_BG, img, Integer.valueOf(x), Integer.valueOf(y), bgcolor);
+		return(true);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int x, int y, int width, int height,
+		Color bgcolor, ImageObserver observer)
+	{
+		record(DRAW_IMAGE_SCALED_BG, img, Integer.valueOf(x), Integer.valueOf(y),
+			Integer.valueOf(width), Integer.valueOf(height), bgcolor);
+		return(true);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+		int sx1, int sy1, int sx2, int sy2, ImageObserver observer)
+	{
+		record(DRAW_IMAGE_AREA, img, Integer.valueOf(dx1), Integer.valueOf(dy1),
+			Integer.valueOf(dx2), Integer.valueOf(dy2), Integer.valueOf(sx1),
+			Integer.valueOf(sy1), Integer.valueOf(sx2), Integer.valueOf(sy2));
+		return(true);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+		int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer)
+	{
+		record(DRAW_IMAGE_AREA_BG, img, Integer.valueOf(dx1), Integer.valueOf(dy1),
+			Integer.valueOf(dx2), Integer.valueOf(dy2), Integer.valueOf(sx1),
+			Integer.valueOf(sy1), Integer.valueOf(sx2), Integer.valueOf(sy2), bgcolor);
+		return(true);
+	}
+
+	@Override
+	public void copyArea(int x, int y, int width, int height, int dx, int dy)
+	{
+		record(COPY_AREA, Integer.valueOf(x), Integer.valueOf(y), Integer.valueOf(width),
+			Integer.valueOf(height), Integer.valueOf(dx), Integer.valueOf(dy));
+	}
+
+	@Override
+	public void drawLine(int x1, int y1, int x2, int y2)
+	{
+		record(DRAW_LINE, Integer.valueOf(x1), Integer.valueOf(y1),
+			Integer.valueOf(x2), Integer.valueOf(y2));
+	}
+
+	@Override
+	public void fillRect(int x, int y, int width, int height)
+	{
+		recordDrawing(new Rectangle(x, y, width, height), 0, FILL_RECT,
+			Integer.valueOf(x), Integer.valueOf(y), Integer.valueOf(width), Integer.valueOf(height));
+	}
+
+	@Override
+	public void clearRect(int x, int y, int width, int height)
+	{
+		recordDrawing(new Rectangle(x, y, width, height), 0, CLEAR_RECT,
+			Integer.valueOf(x), Integer.valueOf(y), Integer.valueOf(width), Integer.valueOf(height));
+	}
+
+	@Override
+	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight)
+	{
+		record(DRAW_ROUND_RECT, Integer.valueOf(x), Integer.valueOf(y), Integer.valueOf(width),
+			Integer.valueOf(height), Integer.valueOf(arcWidth), Integer.valueOf(arcHeight));
+	}
+
+	@Override
+	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight)
+	{
+		record(FILL_ROUND_RECT, Integer.valueOf(x), Integer.valueOf(y), Integer.valueOf(width),
+			Integer.valueOf(height), Integer.valueOf(arcWidth), Integer.valueOf(arcHeight));
+	}
+
+	@Override
+	public void drawOval(int x, int y, int width, int height)
+	{
+		record(DRAW_OVAL, Integer.valueOf(x), Integer.valueOf(y),
+			Integer.valueOf(width), Integer.valueOf(height));
+	}
+
+	@Override
+	public void fillOval(int x, int y, int width, int height)
+	{
+		record(FILL_OVAL, Integer.valueOf(x), Integer.valueOf(y),
+			Integer.valueOf(width), Integer.valueOf(height));
+	}
+
+	@Override
+	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle)
+	{
+		record(DRAW_ARC, Integer.valueOf(x), Integer.valueOf(y), Integer.valueOf(width),
+			Integer.valueOf(height), Integer.valueOf(startAngle), Integer.valueOf(arcAngle));
+	}
+
+	@Override
+	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle)
+	{
+		record(FILL_ARC, Integer.valueOf(x), Integer.valueOf(y), Integer.valueOf(width),
+			Integer.valueOf(height), Integer.valueOf(startAngle), Integer.valueOf(arcAngle));
+	}
+
+	@Override
+	public void drawPolyline(int []xPoints, int []yPoints, int nPoints)
+	{
+		record(DRAW_POLYLINE, xPoints.clone(), yPoints.clone(), Integer.valueOf(nPoints));
+	}
+
+	@Override
+	public void drawPolygon(int []xPoints, int []yPoints, int nPoints)
+	{
+		record(DRAW_POLYGON, xPoints.clone(), yPoints.clone(), Integer.valueOf(nPoints));
+	}
+
+	@Override
+	public void fillPolygon(int []xPoints, int []yPoints, int nPoints)
+	{
+		record(FILL_POLYGON, xPoints.clone(), yPoints.clone(), Integer.valueOf(nPoints));
+	}
+}
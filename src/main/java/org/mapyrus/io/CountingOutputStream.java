@@ -0,0 +1,66 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that counts the number of bytes written through it.
+ * Used for finding file offsets of objects written to a file.
+ */
+public class CountingOutputStream extends FilterOutputStream
+{
+	private long m_count;
+
+	/**
+	 * Create new counting stream.
+	 * @param out stream to write to.
+	 */
+	public CountingOutputStream(OutputStream out)
+	{
+		super(out);
+		m_count = 0;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		out.write(b);
+		m_count++;
+	}
+
+	@Override
+	public void write(byte []b, int off, int len) throws IOException
+	{
+		out.write(b, off, len);
+		m_count += len;
+	}
+
+	/**
+	 * Get number of bytes written.
+	 * @return byte count.
+	 */
+	public long getCount()
+	{
+		return(m_count);
+	}
+}
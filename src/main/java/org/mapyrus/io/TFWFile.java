@@ -45,6 +45,20 @@ public class TFWFile implements GeoImageBoundingBox
 	 */
 	public TFWFile(String filename, BufferedImage image)
 		throws MapyrusException, IOException
+	{
+		this(filename, image.getWidth(), image.getHeight());
+	}
+
+	/**
+	 * Read tfw file for an image.
+	 * @param filename filename of image or tfw file.
+	 * @param imageWidth width of image in pixels.
+	 * @param imageHeight height of image in pixels.
+	 * @throws IOException if file cannot be opened or read.
+	 * @throws MapyrusException if file is not a TFW file.
+	 */
+	public TFWFile(String filename, int imageWidth, int imageHeight)
+		throws MapyrusException, IOException
 	{
 		double []values = new double[6];
 		int nValuesRead = 0;
@@ -112,8 +126,6 @@ public class TFWFile implements GeoImageBoundingBox
 			double xMin = values[4] - pixelWidth / 2;
 			double yMax = values[5] + pixelHeight / 2;
 
-			int imageWidth = image.getWidth();
-			int imageHeight = image.getHeight();
 			m_bounds = new Rectangle2D.Double(xMin, yMax - imageHeight * pixelHeight,
 				imageWidth * pixelWidth, imageHeight * pixelHeight);
 		}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+public class TestBatchRenderer
+{
+	/*
+	 * Commands writing a small page, with tile position in the page.
+	 */
+	private static final String PAGE_COMMANDS =
+		"newpage 'eps', BATCH_FILENAME, 20, 20\n" +
+		"worlds BATCH_XMIN, BATCH_YMIN, BATCH_XMAX, BATCH_YMAX\n" +
+		"font 'Helvetica', 3\n" +
+		"clearpath\n" +
+		"move BATCH_XMIN, BATCH_YMIN\n" +
+		"label 'tile ' . BATCH_ROW . ' ' . BATCH_COLUMN . ' ' . BATCH_INDEX\n";
+
+	private static String readFile(File f) throws IOException
+	{
+		return(new String(Files.readAllBytes(f.toPath()), StandardCharsets.ISO_8859_1));
+	}
+
+	private static void deleteDirectory(File dir)
+	{
+		File []files = dir.listFiles();
+		if (files != null)
+		{
+			for (File f : files)
+				f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testGrid() throws Exception
+	{
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		String filename = new File(dir, "tile_{row}_{column}.eps").getPath();
+		BatchRenderer renderer = new BatchRenderer("grid:3,2,0,0,300,200," + filename);
+		assertEquals(6, renderer.getPageCount());
+		assertTrue(renderer.render(new Interpreter(), PAGE_COMMANDS, null, 3));
+
+		/*
+		 * Each tile is written, with its own row and column,
+		 * and no temporary files remain.
+		 */
+		assertEquals(6, dir.listFiles().length);
+		int index = 1;
+		for (int row = 0; row < 2; row++)
+		{
+			for (int column = 0; column < 3; column++)
+			{
+				File tile = new File(dir, "tile_" + row + "_" + column + ".eps");
+				assertTrue(tile.isFile());
+				assertTrue(readFile(tile).contains("(tile " + row + " " + column + " " + index + ")"));
+				index++;
+			}
+		}
+		deleteDirectory(dir);
+	}
+
+	@Test
+	public void testPageList() throws Exception
+	{
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		File pageList = new File(dir, "pages.txt");
+		String page1 = new File(dir, "a.eps").getPath();
+		String page2 = new File(dir, "b.eps").getPath();
+		String list = "# pages\n" +
+			page1 + " 0 0 10 10\n" +
+			"\n" +
+			page2 + " 10 0 20 10\n";
+		Files.write(pageList.toPath(), list.getBytes(StandardCharsets.UTF_8));
+
+		BatchRenderer renderer = new BatchRenderer(pageList.getPath());
+		assertEquals(2, renderer.getPageCount());
+		assertTrue(renderer.render(new Interpreter(), PAGE_COMMANDS, null, 2));
+		assertTrue(new File(page1).isFile());
+		assertTrue(new File(page2).isFile());
+		deleteDirectory(dir);
+	}
+
+	@Test
+	public void testInvalidGrid() throws Exception
+	{
+		boolean isThrown = false;
+		try
+		{
+			new BatchRenderer("grid:0,2,0,0,300,200,x.eps");
+		}
+		catch (MapyrusException e)
+		{
+			isThrown = true;
+		}
+		assertTrue(isThrown);
+	}
+
+	@Test
+	public void testPageNotWritten() throws Exception
+	{
+		/*
+		 * Commands for second page do not create a page, so
+		 * rendering fails although no error is reported by commands.
+		 */
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		String filename = new File(dir, "tile_{column}.eps").getPath();
+		BatchRenderer renderer = new BatchRenderer("grid:3,1,0,0,30,10," + filename);
+		String commands = "if BATCH_INDEX != 2 then\n" + PAGE_COMMANDS + "endif\n";
+		assertFalse(renderer.render(new Interpreter(), commands, null, 2));
+		assertTrue(new File(dir, "tile_0.eps").isFile());
+		assertFalse(new File(dir, "tile_1.eps").exists());
+		assertTrue(new File(dir, "tile_2.eps").isFile());
+		assertEquals(2, dir.listFiles().length);
+		deleteDirectory(dir);
+	}
+
+	@Test
+	public void testPageError() throws Exception
+	{
+		/*
+		 * Error in one page does not stop other pages, and leaves
+		 * no partly written page.
+		 */
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		String filename = new File(dir, "tile_{column}.eps").getPath();
+		BatchRenderer renderer = new BatchRenderer("grid:2,1,0,0,20,10," + filename);
+		String commands = PAGE_COMMANDS +
+			"if BATCH_INDEX == 1 then\n" +
+			"  color 'nosuchcolor'\n" +
+			"endif\n";
+		assertFalse(renderer.render(new Interpreter(), commands, null, 2));
+		assertFalse(new File(dir, "tile_0.eps").exists());
+		assertTrue(new File(dir, "tile_1.eps").isFile());
+		assertEquals(1, dir.listFiles().length);
+		deleteDirectory(dir);
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.mapyrus.image.ImageIOWrapper;
+
+/**
+ * Tests for reading part of a geo-referenced image, at reduced resolution.
+ */
+public class TestGeoImageRead
+{
+	private static final int IMAGE_SIZE = 256;
+
+	/**
+	 * Create image with a different color for every pixel.
+	 * @return image.
+	 */
+	private static BufferedImage createImage()
+	{
+		BufferedImage retval = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < IMAGE_SIZE; y++)
+		{
+			for (int x = 0; x < IMAGE_SIZE; x++)
+				retval.setRGB(x, y, (x << 16) | (y << 8) | ((x * 7 + y * 13) & 0xff));
+		}
+		return(retval);
+	}
+
+	/**
+	 * Create reduced resolution copy of image, taking every Nth pixel.
+	 * @param image full resolution image.
+	 * @param reduction reduction factor.
+	 * @return reduced image.
+	 */
+	private static BufferedImage reduce(BufferedImage image, int reduction)
+	{
+		int size = image.getWidth() / reduction;
+		BufferedImage retval = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < size; y++)
+		{
+			for (int x = 0; x < size; x++)
+				retval.setRGB(x, y, image.getRGB(x * reduction, y * reduction));
+		}
+		return(retval);
+	}
+
+	/**
+	 * Check that image read at reduced resolution matches every Nth pixel
+	 * in region of full resolution image.
+	 * @param full full resolution image.
+	 * @param region region of full resolution image.
+	 * @param step distance between pixels in full resolution image.
+	 * @param image reduced resolution image that was read.
+	 */
+	private static void assertReduced(BufferedImage full, Rectangle region,
+		int step, BufferedImage image)
+	{
+		assertEquals((region.width + step - 1) / step, image.getWidth());
+		assertEquals((region.height + step - 1) / step, image.getHeight());
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			for (int x = 0; x < image.getWidth(); x++)
+			{
+				assertEquals(full.getRGB(region.x + x * step, region.y + y * step),
+					image.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testOverviewIndex()
+	{
+		Dimension []sizes = new Dimension[]{new Dimension(128, 128),
+			new Dimension(64, 64), new Dimension(32, 32)};
+		assertEquals(-1, Context.getOverviewIndex(sizes, IMAGE_SIZE, 1));
+		assertEquals(-1, Context.getOverviewIndex(sizes, IMAGE_SIZE, 1.9));
+		assertEquals(0, Context.getOverviewIndex(sizes, IMAGE_SIZE, 2));
+		assertEquals(0, Context.getOverviewIndex(sizes, IMAGE_SIZE, 3.5));
+		assertEquals(1, Context.getOverviewIndex(sizes, IMAGE_SIZE, 4.5));
+		assertEquals(2, Context.getOverviewIndex(sizes, IMAGE_SIZE, 100));
+		assertEquals(-1, Context.getOverviewIndex(null, IMAGE_SIZE, 100));
+	}
+
+	@Test
+	public void testSubsampledRead() throws IOException
+	{
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		File imageFile = new File(dir, "image.png");
+		BufferedImage full = createImage();
+		ImageIO.write(full, "png", imageFile);
+
+		Dimension []sizes = ImageIOWrapper.getImageSizes(imageFile, false);
+		assertEquals(1, sizes.length);
+		assertEquals(new Dimension(IMAGE_SIZE, IMAGE_SIZE), sizes[0]);
+
+		/*
+		 * Reading part of image, with and without subsampling, gives
+		 * the same pixels as the full resolution image.
+		 */
+		Rectangle region = new Rectangle(37, 90, 101, 64);
+		assertReduced(full, region, 1, ImageIOWrapper.read(imageFile, 0, region, 1));
+		assertReduced(full, region, 3, ImageIOWrapper.read(imageFile, 0, region, 3));
+		assertReduced(full, new Rectangle(0, 0, IMAGE_SIZE, IMAGE_SIZE), 4,
+			ImageIOWrapper.read(imageFile, 0, new Rectangle(0, 0, IMAGE_SIZE, IMAGE_SIZE), 4));
+
+		imageFile.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testOverviewRead() throws IOException
+	{
+		/*
+		 * Overview files are TIFF files containing several images.
+		 */
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+		assumeTrue(writers.hasNext());
+
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		File imageFile = new File(dir, "image.png");
+		File overviewFile = new File(dir, "image.png.ovr");
+		BufferedImage full = createImage();
+		ImageIO.write(full, "png", imageFile);
+
+		ImageWriter writer = writers.next();
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(overviewFile))
+		{
+			writer.setOutput(out);
+			writer.prepareWriteSequence(null);
+			writer.writeToSequence(new IIOImage(reduce(full, 2), null, null), null);
+			writer.writeToSequence(new IIOImage(reduce(full, 4), null, null), null);
+			writer.endWriteSequence();
+		}
+		finally
+		{
+			writer.dispose();
+		}
+
+		Dimension []sizes = ImageIOWrapper.getImageSizes(overviewFile, true);
+		assertEquals(2, sizes.length);
+		assertEquals(new Dimension(128, 128), sizes[0]);
+		assertEquals(new Dimension(64, 64), sizes[1]);
+
+		/*
+		 * Overview chosen for a reduction of 6 is the one reduced by 4.
+		 * Reading it with subsampling for the remaining reduction matches
+		 * subsampled read of full resolution image.
+		 */
+		int overviewIndex = Context.getOverviewIndex(sizes, IMAGE_SIZE, 6);
+		assertEquals(1, overviewIndex);
+		Rectangle overviewRegion = new Rectangle(10, 5, 40, 30);
+		BufferedImage overview = ImageIOWrapper.read(overviewFile, overviewIndex, overviewRegion, 1);
+		assertNotNull(overview);
+		Rectangle fullRegion = new Rectangle(40, 20, 160, 120);
+		assertReduced(full, fullRegion, 4, overview);
+		assertReduced(full, fullRegion, 4, ImageIOWrapper.read(imageFile, 0, fullRegion, 4));
+
+		overview = ImageIOWrapper.read(overviewFile, 0, new Rectangle(20, 10, 80, 60), 2);
+		assertReduced(full, fullRegion, 4, overview);
+
+		imageFile.delete();
+		overviewFile.delete();
+		dir.delete();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for sorting keys of hash maps, checking that keys and values
+ * are ordered in the same way as Argument.compareTo.
+ */
+public class TestHashMapSort
+{
+	@Test
+	public void testMixedKeys()
+	{
+		/*
+		 * Integer keys are compared numerically with each other,
+		 * other keys are compared as strings.
+		 */
+		Argument hashMap = new Argument();
+		hashMap.addHashMapEntry("20", Argument.numericOne);
+		hashMap.addHashMapEntry("5", Argument.numericOne);
+		hashMap.addHashMapEntry("1x", Argument.numericOne);
+		hashMap.addHashMapEntry("-3", Argument.numericOne);
+		assertArrayEquals(new Object[]{"-3", "1x", "5", "20"}, hashMap.getHashMapKeys());
+	}
+
+	@Test
+	public void testMixedValues()
+	{
+		/*
+		 * Numbers are compared with strings as strings.
+		 */
+		Argument hashMap = new Argument();
+		hashMap.addHashMapEntry("a", new Argument(5));
+		hashMap.addHashMapEntry("b", new Argument(Argument.STRING, "1x"));
+		hashMap.addHashMapEntry("c", new Argument(20));
+		hashMap.addHashMapEntry("d", new Argument(Argument.STRING, "apple"));
+		hashMap.addHashMapEntry("e", new Argument(9));
+		assertArrayEquals(new Object[]{"b", "a", "e", "c", "d"},
+			hashMap.getHashMapKeysSortedByValue());
+
+		Argument a = hashMap.getHashMapEntry("a");
+		Argument b = hashMap.getHashMapEntry("b");
+		assertEquals(1, Integer.signum(a.compareTo(b)));
+	}
+
+	@Test
+	public void testNearlyEqualValues()
+	{
+		/*
+		 * Values equal to within rounding error are equal,
+		 * leaving their keys in key order.
+		 */
+		Argument hashMap = new Argument();
+		hashMap.addHashMapEntry("1", new Argument(0.1 + 0.2));
+		hashMap.addHashMapEntry("2", new Argument(0.3));
+		hashMap.addHashMapEntry("3", new Argument(0.29));
+		hashMap.addHashMapEntry("4", new Argument(0.3 - 1e-15));
+		assertArrayEquals(new Object[]{"3", "1", "2", "4"},
+			hashMap.getHashMapKeysSortedByValue());
+		assertEquals(0, hashMap.getHashMapEntry("1").compareTo(hashMap.getHashMapEntry("4")));
+	}
+
+	@Test
+	public void testInconsistentValues()
+	{
+		/*
+		 * Comparing numbers and strings is not transitive:
+		 * 2 < 10 but "10" < "1x" < "2".  All keys must still be returned.
+		 */
+		Argument hashMap = new Argument();
+		for (int i = 0; i < 300; i++)
+		{
+			Argument value;
+			if (i % 3 == 0)
+				value = new Argument(2);
+			else if (i % 3 == 1)
+				value = new Argument(10);
+			else
+				value = new Argument(Argument.STRING, "1x" + (i % 7));
+			hashMap.addHashMapEntry(Integer.toString(i * 7919 % 300), value);
+		}
+		Object []keys = hashMap.getHashMapKeysSortedByValue();
+		assertEquals(300, keys.length);
+		HashSet<Object> uniqueKeys = new HashSet<Object>();
+		for (int i = 0; i < keys.length; i++)
+			uniqueKeys.add(keys[i]);
+		assertEquals(300, uniqueKeys.size());
+	}
+}
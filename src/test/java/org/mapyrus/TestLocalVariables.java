@@ -0,0 +1,163 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for scope of procedure and function parameters and local variables.
+ */
+public class TestLocalVariables
+{
+	/**
+	 * Run commands and return everything they print.
+	 * @param commands commands to run.
+	 * @return output of commands, with lines separated by newlines.
+	 */
+	private static String run(String commands)
+		throws IOException, InterruptedException, MapyrusException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream stdout = new PrintStream(bytes, true, "UTF-8");
+		ContextStack context = new ContextStack();
+		Interpreter interpreter = new Interpreter();
+		FileOrURL f = new FileOrURL(new StringReader(commands), "test");
+		interpreter.interpret(context, f, new ByteArrayInputStream(new byte[0]), stdout);
+		context.closeContextStack();
+		stdout.flush();
+		return(bytes.toString("UTF-8").replace("\r\n", "\n"));
+	}
+
+	@Test
+	public void testParametersAndLocals() throws Exception
+	{
+		String commands = "let x = 1, y = 2\n" +
+			"begin p1 x\n" +
+			"  let x = x + 10\n" +
+			"  local y\n" +
+			"  let y = 7\n" +
+			"  let z = x + y\n" +
+			"  print 'p1', x, y, z\n" +
+			"end\n" +
+			"p1 100\n" +
+			"print 'after', x, y, z\n";
+		assertEquals("p1 110 7 117\nafter 1 2 117\n", run(commands));
+	}
+
+	@Test
+	public void testConditionalLocal() throws Exception
+	{
+		/*
+		 * Variable only becomes local when 'local' statement executes.
+		 */
+		String commands = "let y = 2\n" +
+			"begin p2 flag\n" +
+			"  if flag then\n" +
+			"    local y\n" +
+			"  endif\n" +
+			"  let y = y + 1\n" +
+			"  print 'p2', y\n" +
+			"end\n" +
+			"p2 0\n" +
+			"print 'global', y\n" +
+			"p2 1\n" +
+			"print 'global', y\n";
+		assertEquals("p2 3\nglobal 3\np2 1\nglobal 3\n", run(commands));
+	}
+
+	@Test
+	public void testRecursiveFunction() throws Exception
+	{
+		String commands = "let n = 5\n" +
+			"function fact n\n" +
+			"  if n <= 1 then\n" +
+			"    return 1\n" +
+			"  endif\n" +
+			"  local t\n" +
+			"  let t = n * fact(n - 1)\n" +
+			"  return t\n" +
+			"end\n" +
+			"let result = fact(6)\n" +
+			"print result, n, t\n";
+		assertEquals("720 5 \n", run(commands));
+	}
+
+	@Test
+	public void testNestedProcedures() throws Exception
+	{
+		/*
+		 * Locals of calling procedure are not visible in called procedure.
+		 */
+		String commands = "begin outer a\n" +
+			"  local b\n" +
+			"  let b = a * 2\n" +
+			"  inner b\n" +
+			"  print 'outer', a, b, c\n" +
+			"end\n" +
+			"begin inner b\n" +
+			"  let c = b + 1\n" +
+			"  local a\n" +
+			"  let a = 'inner'\n" +
+			"  print 'inner', a, b\n" +
+			"end\n" +
+			"outer 3\n" +
+			"print 'after', a, b, c\n";
+		assertEquals("inner inner 6\nouter 3 6 7\nafter   7\n", run(commands));
+	}
+
+	@Test
+	public void testLocalArray() throws Exception
+	{
+		String commands = "begin arr k\n" +
+			"  local h\n" +
+			"  let h[k] = k . 'v'\n" +
+			"  let g[k] = h[k]\n" +
+			"  print 'arr', length(h), h[k]\n" +
+			"end\n" +
+			"arr 1\n" +
+			"arr 2\n" +
+			"print 'global', length(g), g[1], g[2], length(h)\n";
+		assertEquals("arr 1 1v\narr 1 2v\nglobal 2 1v 2v 0\n", run(commands));
+	}
+
+	@Test
+	public void testInternalVariables() throws Exception
+	{
+		/*
+		 * Internal variables are available inside procedures,
+		 * alongside local variables.
+		 */
+		String commands = "begin p total\n" +
+			"  local count\n" +
+			"  let count = total + 1\n" +
+			"  print Mapyrus.key.count, Mapyrus.fetch.more, count\n" +
+			"end\n" +
+			"p 4\n";
+		assertEquals("0 0 5\n", run(commands));
+	}
+}
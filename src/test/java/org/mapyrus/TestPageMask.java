@@ -0,0 +1,72 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+
+import org.junit.jupiter.api.Test;
+
+public class TestPageMask
+{
+	@Test
+	public void testRectangle()
+	{
+		PageMask mask = new PageMask(210, 297);
+		assertTrue(mask.isAllZero(0, 0, 209, 296));
+
+		mask.setValue(10, 10, 30, 30, 1);
+		assertFalse(mask.isAllZero(25, 25, 50, 50));
+		assertTrue(mask.isAllZero(31, 31, 50, 50));
+
+		mask.setValue(0, 0, 100, 100, 0);
+		assertTrue(mask.isAllZero(25, 25, 50, 50));
+	}
+
+	@Test
+	public void testOutsidePage()
+	{
+		PageMask mask = new PageMask(100, 100);
+		assertFalse(mask.isAllZero(-1, 10, 20, 20));
+		assertFalse(mask.isAllZero(90, 90, 100, 95));
+		assertFalse(mask.isAllZero(new Rectangle2D.Double(95, 95, 10, 2)));
+	}
+
+	@Test
+	public void testShape()
+	{
+		PageMask mask = new PageMask(300, 200);
+		mask.setValue(new Ellipse2D.Double(100, 50, 60, 60), 1);
+
+		/*
+		 * Corner of bounding box of circle is not inside circle.
+		 */
+		assertTrue(mask.isAllZero(new Rectangle2D.Double(100, 50, 5, 5)));
+		assertFalse(mask.isAllZero(new Rectangle2D.Double(125, 75, 5, 5)));
+		assertFalse(mask.isAllZero(new Rectangle2D.Double(130, 80, 0, 0)));
+		assertTrue(mask.isAllZero(new Rectangle2D.Double(200, 80, 0, 0)));
+
+		mask.setValue(new Ellipse2D.Double(100, 50, 60, 60), 0);
+		assertTrue(mask.isAllZero(new Rectangle2D.Double(125, 75, 5, 5)));
+	}
+}
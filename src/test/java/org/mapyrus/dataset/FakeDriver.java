@@ -0,0 +1,384 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver for tests, implementing just enough of the JDBC interfaces
+ * to run queries with JDBCDataset.  Connections are made with URLs of the
+ * form jdbc:fake:name.  Each query returns rows with an INTEGER ID field,
+ * a VARCHAR NAME field and a BLOB GEOM field containing a point.
+ * The number of rows is 5, or the number given after LIMIT in the query.
+ *
+ * Calls made to the driver are recorded in a log.  If the URL contains
+ * "readonlyfails" then setting a connection to read-only fails.
+ */
+public class FakeDriver implements Driver
+{
+	private static final String URL_PREFIX = "jdbc:fake:";
+	private static final int DEFAULT_ROW_COUNT = 5;
+
+	private static ArrayList<String> m_log = new ArrayList<String>();
+	private static int m_openConnectionCount = 0;
+
+	static
+	{
+		try
+		{
+			DriverManager.registerDriver(new FakeDriver());
+		}
+		catch (SQLException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Add call to log.
+	 * @param message description of call.
+	 */
+	private static synchronized void log(String message)
+	{
+		m_log.add(message);
+	}
+
+	/**
+	 * Get calls made to driver since log was last cleared, and clear log.
+	 * @return calls made to driver.
+	 */
+	public static synchronized ArrayList<String> getLog()
+	{
+		ArrayList<String> retval = m_log;
+		m_log = new ArrayList<String>();
+		return(retval);
+	}
+
+	/**
+	 * Get number of connections that have been opened and not closed.
+	 * @return number of connections.
+	 */
+	public static synchronized int getOpenConnectionCount()
+	{
+		return(m_openConnectionCount);
+	}
+
+	private static synchronized void addOpenConnectionCount(int n)
+	{
+		m_openConnectionCount += n;
+	}
+
+	/**
+	 * Get value to return from a method that the driver does not implement.
+	 * @param method method called.
+	 * @return zero or false for primitive types, otherwise null.
+	 */
+	private static Object getDefaultValue(Method method)
+	{
+		Class<?> c = method.getReturnType();
+		Object retval = null;
+		if (c == Boolean.TYPE)
+			retval = Boolean.FALSE;
+		else if (c == Integer.TYPE)
+			retval = Integer.valueOf(0);
+		else if (c == Long.TYPE)
+			retval = Long.valueOf(0);
+		else if (c == Double.TYPE)
+			retval = Double.valueOf(0);
+		else if (c == Float.TYPE)
+			retval = Float.valueOf(0);
+		else if (c == Short.TYPE)
+			retval = Short.valueOf((short)0);
+		else if (c == Byte.TYPE)
+			retval = Byte.valueOf((byte)0);
+		return(retval);
+	}
+
+	/**
+	 * Get number of rows that a query returns.
+	 * @param sql SQL query.
+	 * @return number of rows.
+	 */
+	private static int getRowCount(String sql)
+	{
+		int retval = DEFAULT_ROW_COUNT;
+		int index = sql.toLowerCase().lastIndexOf(" limit ");
+		if (index >= 0)
+			retval = Integer.parseInt(sql.substring(index + 7).trim());
+		return(retval);
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException
+	{
+		if (!acceptsURL(url))
+			return(null);
+
+		final boolean isReadOnlyFailing = url.contains("readonlyfails");
+		log("connect " + url);
+		addOpenConnectionCount(1);
+
+		InvocationHandler handler = new InvocationHandler()
+		{
+			private boolean m_isClosed = false;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				String name = method.getName();
+				Object retval;
+				if (name.equals("prepareStatement"))
+				{
+					log("prepare " + args[0]);
+					retval = createStatement((String)args[0]);
+				}
+				else if (name.equals("createStatement"))
+				{
+					log("createStatement");
+					retval = createStatement(null);
+				}
+				else if (name.equals("setReadOnly"))
+				{
+					if (isReadOnlyFailing)
+						throw new SQLException("read-only not allowed");
+					retval = null;
+				}
+				else if (name.equals("close"))
+				{
+					if (!m_isClosed)
+					{
+						log("close");
+						addOpenConnectionCount(-1);
+					}
+					m_isClosed = true;
+					retval = null;
+				}
+				else if (name.equals("isClosed"))
+				{
+					retval = Boolean.valueOf(m_isClosed);
+				}
+				else if (name.equals("hashCode"))
+				{
+					retval = Integer.valueOf(System.identityHashCode(proxy));
+				}
+				else if (name.equals("equals"))
+				{
+					retval = Boolean.valueOf(proxy == args[0]);
+				}
+				else
+				{
+					retval = getDefaultValue(method);
+				}
+				return(retval);
+			}
+		};
+		return((Connection)Proxy.newProxyInstance(FakeDriver.class.getClassLoader(),
+			new Class<?>[]{Connection.class}, handler));
+	}
+
+	/**
+	 * Create statement for a connection.
+	 * @param preparedSql SQL for prepared statement, or null for a plain statement.
+	 * @return new statement.
+	 */
+	private static Statement createStatement(final String preparedSql)
+	{
+		InvocationHandler handler = new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				String name = method.getName();
+				Object retval;
+				if (name.equals("setDouble"))
+				{
+					log("setDouble " + args[0] + " " + args[1]);
+					retval = null;
+				}
+				else if (name.equals("setFetchSize"))
+				{
+					log("setFetchSize " + args[0]);
+					retval = null;
+				}
+				else if (name.equals("clearParameters"))
+				{
+					log("clearParameters");
+					retval = null;
+				}
+				else if (name.equals("executeQuery"))
+				{
+					String sql = (preparedSql != null) ? preparedSql : (String)args[0];
+					log("executeQuery " + ((preparedSql != null) ? "prepared" : sql));
+					retval = createResultSet(getRowCount(sql));
+				}
+				else if (name.equals("hashCode"))
+				{
+					retval = Integer.valueOf(System.identityHashCode(proxy));
+				}
+				else if (name.equals("equals"))
+				{
+					retval = Boolean.valueOf(proxy == args[0]);
+				}
+				else
+				{
+					retval = getDefaultValue(method);
+				}
+				return(retval);
+			}
+		};
+		Class<?> c = (preparedSql != null) ? PreparedStatement.class : Statement.class;
+		return((Statement)Proxy.newProxyInstance(FakeDriver.class.getClassLoader(),
+			new Class<?>[]{c}, handler));
+	}
+
+	/**
+	 * Create result of a query.
+	 * @param nRows number of rows in result.
+	 * @return query result.
+	 */
+	private static ResultSet createResultSet(final int nRows)
+	{
+		final String []fieldNames = new String[]{"ID", "NAME", "GEOM"};
+		final int []fieldTypes = new int[]{Types.INTEGER, Types.VARCHAR, Types.BLOB};
+
+		InvocationHandler metadataHandler = new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				String name = method.getName();
+				Object retval;
+				if (name.equals("getColumnCount"))
+					retval = Integer.valueOf(fieldNames.length);
+				else if (name.equals("getColumnName"))
+					retval = fieldNames[((Integer)args[0]).intValue() - 1];
+				else if (name.equals("getColumnType"))
+					retval = Integer.valueOf(fieldTypes[((Integer)args[0]).intValue() - 1]);
+				else
+					retval = getDefaultValue(method);
+				return(retval);
+			}
+		};
+		final ResultSetMetaData metadata = (ResultSetMetaData)Proxy.newProxyInstance(
+			FakeDriver.class.getClassLoader(), new Class<?>[]{ResultSetMetaData.class},
+			metadataHandler);
+
+		InvocationHandler handler = new InvocationHandler()
+		{
+			private int m_rowIndex = 0;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				String name = method.getName();
+				Object retval;
+				if (name.equals("getMetaData"))
+				{
+					retval = metadata;
+				}
+				else if (name.equals("next"))
+				{
+					m_rowIndex++;
+					retval = Boolean.valueOf(m_rowIndex <= nRows);
+				}
+				else if (name.equals("getInt"))
+				{
+					retval = Integer.valueOf(m_rowIndex);
+				}
+				else if (name.equals("getString"))
+				{
+					retval = "name" + m_rowIndex;
+				}
+				else if (name.equals("getBytes"))
+				{
+					/*
+					 * Return point (row, row * 2) in big-endian WKB format.
+					 */
+					ByteBuffer b = ByteBuffer.allocate(21);
+					b.put((byte)0);
+					b.putInt(1);
+					b.putDouble(m_rowIndex);
+					b.putDouble(m_rowIndex * 2);
+					retval = b.array();
+				}
+				else
+				{
+					retval = getDefaultValue(method);
+				}
+				return(retval);
+			}
+		};
+		return((ResultSet)Proxy.newProxyInstance(FakeDriver.class.getClassLoader(),
+			new Class<?>[]{ResultSet.class}, handler));
+	}
+
+	@Override
+	public boolean acceptsURL(String url)
+	{
+		return(url.startsWith(URL_PREFIX));
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+	{
+		return(new DriverPropertyInfo[0]);
+	}
+
+	@Override
+	public int getMajorVersion()
+	{
+		return(1);
+	}
+
+	@Override
+	public int getMinorVersion()
+	{
+		return(0);
+	}
+
+	@Override
+	public boolean jdbcCompliant()
+	{
+		return(false);
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException
+	{
+		throw new SQLFeatureNotSupportedException();
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.mapyrus.ContextStack;
+import org.mapyrus.FileOrURL;
+import org.mapyrus.Interpreter;
+import org.mapyrus.MapyrusMessages;
+
+/**
+ * Tests for database connection pool when all connections are in use,
+ * using a fake JDBC driver.  Runs faster with a small pool size and
+ * timeout set by the Mapyrus.jdbc.pool.size and Mapyrus.jdbc.pool.timeout
+ * properties.
+ */
+public class TestConnectionPool
+{
+	/**
+	 * Take connections from pool until no more are available.
+	 * @param url database URL.
+	 * @return connections taken from pool.
+	 */
+	private static ArrayList<Connection> exhaustPool(String url)
+	{
+		FakeDriver.getLog();
+		ArrayList<Connection> retval = new ArrayList<Connection>();
+		try
+		{
+			while (true)
+				retval.add(ConnectionPool.get(url, new Properties()));
+		}
+		catch (SQLException e)
+		{
+			assertEquals(MapyrusMessages.get(MapyrusMessages.DB_POOL_TIMEOUT), e.getMessage());
+		}
+		return(retval);
+	}
+
+	/**
+	 * Return connections to pool.
+	 * @param url database URL.
+	 * @param connections connections to return.
+	 */
+	private static void releaseAll(String url, ArrayList<Connection> connections)
+	{
+		for (Connection connection : connections)
+			ConnectionPool.put(url, connection, true);
+		connections.clear();
+	}
+
+	@Test
+	public void testExhaustion() throws SQLException
+	{
+		String url = "jdbc:fake:exhaustion";
+		int activeCount = ConnectionPool.getActiveCount();
+		ArrayList<Connection> connections = exhaustPool(url);
+		assertTrue(connections.size() > 0);
+		assertEquals(activeCount + connections.size(), ConnectionPool.getActiveCount());
+
+		/*
+		 * A connection returned to the pool can be taken again.
+		 */
+		Connection connection = connections.remove(0);
+		ConnectionPool.put(url, connection, true);
+		assertTrue(ConnectionPool.get(url, new Properties()) == connection);
+		connections.add(connection);
+
+		releaseAll(url, connections);
+		assertEquals(activeCount, ConnectionPool.getActiveCount());
+	}
+
+	@Test
+	public void testReadOnlyFails()
+	{
+		/*
+		 * Each failed connection must be closed and its place in the pool
+		 * released, otherwise the pool is soon exhausted.
+		 */
+		String url = "jdbc:fake:readonlyfails";
+		FakeDriver.getLog();
+		int openCount = FakeDriver.getOpenConnectionCount();
+		int activeCount = ConnectionPool.getActiveCount();
+		for (int i = 0; i < 3; i++)
+		{
+			try
+			{
+				ConnectionPool.get(url, new Properties());
+				fail("Connection returned");
+			}
+			catch (SQLException e)
+			{
+				assertEquals("read-only not allowed", e.getMessage());
+			}
+		}
+		assertEquals(openCount, FakeDriver.getOpenConnectionCount());
+		assertEquals(activeCount, ConnectionPool.getActiveCount());
+	}
+
+	@Test
+	public void testReopenDataset() throws Exception
+	{
+		/*
+		 * Leave only one connection available in pool, then open
+		 * the same query twice in the same context.
+		 */
+		String url = "jdbc:fake:reopen";
+		ArrayList<Connection> connections = exhaustPool(url);
+		ConnectionPool.put(url, connections.remove(0), true);
+
+		String dataset = "dataset 'jdbc', 'SELECT ID, NAME, GEOM FROM T', " +
+			"'driver=" + FakeDriver.class.getName() + " url=" + url + "'\n";
+		String commands = dataset +
+			"fetch\n" +
+			"print ID\n" +
+			dataset +
+			"fetch\n" +
+			"fetch\n" +
+			"print ID\n";
+
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream stdout = new PrintStream(bytes, true, "UTF-8");
+			ContextStack context = new ContextStack();
+			Interpreter interpreter = new Interpreter();
+			FileOrURL f = new FileOrURL(new StringReader(commands), "test");
+			interpreter.interpret(context, f, new ByteArrayInputStream(new byte[0]), stdout);
+			context.closeContextStack();
+			stdout.flush();
+			assertEquals("1\n2\n", bytes.toString("UTF-8").replace("\r\n", "\n"));
+		}
+		finally
+		{
+			releaseAll(url, connections);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.mapyrus.Argument;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.Row;
+
+/**
+ * Tests for reading rows from a database, using a fake JDBC driver.
+ */
+public class TestJDBCDataset
+{
+	private static final String DRIVER = "driver=" + FakeDriver.class.getName();
+
+	/**
+	 * Check that a row has the values that the fake driver returns.
+	 * @param row row read from dataset.
+	 * @param id expected row number.
+	 */
+	private static void assertRow(Row row, int id) throws MapyrusException
+	{
+		assertEquals(id, row.get(0).getNumericValue(), 0);
+		assertEquals("name" + id, row.get(1).getStringValue());
+		double []els = row.get(2).getGeometryValue();
+		assertEquals(Argument.GEOMETRY_POINT, els[0], 0);
+		assertEquals(id, els[3], 0);
+		assertEquals(id * 2, els[4], 0);
+	}
+
+	@Test
+	public void testPlaceholders() throws MapyrusException
+	{
+		String sql = "SELECT ID, NAME, GEOM FROM T WHERE X >= ? AND Y >= ? AND X <= ? AND Y <= ?";
+		String extras = DRIVER + " url=jdbc:fake:placeholders xmin=1 ymin=2 xmax=3 ymax=4.5";
+		FakeDriver.getLog();
+
+		JDBCDataset dataset = new JDBCDataset(sql, extras);
+		for (int i = 1; i <= 5; i++)
+			assertRow(dataset.fetch(), i);
+		assertNull(dataset.fetch());
+		dataset.close();
+
+		ArrayList<String> log = FakeDriver.getLog();
+		assertTrue(log.contains("prepare " + sql));
+		assertTrue(log.contains("setDouble 1 1.0"));
+		assertTrue(log.contains("setDouble 2 2.0"));
+		assertTrue(log.contains("setDouble 3 3.0"));
+		assertTrue(log.contains("setDouble 4 4.5"));
+		assertTrue(log.contains("executeQuery prepared"));
+
+		/*
+		 * Statement prepared for connection is reused for the next query.
+		 */
+		dataset = new JDBCDataset(sql, extras.replace("xmin=1", "xmin=-1"));
+		assertRow(dataset.fetch(), 1);
+		dataset.close();
+		log = FakeDriver.getLog();
+		assertFalse(log.contains("prepare " + sql));
+		assertTrue(log.contains("clearParameters"));
+		assertTrue(log.contains("setDouble 1 -1.0"));
+	}
+
+	@Test
+	public void testMissingExtents()
+	{
+		String sql = "SELECT ID, NAME, GEOM FROM T WHERE X >= ? AND Y >= ?";
+		int activeCount = ConnectionPool.getActiveCount();
+		try
+		{
+			new JDBCDataset(sql, DRIVER + " url=jdbc:fake:missing xmin=1 ymin=2");
+			fail("Missing extents not detected");
+		}
+		catch (MapyrusException e)
+		{
+		}
+		assertEquals(activeCount, ConnectionPool.getActiveCount());
+	}
+
+	@Test
+	public void testNoExtents() throws MapyrusException
+	{
+		/*
+		 * Without extents, the query is run unchanged with any
+		 * PostgreSQL operators containing '?' passed to the database.
+		 */
+		String sql = "SELECT ID, NAME, GEOM FROM T WHERE TAGS ? 'name' AND TAGS ?| ARRAY['a', 'b'] AND TAGS ?& ARRAY['c']";
+		FakeDriver.getLog();
+
+		JDBCDataset dataset = new JDBCDataset(sql, DRIVER + " url=jdbc:fake:noextents");
+		for (int i = 1; i <= 5; i++)
+			assertRow(dataset.fetch(), i);
+		assertNull(dataset.fetch());
+		dataset.close();
+
+		ArrayList<String> log = FakeDriver.getLog();
+		assertTrue(log.contains("createStatement"));
+		assertTrue(log.contains("executeQuery " + sql));
+		for (String s : log)
+		{
+			assertFalse(s.startsWith("prepare"));
+			assertFalse(s.startsWith("setDouble"));
+		}
+	}
+
+	@Test
+	public void testPrefetch() throws MapyrusException
+	{
+		String sql = "SELECT ID, NAME, GEOM FROM T LIMIT 200";
+		String extras = DRIVER + " url=jdbc:fake:prefetch prefetch=7 fetchsize=50";
+		int activeCount = ConnectionPool.getActiveCount();
+		FakeDriver.getLog();
+
+		JDBCDataset dataset = new JDBCDataset(sql, extras);
+		for (int i = 1; i <= 200; i++)
+			assertRow(dataset.fetch(), i);
+		assertNull(dataset.fetch());
+		assertNull(dataset.fetch());
+		dataset.close();
+		assertTrue(FakeDriver.getLog().contains("setFetchSize 50"));
+		assertEquals(activeCount, ConnectionPool.getActiveCount());
+
+		/*
+		 * Closing dataset before all rows are read stops the prefetch
+		 * thread and returns the connection to the pool.
+		 */
+		dataset = new JDBCDataset(sql, extras);
+		for (int i = 1; i <= 10; i++)
+			assertRow(dataset.fetch(), i);
+		dataset.close();
+		assertEquals(activeCount, ConnectionPool.getActiveCount());
+		assertFalse(Thread.currentThread().isInterrupted());
+
+		dataset = new JDBCDataset(sql, extras);
+		assertRow(dataset.fetch(), 1);
+		dataset.close();
+	}
+}
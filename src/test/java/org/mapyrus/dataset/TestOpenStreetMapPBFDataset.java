@@ -0,0 +1,178 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.mapyrus.Argument;
+import org.mapyrus.Row;
+
+/**
+ * Compares rows read from a small .osm.pbf file with rows read from
+ * the same data in OpenStreetMap XML format.  The .osm.pbf file contains
+ * a compressed block with dense nodes, ways and a relation, and an
+ * uncompressed block with a plain node using scaled and offset coordinates.
+ */
+public class TestOpenStreetMapPBFDataset
+{
+	private static final String XML_FILENAME = "sample.osm";
+	private static final String PBF_FILENAME = "sample.osm.pbf";
+
+	private static String getResourceFilename(String name) throws Exception
+	{
+		return(new File(TestOpenStreetMapPBFDataset.class.getResource(name).toURI()).getPath());
+	}
+
+	/**
+	 * Read all rows from a dataset.
+	 * @param dataset dataset to read.
+	 * @return rows in dataset.
+	 */
+	private static ArrayList<Row> fetchAll(GeographicDataset dataset) throws Exception
+	{
+		ArrayList<Row> retval = new ArrayList<Row>();
+		Row row;
+		while ((row = dataset.fetch()) != null)
+			retval.add(row);
+		dataset.close();
+		return(retval);
+	}
+
+	private static ArrayList<Row> readXML(String extras) throws Exception
+	{
+		InputStream stdin = new ByteArrayInputStream(new byte[0]);
+		return(fetchAll(new OpenStreetMapDataset(getResourceFilename(XML_FILENAME), extras, stdin)));
+	}
+
+	private static ArrayList<Row> readPBF(String extras) throws Exception
+	{
+		InputStream stdin = new ByteArrayInputStream(new byte[0]);
+		return(fetchAll(new OpenStreetMapPBFDataset(getResourceFilename(PBF_FILENAME), extras, stdin)));
+	}
+
+	/**
+	 * Check that rows from both formats have identical values.
+	 * @param expected rows read from XML file.
+	 * @param actual rows read from .osm.pbf file.
+	 */
+	private static void assertRowsEqual(ArrayList<Row> expected, ArrayList<Row> actual) throws Exception
+	{
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+		{
+			Row expectedRow = expected.get(i);
+			Row actualRow = actual.get(i);
+			assertEquals(OpenStreetMapDataset.FIELD_NAMES.length, actualRow.size());
+
+			/*
+			 * Compare TYPE, ID, GEOMETRY and TAGS fields.
+			 */
+			assertEquals(expectedRow.get(0).getStringValue(), actualRow.get(0).getStringValue());
+			assertEquals(expectedRow.get(1).getStringValue(), actualRow.get(1).getStringValue());
+			assertEquals(expectedRow.get(2).getType(), actualRow.get(2).getType());
+			assertArrayEquals(expectedRow.get(2).getGeometryValue(), actualRow.get(2).getGeometryValue());
+			assertEquals(expectedRow.get(3).getType(), actualRow.get(3).getType());
+			assertEquals(expectedRow.get(3).toString(), actualRow.get(3).toString());
+		}
+	}
+
+	@Test
+	public void testMatchesXML() throws Exception
+	{
+		ArrayList<Row> pbfRows = readPBF("");
+
+		/*
+		 * Node 6 is not visible and relation 20 is not returned,
+		 * leaving 6 nodes and 3 ways.
+		 */
+		assertEquals(9, pbfRows.size());
+		assertRowsEqual(readXML(""), pbfRows);
+		assertRowsEqual(readXML("streaming=true"), pbfRows);
+	}
+
+	@Test
+	public void testDecodedValues() throws Exception
+	{
+		ArrayList<Row> rows = readPBF("");
+
+		Row node = rows.get(1);
+		assertEquals("node", node.get(0).getStringValue());
+		assertEquals("2", node.get(1).getStringValue());
+		double []els = node.get(2).getGeometryValue();
+		assertEquals(0.1234567, els[3], 0);
+		assertEquals(51.5012345, els[4], 0);
+		Argument tags = node.get(3);
+		assertEquals("cafe", tags.getHashMapEntry("amenity").getStringValue());
+		assertEquals("Corner", tags.getHashMapEntry("name").getStringValue());
+
+		/*
+		 * Node in second block uses non-default granularity and offset.
+		 */
+		Row plainNode = rows.get(7);
+		assertEquals("7", plainNode.get(1).getStringValue());
+		els = plainNode.get(2).getGeometryValue();
+		assertEquals(0.0505, els[3], 0);
+		assertEquals(51.52, els[4], 0);
+
+		/*
+		 * Closed way is a polygon, way using nodes from both blocks is a line.
+		 */
+		Row building = rows.get(6);
+		assertEquals("way", building.get(0).getStringValue());
+		assertEquals("11", building.get(1).getStringValue());
+		assertEquals(Argument.GEOMETRY_POLYGON, building.get(2).getGeometryValue()[0], 0);
+		Row path = rows.get(8);
+		assertEquals("12", path.get(1).getStringValue());
+		els = path.get(2).getGeometryValue();
+		assertEquals(Argument.GEOMETRY_LINESTRING, els[0], 0);
+		assertEquals(1, els[3], 0);
+		assertEquals(0.0505, els[6], 0);
+	}
+
+	@Test
+	public void testQueryExtents() throws Exception
+	{
+		String extras = "xmin=0.5 ymin=51.4 xmax=1.5 ymax=51.6";
+		ArrayList<Row> pbfRows = readPBF(extras);
+		assertRowsEqual(readXML(extras), pbfRows);
+		assertTrue(pbfRows.size() > 0 && pbfRows.size() < 9);
+	}
+
+	@Test
+	public void testMetadata() throws Exception
+	{
+		InputStream stdin = new ByteArrayInputStream(new byte[0]);
+		OpenStreetMapPBFDataset dataset = new OpenStreetMapPBFDataset(getResourceFilename(PBF_FILENAME), "", stdin);
+		assertEquals("mapyrus-test", dataset.getMetadata().get("generator"));
+		assertEquals(-1, dataset.getWorlds().getMinX(), 0);
+		assertEquals(51, dataset.getWorlds().getMinY(), 0);
+		assertEquals(3, dataset.getWorlds().getMaxX(), 0);
+		assertEquals(53, dataset.getWorlds().getMaxY(), 0);
+		dataset.close();
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.Row;
+
+public class TestShapefileIndex
+{
+	/*
+	 * Points in test shape file are on a grid, spread over
+	 * a large range so that Hilbert values use all bits.
+	 */
+	private static final int GRID_SIZE = 40;
+	private static final double GRID_SPACING = 1000;
+
+	/**
+	 * Write point shape file, with .shx and .dbf files, to a directory.
+	 * @param dir directory to write files to.
+	 * @return name of .shp file.
+	 */
+	private static String writePointShapefile(File dir) throws IOException
+	{
+		int nPoints = GRID_SIZE * GRID_SIZE;
+		int recordLength = 8 + 20;
+		double max = (GRID_SIZE - 1) * GRID_SPACING;
+
+		ByteBuffer shp = ByteBuffer.allocate(100 + nPoints * recordLength);
+		ByteBuffer shx = ByteBuffer.allocate(100 + nPoints * 8);
+		writeShapeHeader(shp, shp.capacity(), max);
+		writeShapeHeader(shx, shx.capacity(), max);
+		for (int i = 0; i < nPoints; i++)
+		{
+			int offset = shp.position();
+			shp.order(ByteOrder.BIG_ENDIAN);
+			shp.putInt(i + 1);
+			shp.putInt(10);
+			shp.order(ByteOrder.LITTLE_ENDIAN);
+			shp.putInt(1);
+			shp.putDouble(getX(i));
+			shp.putDouble(getY(i));
+
+			shx.order(ByteOrder.BIG_ENDIAN);
+			shx.putInt(offset / 2);
+			shx.putInt(10);
+		}
+
+		/*
+		 * Write .dbf file with a single numeric ID field.
+		 */
+		int fieldLength = 8;
+		ByteBuffer dbf = ByteBuffer.allocate(32 + 32 + 1 + nPoints * (1 + fieldLength) + 1);
+		dbf.order(ByteOrder.LITTLE_ENDIAN);
+		dbf.put((byte)3);
+		dbf.put(new byte[]{124, 1, 1});
+		dbf.putInt(nPoints);
+		dbf.putShort((short)(32 + 32 + 1));
+		dbf.putShort((short)(1 + fieldLength));
+		dbf.put(new byte[20]);
+		byte []fieldName = new byte[11];
+		fieldName[0] = 'I';
+		fieldName[1] = 'D';
+		dbf.put(fieldName);
+		dbf.put((byte)'N');
+		dbf.put(new byte[4]);
+		dbf.put((byte)fieldLength);
+		dbf.put((byte)0);
+		dbf.put(new byte[14]);
+		dbf.put((byte)0x0D);
+		for (int i = 0; i < nPoints; i++)
+		{
+			dbf.put((byte)' ');
+			dbf.put(String.format("%8d", Integer.valueOf(i)).getBytes("US-ASCII"));
+		}
+		dbf.put((byte)0x1A);
+
+		String base = new File(dir, "points").getPath();
+		writeFile(base + ".shp", shp);
+		writeFile(base + ".shx", shx);
+		writeFile(base + ".dbf", dbf);
+		return(base + ".shp");
+	}
+
+	private static void writeShapeHeader(ByteBuffer buf, int fileLength, double max)
+	{
+		buf.order(ByteOrder.BIG_ENDIAN);
+		buf.putInt(9994);
+		buf.put(new byte[20]);
+		buf.putInt(fileLength / 2);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(1000);
+		buf.putInt(1);
+		buf.putDouble(0);
+		buf.putDouble(0);
+		buf.putDouble(max);
+		buf.putDouble(max);
+		buf.put(new byte[32]);
+	}
+
+	private static void writeFile(String filename, ByteBuffer buf) throws IOException
+	{
+		try (FileOutputStream out = new FileOutputStream(filename))
+		{
+			out.write(buf.array());
+		}
+	}
+
+	private static double getX(int i)
+	{
+		return((i % GRID_SIZE) * GRID_SPACING);
+	}
+
+	private static double getY(int i)
+	{
+		return((i / GRID_SIZE) * GRID_SPACING);
+	}
+
+	/**
+	 * Find points inside a rectangle by checking every point.
+	 * @param extents rectangle to search.
+	 * @return record numbers of points inside rectangle, in file order.
+	 */
+	private static ArrayList<Integer> findPoints(Rectangle2D.Double extents)
+	{
+		ArrayList<Integer> retval = new ArrayList<Integer>();
+		for (int i = 0; i < GRID_SIZE * GRID_SIZE; i++)
+		{
+			double x = getX(i);
+			double y = getY(i);
+			if (x >= extents.getMinX() && x <= extents.getMaxX() &&
+				y >= extents.getMinY() && y <= extents.getMaxY())
+			{
+				retval.add(Integer.valueOf(i));
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Fetch ID of each point in a rectangle from shape file dataset.
+	 * @param shapeFilename name of .shp file.
+	 * @param extents rectangle to fetch.
+	 * @return IDs of points fetched.
+	 */
+	private static ArrayList<Integer> fetchPoints(String shapeFilename,
+		Rectangle2D.Double extents) throws IOException, MapyrusException
+	{
+		ArrayList<Integer> retval = new ArrayList<Integer>();
+		ShapefileDataset dataset = new ShapefileDataset(shapeFilename,
+			"xmin=" + extents.getMinX() + " ymin=" + extents.getMinY() +
+			" xmax=" + extents.getMaxX() + " ymax=" + extents.getMaxY());
+		try
+		{
+			Row row;
+			while ((row = dataset.fetch()) != null)
+				retval.add(Integer.valueOf((int)row.get(0).getNumericValue()));
+		}
+		finally
+		{
+			dataset.close();
+		}
+		return(retval);
+	}
+
+	@Test
+	public void testBuildAndQuery() throws IOException, MapyrusException
+	{
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		String shapeFilename = writePointShapefile(dir);
+		ShapefileIndex.build(shapeFilename);
+		ShapefileIndex index = ShapefileIndex.open(shapeFilename);
+		assertNotNull(index);
+
+		Rectangle2D.Double []queries = new Rectangle2D.Double[]{
+			new Rectangle2D.Double(0, 0, 1, 1),
+			new Rectangle2D.Double(2500, 7500, 3000, 12000),
+			new Rectangle2D.Double(35000, 35000, 10000, 10000),
+			new Rectangle2D.Double(-1e6, -1e6, 2e6, 2e6),
+			new Rectangle2D.Double(-500, -500, 100, 100)
+		};
+		for (Rectangle2D.Double extents : queries)
+		{
+			ArrayList<Integer> expected = findPoints(extents);
+			int []positions = index.query(extents);
+			assertEquals(expected.size(), positions.length);
+			for (int i = 0; i < positions.length; i++)
+			{
+				int recordNumber = expected.get(i).intValue();
+				assertEquals(recordNumber, index.getRecordNumber(positions[i]));
+				assertEquals(recordNumber, index.getDBFRecordNumber(positions[i]));
+				assertEquals(100 + recordNumber * 28L, index.getShapeOffset(positions[i]));
+			}
+
+			/*
+			 * Reading through dataset gives same points.
+			 */
+			assertEquals(expected, fetchPoints(shapeFilename, extents));
+		}
+		deleteDirectory(dir);
+	}
+
+	@Test
+	public void testStaleIndex() throws IOException, MapyrusException
+	{
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		String shapeFilename = writePointShapefile(dir);
+		ShapefileIndex.build(shapeFilename);
+		File indexFile = new File(ShapefileIndex.getIndexFilename(shapeFilename));
+		File dbfFile = new File(dir, "points.dbf");
+		long buildTime = indexFile.lastModified();
+
+		/*
+		 * Index is not used after .dbf file is replaced by a newer one.
+		 */
+		try (RandomAccessFile f = new RandomAccessFile(dbfFile, "rw"))
+		{
+			f.setLength(f.length() + 1);
+		}
+		assertTrue(dbfFile.setLastModified(buildTime + 10000));
+		assertNull(ShapefileIndex.open(shapeFilename));
+
+		/*
+		 * Index is not used when .dbf file length changes, even if
+		 * timestamps look up to date.
+		 */
+		assertTrue(indexFile.setLastModified(buildTime + 20000));
+		assertNull(ShapefileIndex.open(shapeFilename));
+
+		/*
+		 * Dataset falls back to reading whole shape file.
+		 */
+		Rectangle2D.Double extents = new Rectangle2D.Double(5000, 5000, 2000, 3000);
+		assertEquals(findPoints(extents), fetchPoints(shapeFilename, extents));
+
+		/*
+		 * Index is not used after .shp file changes.
+		 */
+		ShapefileIndex.build(shapeFilename);
+		assertTrue(indexFile.setLastModified(buildTime + 20000));
+		assertNotNull(ShapefileIndex.open(shapeFilename));
+		File shapeFile = new File(shapeFilename);
+		assertTrue(shapeFile.setLastModified(indexFile.lastModified() + 10000));
+		assertNull(ShapefileIndex.open(shapeFilename));
+		deleteDirectory(dir);
+	}
+
+	@Test
+	public void testTruncatedIndex() throws IOException, MapyrusException
+	{
+		File dir = Files.createTempDirectory("mapyrus").toFile();
+		String shapeFilename = writePointShapefile(dir);
+		ShapefileIndex.build(shapeFilename);
+		File indexFile = new File(ShapefileIndex.getIndexFilename(shapeFilename));
+		long modified = indexFile.lastModified();
+		try (RandomAccessFile f = new RandomAccessFile(indexFile, "rw"))
+		{
+			f.setLength(f.length() - 5);
+		}
+		assertTrue(indexFile.setLastModified(modified));
+
+		boolean isThrown = false;
+		try
+		{
+			ShapefileIndex.open(shapeFilename);
+		}
+		catch (IOException e)
+		{
+			isThrown = true;
+		}
+		assertTrue(isThrown);
+		deleteDirectory(dir);
+	}
+
+	private static void deleteDirectory(File dir)
+	{
+		File []files = dir.listFiles();
+		if (files != null)
+		{
+			for (File f : files)
+				f.delete();
+		}
+		dir.delete();
+	}
+}
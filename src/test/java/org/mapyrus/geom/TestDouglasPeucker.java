@@ -0,0 +1,162 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.geom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.awt.geom.Rectangle2D;
+
+import org.junit.jupiter.api.Test;
+import org.mapyrus.Argument;
+
+public class TestDouglasPeucker
+{
+	/**
+	 * Build geometry array for a single line or polygon ring.
+	 * @param geometryType LINESTRING or POLYGON.
+	 * @param xy X and Y coordinate of each point.
+	 * @return geometry array.
+	 */
+	private static double []geometry(int geometryType, double ...xy)
+	{
+		int nPts = xy.length / 2;
+		double []retval = new double[2 + nPts * 3];
+		retval[0] = geometryType;
+		retval[1] = nPts;
+		for (int i = 0; i < nPts; i++)
+		{
+			retval[2 + i * 3] = (i == 0) ? Argument.MOVETO : Argument.LINETO;
+			retval[2 + i * 3 + 1] = xy[i * 2];
+			retval[2 + i * 3 + 2] = xy[i * 2 + 1];
+		}
+		return(retval);
+	}
+
+	private static double []line(double ...xy)
+	{
+		return(geometry(Argument.GEOMETRY_LINESTRING, xy));
+	}
+
+	private static double []polygon(double ...xy)
+	{
+		return(geometry(Argument.GEOMETRY_POLYGON, xy));
+	}
+
+	@Test
+	public void testCollinear()
+	{
+		double []coords = line(0, 0, 1, 1, 2, 2, 3, 3, 4, 4);
+		assertArrayEquals(line(0, 0, 4, 4), DouglasPeucker.simplify(coords, 0.5, null));
+		assertArrayEquals(line(0, 0, 4, 4), DouglasPeucker.simplify(coords, 0, null));
+
+		/*
+		 * Point on the line but beyond the last point is not
+		 * within tolerance of the line segment and is kept.
+		 */
+		coords = line(0, 0, 5, 0, 4, 0);
+		assertArrayEquals(line(0, 0, 5, 0, 4, 0), DouglasPeucker.simplify(coords, 0.5, null));
+	}
+
+	@Test
+	public void testToleranceZero()
+	{
+		/*
+		 * Only points exactly on the simplified line are removed,
+		 * including repeated points.
+		 */
+		double []coords = line(0, 0, 1, 0.001, 2, 0, 2, 0, 3, 0);
+		assertArrayEquals(line(0, 0, 1, 0.001, 2, 0, 3, 0),
+			DouglasPeucker.simplify(coords, 0, null));
+	}
+
+	@Test
+	public void testClosedRing()
+	{
+		double []coords = polygon(0, 0, 5, 0, 10, 0, 10, 5, 10, 10,
+			5, 10, 0, 10, 0, 5, 0, 0);
+		assertArrayEquals(polygon(0, 0, 10, 0, 10, 10, 0, 10, 0, 0),
+			DouglasPeucker.simplify(coords, 1, null));
+	}
+
+	@Test
+	public void testSmallRing()
+	{
+		/*
+		 * Ring smaller than tolerance collapses and is removed.
+		 */
+		double []coords = polygon(0, 0, 0.1, 0, 0.1, 0.1, 0, 0.1, 0, 0);
+		assertArrayEquals(new double[]{Argument.GEOMETRY_POLYGON, 0},
+			DouglasPeucker.simplify(coords, 1, null));
+
+		/*
+		 * Small hole in polygon is removed, outer ring is kept.
+		 */
+		double []withHole = new double[]{Argument.GEOMETRY_POLYGON, 10,
+			Argument.MOVETO, 0, 0, Argument.LINETO, 10, 0, Argument.LINETO, 10, 10,
+			Argument.LINETO, 0, 10, Argument.LINETO, 0, 0,
+			Argument.MOVETO, 5, 5, Argument.LINETO, 5.1, 5, Argument.LINETO, 5.1, 5.1,
+			Argument.LINETO, 5, 5.1, Argument.LINETO, 5, 5};
+		assertArrayEquals(polygon(0, 0, 10, 0, 10, 10, 0, 10, 0, 0),
+			DouglasPeucker.simplify(withHole, 1, null));
+	}
+
+	@Test
+	public void testEndpointsKept()
+	{
+		/*
+		 * First and last points are always kept, even when all
+		 * other points are within tolerance.
+		 */
+		double []coords = line(0, 0, 1, 0.1, 2, -0.1, 3, 0);
+		assertArrayEquals(line(0, 0, 3, 0), DouglasPeucker.simplify(coords, 0.5, null));
+
+		/*
+		 * Line that returns to its start point keeps both ends.
+		 */
+		coords = line(0, 0, 0.1, 0.1, 0, 0);
+		assertArrayEquals(line(0, 0, 0, 0), DouglasPeucker.simplify(coords, 1, null));
+
+		/*
+		 * Lines with two points and a single point are unchanged.
+		 */
+		coords = line(0, 0, 0.1, 0);
+		assertArrayEquals(coords, DouglasPeucker.simplify(coords, 1, null));
+		coords = line(7, 8);
+		assertArrayEquals(coords, DouglasPeucker.simplify(coords, 1, null));
+	}
+
+	@Test
+	public void testBounds()
+	{
+		/*
+		 * Line completely outside rectangle is removed from multiple line.
+		 */
+		double []coords = new double[]{Argument.GEOMETRY_MULTILINESTRING, 2,
+			Argument.GEOMETRY_LINESTRING, 3,
+			Argument.MOVETO, 0, 0, Argument.LINETO, 5, 0.1, Argument.LINETO, 10, 0,
+			Argument.GEOMETRY_LINESTRING, 2,
+			Argument.MOVETO, 100, 100, Argument.LINETO, 110, 100};
+		double []expected = new double[]{Argument.GEOMETRY_MULTILINESTRING, 1,
+			Argument.GEOMETRY_LINESTRING, 2,
+			Argument.MOVETO, 0, 0, Argument.LINETO, 10, 0};
+		assertArrayEquals(expected, DouglasPeucker.simplify(coords, 1,
+			new Rectangle2D.Double(-5, -5, 20, 20)));
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.geom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for points inside polygons calculated by Sinkhole and PoleOfInaccessibility.
+ */
+public class TestPolygonLabelPoint
+{
+	/**
+	 * Create polygon from rings of coordinates.
+	 * @param rings X and Y coordinates of each ring.
+	 * @return polygon.
+	 */
+	private static Path2D polygon(double [] ...rings)
+	{
+		Path2D.Double retval = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+		for (double []ring : rings)
+		{
+			retval.moveTo(ring[0], ring[1]);
+			for (int i = 2; i < ring.length; i += 2)
+				retval.lineTo(ring[i], ring[i + 1]);
+			retval.closePath();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Calculate distance from a point to nearest edge of a polygon.
+	 * @param s polygon.
+	 * @param pt point.
+	 * @return distance to nearest edge.
+	 */
+	private static double distanceToBoundary(Shape s, Point2D pt)
+	{
+		double retval = Double.MAX_VALUE;
+		double []coords = new double[6];
+		double startX = 0, startY = 0, lastX = 0, lastY = 0;
+		PathIterator pi = s.getPathIterator(null);
+		while (!pi.isDone())
+		{
+			int segmentType = pi.currentSegment(coords);
+			if (segmentType == PathIterator.SEG_MOVETO)
+			{
+				startX = lastX = coords[0];
+				startY = lastY = coords[1];
+			}
+			else
+			{
+				double x = (segmentType == PathIterator.SEG_CLOSE) ? startX : coords[0];
+				double y = (segmentType == PathIterator.SEG_CLOSE) ? startY : coords[1];
+				retval = Math.min(retval, Line2D.ptSegDist(lastX, lastY, x, y, pt.getX(), pt.getY()));
+				lastX = x;
+				lastY = y;
+			}
+			pi.next();
+		}
+		return(retval);
+	}
+
+	/*
+	 * U shaped polygon with centroid in the gap between the arms.
+	 * Largest circle inside it is in a corner, touching two outer
+	 * edges and the inside corner at (10, 10).
+	 */
+	private static final double []U_SHAPE = new double[]{0, 0, 30, 0, 30, 30,
+		20, 30, 20, 10, 10, 10, 10, 30, 0, 30};
+
+	/*
+	 * Square with a square hole in the middle.  Largest circle inside
+	 * it is in a corner, touching two outer edges and a corner of the hole.
+	 */
+	private static final double []OUTER_SQUARE = new double[]{0, 0, 100, 0, 100, 100, 0, 100};
+	private static final double []INNER_SQUARE = new double[]{30, 30, 70, 30, 70, 70, 30, 70};
+
+	/**
+	 * Calculate radius of circle touching the two sides of a square
+	 * corner at the origin and the point (d, d).
+	 * @param d position of point.
+	 * @return circle radius.
+	 */
+	private static double cornerCircleRadius(double d)
+	{
+		return(d * Math.sqrt(2) / (1 + Math.sqrt(2)));
+	}
+
+	@Test
+	public void testConcavePolygon()
+	{
+		Path2D s = polygon(U_SHAPE);
+		Point2D pt = Sinkhole.calculate(s);
+		assertTrue(s.contains(pt));
+		assertTrue(distanceToBoundary(s, pt) > 3.5);
+
+		pt = PoleOfInaccessibility.calculate(s, 0.01);
+		assertTrue(s.contains(pt));
+		assertEquals(cornerCircleRadius(10), distanceToBoundary(s, pt), 0.02);
+	}
+
+	@Test
+	public void testPolygonWithHole()
+	{
+		Path2D s = polygon(OUTER_SQUARE, INNER_SQUARE);
+		Point2D pt = Sinkhole.calculate(s);
+		assertTrue(s.contains(pt));
+		assertTrue(distanceToBoundary(s, pt) > 12);
+
+		pt = PoleOfInaccessibility.calculate(s, 0.01);
+		assertTrue(s.contains(pt));
+		assertEquals(cornerCircleRadius(30), distanceToBoundary(s, pt), 0.02);
+	}
+
+	@Test
+	public void testSamePointOnEachThread() throws InterruptedException
+	{
+		/*
+		 * Bitmaps are kept for each thread, so threads calculating
+		 * sinkholes at the same time get the same result.
+		 */
+		final Path2D s = polygon(U_SHAPE);
+		final Point2D expected = Sinkhole.calculate(s);
+		final Point2D []results = new Point2D[4];
+		Thread []threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++)
+		{
+			final int index = i;
+			threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					Point2D pt = null;
+					for (int j = 0; j < 50; j++)
+						pt = Sinkhole.calculate(s);
+					results[index] = pt;
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i].join();
+			assertEquals(expected, results[i]);
+		}
+	}
+
+	@Test
+	public void testTinyPolygon()
+	{
+		Path2D s = polygon(new double[]{1000, 1000, 1000.001, 1000, 1000.001, 1000.001, 1000, 1000.001});
+		Point2D pt = Sinkhole.calculate(s);
+		assertTrue(s.getBounds2D().contains(pt));
+
+		pt = PoleOfInaccessibility.calculate(s, 0);
+		assertTrue(s.contains(pt));
+		assertEquals(0.0005, distanceToBoundary(s, pt), 0.000001);
+	}
+
+	@Test
+	public void testDegeneratePolygon()
+	{
+		/*
+		 * Polygon with no area gives a point on it, without failing.
+		 */
+		Path2D s = polygon(new double[]{0, 0, 10, 0, 20, 0});
+		Point2D pt = Sinkhole.calculate(s);
+		assertNotNull(pt);
+
+		pt = PoleOfInaccessibility.calculate(s, 0);
+		assertEquals(new Point2D.Double(10, 0), pt);
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2024 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that an image drawn in bands has the same pixels as the same
+ * image drawn in a single BufferedImage, and that each band is drawn
+ * without allocating an image larger than the band.
+ */
+public class TestBandedImage
+{
+	private static final int WIDTH = 211;
+	private static final int HEIGHT = 157;
+
+	/*
+	 * Java2D splits curves, and lines drawn without anti-aliasing, where
+	 * they cross the edge of the area being drawn, so they can be drawn
+	 * slightly differently in a band, with a dash or an edge moved by up
+	 * to one pixel.
+	 * Java 8 also computes anti-aliased edges in single precision,
+	 * so their coverage can change slightly when the origin moves to
+	 * the top of a band.  So each pixel in a band is allowed to differ by up to
+	 * COLOR_TOLERANCE in each channel from the pixel at the same position,
+	 * or from one of its eight neighbours, in the single image.
+	 */
+	private static final int COLOR_TOLERANCE = 32;
+
+	/**
+	 * Draw rotated labels and a polygon filled with hatching.
+	 * @param g2 context to draw into.
+	 * @param antialias true to draw with anti-aliasing.
+	 */
+	private static void drawMap(Graphics2D g2, boolean antialias)
+	{
+		Object value = antialias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF;
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, value);
+		value = antialias ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF;
+		g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, value);
+		g2.setColor(Color.WHITE);
+		g2.fillRect(0, 0, WIDTH, HEIGHT);
+
+		/*
+		 * Use a page transform like the one used for PNG output, in millimetres.
+		 */
+		g2.translate(0, HEIGHT);
+		g2.scale(3.7795, -3.7795);
+
+		Path2D.Double polygon = new Path2D.Double();
+		polygon.moveTo(4.3, 3.1);
+		polygon.lineTo(48.7, 9.9);
+		polygon.curveTo(55.1, 20.3, 30.2, 44.8, 21.6, 38.2);
+		polygon.lineTo(2.9, 29.4);
+		polygon.closePath();
+
+		/*
+		 * Hatch polygon with thin lines, clipped to the polygon.
+		 */
+		Graphics2D hatch = (Graphics2D)g2.create();
+		hatch.clip(polygon);
+		hatch.setColor(Color.BLUE);
+		hatch.setStroke(new BasicStroke(0.1f));
+		for (double x = -40; x < 60; x += 1.7)
+			hatch.draw(new Line2D.Double(x, 0, x + 40, 42));
+		hatch.dispose();
+
+		g2.setColor(Color.BLACK);
+		g2.setStroke(new BasicStroke(0.3f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL,
+			1, new float[]{3, 1}, 0));
+		g2.draw(polygon);
+
+		/*
+		 * Draw labels rotated by different angles, flipping the text
+		 * so that it is the right way up with the page transform.
+		 */
+		Font font = new Font(Font.SANS_SERIF, Font.BOLD, 4);
+		g2.setColor(Color.RED);
+		for (int i = 0; i < 6; i++)
+		{
+			AffineTransform rotation = AffineTransform.getRotateInstance(Math.toRadians(i * 35));
+			rotation.scale(1, -1);
+			g2.setFont(font.deriveFont(rotation));
+			g2.drawString("Label " + i, 8 + i * 6.5f, 8 + i * 4.3f);
+		}
+	}
+
+	/**
+	 * Check whether a pixel is within tolerance of a pixel in an image
+	 * at the same position or at any neighbouring position.
+	 * @param image image to compare with.
+	 * @param x X coordinate of pixel.
+	 * @param y Y coordinate of pixel.
+	 * @param pixel components of pixel.
+	 * @return true if a pixel in image matches.
+	 */
+	private static boolean isNearPixel(BufferedImage image, int x, int y, int []pixel)
+	{
+		int []expected = new int[pixel.length];
+		boolean found = false;
+		for (int y2 = Math.max(y - 1, 0); y2 <= Math.min(y + 1, HEIGHT - 1) && (!found); y2++)
+		{
+			for (int x2 = Math.max(x - 1, 0); x2 <= Math.min(x + 1, WIDTH - 1) && (!found); x2++)
+			{
+				image.getRaster().getPixel(x2, y2, expected);
+				found = true;
+				for (int i = 0; i < pixel.length; i++)
+				{
+					if (Math.abs(expected[i] - pixel[i]) > COLOR_TOLERANCE)
+						found = false;
+				}
+			}
+		}
+		return(found);
+	}
+
+	/**
+	 * Check that drawing in bands gives same pixels as drawing whole image,
+	 * and that each band is held in an image no larger than the band
+	 * and the rows drawn above and below it.
+	 * @param antialias true to draw with anti-aliasing.
+	 * @param bandHeight height of bands.
+	 */
+	private static void checkBands(boolean antialias, int bandHeight)
+	{
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2 = image.createGraphics();
+		drawMap(g2, antialias);
+		g2.dispose();
+
+		BandedImage bandedImage = new BandedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB, bandHeight);
+		g2 = bandedImage.createGraphics();
+		drawMap(g2, antialias);
+		g2.dispose();
+
+		int nDifferent = 0;
+		int []actual = new int[4];
+		int maxBandSize = WIDTH * (bandHeight + BandedImage.BAND_OVERLAP * 2);
+		for (int tileY = 0; tileY < bandedImage.getNumYTiles(); tileY++)
+		{
+			Raster band = bandedImage.getTile(0, tileY);
+			assertTrue(band.getDataBuffer().getSize() <= maxBandSize,
+				"band height " + bandHeight + ": band size " + band.getDataBuffer().getSize());
+
+			int maxY = Math.min(band.getMinY() + band.getHeight(), HEIGHT);
+			for (int y = band.getMinY(); y < maxY; y++)
+			{
+				for (int x = 0; x < WIDTH; x++)
+				{
+					band.getPixel(x, y, actual);
+					if (!isNearPixel(image, x, y, actual))
+						nDifferent++;
+				}
+			}
+		}
+		assertEquals(0, nDifferent, "band height " + bandHeight);
+	}
+
+	@Test
+	public void testBandsWithoutAntialiasing()
+	{
+		checkBands(false, 1);
+		checkBands(false, 5);
+		checkBands(false, 16);
+	}
+
+	@Test
+	public void testBandsWithAntialiasing()
+	{
+		checkBands(true, 1);
+		checkBands(true, 5);
+		checkBands(true, 16);
+	}
+
+	@Test
+	public void testBandMemory()
+	{
+		/*
+		 * Draw a tall image with a page border and dashed lines crossing
+		 * every band, drawn without anti-aliasing, and check that memory
+		 * allocated while drawing each band is about the size of the band,
+		 * not the size of the whole image.
+		 */
+		int width = 300;
+		int height = 6000;
+		int bandHeight = 20;
+		BandedImage bandedImage = new BandedImage(width, height, BufferedImage.TYPE_INT_ARGB, bandHeight);
+		Graphics2D g2 = bandedImage.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		g2.setColor(Color.WHITE);
+		g2.fillRect(0, 0, width, height);
+		g2.setColor(Color.BLACK);
+		g2.setStroke(new BasicStroke(3));
+		g2.draw(new Rectangle2D.Double(5, 5, width - 10, height - 10));
+		g2.setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL,
+			1, new float[]{7, 3}, 0));
+		for (int x = 20; x < width - 20; x += 40)
+			g2.draw(new Line2D.Double(x, 10, x + 20, height - 10));
+		g2.dispose();
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threadBean;
+			long threadId = Thread.currentThread().getId();
+			if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+			{
+				/*
+				 * Draw first band before measuring, so that Java2D has
+				 * already allocated any buffers that it reuses.
+				 */
+				bandedImage.getTile(0, 0);
+				long bandBytes = width * (bandHeight + BandedImage.BAND_OVERLAP * 2) * 4L;
+				for (int tileY = 1; tileY < bandedImage.getNumYTiles(); tileY++)
+				{
+					long allocatedBytes = bean.getThreadAllocatedBytes(threadId);
+					bandedImage.getTile(0, tileY);
+					allocatedBytes = bean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+					assertTrue(allocatedBytes < bandBytes * 4 + 256 * 1024,
+						"band " + tileY + ": allocated " + allocatedBytes + " bytes");
+				}
+			}
+		}
+	}
+}